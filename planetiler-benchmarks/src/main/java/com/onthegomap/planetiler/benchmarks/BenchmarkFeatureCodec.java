@@ -0,0 +1,101 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import static io.prometheus.client.Collector.NANOSECONDS_PER_SECOND;
+
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.collection.FeatureGroup;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.geo.TileOrder;
+import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.stats.Timer;
+import com.onthegomap.planetiler.util.Format;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Compares the size of the feature DB and how quickly the archive phase can decode features for each
+ * {@code --feature-db-format}, with and without the value dictionary.
+ */
+public class BenchmarkFeatureCodec {
+
+  private static final List<String> SURFACES = List.of("asphalt", "gravel", "paved", "unpaved", "compacted");
+  private static final List<String> NETWORKS = List.of("lcn", "rcn", "ncn", "icn");
+
+  public static void main(String[] args) {
+    Arguments arguments = Arguments.fromArgs(args);
+    int numFeatures = arguments.getInteger("bench_features", "number of features to encode", 2_000_000);
+    int featuresPerTile = arguments.getInteger("bench_features_per_tile", "features in each tile", 200);
+    int repetitions = arguments.getInteger("bench_repetitions", "number of repetitions", 3);
+    var format = Format.defaultInstance();
+
+    for (int i = 0; i < repetitions; i++) {
+      for (var codec : List.of(
+        Map.of("feature_db_format", "msgpack"),
+        Map.of("feature_db_format", "msgpack", "feature_db_value_dictionary_size", "65536"),
+        Map.of("feature_db_format", "compact")
+      )) {
+        var config = PlanetilerConfig.from(Arguments.of(codec));
+        var featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS, new Profile.NullProfile(), config,
+          Stats.inMemory());
+        var random = new Random(0);
+        var geometryFactory = new GeometryFactory();
+        long bytes = 0;
+        var encodeTimer = Timer.start();
+        try (var writer = featureGroup.writerForThread(); var encoder = featureGroup.newRenderedFeatureEncoder()) {
+          for (int j = 0; j < numFeatures; j++) {
+            var coords = new Coordinate[10];
+            for (int k = 0; k < coords.length; k++) {
+              coords[k] = new Coordinate(random.nextDouble(256), random.nextDouble(256));
+            }
+            var feature = new VectorTile.Feature("bike", j,
+              VectorTile.encodeGeometry(geometryFactory.createLineString(coords)), Map.of(
+                "surface", SURFACES.get(random.nextInt(SURFACES.size())),
+                "network", NETWORKS.get(random.nextInt(NETWORKS.size())),
+                "bicycle", "designated",
+                "ref", Integer.toString(random.nextInt(1_000)),
+                "name", "Route " + random.nextInt(100_000),
+                "oneway", random.nextBoolean(),
+                "rank", random.nextInt(20)
+              ));
+            var encoded = encoder.apply(new RenderedFeature(TileCoord.decode(j / featuresPerTile), feature, 0,
+              Optional.empty()));
+            bytes += encoded.value().length;
+            writer.accept(encoded);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        encodeTimer.stop();
+
+        var decodeTimer = Timer.start();
+        long decoded = 0;
+        for (var tile : featureGroup) {
+          if (tile.getVectorTile() != null) {
+            decoded += tile.getNumFeaturesToEmit();
+          }
+        }
+        decodeTimer.stop();
+        if (decoded != numFeatures) {
+          System.err.println("Decoded " + decoded + " features but expected " + numFeatures);
+        }
+
+        System.err.println(codec + ": " + format.storage(bytes) + " (" +
+          format.decimal(bytes * 1d / numFeatures) + " bytes/feature) encode " +
+          format.numeric(numFeatures * 1d / (encodeTimer.elapsed().wall().toNanos() / NANOSECONDS_PER_SECOND)) +
+          "/s decode " +
+          format.numeric(numFeatures * 1d / (decodeTimer.elapsed().wall().toNanos() / NANOSECONDS_PER_SECOND)) +
+          "/s");
+      }
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package com.onthegomap.planetiler.benchmarks;
 
+import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.FunctionThatThrows;
 import com.onthegomap.planetiler.util.Gzip;
 import com.onthegomap.planetiler.util.LoopLineMerger;
+import com.onthegomap.planetiler.util.VectorLineMerger;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
@@ -36,6 +38,8 @@ public class BenchmarkLineMerge {
       time("   loop(0)", geom -> loopMerger(0).add(geom).getMergedLineStrings());
       time(" loop(0.1)", geom -> loopMerger(0.1).add(geom).getMergedLineStrings());
       time("loop(20.0)", geom -> loopMerger(20).add(geom).getMergedLineStrings());
+      timeVector(" vector(0)", 0);
+      timeVector("vector(20)", 20);
     }
     System.err.println(numLines);
   }
@@ -51,38 +55,65 @@ public class BenchmarkLineMerge {
   }
 
   private static void time(String name, FunctionThatThrows<Geometry, Collection<LineString>> fn) throws Exception {
+    time(name, geom -> geom, geom -> fn.apply(geom).size());
+  }
+
+  private static void timeVector(String name, double minLength) throws Exception {
+    // encode each line separately up front so the timing only includes merging the geometry commands
+    time(name, geom -> {
+      List<VectorTile.VectorGeometry> lines = new ArrayList<>();
+      for (int i = 0; i < geom.getNumGeometries(); i++) {
+        if (geom.getGeometryN(i) instanceof LineString line) {
+          lines.add(VectorTile.encodeGeometry(line));
+        }
+      }
+      return lines;
+    }, lines -> {
+      var merger = new VectorLineMerger()
+        .setMinLength(minLength)
+        .setTolerance(1)
+        .setMergeStrokes(true);
+      for (var line : lines) {
+        merger.add(line);
+      }
+      return merger.getMergedLineStrings().size();
+    });
+  }
+
+  private static <T> void time(String name, FunctionThatThrows<Geometry, T> prepare,
+    FunctionThatThrows<T, Integer> fn) throws Exception {
     System.err.println(String.join("\t",
       name,
-      timeMillis(read("mergelines_200433_lines.wkb.gz"), fn),
-      timeMillis(read("mergelines_239823_lines.wkb.gz"), fn),
+      timeMillis(prepare.apply(read("mergelines_200433_lines.wkb.gz")), fn),
+      timeMillis(prepare.apply(read("mergelines_239823_lines.wkb.gz")), fn),
       "(/s):",
-      timePerSec(read("mergelines_1759_point_line.wkb.gz"), fn),
-      timePerSec(makeLines(50, 2), fn),
-      timePerSec(makeLines(10, 10), fn),
-      timePerSec(makeLines(2, 50), fn)
+      timePerSec(prepare.apply(read("mergelines_1759_point_line.wkb.gz")), fn),
+      timePerSec(prepare.apply(makeLines(50, 2)), fn),
+      timePerSec(prepare.apply(makeLines(10, 10)), fn),
+      timePerSec(prepare.apply(makeLines(2, 50)), fn)
     ));
   }
 
-  private static String timePerSec(Geometry geometry, FunctionThatThrows<Geometry, Collection<LineString>> fn)
+  private static <T> String timePerSec(T input, FunctionThatThrows<T, Integer> fn)
     throws Exception {
     long start = System.nanoTime();
     long end = start + Duration.ofSeconds(1).toNanos();
     int num = 0;
     for (; System.nanoTime() < end;) {
-      numLines += fn.apply(geometry).size();
+      numLines += fn.apply(input);
       num++;
     }
     return Format.defaultInstance()
       .numeric(Math.round(num * 1d / ((System.nanoTime() - start) * 1d / Duration.ofSeconds(1).toNanos())), true);
   }
 
-  private static String timeMillis(Geometry geometry, FunctionThatThrows<Geometry, Collection<LineString>> fn)
+  private static <T> String timeMillis(T input, FunctionThatThrows<T, Integer> fn)
     throws Exception {
     long start = System.nanoTime();
     long end = start + Duration.ofSeconds(1).toNanos();
     int num = 0;
     for (; System.nanoTime() < end;) {
-      numLines += fn.apply(geometry).size();
+      numLines += fn.apply(input);
       num++;
     }
     // equivalent of toPrecision(3)
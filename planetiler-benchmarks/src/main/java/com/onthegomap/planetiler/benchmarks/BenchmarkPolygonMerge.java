@@ -0,0 +1,72 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.onthegomap.planetiler.FeatureMerge;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.geo.GeometryPipeline;
+import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.FunctionThatThrows;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares merging nearby polygons with JTS buffer/union against merging them on a grid, on tiles with increasing
+ * numbers of small polygons.
+ */
+public class BenchmarkPolygonMerge {
+  private static int numFeatures;
+
+  public static void main(String[] args) throws Exception {
+    for (int i = 0; i < 5; i++) {
+      time("        jts", features -> FeatureMerge.mergeNearbyPolygons(features, 1, 1, 1, 1, Stats.inMemory(),
+        GeometryPipeline.simplifyDP(0.1)));
+      time(" grid(0.25)", features -> FeatureMerge.mergeNearbyPolygonsOnGrid(features, 1, 1, 1, 0.25, Stats.inMemory(),
+        GeometryPipeline.simplifyDP(0.1)));
+      time("  grid(0.5)", features -> FeatureMerge.mergeNearbyPolygonsOnGrid(features, 1, 1, 1, 0.5, Stats.inMemory(),
+        GeometryPipeline.simplifyDP(0.1)));
+    }
+    System.err.println(numFeatures);
+  }
+
+  private static void time(String name, FunctionThatThrows<List<VectorTile.Feature>, List<VectorTile.Feature>> fn)
+    throws Exception {
+    System.err.println(String.join("\t",
+      name,
+      "(/s):",
+      timePerSec(makePolygons(10, 20), fn),
+      timePerSec(makePolygons(100, 5), fn),
+      timePerSec(makePolygons(1_000, 2), fn),
+      timePerSec(makePolygons(10_000, 1), fn)
+    ));
+  }
+
+  private static String timePerSec(List<VectorTile.Feature> features,
+    FunctionThatThrows<List<VectorTile.Feature>, List<VectorTile.Feature>> fn) throws Exception {
+    long start = System.nanoTime();
+    long end = start + Duration.ofSeconds(1).toNanos();
+    int num = 0;
+    for (; System.nanoTime() < end;) {
+      numFeatures += fn.apply(features).size();
+      num++;
+    }
+    return Format.defaultInstance()
+      .numeric(Math.round(num * 1d / ((System.nanoTime() - start) * 1d / Duration.ofSeconds(1).toNanos())), true);
+  }
+
+  private static List<VectorTile.Feature> makePolygons(int count, double size) {
+    Random random = new Random(0);
+    List<VectorTile.Feature> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      double x = random.nextDouble() * 256, y = random.nextDouble() * 256;
+      result.add(new VectorTile.Feature("layer", i,
+        VectorTile.encodeGeometry(GeoUtils.createPolygon(GeoUtils.JTS_FACTORY.createLinearRing(
+          GeoUtils.coordinateSequence(x, y, x + size, y, x + size, y + size, x, y + size, x, y)), List.of())),
+        Map.of()));
+    }
+    return result;
+  }
+}
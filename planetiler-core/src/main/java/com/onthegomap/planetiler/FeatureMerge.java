@@ -15,7 +15,9 @@ import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.geo.MutableCoordinateSequence;
 import com.onthegomap.planetiler.stats.DefaultStats;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.GridPolygonMerger;
 import com.onthegomap.planetiler.util.LoopLineMerger;
+import com.onthegomap.planetiler.util.VectorLineMerger;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
@@ -178,34 +180,104 @@ public class FeatureMerge {
       if (groupedFeatures.size() == 1 && buffer == 0d && lengthLimit == 0 && (!resimplify || tolerance == 0)) {
         result.add(feature1);
       } else {
-        LoopLineMerger merger = new LoopLineMerger()
-          .setTolerance(tolerance)
-          .setMergeStrokes(true)
-          .setMinLength(lengthLimit)
-          .setLoopMinLength(lengthLimit)
-          .setStubMinLength(0.5)
-          .setSegmentTransform(pipeline);
-        for (VectorTile.Feature feature : groupedFeatures) {
-          try {
-            merger.add(feature.geometry().decode());
-          } catch (GeometryException e) {
-            e.log("Error decoding vector tile feature for line merge: " + feature);
-          }
-        }
-        List<LineString> outputSegments = new ArrayList<>();
-        for (var line : merger.getMergedLineStrings()) {
-          if (buffer >= 0) {
-            removeDetailOutsideTile(line, buffer, outputSegments);
-          } else {
-            outputSegments.add(line);
-          }
-        }
+        mergeLineStringGroup(groupedFeatures, lengthLimit, tolerance, buffer, pipeline, result);
+      }
+    }
+    return result;
+  }
 
-        if (!outputSegments.isEmpty()) {
-          outputSegments = sortByHilbertIndex(outputSegments);
-          Geometry newGeometry = GeoUtils.combineLineStrings(outputSegments);
-          result.add(feature1.copyWithNewGeometry(newGeometry));
-        }
+  private static void mergeLineStringGroup(List<VectorTile.Feature> groupedFeatures, double lengthLimit,
+    double tolerance, double buffer, GeometryPipeline pipeline, List<VectorTile.Feature> result) {
+    VectorTile.Feature feature1 = groupedFeatures.getFirst();
+    LoopLineMerger merger = new LoopLineMerger()
+      .setTolerance(tolerance)
+      .setMergeStrokes(true)
+      .setMinLength(lengthLimit)
+      .setLoopMinLength(lengthLimit)
+      .setStubMinLength(0.5)
+      .setSegmentTransform(pipeline);
+    for (VectorTile.Feature feature : groupedFeatures) {
+      try {
+        merger.add(feature.geometry().decode());
+      } catch (GeometryException e) {
+        e.log("Error decoding vector tile feature for line merge: " + feature);
+      }
+    }
+    addMergedLines(feature1, merger.getMergedLineStrings(), buffer, result);
+  }
+
+  /** Clips {@code lines} to the tile buffer and adds them to {@code result} as a copy of {@code feature1}. */
+  private static void addMergedLines(VectorTile.Feature feature1, List<LineString> lines, double buffer,
+    List<VectorTile.Feature> result) {
+    List<LineString> outputSegments = new ArrayList<>();
+    for (var line : lines) {
+      if (buffer >= 0) {
+        removeDetailOutsideTile(line, buffer, outputSegments);
+      } else {
+        outputSegments.add(line);
+      }
+    }
+
+    if (!outputSegments.isEmpty()) {
+      outputSegments = sortByHilbertIndex(outputSegments);
+      Geometry newGeometry = GeoUtils.combineLineStrings(outputSegments);
+      result.add(feature1.copyWithNewGeometry(newGeometry));
+    }
+  }
+
+  /**
+   * Merges linestrings with the same attributes as
+   * {@link #mergeLineStringsOnCommands(List, Function, double, double, GeometryPipeline)} with a fixed
+   * {@code minLength}.
+   */
+  public static List<VectorTile.Feature> mergeLineStringsOnCommands(List<VectorTile.Feature> features,
+    double minLength, double tolerance, double buffer) {
+    return mergeLineStringsOnCommands(features, attrs -> minLength, tolerance, buffer, null);
+  }
+
+  /**
+   * Merges linestrings with the same attributes like {@link #mergeLineStrings(List, Function, double, double)} except
+   * connects lines directly on their encoded vector tile geometry commands with {@link VectorLineMerger} instead of
+   * decoding and noding them as JTS geometries. Merged lines then get simplified, clipped, and sorted the same way.
+   * <p>
+   * This is much faster for layers with many lines, like routes, but it only connects lines that share endpoints: it
+   * does not split lines that cross at a midpoint, break small loops, or remove short stubs. Groups that contain
+   * geometries stored at different scales fall back to {@link LoopLineMerger}.
+   *
+   * @param features              all features in a layer
+   * @param lengthLimitCalculator returns the minimum tile pixel length of lines to emit for the attributes of a group
+   * @param tolerance             after merging, simplify linestrings using this pixel tolerance, or -1 to skip
+   * @param buffer                number of pixels outside the visible tile area to include detail for, or -1 to skip
+   *                              clipping step
+   * @param pipeline              a transform to apply to each merged line instead of simplifying it, or null
+   * @return a new list containing all unaltered features in their original order, then each of the merged groups
+   *         ordered by the index of the first element in that group from the input list.
+   */
+  public static List<VectorTile.Feature> mergeLineStringsOnCommands(List<VectorTile.Feature> features,
+    Function<Map<String, Object>, Double> lengthLimitCalculator, double tolerance, double buffer,
+    GeometryPipeline pipeline) {
+    List<VectorTile.Feature> result = new ArrayList<>(features.size());
+    var groupedByAttrs = groupByAttrs(features, result, GeometryType.LINE);
+    for (List<VectorTile.Feature> groupedFeatures : groupedByAttrs) {
+      VectorTile.Feature feature1 = groupedFeatures.getFirst();
+      double lengthLimit = lengthLimitCalculator.apply(feature1.tags());
+      if (groupedFeatures.size() == 1 && buffer == 0d && lengthLimit == 0) {
+        result.add(feature1);
+        continue;
+      }
+      VectorLineMerger merger = new VectorLineMerger()
+        .setTolerance(tolerance)
+        .setMergeStrokes(true)
+        .setMinLength(lengthLimit)
+        .setSegmentTransform(pipeline);
+      boolean sameScale = true;
+      for (int i = 0; i < groupedFeatures.size() && sameScale; i++) {
+        sameScale = merger.add(groupedFeatures.get(i).geometry());
+      }
+      if (!sameScale) {
+        mergeLineStringGroup(groupedFeatures, lengthLimit, tolerance, buffer, pipeline, result);
+      } else {
+        addMergedLines(feature1, merger.getMergedLineStrings(), buffer, result);
       }
     }
     return result;
@@ -382,6 +454,134 @@ public class FeatureMerge {
     return mergeNearbyPolygons(features, minArea, minHoleArea, minDist, buffer, DefaultStats.get(), null);
   }
 
+  /**
+   * Combines polygons with the same set of attributes like
+   * {@link #mergeNearbyPolygons(List, double, double, double, double, Stats, GeometryPipeline)} except merges them on a
+   * grid of {@code cellSize} pixel cells with {@link GridPolygonMerger} instead of buffering and unioning JTS
+   * geometries.
+   * <p>
+   * This avoids the slow cases of buffer and union on dense tiles with many small polygons, but it is slower for groups
+   * of only a few polygons, output is only accurate to about one cell, and polygons narrower than a cell may disappear,
+   * so only use it for layers where that is acceptable, like parks or landuse. Polygons closer than {@code 2 * buffer}
+   * get grouped together, so there is no separate minimum distance.
+   *
+   * @param features    all features in a layer
+   * @param minArea     minimum area in square tile pixels of polygons to emit
+   * @param minHoleArea the minimum area in square tile pixels of inner rings of polygons to emit
+   * @param buffer      the amount (in tile pixels) to expand then contract polygons by in order to combine
+   *                    almost-touching polygons
+   * @param cellSize    width and height of each grid cell in tile pixels
+   * @param stats       for counting data errors
+   * @param pipeline    a transform that should be applied to each merged polygon in tile pixel coordinates, for example
+   *                    to simplify the stair steps that the grid leaves
+   * @return a new list containing all unaltered features in their original order, then each of the merged groups
+   *         ordered by the index of the first element in that group from the input list.
+   * @throws GeometryException if an error occurs encoding the combined geometry
+   */
+  public static List<VectorTile.Feature> mergeNearbyPolygonsOnGrid(List<VectorTile.Feature> features, double minArea,
+    double minHoleArea, double buffer, double cellSize, Stats stats, GeometryPipeline pipeline)
+    throws GeometryException {
+    List<VectorTile.Feature> result = new ArrayList<>(features.size());
+    Collection<List<VectorTile.Feature>> groupedByAttrs = groupByAttrs(features, result, GeometryType.POLYGON);
+    for (List<VectorTile.Feature> groupedFeatures : groupedByAttrs) {
+      VectorTile.Feature feature1 = groupedFeatures.getFirst();
+      Geometry merged;
+      if (groupedFeatures.size() == 1) {
+        // leave single features as-is like mergeNearbyPolygons
+        merged = feature1.geometry().decode();
+        if (pipeline != null) {
+          Geometry after = pipeline.apply(merged);
+          if (after != merged) {
+            merged = GeoUtils.snapAndFixPolygon(after, stats, "grid_merge_after_pipeline").reverse();
+          }
+        }
+      } else {
+        var merger = new GridPolygonMerger()
+          .setCellSize(cellSize)
+          .setBuffer(buffer);
+        for (var feature : groupedFeatures) {
+          try {
+            merger.add(feature.geometry().decode());
+          } catch (GeometryException e) {
+            e.log("Error decoding vector tile feature for polygon merge: " + feature);
+          }
+        }
+        // grid output is already valid and on the tile grid, so only fix what the pipeline changes
+        merged = merger.getMergedGeometry();
+        if (pipeline != null) {
+          merged = snapAndFixChangedPolygons(pipeline.apply(merged), stats);
+        }
+        if (!(merged instanceof Polygonal)) {
+          continue;
+        }
+        merged = merged.reverse();
+      }
+      List<Polygon> outPolygons = new ArrayList<>();
+      extractPolygons(merged, outPolygons, minArea, minHoleArea);
+      if (!outPolygons.isEmpty()) {
+        outPolygons = sortByHilbertIndex(outPolygons);
+        result.add(feature1.copyWithNewGeometry(GeoUtils.combinePolygons(outPolygons)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the polygons in {@code geometry}, snapping and fixing only the ones that are invalid or have vertices off
+   * the tile grid since checking each small polygon is much faster than snapping a large multipolygon.
+   */
+  private static Geometry snapAndFixChangedPolygons(Geometry geometry, Stats stats) throws GeometryException {
+    List<Polygon> result = new ArrayList<>(geometry.getNumGeometries());
+    for (int i = 0; i < geometry.getNumGeometries(); i++) {
+      if (geometry.getGeometryN(i) instanceof Polygon polygon) {
+        if (isOnTileGrid(polygon) && polygon.isValid()) {
+          result.add(polygon);
+        } else {
+          Geometry fixed = GeoUtils.snapAndFixPolygon(polygon, stats, "grid_merge_after_pipeline");
+          for (int j = 0; j < fixed.getNumGeometries(); j++) {
+            if (fixed.getGeometryN(j) instanceof Polygon fixedPolygon) {
+              result.add(fixedPolygon);
+            }
+          }
+        }
+      }
+    }
+    return result.isEmpty() ? GeoUtils.EMPTY_GEOMETRY : GeoUtils.combinePolygons(result);
+  }
+
+  private static boolean isOnTileGrid(Polygon polygon) {
+    if (!isOnTileGrid(polygon.getExteriorRing().getCoordinateSequence())) {
+      return false;
+    }
+    for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+      if (!isOnTileGrid(polygon.getInteriorRingN(i).getCoordinateSequence())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOnTileGrid(CoordinateSequence coords) {
+    double scale = GeoUtils.TILE_PRECISION.getScale();
+    for (int i = 0; i < coords.size(); i++) {
+      double x = coords.getX(i) * scale, y = coords.getY(i) * scale;
+      if (x != Math.rint(x) || y != Math.rint(y)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Combines polygons with the same set of attributes on a grid of {@code cellSize} pixel cells like
+   * {@link #mergeNearbyPolygonsOnGrid(List, double, double, double, double, Stats, GeometryPipeline)} without a
+   * pipeline.
+   */
+  public static List<VectorTile.Feature> mergeNearbyPolygonsOnGrid(List<VectorTile.Feature> features, double minArea,
+    double minHoleArea, double buffer, double cellSize) throws GeometryException {
+    return mergeNearbyPolygonsOnGrid(features, minArea, minHoleArea, buffer, cellSize, DefaultStats.get(), null);
+  }
+
 
   /**
    * Returns all the clusters from {@code geometries} where elements in the group are less than {@code minDist} from
@@ -4,6 +4,7 @@ import com.onthegomap.planetiler.archive.TileArchiveConfig;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileArchiveWriter;
 import com.onthegomap.planetiler.archive.TileArchives;
+import com.onthegomap.planetiler.archive.TileContentIndex;
 import com.onthegomap.planetiler.archive.WriteableTileArchive;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.collection.LongLongMap;
@@ -32,6 +33,7 @@ import com.onthegomap.planetiler.util.Geofabrik;
 import com.onthegomap.planetiler.util.LogUtil;
 import com.onthegomap.planetiler.util.ResourceUsage;
 import com.onthegomap.planetiler.util.TileSizeStats;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import com.onthegomap.planetiler.util.TopOsmTiles;
 import com.onthegomap.planetiler.util.Translations;
 import com.onthegomap.planetiler.util.Wikidata;
@@ -86,6 +88,8 @@ public class Planetiler {
   private final List<InputPath> inputPaths = new ArrayList<>();
   private final Timers.Finishable overallTimer;
   private final Arguments arguments;
+  // arguments that only change how the run executes, not the tiles it outputs
+  private final Arguments runArgs;
   private final Stats stats;
   private final Path tmpDir;
   private final Path nodeDbPath;
@@ -121,20 +125,21 @@ public class Planetiler {
 
   private Planetiler(Arguments arguments) {
     this.arguments = arguments;
-    stats = arguments.getStats();
+    this.runArgs = arguments.executionOnly();
+    stats = runArgs.getStats();
     overallTimer = stats.startStageQuietly("overall");
     config = PlanetilerConfig.from(arguments);
     if (config.color() != null) {
       AnsiColors.setUseColors(config.color());
     }
     tmpDir = config.tmpDir();
-    onlyDownloadSources = arguments.getBoolean("only_download", "download source data then exit", false);
+    onlyDownloadSources = runArgs.getBoolean("only_download", "download source data then exit", false);
     onlyRunTests = arguments.file("tests", "run test cases in a yaml then quit", null);
-    downloadSources = onlyDownloadSources || arguments.getBoolean("download", "download sources", false);
+    downloadSources = onlyDownloadSources || runArgs.getBoolean("download", "download sources", false);
     refreshSources =
-      arguments.getBoolean("refresh_sources", "download new version of source files if they have changed", false);
+      runArgs.getBoolean("refresh_sources", "download new version of source files if they have changed", false);
     fetchOsmTileStats =
-      arguments.getBoolean("download_osm_tile_weights", "download OSM tile weights file", downloadSources);
+      runArgs.getBoolean("download_osm_tile_weights", "download OSM tile weights file", downloadSources);
     nodeDbPath = arguments.file("temp_nodes", "temp node db location", tmpDir.resolve("node.db"));
     multipolygonPath =
       arguments.file("temp_multipolygons", "temp multipolygon db location", tmpDir.resolve("multipolygon.db"));
@@ -600,17 +605,17 @@ public class Planetiler {
    * @see Wikidata
    */
   public Planetiler fetchWikidataNameTranslations(Path defaultWikidataCache) {
-    onlyFetchWikidata = arguments
+    onlyFetchWikidata = runArgs
       .getBoolean("only_fetch_wikidata", "fetch wikidata translations then quit", onlyFetchWikidata);
     fetchWikidata =
-      onlyFetchWikidata || arguments.getBoolean("fetch_wikidata", "fetch wikidata translations then continue",
+      onlyFetchWikidata || runArgs.getBoolean("fetch_wikidata", "fetch wikidata translations then continue",
         fetchWikidata);
     useWikidata = fetchWikidata || arguments.getBoolean("use_wikidata", "use wikidata translations", true);
     wikidataNamesFile = arguments.file("wikidata_cache", "wikidata cache file", defaultWikidataCache);
     wikidataMaxAge =
-      arguments.getDuration("wikidata_max_age",
+      runArgs.getDuration("wikidata_max_age",
         "Maximum age of Wikidata translations (in ISO-8601 duration format PnDTnHnMn.nS; 0S = disabled)", "0s");
-    wikidataUpdateLimit = arguments.getInteger("wikidata_update_limit",
+    wikidataUpdateLimit = runArgs.getInteger("wikidata_update_limit",
       "Limit on how many old translations to update during one download (0 = disabled)", 0);
     return this;
   }
@@ -641,7 +646,7 @@ public class Planetiler {
   }
 
   private boolean getKeepUnzipped(String name) {
-    return arguments.getBoolean(name + "_keep_unzipped",
+    return runArgs.getBoolean(name + "_keep_unzipped",
       "keep unzipped " + name + " after reading", config.keepUnzippedSources());
   }
 
@@ -670,7 +675,7 @@ public class Planetiler {
   public Planetiler setOutput(String argument, Path fallback) {
     this.output =
       TileArchiveConfig
-        .from(arguments.getString("output|" + argument, "output tile archive path", fallback.toString()));
+        .from(runArgs.getString("output|" + argument, "output tile archive path", fallback.toString()));
     return this;
   }
 
@@ -685,7 +690,7 @@ public class Planetiler {
    * @see TileArchiveConfig For details on URI string formats and options.
    */
   public Planetiler setOutput(String defaultOutputUri) {
-    this.output = TileArchiveConfig.from(arguments.getString("output", "output tile archive URI", defaultOutputUri));
+    this.output = TileArchiveConfig.from(runArgs.getString("output", "output tile archive URI", defaultOutputUri));
     return this;
   }
 
@@ -736,7 +741,7 @@ public class Planetiler {
    * @throws IllegalArgumentException if expected inputs have not been provided
    */
   public void run() {
-    var showVersion = arguments.getBoolean("version", "show version then exit", false);
+    var showVersion = runArgs.getBoolean("version", "show version then exit", false);
     var buildInfo = BuildInfo.get();
     if (buildInfo != null && LOGGER.isInfoEnabled()) {
       LOGGER.info("Planetiler build git hash: {}", buildInfo.githash());
@@ -760,7 +765,7 @@ public class Planetiler {
     }
     ran = true;
 
-    if (arguments.getBoolean("help", "show arguments then exit", false)) {
+    if (runArgs.getBoolean("help", "show arguments then exit", false)) {
       System.exit(0);
     } else if (onlyRunTests != null) {
       boolean success = JavaProfileValidator.validate(profile(), onlyRunTests, config());
@@ -776,6 +781,10 @@ public class Planetiler {
       }
     } else if (overwrite || config.force()) {
       output.delete();
+      if (output.getLocalPath() != null) {
+        // a stale tile content index would let a later run reuse tiles that don't match the new archive
+        FileUtils.delete(TileContentIndex.pathFor(output.getLocalPath()));
+      }
     } else if (output.exists()) {
       throw new IllegalArgumentException(
         output.uri() + " already exists, use the --force argument to overwrite or --append.");
@@ -784,10 +793,19 @@ public class Planetiler {
     Path layerStatsPath = arguments.file("layer_stats", "layer stats output path",
       // default to <output file>.layerstats.tsv.gz
       TileSizeStats.getDefaultLayerstatsPath(Optional.ofNullable(output.getLocalPath()).orElse(Path.of("output"))));
+    Path tileTimingsPath = config.outputTileTimings() ? arguments.file("tile_timings", "tile timings output path",
+      // default to <output file>.tiletimings.tsv.gz
+      TileTimingStats.getDefaultPath(Optional.ofNullable(output.getLocalPath()).orElse(Path.of("output")))) : null;
 
     if (config.tileWriteThreads() < 1) {
       throw new IllegalArgumentException("require tile_write_threads >= 1");
     }
+    Path contentIndexPath = config.writeTileContentIndex() && output.getLocalPath() != null ?
+      TileContentIndex.pathFor(output.getLocalPath()) : null;
+    if (config.previousArchive() != null && output.getLocalPath() != null &&
+      output.getLocalPath().equals(TileArchiveConfig.from(config.previousArchive()).getLocalPath())) {
+      throw new IllegalArgumentException("--previous_archive must be different from the output archive");
+    }
     if (config.tileWriteThreads() > 1) {
       if (!output.format().supportsConcurrentWrites()) {
         throw new IllegalArgumentException(output.format() + " doesn't support concurrent writes");
@@ -890,7 +908,7 @@ public class Planetiler {
       featureGroup.prepare();
 
       TileArchiveWriter.writeOutput(featureGroup, archive, archive::bytesWritten, tileArchiveMetadata, layerStatsPath,
-        config, stats);
+        contentIndexPath, tileTimingsPath, config, stats);
     } catch (IOException e) {
       throw new PlanetilerException("Unable to write to " + output, e);
     }
@@ -1012,8 +1030,8 @@ public class Planetiler {
   private Path getPath(String name, String type, Path defaultPath, String defaultUrl) {
     Path path = arguments.file(name + "_path", name + " " + type + " path", defaultPath);
     boolean refresh =
-      arguments.getBoolean("refresh_" + name, "Download new version of " + name + " if changed", refreshSources);
-    boolean freeAfterReading = arguments.getBoolean("free_" + name + "_after_read",
+      runArgs.getBoolean("refresh_" + name, "Download new version of " + name + " if changed", refreshSources);
+    boolean freeAfterReading = runArgs.getBoolean("free_" + name + "_after_read",
       "delete " + name + " input file after reading to make space for output (reduces peak disk usage)", false);
     if (downloadSources || refresh) {
       String url = arguments.getString(name + "_url", name + " " + type + " url", defaultUrl);
@@ -135,6 +135,23 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
     return layers;
   }
 
+  /**
+   * Returns true if features in {@code layer} should get written to output tiles exactly as they were rendered.
+   * <p>
+   * Features in pass-through layers get copied from the intermediate feature storage straight into the output tile
+   * without decoding each one into a {@link VectorTile.Feature}, which is faster for large layers that don't need
+   * post-processing. They are not passed to {@link #postProcessTileFeatures(TileCoord, Map)} or
+   * {@link #postProcessLayerFeatures(String, int, List)}.
+   * <p>
+   * The default implementation returns false for every layer.
+   *
+   * @param layer the output layer name
+   * @return true to skip post-processing for this layer
+   */
+  default boolean isPassThroughLayer(String layer) {
+    return false;
+  }
+
   /**
    * Returns the name of the generated tileset to put into {@link Mbtiles} metadata
    *
@@ -528,6 +528,15 @@ public class VectorTile {
     return this;
   }
 
+  /**
+   * Returns a writer that adds features to {@code layerName} one at a time from tag indexes in the layer's key and
+   * value tables, for callers that can cache those indexes instead of building a {@link Feature} for each feature.
+   */
+  public LayerWriter layerWriter(String layerName) {
+    return new LayerWriter(layers.computeIfAbsent(layerName, name -> new Layer()),
+      layerStatsTracker.forLayer(layerName));
+  }
+
   /**
    * Returns a vector tile protobuf object with all features in this tile.
    */
@@ -1243,6 +1252,50 @@ public class VectorTile {
     }
   }
 
+  /**
+   * Adds features to a layer in a {@link VectorTile} from the indexes of each tag key and value in the layer.
+   * <p>
+   * Indexes returned from {@link #keyIndex(String)} and {@link #valueIndex(Object)} stay valid for the life of this
+   * tile, so callers can cache them by their own attribute key and value IDs.
+   */
+  public static final class LayerWriter {
+
+    private final Layer layer;
+    private final LayerAttrStats.Updater.ForZoom.ForLayer statsTracker;
+    private IntArrayList tags = new IntArrayList();
+
+    private LayerWriter(Layer layer, LayerAttrStats.Updater.ForZoom.ForLayer statsTracker) {
+      this.layer = layer;
+      this.statsTracker = statsTracker;
+    }
+
+    /** Returns the index of {@code key} in this layer's key table, adding it if not present. */
+    public int keyIndex(String key) {
+      return layer.key(key);
+    }
+
+    /** Returns the index of {@code value} in this layer's value table, adding it if not present. */
+    public int valueIndex(Object value) {
+      return layer.value(value);
+    }
+
+    /** Adds a tag to the next feature, and tracks the type of {@code value} in layer stats. */
+    public void addTag(int keyIndex, int valueIndex, String key, Object value) {
+      tags.add(keyIndex, valueIndex);
+      statsTracker.accept(key, value);
+    }
+
+    /** Adds a feature with {@code geometry} and the tags added since the last feature to this layer. */
+    public void addFeature(long id, VectorGeometry geometry) {
+      if (geometry.commands().length > 0) {
+        layer.encodedFeatures.add(new EncodedFeature(tags, id, geometry));
+        tags = new IntArrayList();
+      } else {
+        tags.clear();
+      }
+    }
+  }
+
   private record EncodedFeature(IntArrayList tags, long id, VectorGeometry geometry) {
 
     EncodedFeature(Feature in) {
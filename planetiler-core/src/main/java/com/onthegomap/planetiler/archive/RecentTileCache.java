@@ -0,0 +1,72 @@
+package com.onthegomap.planetiler.archive;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A least-recently-used cache of tiles that a single encoder thread recently encoded, keyed by a hash of their input
+ * features and bounded by the estimated size of the values it holds.
+ * <p>
+ * Callers must check that a cached value came from identical input features before using it since different tiles may
+ * hash to the same key.
+ *
+ * @param <T> the type of value to cache for each tile
+ */
+@NotThreadSafe
+class RecentTileCache<T> {
+
+  // don't let a single large tile evict most of the cache
+  private static final int MAX_ENTRY_FRACTION = 16;
+  private final Map<Long, Entry<T>> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxBytes;
+  private long bytes = 0;
+
+  RecentTileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns false if a value of estimated size {@code size} is too large to cache. */
+  boolean canHold(long size) {
+    return size <= maxBytes / MAX_ENTRY_FRACTION;
+  }
+
+  /** Returns the value cached for {@code key} and marks it as recently used, or null if it is not present. */
+  T get(long key) {
+    var entry = cache.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  /**
+   * Caches {@code value} with estimated size {@code size} for {@code key}, evicting the least-recently used values to
+   * stay under the size limit.
+   */
+  void put(long key, T value, long size) {
+    if (!canHold(size)) {
+      return;
+    }
+    var old = cache.put(key, new Entry<>(value, size));
+    if (old != null) {
+      bytes -= old.size;
+    }
+    bytes += size;
+    Iterator<Entry<T>> iterator = cache.values().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      bytes -= iterator.next().size;
+      iterator.remove();
+    }
+  }
+
+  /** Returns the estimated size of all values in the cache. */
+  long bytes() {
+    return bytes;
+  }
+
+  /** Returns the number of values in the cache. */
+  int size() {
+    return cache.size();
+  }
+
+  private record Entry<T>(T value, long size) {}
+}
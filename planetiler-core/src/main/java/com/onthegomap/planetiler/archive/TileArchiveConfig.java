@@ -223,8 +223,8 @@ public record TileArchiveConfig(
 
   public Path getPathForMultiThreadedWriter(int index) {
     return switch (format) {
-      case CSV, TSV, JSON, PROTO, PBF -> StreamArchiveUtils.constructIndexedPath(getLocalPath(), index);
-      case FILES -> getLocalPath();
+      case CSV, TSV, JSON, PROTO, PBF, MBTILES -> StreamArchiveUtils.constructIndexedPath(getLocalPath(), index);
+      case FILES, PMTILES -> getLocalPath();
       default -> throw new UnsupportedOperationException("not supported by " + format);
     };
   }
@@ -232,8 +232,8 @@ public record TileArchiveConfig(
   public enum Format {
     MBTILES("mbtiles",
       false /* TODO mbtiles could support append in the future by using insert statements with an "on conflict"-clause (i.e. upsert) and by creating tables only if they don't exist, yet */,
-      false, TileOrder.TMS),
-    PMTILES("pmtiles", false, false, TileOrder.HILBERT),
+      true, TileOrder.TMS),
+    PMTILES("pmtiles", false, true, TileOrder.HILBERT),
 
     // should be before PBF in order to avoid collisions
     FILES("files", true, true, TileOrder.TMS) {
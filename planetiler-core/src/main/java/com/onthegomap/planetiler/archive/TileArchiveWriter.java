@@ -1,12 +1,17 @@
 package com.onthegomap.planetiler.archive;
 
+import static com.onthegomap.planetiler.util.Gzip.gunzip;
 import static com.onthegomap.planetiler.util.Gzip.gzip;
 import static com.onthegomap.planetiler.worker.Worker.joinFutures;
 
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.collection.FeatureGroup;
+import com.onthegomap.planetiler.collection.LongLongMap;
+import com.onthegomap.planetiler.collection.Storage;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.files.ReadableFilesArchive;
 import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.pmtiles.ReadablePmtiles;
 import com.onthegomap.planetiler.stats.Counter;
 import com.onthegomap.planetiler.stats.ProcessInfo;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
@@ -16,21 +21,28 @@ import com.onthegomap.planetiler.util.DiskBacked;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.Hashing;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import com.onthegomap.planetiler.util.TileSizeStats;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import com.onthegomap.planetiler.util.TileWeights;
 import com.onthegomap.planetiler.util.TilesetSummaryStatistics;
 import com.onthegomap.planetiler.worker.WorkQueue;
 import com.onthegomap.planetiler.worker.Worker;
 import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.OptionalLong;
+import java.util.PriorityQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +53,7 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vector_tile.VectorTileProto;
 
 /**
  * Final stage of the map generation process that encodes vector tiles using {@link VectorTile} and writes them to a
@@ -49,10 +62,13 @@ import org.slf4j.LoggerFactory;
 public class TileArchiveWriter {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(TileArchiveWriter.class);
-  private static final long MAX_FEATURES_PER_BATCH = 10_000;
+  // roughly 10ms of work, or 10k point features
+  private static final double MAX_COST_PER_BATCH = 10_000;
   private static final long MAX_TILES_PER_BATCH = 1_000;
   private final Counter.Readable featuresProcessed;
   private final Counter memoizedTiles;
+  private final Counter.Readable encodeCacheHits;
+  private final Counter.Readable encodeCacheMisses;
   private final WriteableTileArchive archive;
   private final PlanetilerConfig config;
   private final Stats stats;
@@ -61,31 +77,94 @@ public class TileArchiveWriter {
   private final AtomicReference<TileCoord> lastTileWritten = new AtomicReference<>();
   private final TileArchiveMetadata tileArchiveMetadata;
   private final TilesetSummaryStatistics tileStats;
+  private final TileTimingStats tileTimingStats;
+  private final TileCostModel costModel;
   private final LayerAttrStats layerAttrStats = new LayerAttrStats();
+  private final boolean unorderedWrites;
+  private final Counter.Readable reusedTiles;
+  private final TileContentIndex previousContentIndex;
+  private final ReadableTileArchive previousArchive;
+  private final boolean previousArchiveThreadSafe;
+  private final List<LayerAttrStats.VectorLayer> previousVectorLayers;
+  private final TileContentIndex.Writer contentIndexWriter;
 
   private TileArchiveWriter(Iterable<FeatureGroup.TileFeatures> inputTiles, WriteableTileArchive archive,
-    PlanetilerConfig config, TileArchiveMetadata tileArchiveMetadata, Stats stats) {
+    PlanetilerConfig config, TileArchiveMetadata tileArchiveMetadata, Path contentIndexPath, Path tileTimingsPath,
+    Stats stats) {
     this.tileStats = new TilesetSummaryStatistics(TileWeights.readFromFile(config.tileWeights()));
+    this.tileTimingStats = new TileTimingStats(stats, tileTimingsPath);
+    this.costModel = TileCostModel.from(config);
     this.inputTiles = inputTiles;
     this.archive = archive;
     this.config = config;
     this.tileArchiveMetadata = tileArchiveMetadata;
     this.stats = stats;
+    this.unorderedWrites = config.tileWriteThreads() > 1 && archive.supportsUnorderedWrites();
     tilesByZoom = IntStream.rangeClosed(0, config.maxzoom())
       .mapToObj(i -> Counter.newSingleThreadCounter())
       .toArray(Counter.Readable[]::new);
     memoizedTiles = stats.longCounter("archive_memoized_tiles");
+    reusedTiles = stats.longCounter("archive_reused_tiles");
+    encodeCacheHits = stats.longCounter("archive_encode_cache_hits");
+    encodeCacheMisses = stats.longCounter("archive_encode_cache_misses");
     featuresProcessed = stats.longCounter("archive_features_processed");
     Map<String, LongSupplier> countsByZoom = new LinkedHashMap<>();
     for (int zoom = config.minzoom(); zoom <= config.maxzoom(); zoom++) {
       countsByZoom.put(Integer.toString(zoom), tilesByZoom[zoom]);
     }
     stats.counter("archive_tiles_written", "zoom", () -> countsByZoom);
+
+    long fingerprint = TileContentIndex.fingerprint(tileArchiveMetadata, config.arguments());
+    if (config.previousArchive() != null) {
+      var previous = TileArchiveConfig.from(config.previousArchive());
+      Path previousPath = previous.getLocalPath();
+      previousContentIndex = previousPath == null ? null : TileContentIndex.read(
+        TileContentIndex.pathFor(previousPath),
+        fingerprint,
+        config.mmapTempStorage() ? Storage.MMAP : Storage.RAM,
+        config.tmpDir().resolve("previous_tilehashes")
+      );
+      try {
+        previousArchive = previousContentIndex == null ? null : TileArchives.newReader(previous, config);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    } else {
+      previousContentIndex = null;
+      previousArchive = null;
+    }
+    // the mbtiles reader shares a single prepared statement across all calls
+    previousArchiveThreadSafe = previousArchive instanceof ReadablePmtiles ||
+      previousArchive instanceof ReadableFilesArchive;
+    var previousMetadata = previousArchive == null ? null : previousArchive.metadata();
+    previousVectorLayers = previousMetadata == null ? null : previousMetadata.vectorLayers();
+    contentIndexWriter = contentIndexPath == null ? null : TileContentIndex.newWriter(contentIndexPath, fingerprint);
   }
 
   /** Reads all {@code features}, encodes them in parallel, and writes to {@code output}. */
   public static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
     TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, PlanetilerConfig config, Stats stats) {
+    writeOutput(features, output, fileSize, tileArchiveMetadata, layerStatsPath, null, config, stats);
+  }
+
+  /**
+   * Reads all {@code features}, encodes them in parallel, and writes to {@code output}, and when
+   * {@code contentIndexPath} is not null also writes a {@link TileContentIndex} there for a later run to reuse tiles
+   * from {@code output} with {@code --previous_archive}.
+   */
+  public static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
+    TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, Path contentIndexPath, PlanetilerConfig config,
+    Stats stats) {
+    writeOutput(features, output, fileSize, tileArchiveMetadata, layerStatsPath, contentIndexPath, null, config, stats);
+  }
+
+  /**
+   * Reads all {@code features}, encodes them in parallel, and writes to {@code output}, and when
+   * {@code tileTimingsPath} is not null also writes how long each tile took to encode to that tsv.gz file.
+   */
+  public static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
+    TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, Path contentIndexPath, Path tileTimingsPath,
+    PlanetilerConfig config, Stats stats) {
     var timer = stats.startStage("archive");
 
     int chunksToRead = Math.max(1, features.chunksToRead());
@@ -109,7 +188,8 @@ public class TileArchiveWriter {
       readWorker = reader.readWorker();
     }
 
-    TileArchiveWriter writer = new TileArchiveWriter(inputTiles, output, config, tileArchiveMetadata, stats);
+    TileArchiveWriter writer =
+      new TileArchiveWriter(inputTiles, output, config, tileArchiveMetadata, contentIndexPath, tileTimingsPath, stats);
 
     var pipeline = WorkerPipeline.start("archive", stats);
 
@@ -120,43 +200,72 @@ public class TileArchiveWriter {
       100,
       (int) (5_000d * ProcessInfo.getMaxMemoryBytes() / 100_000_000_000d)
     );
+    // a few batches of very large tiles can hold as much memory as thousands of batches of small ones, so also limit
+    // the queues that feed encoders to 10% of the heap. The writer and layer stats queues stay count-bounded since the
+    // reader blocks on them in order and a byte limit there could stall it waiting on batches it has not sent yet.
+    long queueBytes = ProcessInfo.getMaxMemoryBytes() / 10;
+
+    // ensure to initialize the archive BEFORE starting to write any tiles
+    output.initialize();
 
     /*
      * To emit tiles in order, fork the input queue and send features to both the encoder and writer. The writer
      * waits on them to be encoded in the order they were received, and the encoder processes them in parallel.
      * One batch might take a long time to process, so make the queues very big to avoid idle encoding CPUs.
      *
-     * Note:
-     * In the future emitting tiles out order might be especially interesting when tileWriteThreads>1,
-     * since when multiple threads/files are included there's no order that needs to be preserved.
-     * So some of the restrictions could be lifted then.
+     * When the archive accepts tiles in any order from multiple writer threads, the encoder hands each batch to
+     * the writers as soon as it is done instead, so a slow batch does not hold up writing the ones behind it.
      */
-    WorkQueue<TileBatch> writerQueue = new WorkQueue<>("archive_writer_queue", queueSize, 1, stats);
+    WorkQueue<TileBatch> writerQueue = writer.unorderedWrites ? null :
+      new WorkQueue<>("archive_writer_queue", queueSize, 1, stats);
     WorkQueue<TileBatch> layerStatsQueue = new WorkQueue<>("archive_layerstats_queue", queueSize, 1, stats);
-    WorkerPipeline<TileBatch> encodeBranch = pipeline
+    /*
+     * Hand the most expensive batches in each window to the encoders first so they don't finish last and hold up the
+     * writer. The window must be much smaller than the writer queue, otherwise the writer queue could fill up waiting
+     * on a batch that is still held in the window.
+     */
+    int prioritizeWindow = Math.min(queueSize / 2, processThreads * 2);
+    var encodeStep = pipeline
       .<TileBatch>fromGenerator(secondStageName, next -> {
         try (writerQueue; layerStatsQueue) {
-          var writerEnqueuer = writerQueue.threadLocalWriter();
+          Consumer<TileBatch> writerEnqueuer = writerQueue == null ? batch -> {
+          } : writerQueue.threadLocalWriter();
           var statsEnqueuer = layerStatsQueue.threadLocalWriter();
+          PriorityQueue<TileBatch> window = new PriorityQueue<>(Comparator.comparingDouble(b -> -b.cost));
           writer.readFeaturesAndBatch(batch -> {
-            next.accept(batch);
-            writerEnqueuer.accept(batch); // also send immediately to writer
+            writerEnqueuer.accept(batch); // send to writer in order immediately
             if (config.outputLayerStats()) {
               statsEnqueuer.accept(batch);
             }
+            window.offer(batch);
+            if (window.size() >= prioritizeWindow) {
+              while (!window.isEmpty()) {
+                next.accept(window.poll());
+              }
+            }
           });
+          while (!window.isEmpty()) {
+            next.accept(window.poll());
+          }
         }
         // use only 1 thread since readFeaturesAndBatch needs to be single-threaded
       }, 1)
-      .addBuffer("reader_queue", queueSize)
-      .sinkTo("encode", processThreads, writer::tileEncoderSink);
-
-    // ensure to initialize the archive BEFORE starting to write any tiles
-    output.initialize();
-
-    // the tile writer will wait on the result of each batch to ensure tiles are written in order
-    WorkerPipeline<TileBatch> writeBranch = pipeline.readFromQueue(writerQueue)
-      .sinkTo("write", tileWriteThreads, writer::tileWriter);
+      .addBuffer("reader_queue", queueSize, 1, queueBytes);
+
+    WorkerPipeline<TileBatch> encodeBranch;
+    WorkerPipeline<TileBatch> writeBranch;
+    if (writerQueue == null) {
+      encodeBranch = null;
+      writeBranch = encodeStep
+        .addWorker("encode", processThreads, writer::tileEncoder)
+        .addBuffer("encoded_queue", queueSize, 1, queueBytes)
+        .sinkTo("write", tileWriteThreads, writer::tileWriter);
+    } else {
+      encodeBranch = encodeStep.sinkTo("encode", processThreads, writer::tileEncoderSink);
+      // the tile writer will wait on the result of each batch to ensure tiles are written in order
+      writeBranch = pipeline.readFromQueue(writerQueue)
+        .sinkTo("write", tileWriteThreads, writer::tileWriter);
+    }
 
     WorkerPipeline<TileBatch> layerStatsBranch = null;
 
@@ -166,7 +275,7 @@ public class TileArchiveWriter {
     }
 
     var loggers = ProgressLoggers.create()
-      .addRatePercentCounter("features", features.numFeaturesWritten(), writer.featuresProcessed, true)
+      .addRatePercentCounter("features", features.numFeaturesToRead(), writer.featuresProcessed, true)
       .addFileSize(features)
       .addRateCounter("tiles", writer::tilesEmitted)
       .addFileSize(fileSize)
@@ -190,8 +299,13 @@ public class TileArchiveWriter {
     final CompletableFuture<Void> archiveFinisher =
       CompletableFuture.allOf(tileWritersFuture, layerStatsFuture).thenRun(writer::finishArchive);
 
-    var doneFuture = joinFutures(tileWritersFuture, layerStatsFuture, encodeBranch.done(), archiveFinisher);
+    final CompletableFuture<Void> encodeFuture =
+      encodeBranch == null ? CompletableFuture.completedFuture(null) : encodeBranch.done();
+
+    var doneFuture = joinFutures(tileWritersFuture, layerStatsFuture, encodeFuture, archiveFinisher);
     loggers.awaitAndLog(doneFuture, config.logInterval());
+    writer.closeContentIndexes();
+    writer.tileTimingStats.close();
     writer.printTileStats();
     timer.stop();
   }
@@ -230,7 +344,7 @@ public class TileArchiveWriter {
   private void readFeaturesAndBatch(Consumer<TileBatch> next) {
     int currentZoom = Integer.MIN_VALUE;
     TileBatch batch = new TileBatch();
-    long featuresInThisBatch = 0;
+    double costInThisBatch = 0;
     long tilesInThisBatch = 0;
     for (var feature : inputTiles) {
       int z = feature.tileCoord().z();
@@ -238,104 +352,298 @@ public class TileArchiveWriter {
         LOGGER.trace("Starting z{}", z);
         currentZoom = z;
       }
-      long thisTileFeatures = feature.getNumFeaturesToEmit();
+      double thisTileCost = feature.estimateCost(costModel);
       if (tilesInThisBatch > 0 &&
         (tilesInThisBatch >= MAX_TILES_PER_BATCH ||
-          ((featuresInThisBatch + thisTileFeatures) > MAX_FEATURES_PER_BATCH))) {
+          ((costInThisBatch + thisTileCost) > MAX_COST_PER_BATCH))) {
+        batch.cost = costInThisBatch;
         next.accept(batch);
         batch = new TileBatch();
-        featuresInThisBatch = 0;
+        costInThisBatch = 0;
         tilesInThisBatch = 0;
       }
-      featuresInThisBatch += thisTileFeatures;
+      costInThisBatch += thisTileCost;
       tilesInThisBatch++;
       batch.in.add(feature);
+      batch.bytes += feature.estimateMemoryUsageBytes();
     }
     if (!batch.in.isEmpty()) {
+      batch.cost = costInThisBatch;
       next.accept(batch);
     }
   }
 
   private void tileEncoderSink(Iterable<TileBatch> prev) throws IOException {
+    tileEncoder(prev, batch -> {
+    });
+  }
+
+  private void tileEncoder(Iterable<TileBatch> prev, Consumer<TileBatch> next) throws IOException {
     /*
      * To optimize emitting many identical consecutive tiles (like large ocean areas), memoize output to avoid
      * recomputing if the input hasn't changed.
      */
     byte[] lastBytes = null, lastEncoded = null;
     Long lastTileDataHash = null;
-    boolean lastIsFill = false;
+    long lastContentHash = 0;
+    boolean lastIsFill = false, lastLikelyToBeDuplicated = false;
+    boolean trackContentHashes = previousContentIndex != null || contentIndexWriter != null;
     List<TileSizeStats.LayerStats> lastLayerStats = null;
     boolean skipFilled = config.skipFilledTiles();
+    boolean reusedAnyTiles = false;
     var layerStatsSerializer = TileSizeStats.newThreadLocalSerializer();
+    // also remember recent tiles to reuse when the same features show up again after a different tile in between
+    RecentTileCache<EncodedTile> recentTiles =
+      config.tileEncodeCacheBytes() > 0 ? new RecentTileCache<>(config.tileEncodeCacheBytes()) : null;
 
     var tileStatsUpdater = tileStats.threadLocalUpdater();
+    var tileTimingsUpdater = tileTimingStats.threadLocalUpdater();
+    boolean recordTimings = tileTimingStats.enabled();
     var layerAttrStatsUpdater = layerAttrStats.handlerForThread();
     for (TileBatch batch : prev) {
       List<TileEncodingResult> result = new ArrayList<>(batch.size());
+      ByteBuffer contentIndexRecords =
+        contentIndexWriter == null ? null : TileContentIndex.Writer.newBuffer(batch.size());
       FeatureGroup.TileFeatures last = null;
-      // each batch contains tile ordered by tile-order ID ascending
-      for (int i = 0; i < batch.in.size(); i++) {
-        FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
-        featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
-        byte[] bytes, encoded;
-        List<TileSizeStats.LayerStats> layerStats;
-        Long tileDataHash;
-        if (tileFeatures.hasSameContents(last)) {
-          bytes = lastBytes;
-          encoded = lastEncoded;
-          tileDataHash = lastTileDataHash;
-          layerStats = lastLayerStats;
-          memoizedTiles.inc();
-        } else {
-          VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater);
-          if (skipFilled && (lastIsFill = tile.containsOnlyFills())) {
-            encoded = null;
-            layerStats = null;
-            bytes = null;
+      try {
+        // each batch contains tile ordered by tile-order ID ascending
+        for (int i = 0; i < batch.in.size(); i++) {
+          FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
+          featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
+          byte[] bytes, encoded;
+          List<TileSizeStats.LayerStats> layerStats;
+          Long tileDataHash;
+          EncodedTile cached;
+          // only hash the features once to both look up and cache the tile
+          boolean cacheable = false;
+          long recentTileKey = 0;
+          if (tileFeatures.hasSameContents(last)) {
+            bytes = lastBytes;
+            encoded = lastEncoded;
+            tileDataHash = lastTileDataHash;
+            layerStats = lastLayerStats;
+            memoizedTiles.inc();
+          } else if ((cacheable = isCacheable(recentTiles, tileFeatures)) &&
+            (cached = getCachedTile(recentTiles, tileFeatures, recentTileKey = recentTileKey(tileFeatures))) != null) {
+            bytes = cached.bytes;
+            encoded = cached.encoded;
+            tileDataHash = cached.tileDataHash;
+            layerStats = cached.layerStats;
+            lastLayerStats = layerStats;
+            lastEncoded = encoded;
+            lastBytes = bytes;
+            last = tileFeatures;
+            lastTileDataHash = tileDataHash;
+            lastContentHash = cached.contentHash;
+            lastIsFill = cached.isFill;
+            lastLikelyToBeDuplicated = cached.likelyToBeDuplicated;
           } else {
-            var proto = tile.toProto();
-            encoded = proto.toByteArray();
-            bytes = switch (config.tileCompression()) {
-              case GZIP -> gzip(encoded);
-              case NONE -> encoded;
-              case UNKNOWN -> throw new IllegalArgumentException("cannot compress \"UNKNOWN\"");
-            };
-            layerStats = TileSizeStats.computeTileStats(proto);
-            if (encoded.length > config.tileWarningSizeBytes()) {
-              LOGGER.warn("{} {}kb uncompressed",
-                tileFeatures.tileCoord(),
-                encoded.length / 1024);
+            long contentHash = trackContentHashes ? tileFeatures.contentHash() : 0;
+            long previous = previousContentIndex == null ? LongLongMap.MISSING_VALUE :
+              previousContentIndex.get(tileFeatures.tileCoord());
+            byte[] previousBytes = TileContentIndex.matches(previous, contentHash) ?
+              readPreviousTile(tileFeatures.tileCoord()) : null;
+            boolean likelyToBeDuplicated;
+            if (previousBytes != null) {
+              // features did not change since the previous run, so copy that tile as-is instead of encoding it again
+              bytes = previousBytes;
+              encoded = null;
+              if (config.outputLayerStats()) {
+                // per-layer stats need the decoded tile
+                var proto = VectorTileProto.Tile.parseFrom(decompress(previousBytes));
+                layerStats = TileSizeStats.computeTileStats(proto);
+              } else {
+                layerStats = null;
+              }
+              if (!reusedAnyTiles) {
+                reusedAnyTiles = true;
+                trackPreviousLayerAttrs(layerAttrStatsUpdater, tileFeatures.tileCoord().z());
+              }
+              likelyToBeDuplicated = TileContentIndex.likelyToBeDuplicated(previous);
+              lastIsFill = false;
+              reusedTiles.inc();
+            } else {
+              var timings = recordTimings ? new TileTimingStats.Timings(tileFeatures.tileCoord()) : null;
+              VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater, timings);
+              likelyToBeDuplicated = tile.likelyToBeDuplicated();
+              if (skipFilled && (lastIsFill = tile.containsOnlyFills())) {
+                encoded = null;
+                layerStats = null;
+                bytes = null;
+              } else {
+                long start = System.nanoTime();
+                var proto = tile.toProto();
+                encoded = proto.toByteArray();
+                long encodedTime = System.nanoTime();
+                bytes = switch (config.tileCompression()) {
+                  case GZIP -> gzip(encoded);
+                  case NONE -> encoded;
+                  case UNKNOWN -> throw new IllegalArgumentException("cannot compress \"UNKNOWN\"");
+                };
+                if (timings != null) {
+                  timings.addEncode(encodedTime - start);
+                  timings.addCompress(System.nanoTime() - encodedTime);
+                }
+                layerStats = TileSizeStats.computeTileStats(proto);
+                if (encoded.length > config.tileWarningSizeBytes()) {
+                  LOGGER.warn("{} {}kb uncompressed",
+                    tileFeatures.tileCoord(),
+                    encoded.length / 1024);
+                }
+              }
+              if (timings != null) {
+                tileTimingsUpdater.recordTile(timings);
+              }
+            }
+            lastLayerStats = layerStats;
+            lastEncoded = encoded;
+            lastBytes = bytes;
+            last = tileFeatures;
+            if (archive.deduplicates() && likelyToBeDuplicated && bytes != null) {
+              tileDataHash = generateContentHash(bytes);
+            } else {
+              tileDataHash = null;
+            }
+            lastTileDataHash = tileDataHash;
+            lastContentHash = contentHash;
+            lastLikelyToBeDuplicated = likelyToBeDuplicated;
+            if (cacheable) {
+              long size = tileFeatures.estimateMemoryUsageBytes() + (bytes == null ? 0 : bytes.length) +
+                (encoded == null || encoded == bytes ? 0 : encoded.length);
+              recentTiles.put(recentTileKey, new EncodedTile(tileFeatures, bytes, encoded, tileDataHash,
+                layerStats, contentHash, lastIsFill, likelyToBeDuplicated), size);
             }
           }
-          lastLayerStats = layerStats;
-          lastEncoded = encoded;
-          lastBytes = bytes;
-          last = tileFeatures;
-          if (archive.deduplicates() && tile.likelyToBeDuplicated() && bytes != null) {
-            tileDataHash = generateContentHash(bytes);
-          } else {
-            tileDataHash = null;
+          if ((!skipFilled || !lastIsFill) && bytes != null) {
+            int rawLength = encoded != null ? encoded.length : uncompressedLength(bytes);
+            if (layerStats != null) {
+              tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, layerStats);
+            } else {
+              tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, rawLength);
+            }
+            List<String> layerStatsRows = config.outputLayerStats() ?
+              layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, layerStats) :
+              List.of();
+            result.add(
+              new TileEncodingResult(
+                tileFeatures.tileCoord(),
+                bytes,
+                rawLength,
+                tileDataHash == null ? OptionalLong.empty() : OptionalLong.of(tileDataHash),
+                layerStatsRows
+              )
+            );
+            if (contentIndexRecords != null) {
+              TileContentIndex.Writer.add(contentIndexRecords, tileFeatures.tileCoord(),
+                TileContentIndex.pack(lastContentHash, lastLikelyToBeDuplicated));
+            }
           }
-          lastTileDataHash = tileDataHash;
         }
-        if ((!skipFilled || !lastIsFill) && bytes != null) {
-          tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, layerStats);
-          List<String> layerStatsRows = config.outputLayerStats() ?
-            layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, layerStats) :
-            List.of();
-          result.add(
-            new TileEncodingResult(
-              tileFeatures.tileCoord(),
-              bytes,
-              encoded.length,
-              tileDataHash == null ? OptionalLong.empty() : OptionalLong.of(tileDataHash),
-              layerStatsRows
-            )
-          );
+      } finally {
+        // delete temp files for tiles that spilled to disk whether they got encoded, reused, or skipped
+        for (var tileFeatures : batch.in) {
+          tileFeatures.releaseSpilledFeatures();
         }
       }
+      if (contentIndexRecords != null) {
+        contentIndexWriter.write(contentIndexRecords);
+      }
+      tileTimingsUpdater.flush();
       // hand result off to writer
       batch.out.complete(result);
+      next.accept(batch);
+    }
+  }
+
+  private static long recentTileKey(FeatureGroup.TileFeatures tileFeatures) {
+    // layer attribute stats are tracked by zoom, so only reuse tiles from the same zoom
+    return Hashing.fnv1a64(tileFeatures.rawContentHash(), (byte) tileFeatures.tileCoord().z());
+  }
+
+  /** Returns true if the encoded result for {@code tileFeatures} can be cached to reuse for later tiles. */
+  private static boolean isCacheable(RecentTileCache<EncodedTile> recentTiles, FeatureGroup.TileFeatures tileFeatures) {
+    // tiles that spilled to disk can't be read again after encoding, and are too big to cache anyway
+    return recentTiles != null && !tileFeatures.isSpilled() &&
+      recentTiles.canHold(tileFeatures.estimateMemoryUsageBytes());
+  }
+
+  /** Returns the result of encoding a recent tile with identical features to {@code tileFeatures}, or null if none. */
+  private EncodedTile getCachedTile(RecentTileCache<EncodedTile> recentTiles, FeatureGroup.TileFeatures tileFeatures,
+    long recentTileKey) {
+    EncodedTile cached = recentTiles.get(recentTileKey);
+    if (cached != null && tileFeatures.hasSameContents(cached.features)) {
+      encodeCacheHits.inc();
+      return cached;
+    }
+    encodeCacheMisses.inc();
+    return null;
+  }
+
+  private byte[] readPreviousTile(TileCoord coord) {
+    if (previousArchiveThreadSafe) {
+      return previousArchive.getTile(coord);
+    }
+    synchronized (previousArchive) {
+      return previousArchive.getTile(coord);
+    }
+  }
+
+  private byte[] decompress(byte[] bytes) throws IOException {
+    return switch (config.tileCompression()) {
+      case GZIP -> gunzip(bytes);
+      case NONE -> bytes;
+      case UNKNOWN -> throw new IllegalArgumentException("cannot decompress \"UNKNOWN\"");
+    };
+  }
+
+  /** Returns the uncompressed size of a tile copied from the previous archive without decompressing it. */
+  private int uncompressedLength(byte[] bytes) {
+    return switch (config.tileCompression()) {
+      // gzip stores the uncompressed size (mod 2^32) little-endian in the last 4 bytes
+      case GZIP -> ByteBuffer.wrap(bytes, bytes.length - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+      case NONE -> bytes.length;
+      case UNKNOWN -> throw new IllegalArgumentException("cannot decompress \"UNKNOWN\"");
+    };
+  }
+
+  /**
+   * Records the layer attributes from the previous archive's metadata for tilejson metadata, since tiles copied from it
+   * are not decoded.
+   * <p>
+   * This may list a few attributes that none of the copied tiles contain anymore, but never misses one.
+   */
+  private void trackPreviousLayerAttrs(LayerAttrStats.Updater layerAttrStats, int zoom) {
+    if (previousVectorLayers == null) {
+      return;
+    }
+    for (var layer : previousVectorLayers) {
+      for (int z : new int[]{layer.minzoom().orElse(zoom), layer.maxzoom().orElse(zoom)}) {
+        var forLayer = layerAttrStats.forZoom(z).forLayer(layer.id());
+        for (var field : layer.fields().entrySet()) {
+          // only the type matters
+          forLayer.accept(field.getKey(), switch (field.getValue()) {
+            case NUMBER -> 0;
+            case BOOLEAN -> false;
+            case STRING -> "";
+          });
+        }
+      }
+    }
+  }
+
+  private void closeContentIndexes() {
+    if (contentIndexWriter != null) {
+      contentIndexWriter.close();
+    }
+    if (previousContentIndex != null) {
+      LOGGER.info("Reused {} tiles from {}", Format.defaultInstance().integer(reusedTiles.get()),
+        config.previousArchive());
+      previousContentIndex.close();
+      try {
+        previousArchive.close();
+      } catch (IOException e) {
+        LOGGER.warn("Unable to close {}", config.previousArchive(), e);
+      }
     }
   }
 
@@ -357,7 +665,7 @@ public class TileArchiveWriter {
       for (TileBatch batch : tileBatches) {
         for (var encodedTile : batch.out.get()) {
           TileCoord tileCoord = encodedTile.coord();
-          assert lastTile == null ||
+          assert unorderedWrites || lastTile == null ||
             order.encode(tileCoord) > order.encode(lastTile) : "Tiles out of order %s before %s"
               .formatted(lastTile, tileCoord);
           lastTile = encodedTile.coord();
@@ -395,7 +703,14 @@ public class TileArchiveWriter {
   private void printTileStats() {
     Format format = Format.defaultInstance();
     tileStats.printStats(config.debugUrlPattern());
+    tileTimingStats.printStats(config.debugUrlPattern());
     LOGGER.debug(" # features: {}", format.integer(featuresProcessed.get()));
+    long hits = encodeCacheHits.get();
+    long lookups = hits + encodeCacheMisses.get();
+    if (lookups > 0) {
+      LOGGER.debug(" # reused from recent tiles: {} ({} hit rate)", format.integer(hits),
+        format.percent(hits * 1d / lookups));
+    }
   }
 
   private long tilesEmitted() {
@@ -415,23 +730,38 @@ public class TileArchiveWriter {
     return Hashing.fnv1a64(bytes);
   }
 
+  /** The result of encoding a tile that can be reused for other tiles with identical features. */
+  private record EncodedTile(
+    FeatureGroup.TileFeatures features,
+    byte[] bytes,
+    byte[] encoded,
+    Long tileDataHash,
+    List<TileSizeStats.LayerStats> layerStats,
+    long contentHash,
+    boolean isFill,
+    boolean likelyToBeDuplicated
+  ) {}
+
   /**
    * Container for a batch of tiles to be processed together in the encoder and writer threads.
    * <p>
    * The cost of encoding a tile may vary dramatically by its size (depending on the profile) so batches are sized
-   * dynamically to put as little as 1 large tile, or as many as 10,000 small tiles in a batch to keep encoding threads
-   * busy.
-   *
-   * @param in  the tile data to encode
-   * @param out the future that encoder thread completes to hand finished tile off to writer thread
+   * dynamically using the cost predicted by a {@link TileCostModel} to put as little as 1 large tile, or as many as
+   * 1,000 small tiles in a batch to keep encoding threads busy.
    */
-  private record TileBatch(
-    List<FeatureGroup.TileFeatures> in,
-    CompletableFuture<List<TileEncodingResult>> out
-  ) {
-
-    TileBatch() {
-      this(new ArrayList<>(), new CompletableFuture<>());
+  private static final class TileBatch implements MemoryEstimator.HasEstimate {
+
+    /** the tile data to encode */
+    private final List<FeatureGroup.TileFeatures> in = new ArrayList<>();
+    /** the future that encoder thread completes to hand finished tile off to writer thread */
+    private final CompletableFuture<List<TileEncodingResult>> out = new CompletableFuture<>();
+    /** the predicted cost of encoding all tiles in this batch */
+    private double cost;
+    /** the estimated size of features waiting to be encoded in this batch */
+    private long bytes;
+
+    public CompletableFuture<List<TileEncodingResult>> out() {
+      return out;
     }
 
     public int size() {
@@ -441,5 +771,10 @@ public class TileArchiveWriter {
     public boolean isEmpty() {
       return in.isEmpty();
     }
+
+    @Override
+    public long estimateMemoryUsageBytes() {
+      return bytes;
+    }
   }
 }
@@ -12,6 +12,7 @@ import com.onthegomap.planetiler.stream.WriteableJsonStreamArchive;
 import com.onthegomap.planetiler.stream.WriteableProtoStreamArchive;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.stream.IntStream;
 
 /** Utilities for creating {@link ReadableTileArchive} and {@link WriteableTileArchive} instances. */
 public class TileArchives {
@@ -50,8 +51,13 @@ public class TileArchives {
       case MBTILES ->
         // pass-through legacy arguments for fallback
         Mbtiles.newWriteToFileDatabase(archive.getLocalPath(), options.orElse(config.arguments()
-          .subset(Mbtiles.LEGACY_VACUUM_ANALYZE, Mbtiles.LEGACY_COMPACT_DB, Mbtiles.LEGACY_SKIP_INDEX_CREATION)));
-      case PMTILES -> WriteablePmtiles.newWriteToFile(archive.getLocalPath());
+          .subset(Mbtiles.LEGACY_VACUUM_ANALYZE, Mbtiles.LEGACY_COMPACT_DB, Mbtiles.LEGACY_SKIP_INDEX_CREATION)),
+          // each additional tile writer thread writes to its own shard that gets merged in at the end
+          IntStream.range(1, config.tileWriteThreads()).mapToObj(archive::getPathForMultiThreadedWriter).toList());
+      case PMTILES ->
+        // fall back to the default --storage option for temp data
+        WriteablePmtiles.newWriteToFile(archive.getLocalPath(),
+          options.orElse(config.arguments().subset(WriteablePmtiles.STORAGE)), config);
       case CSV, TSV -> WriteableCsvArchive.newWriteToFile(format, archive.getLocalPath(),
         new StreamArchiveConfig(config, options));
       case PROTO, PBF -> WriteableProtoStreamArchive.newWriteToFile(archive.getLocalPath(),
@@ -72,7 +78,7 @@ public class TileArchives {
     var options = archive.applyFallbacks(config.arguments());
     return switch (archive.format()) {
       case MBTILES -> Mbtiles.newReadOnlyDatabase(archive.getLocalPath(), options);
-      case PMTILES -> ReadablePmtiles.newReadFromFile(archive.getLocalPath());
+      case PMTILES -> ReadablePmtiles.newReadFromFile(archive.getLocalPath(), options);
       case CSV, TSV -> throw new UnsupportedOperationException("reading CSV is not supported");
       case PROTO, PBF -> throw new UnsupportedOperationException("reading PROTO is not supported");
       case JSON -> throw new UnsupportedOperationException("reading JSON is not supported");
@@ -0,0 +1,208 @@
+package com.onthegomap.planetiler.archive;
+
+import com.onthegomap.planetiler.collection.HashLongLongMap;
+import com.onthegomap.planetiler.collection.LongLongMap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.TreeMap;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A side index stored next to a tile archive that records a hash of the raw features each tile was encoded from, so
+ * that a later run with {@code --previous_archive} can copy tiles whose features did not change from the previous
+ * archive instead of encoding and compressing them again.
+ * <p>
+ * The file starts with a header that includes a {@link #fingerprint(TileArchiveMetadata, Arguments) fingerprint} of the
+ * settings that affect how features get encoded, followed by one {@value #RECORD_BYTES}-byte record per tile with the
+ * encoded tile coordinate and content hash.
+ */
+public class TileContentIndex implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TileContentIndex.class);
+  private static final int MAGIC = 0x504c5448; // "PLTH"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+  private static final int RECORD_BYTES = Integer.BYTES + Long.BYTES;
+  private final HashLongLongMap hashes;
+
+  private TileContentIndex(HashLongLongMap hashes) {
+    this.hashes = hashes;
+  }
+
+  /** Returns the path of the side index for the archive at {@code archive}. */
+  public static Path pathFor(Path archive) {
+    return archive.resolveSibling(archive.getFileName() + ".tilehashes");
+  }
+
+  /**
+   * Returns a hash of the metadata and arguments that affect how tile features get encoded, so tiles are not reused
+   * across profile versions, planetiler versions, compression settings, or arguments that profiles or post-processing
+   * might read.
+   * <p>
+   * Every argument is included except ones that were read through {@link Arguments#executionOnly()} because they only
+   * change how the run executes, like thread counts or temp file locations, and file locations since changes to input
+   * files show up in the content hash of each tile. Changes to profile code that do not change its version are not
+   * detected.
+   */
+  public static long fingerprint(TileArchiveMetadata metadata, Arguments arguments) {
+    StringBuilder key = new StringBuilder(String.join("\n",
+      Objects.toString(metadata.name()),
+      Objects.toString(metadata.version()),
+      Objects.toString(metadata.tileCompression()),
+      Objects.toString(metadata.others() == null ? null : metadata.others().get("planetiler:version")),
+      Objects.toString(metadata.others() == null ? null : metadata.others().get("planetiler:githash"))
+    ));
+    var executionOnly = arguments.executionOnlyKeys();
+    new TreeMap<>(arguments.toMap()).forEach((name, value) -> {
+      if (!executionOnly.contains(name)) {
+        key.append('\n').append(name).append('=').append(value);
+      }
+    });
+    return Hashing.fnv1a64(key.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Stores {@code contentHash} along with whether the tile is {@code likelyToBeDuplicated} in the lowest bit, since
+   * that is also needed to write reused tiles.
+   */
+  static long pack(long contentHash, boolean likelyToBeDuplicated) {
+    return (contentHash & ~1L) | (likelyToBeDuplicated ? 1 : 0);
+  }
+
+  /** Returns true if the value returned from {@link #get(TileCoord)} was stored for a tile with {@code contentHash}. */
+  static boolean matches(long packed, long contentHash) {
+    return packed != LongLongMap.MISSING_VALUE && (packed & ~1L) == (contentHash & ~1L);
+  }
+
+  /** Returns true if the tile for the value returned from {@link #get(TileCoord)} was likely to be duplicated. */
+  static boolean likelyToBeDuplicated(long packed) {
+    return (packed & 1) == 1;
+  }
+
+  /**
+   * Loads the side index from {@code path} into {@code storage}, or returns {@code null} if it does not exist or was
+   * written with a different {@code fingerprint}.
+   *
+   * @param path        the side index file
+   * @param fingerprint expected fingerprint of the previous run
+   * @param storage     where to store the index
+   * @param tmpPath     temporary file to use if {@code storage} is {@link Storage#MMAP}
+   */
+  public static TileContentIndex read(Path path, long fingerprint, Storage storage, Path tmpPath) {
+    if (!Files.exists(path)) {
+      LOGGER.warn("No tile content index found at {}, will encode all tiles", path);
+      return null;
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOGGER.warn("Unrecognized tile content index {}, will encode all tiles", path);
+        return null;
+      }
+      if (in.readLong() != fingerprint) {
+        LOGGER.warn("Tile content index {} was written with a different profile, arguments, or planetiler version, " +
+          "will encode all tiles", path);
+        return null;
+      }
+      long numRecords = (Files.size(path) - HEADER_BYTES) / RECORD_BYTES;
+      var hashes = new HashLongLongMap(storage, new Storage.Params(tmpPath, false), numRecords);
+      try {
+        for (long i = 0; i < numRecords; i++) {
+          int coord = in.readInt();
+          long packed = in.readLong();
+          if (packed != LongLongMap.MISSING_VALUE) {
+            hashes.put(coord, packed);
+          }
+        }
+      } catch (EOFException e) {
+        LOGGER.warn("Tile content index {} was truncated", path);
+      }
+      return new TileContentIndex(hashes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a writer that writes a new side index to {@code path}. */
+  public static Writer newWriter(Path path, long fingerprint) {
+    try {
+      FileUtils.createParentDirectories(path);
+      var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprint);
+      return new Writer(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the packed content hash stored for {@code coord} or {@link LongLongMap#MISSING_VALUE} if the previous run
+   * did not emit that tile.
+   */
+  long get(TileCoord coord) {
+    return hashes.get(coord.encoded());
+  }
+
+  @Override
+  public void close() {
+    hashes.close();
+  }
+
+  /** Appends tile content hashes to a new side index file. */
+  @ThreadSafe
+  public static class Writer implements Closeable {
+
+    private final DataOutputStream out;
+
+    private Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    /** Returns a buffer that can hold {@code numTiles} records to pass to {@link #write(ByteBuffer)}. */
+    static ByteBuffer newBuffer(int numTiles) {
+      return ByteBuffer.allocate(numTiles * RECORD_BYTES);
+    }
+
+    /** Adds a record for {@code coord} to {@code buffer}. */
+    static void add(ByteBuffer buffer, TileCoord coord, long packed) {
+      buffer.putInt(coord.encoded()).putLong(packed);
+    }
+
+    /** Appends all records in {@code buffer} to the file. */
+    synchronized void write(ByteBuffer buffer) {
+      try {
+        out.write(buffer.array(), 0, buffer.position());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      try {
+        out.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.onthegomap.planetiler.archive;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.geo.TileCoord;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Predicts the relative cost of encoding a tile from the features it contains, before decoding them.
+ * <p>
+ * {@link TileArchiveWriter} uses the predicted cost to limit how much work goes into each batch of tiles, and to hand
+ * the most expensive batches to encoder threads first so that a single slow batch does not hold up the in-order writer
+ * at the end. Costs are in roughly microseconds of encoding time so that they can be mixed with tile timings measured
+ * in a previous run.
+ */
+@FunctionalInterface
+public interface TileCostModel {
+
+  Logger LOGGER = LoggerFactory.getLogger(TileCostModel.class);
+
+  /** Model that treats every feature as equally expensive. */
+  TileCostModel FEATURE_COUNT = (layer, geomType, encodedBytes) -> 1;
+
+  /** Model that weights features by geometry type and encoded geometry size. */
+  TileCostModel GEOMETRY = geometry(Map.of());
+
+  /**
+   * Returns the predicted cost of encoding a feature in {@code layer} with {@code geomType} where the encoded feature
+   * is {@code encodedBytes} long.
+   */
+  double featureCost(String layer, GeometryType geomType, int encodedBytes);
+
+  /** Returns the predicted cost of encoding {@code tile} where all of its features cost {@code featuresCost}. */
+  default double tileCost(TileCoord tile, double featuresCost) {
+    return featuresCost;
+  }
+
+  /**
+   * Returns a model that weights features by geometry type and size, multiplied by {@code layerWeights} for each layer
+   * that has an entry.
+   * <p>
+   * Points are cheap to post-process and encode, but lines and polygons cost more per vertex and get merged, clipped,
+   * and simplified so they are weighted by the size of their encoded geometry.
+   */
+  static TileCostModel geometry(Map<String, Double> layerWeights) {
+    return (layer, geomType, encodedBytes) -> {
+      double cost = switch (geomType) {
+        case POINT, UNKNOWN -> 1 + encodedBytes * 0.005;
+        case LINE -> 2 + encodedBytes * 0.02;
+        case POLYGON -> 3 + encodedBytes * 0.05;
+      };
+      return cost * layerWeights.getOrDefault(layer, 1d);
+    };
+  }
+
+  /**
+   * Returns a model that uses the total time each tile took to encode in a previous run from a tsv.gz file written with
+   * {@code --output-tile-timings}, and falls back to this model for tiles that are not in the file.
+   * <p>
+   * Only tiles that took at least {@code minMicros} are kept in memory, since cheap tiles are predicted well enough by
+   * this model.
+   */
+  default TileCostModel withMeasuredTimes(Path tileTimings, int minMicros) {
+    IntIntHashMap micros = new IntIntHashMap();
+    try (
+      var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(tileTimings)),
+        StandardCharsets.UTF_8))
+    ) {
+      String header = reader.readLine();
+      if (header == null || !header.startsWith("z\tx\ty\thilbert\ttotal_us\t")) {
+        throw new IllegalArgumentException("Unrecognized tile timings file " + tileTimings);
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split("\t", 6);
+        int total = Integer.parseInt(parts[4]);
+        if (total >= minMicros) {
+          micros.put(TileCoord.ofXYZ(
+            Integer.parseInt(parts[1]),
+            Integer.parseInt(parts[2]),
+            Integer.parseInt(parts[0])
+          ).encoded(), total);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    LOGGER.info("Loaded {} expensive tile timings from {}", micros.size(), tileTimings);
+    TileCostModel fallback = this;
+    return new TileCostModel() {
+      @Override
+      public double featureCost(String layer, GeometryType geomType, int encodedBytes) {
+        return fallback.featureCost(layer, geomType, encodedBytes);
+      }
+
+      @Override
+      public double tileCost(TileCoord tile, double featuresCost) {
+        int measured = micros.getOrDefault(tile.encoded(), -1);
+        return measured >= 0 ? measured : fallback.tileCost(tile, featuresCost);
+      }
+    };
+  }
+
+  /** Returns the model to use from {@code --tile-cost-*} options in {@code config}. */
+  static TileCostModel from(PlanetilerConfig config) {
+    TileCostModel model = switch (config.tileCostModel()) {
+      case "features" -> FEATURE_COUNT;
+      case "geometry" -> geometry(parseLayerWeights(config.tileCostLayerWeights()));
+      default -> throw new IllegalArgumentException(
+        "Unrecognized tile cost model: " + config.tileCostModel() + " expected features or geometry");
+    };
+    if (config.tileCostTimings() != null) {
+      if (Files.exists(config.tileCostTimings())) {
+        model = model.withMeasuredTimes(config.tileCostTimings(), 1_000);
+      } else {
+        LOGGER.warn("Tile timings file {} does not exist, predicting tile costs from features only",
+          config.tileCostTimings());
+      }
+    }
+    return model;
+  }
+
+  /** Parses weights from {@code layer:weight} entries. */
+  static Map<String, Double> parseLayerWeights(List<String> entries) {
+    Map<String, Double> result = new HashMap<>();
+    for (String entry : entries) {
+      int idx = entry.lastIndexOf(':');
+      if (idx <= 0) {
+        throw new IllegalArgumentException("Expected layer:weight but got " + entry);
+      }
+      result.put(entry.substring(0, idx).strip(), Double.parseDouble(entry.substring(idx + 1).strip()));
+    }
+    return result;
+  }
+}
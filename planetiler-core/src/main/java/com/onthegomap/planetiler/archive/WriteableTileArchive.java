@@ -26,6 +26,18 @@ public interface WriteableTileArchive extends Closeable {
    */
   TileOrder tileOrder();
 
+  /**
+   * Returns true if several {@link TileWriter TileWriters} from this archive can be used from different threads at the
+   * same time, each writing tiles in any order, so that tiles can be written as soon as they are encoded instead of in
+   * {@link #tileOrder()}.
+   * <p>
+   * The archive is responsible for restoring {@link #tileOrder()} in {@link #finish(TileArchiveMetadata)} if the format
+   * requires it.
+   */
+  default boolean supportsUnorderedWrites() {
+    return false;
+  }
+
   /**
    * Called before any tiles are written into {@link TileWriter}. Implementations of TileArchive should set up any
    * required state here.
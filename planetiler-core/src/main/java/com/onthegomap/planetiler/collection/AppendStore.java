@@ -13,7 +13,7 @@ import java.util.stream.Stream;
  * {@link AppendStoreRam} stores all data in {@link java.nio.ByteBuffer ByteBuffers} in RAM and {@link AppendStoreMmap}
  * stores all data in a memory-mapped file.
  */
-interface AppendStore extends Closeable, MemoryEstimator.HasEstimate, DiskBacked {
+public interface AppendStore extends Closeable, MemoryEstimator.HasEstimate, DiskBacked {
 
   /** Returns the number of elements in the array */
   long size();
@@ -0,0 +1,421 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.util.CommonStringEncoder;
+import com.onthegomap.planetiler.util.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores features in the feature DB with a custom binary format that avoids the overhead of boxing each value in
+ * MessagePack.
+ * <p>
+ * Each value starts with a version byte, followed by varint-encoded fields:
+ * <ol>
+ * <li>group and limit if the key says the feature has a group</li>
+ * <li>zigzag-encoded ID</li>
+ * <li>geometry type and scale byte</li>
+ * <li>number of attributes, then for each attribute {@code keyId << 3 | type} followed by the value</li>
+ * <li>number of geometry commands, then each command</li>
+ * </ol>
+ * String values in the {@link ValueDictionary} get stored as an ID, and other strings get stored inline. Fill spans use
+ * a different version byte followed by the span length and the repeated feature.
+ * <p>
+ * Decoding reads fields directly from the byte array without allocating intermediate values, and returns the same
+ * {@link String} instance for dictionary-coded values.
+ */
+class CompactFeatureCodec implements FeatureCodec {
+
+  static final String NAME = "compact";
+  private static final byte VERSION = 1;
+  private static final byte FILL_SPAN_VERSION = (byte) (0x80 | VERSION);
+
+  private static final int TYPE_BITS = 3;
+  private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+  private static final int TYPE_STRING = 0;
+  private static final int TYPE_DICTIONARY_STRING = 1;
+  private static final int TYPE_LONG = 2;
+  private static final int TYPE_DOUBLE = 3;
+  private static final int TYPE_FLOAT = 4;
+  private static final int TYPE_TRUE = 5;
+  private static final int TYPE_FALSE = 6;
+
+  private final CommonStringEncoder keys;
+  private final ValueDictionary values;
+
+  CompactFeatureCodec(CommonStringEncoder keys, ValueDictionary values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  @Override
+  public Encoder newEncoder() {
+    return new Encoder() {
+      private final Writer writer = new Writer();
+
+      @Override
+      public byte[] encode(VectorTile.Feature feature, RenderedFeature.Group group) {
+        var out = writer;
+        out.clear();
+        out.writeByte(VERSION);
+        if (group != null) {
+          out.writeVarLong(group.group());
+          out.writeVarLong(group.limit());
+        }
+        out.writeVarLong(zigzag(feature.id()));
+        out.writeByte(FeatureGroup.encodeGeomTypeAndScale(feature.geometry()));
+        var attrs = feature.tags();
+        int numAttrs = 0;
+        for (Object value : attrs.values()) {
+          if (value != null) {
+            numAttrs++;
+          }
+        }
+        out.writeVarLong(numAttrs);
+        for (Map.Entry<String, Object> entry : attrs.entrySet()) {
+          Object value = entry.getValue();
+          if (value != null) {
+            writeAttr(out, (long) keys.encode(entry.getKey()) << TYPE_BITS, value);
+          }
+        }
+        int[] commands = feature.geometry().commands();
+        out.writeVarLong(commands.length);
+        for (int command : commands) {
+          out.writeVarLong(Integer.toUnsignedLong(command));
+        }
+        return out.toByteArray();
+      }
+
+      private void writeAttr(Writer out, long key, Object value) {
+        switch (value) {
+          case Integer integer -> {
+            out.writeVarLong(key | TYPE_LONG);
+            out.writeVarLong(zigzag(integer));
+          }
+          case Long longValue -> {
+            out.writeVarLong(key | TYPE_LONG);
+            out.writeVarLong(zigzag(longValue));
+          }
+          case Float floatValue -> {
+            out.writeVarLong(key | TYPE_FLOAT);
+            out.writeInt(Float.floatToIntBits(floatValue));
+          }
+          case Double doubleValue -> {
+            out.writeVarLong(key | TYPE_DOUBLE);
+            out.writeLong(Double.doubleToLongBits(doubleValue));
+          }
+          case Boolean booleanValue -> out.writeVarLong(key | (booleanValue ? TYPE_TRUE : TYPE_FALSE));
+          case String string -> writeString(out, key, string);
+          case Object other -> writeString(out, key, other.toString());
+        }
+      }
+
+      private void writeString(Writer out, long key, String string) {
+        int id = values.encode(string);
+        if (id >= 0) {
+          out.writeVarLong(key | TYPE_DICTIONARY_STRING);
+          out.writeVarLong(id);
+        } else {
+          byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+          out.writeVarLong(key | TYPE_STRING);
+          out.writeVarLong(bytes.length);
+          out.writeBytes(bytes, 0, bytes.length);
+        }
+      }
+
+      @Override
+      public byte[] encodeFillSpan(int spanLength, byte[] value) {
+        var out = writer;
+        out.clear();
+        out.writeByte(FILL_SPAN_VERSION);
+        out.writeVarLong(spanLength);
+        out.writeBytes(value, 0, value.length);
+        return out.toByteArray();
+      }
+    };
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void checkVersion(byte version) {
+    if (version != VERSION) {
+      throw new IllegalStateException("Unsupported compact feature version: " + version);
+    }
+  }
+
+  @Override
+  public boolean isFillSpan(byte[] value) {
+    return value.length > 0 && value[0] == FILL_SPAN_VERSION;
+  }
+
+  @Override
+  public int fillSpanLength(byte[] value) {
+    var in = new Reader(value, 1);
+    return (int) in.readVarLong();
+  }
+
+  @Override
+  public byte[] fillSpanValue(byte[] value) {
+    var in = new Reader(value, 1);
+    in.readVarLong();
+    return Arrays.copyOfRange(value, in.pos, value.length);
+  }
+
+  @Override
+  public RenderedFeature.Group peekGroup(byte[] value) {
+    checkVersion(value[0]);
+    var in = new Reader(value, 1);
+    long group = in.readVarLong();
+    int limit = (int) in.readVarLong();
+    return new RenderedFeature.Group(group, limit);
+  }
+
+  @Override
+  public GeometryType peekGeomType(byte[] value, boolean hasGroup) {
+    var in = new Reader(value, 1);
+    if (hasGroup) {
+      in.skipVarLong();
+      in.skipVarLong();
+    }
+    in.skipVarLong(); // id
+    return FeatureGroup.decodeGeomType(value[in.pos]);
+  }
+
+  @Override
+  public long hashContents(long hash, byte[] value, boolean hasGroup) {
+    checkVersion(value[0]);
+    var in = new Reader(value, 1);
+    if (hasGroup) {
+      in.skipVarLong();
+      in.skipVarLong();
+    }
+    in.skipVarLong(); // id
+    in.pos++; // geometry type
+    int numAttrs = (int) in.readVarLong();
+    hash = Hashing.fnv1a64(hash, value, 0, in.pos);
+    for (int i = 0; i < numAttrs; i++) {
+      long keyAndType = in.readVarLong();
+      int type = (int) (keyAndType & TYPE_MASK);
+      // prefix keys and strings with their length so they can't run into the next value
+      byte[] key = keys.decode((int) (keyAndType >>> TYPE_BITS)).getBytes(StandardCharsets.UTF_8);
+      hash = Hashing.fnv1a64(Hashing.fnv1a64Int(hash, key.length), key);
+      if (type == TYPE_STRING || type == TYPE_DICTIONARY_STRING) {
+        // strings might be dictionary-coded in one run and inline in another, so always hash the string
+        hash = Hashing.fnv1a64(hash, (byte) TYPE_STRING);
+        if (type == TYPE_STRING) {
+          int length = (int) in.readVarLong();
+          hash = Hashing.fnv1a64(Hashing.fnv1a64Int(hash, length), value, in.pos, length);
+          in.pos += length;
+        } else {
+          byte[] string = values.decode((int) in.readVarLong()).getBytes(StandardCharsets.UTF_8);
+          hash = Hashing.fnv1a64(Hashing.fnv1a64Int(hash, string.length), string);
+        }
+      } else {
+        // other values have a fixed or self-delimiting length for their type
+        int start = in.pos;
+        skipValue(in, type);
+        hash = Hashing.fnv1a64(hash, (byte) type);
+        hash = Hashing.fnv1a64(hash, value, start, in.pos - start);
+      }
+    }
+    return Hashing.fnv1a64(hash, value, in.pos, value.length - in.pos);
+  }
+
+  private static void skipValue(Reader in, int type) {
+    switch (type) {
+      case TYPE_LONG -> in.skipVarLong();
+      case TYPE_FLOAT -> in.pos += 4;
+      case TYPE_DOUBLE -> in.pos += 8;
+      case TYPE_TRUE, TYPE_FALSE -> {
+        // no value
+      }
+      default -> throw new IllegalStateException("Unexpected attribute type: " + type);
+    }
+  }
+
+  @Override
+  public VectorTile.Feature decode(String layer, byte[] value, boolean hasGroup) {
+    checkVersion(value[0]);
+    var in = new Reader(value, 1);
+    long group;
+    if (hasGroup) {
+      group = in.readVarLong();
+      in.skipVarLong(); // groupLimit - features over the limit were already discarded
+    } else {
+      group = VectorTile.Feature.NO_GROUP;
+    }
+    long id = unzigzag(in.readVarLong());
+    byte geomTypeAndScale = value[in.pos++];
+    int numAttrs = (int) in.readVarLong();
+    Map<String, Object> attrs = HashMap.newHashMap(numAttrs);
+    for (int i = 0; i < numAttrs; i++) {
+      long keyAndType = in.readVarLong();
+      String key = keys.decode((int) (keyAndType >>> TYPE_BITS));
+      attrs.put(key, switch ((int) (keyAndType & TYPE_MASK)) {
+        case TYPE_STRING -> in.readString();
+        case TYPE_DICTIONARY_STRING -> values.decode((int) in.readVarLong());
+        case TYPE_LONG -> unzigzag(in.readVarLong());
+        case TYPE_FLOAT -> (double) Float.intBitsToFloat(in.readInt());
+        case TYPE_DOUBLE -> Double.longBitsToDouble(in.readLong());
+        case TYPE_TRUE -> true;
+        case TYPE_FALSE -> false;
+        default -> throw new IllegalStateException("Unexpected attribute type: " + (keyAndType & TYPE_MASK));
+      });
+    }
+    int[] commands = new int[(int) in.readVarLong()];
+    for (int i = 0; i < commands.length; i++) {
+      commands[i] = (int) in.readVarLong();
+    }
+    return new VectorTile.Feature(
+      layer,
+      id,
+      new VectorTile.VectorGeometry(commands, FeatureGroup.decodeGeomType(geomTypeAndScale),
+        FeatureGroup.decodeScale(geomTypeAndScale)),
+      attrs,
+      group
+    );
+  }
+
+  @Override
+  public void visit(byte[] value, boolean hasGroup, Visitor visitor) {
+    checkVersion(value[0]);
+    var in = new Reader(value, 1);
+    if (hasGroup) {
+      in.skipVarLong();
+      in.skipVarLong();
+    }
+    long id = unzigzag(in.readVarLong());
+    byte geomTypeAndScale = value[in.pos++];
+    int numAttrs = (int) in.readVarLong();
+    for (int i = 0; i < numAttrs; i++) {
+      long keyAndType = in.readVarLong();
+      int keyId = (int) (keyAndType >>> TYPE_BITS);
+      switch ((int) (keyAndType & TYPE_MASK)) {
+        case TYPE_STRING -> visitor.attr(keyId, in.readString());
+        case TYPE_DICTIONARY_STRING -> visitor.dictionaryAttr(keyId, (int) in.readVarLong());
+        case TYPE_LONG -> visitor.attr(keyId, unzigzag(in.readVarLong()));
+        case TYPE_FLOAT -> visitor.attr(keyId, (double) Float.intBitsToFloat(in.readInt()));
+        case TYPE_DOUBLE -> visitor.attr(keyId, Double.longBitsToDouble(in.readLong()));
+        case TYPE_TRUE -> visitor.attr(keyId, true);
+        case TYPE_FALSE -> visitor.attr(keyId, false);
+        default -> throw new IllegalStateException("Unexpected attribute type: " + (keyAndType & TYPE_MASK));
+      }
+    }
+    int[] commands = new int[(int) in.readVarLong()];
+    for (int i = 0; i < commands.length; i++) {
+      commands[i] = (int) in.readVarLong();
+    }
+    visitor.feature(id, new VectorTile.VectorGeometry(commands, FeatureGroup.decodeGeomType(geomTypeAndScale),
+      FeatureGroup.decodeScale(geomTypeAndScale)));
+  }
+
+  /** Growable output buffer that gets reused for every feature a thread encodes. */
+  private static class Writer {
+
+    private byte[] buf = new byte[256];
+    private int pos = 0;
+
+    void clear() {
+      pos = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (pos + extra > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+      }
+    }
+
+    void writeByte(byte value) {
+      ensureCapacity(1);
+      buf[pos++] = value;
+    }
+
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7fL) != 0) {
+        buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      buf[pos++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      ensureCapacity(4);
+      buf[pos++] = (byte) (value >>> 24);
+      buf[pos++] = (byte) (value >>> 16);
+      buf[pos++] = (byte) (value >>> 8);
+      buf[pos++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buf, pos, length);
+      pos += length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+  }
+
+  /** Cursor over an encoded value, small enough for the JIT to keep on the stack. */
+  private static class Reader {
+
+    private final byte[] buf;
+    private int pos;
+
+    Reader(byte[] buf, int pos) {
+      this.buf = buf;
+      this.pos = pos;
+    }
+
+    long readVarLong() {
+      long result = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buf[pos++];
+        result |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return result;
+    }
+
+    void skipVarLong() {
+      while (buf[pos++] < 0) {
+        // skip continuation bytes
+      }
+    }
+
+    int readInt() {
+      return ((buf[pos++] & 0xff) << 24) | ((buf[pos++] & 0xff) << 16) | ((buf[pos++] & 0xff) << 8) |
+        (buf[pos++] & 0xff);
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    String readString() {
+      int length = (int) readVarLong();
+      String result = new String(buf, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      return result;
+    }
+  }
+}
@@ -40,6 +40,8 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
@@ -76,10 +78,26 @@ class ExternalMergeSort implements FeatureSort {
   private final boolean mmapIO;
   private final boolean parallelSort;
   private final boolean madvise;
+  private final LongConsumer onDuplicate;
+  private final Supplier<Predicate<SortableFeature>> newChunkFilter;
   private final AtomicBoolean madviseFailed = new AtomicBoolean(false);
   private volatile boolean sorted = false;
 
   ExternalMergeSort(Path tempDir, PlanetilerConfig config, Stats stats) {
+    this(tempDir, config, stats, null, null);
+  }
+
+  /**
+   * Returns a sorter that drops exact duplicate features within each chunk and passes the key of each one it drops to
+   * {@code onDuplicate}, or keeps them all if {@code onDuplicate} is null.
+   * <p>
+   * If {@code newChunkFilter} is not null, it gets called once per chunk to create a filter that is tested against each
+   * feature in the chunk in sorted order, and only features it accepts get written to disk. Since each chunk is a
+   * subset of all features, the filter can only drop a feature if it would also drop it after reading all features back
+   * in order.
+   */
+  ExternalMergeSort(Path tempDir, PlanetilerConfig config, Stats stats, LongConsumer onDuplicate,
+    Supplier<Predicate<SortableFeature>> newChunkFilter) {
     this(
       tempDir,
       config.threads(),
@@ -92,13 +110,23 @@ class ExternalMergeSort implements FeatureSort {
       true,
       true,
       config,
-      stats
+      stats,
+      onDuplicate,
+      newChunkFilter
     );
   }
 
   ExternalMergeSort(Path dir, int workers, int chunkSizeLimit, boolean compress, boolean mmap, boolean parallelSort,
     boolean madvise, PlanetilerConfig config, Stats stats) {
+    this(dir, workers, chunkSizeLimit, compress, mmap, parallelSort, madvise, config, stats, null, null);
+  }
+
+  ExternalMergeSort(Path dir, int workers, int chunkSizeLimit, boolean compress, boolean mmap, boolean parallelSort,
+    boolean madvise, PlanetilerConfig config, Stats stats, LongConsumer onDuplicate,
+    Supplier<Predicate<SortableFeature>> newChunkFilter) {
     this.config = config;
+    this.onDuplicate = onDuplicate;
+    this.newChunkFilter = newChunkFilter;
     this.madvise = madvise;
     this.dir = dir;
     this.stats = stats;
@@ -573,9 +601,20 @@ class ExternalMergeSort implements FeatureSort {
 
       public SortableChunk flush() {
         try (Writer out = newWriter(path)) {
+          SortableFeature last = null;
+          int written = 0;
+          Predicate<SortableFeature> filter = newChunkFilter == null ? null : newChunkFilter.get();
           for (SortableFeature feature : featuresToSort) {
-            out.write(feature);
+            // sorting puts exact duplicates next to each other
+            if (onDuplicate != null && feature.equals(last)) {
+              onDuplicate.accept(feature.key());
+            } else if (filter == null || filter.test(feature)) {
+              out.write(feature);
+              written++;
+              last = feature;
+            }
           }
+          itemCount = written;
           featuresToSort = null;
           return this;
         } catch (IOException e) {
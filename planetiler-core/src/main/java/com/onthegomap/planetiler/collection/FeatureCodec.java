@@ -0,0 +1,91 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.util.CommonStringEncoder;
+import java.io.Closeable;
+
+/**
+ * Binary format that {@link FeatureGroup} uses to store the value of each rendered feature in the feature DB.
+ * <p>
+ * The layer, sort key, and whether the value includes grouping information are stored in the sort key of each
+ * {@link SortableFeature} so codecs only need to encode the group, ID, geometry, and attributes. Attribute keys get
+ * replaced with IDs from a {@link CommonStringEncoder} shared with the feature group, and repetitive string values with
+ * IDs from a shared {@link ValueDictionary}.
+ */
+interface FeatureCodec {
+
+  /**
+   * Returns the codec for {@code format} from {@code --feature-db-format} that encodes keys with {@code keys} and
+   * string values with {@code values} when they are in the dictionary.
+   */
+  static FeatureCodec from(String format, CommonStringEncoder keys, ValueDictionary values) {
+    return switch (format) {
+      case MessagePackFeatureCodec.NAME -> new MessagePackFeatureCodec(keys, values);
+      case CompactFeatureCodec.NAME -> new CompactFeatureCodec(keys, values);
+      default -> throw new IllegalArgumentException(
+        "Unrecognized feature DB format: " + format + " expected " + MessagePackFeatureCodec.NAME + " or " +
+          CompactFeatureCodec.NAME);
+    };
+  }
+
+  /** Returns an encoder that a single thread can use to serialize features. */
+  Encoder newEncoder();
+
+  /** Returns true if {@code value} was encoded with {@link Encoder#encodeFillSpan(int, byte[])}. */
+  boolean isFillSpan(byte[] value);
+
+  /** Returns the number of tiles that a fill span covers. */
+  int fillSpanLength(byte[] value);
+
+  /** Returns the value of the feature that a fill span repeats in each tile, without the span header. */
+  byte[] fillSpanValue(byte[] value);
+
+  /** Returns the group and limit from a value that was encoded with a group, without decoding the rest of it. */
+  RenderedFeature.Group peekGroup(byte[] value);
+
+  /** Returns the geometry type of an encoded feature without decoding the rest of it. */
+  GeometryType peekGeomType(byte[] value, boolean hasGroup);
+
+  /**
+   * Returns {@code hash} updated with the contents of an encoded feature, hashing attribute keys and values as strings
+   * instead of IDs that may vary between runs.
+   */
+  long hashContents(long hash, byte[] value, boolean hasGroup);
+
+  /** Returns the vector tile feature in {@code layer} that {@code value} encodes. */
+  VectorTile.Feature decode(String layer, byte[] value, boolean hasGroup);
+
+  /**
+   * Passes the attributes of an encoded feature to {@code visitor} in the order they were encoded, followed by its ID
+   * and geometry, without allocating a {@link VectorTile.Feature} or attribute map.
+   */
+  void visit(byte[] value, boolean hasGroup, Visitor visitor);
+
+  /** Receives the parts of an encoded feature from {@link #visit(byte[], boolean, Visitor)}. */
+  interface Visitor {
+
+    /** Called for an attribute with key {@code keyId} whose value was stored inline. */
+    void attr(int keyId, Object value);
+
+    /** Called for a string attribute with key {@code keyId} whose value is {@code valueId} in the value dictionary. */
+    void dictionaryAttr(int keyId, int valueId);
+
+    /** Called after all attributes with the ID and geometry of the feature. */
+    void feature(long id, VectorTile.VectorGeometry geometry);
+  }
+
+  /** Serializes features from a single thread, reusing buffers between calls. */
+  interface Encoder extends Closeable {
+
+    /** Returns the encoded value for {@code feature}, including {@code group} if it is not null. */
+    byte[] encode(VectorTile.Feature feature, RenderedFeature.Group group);
+
+    /** Returns a value that repeats the feature encoded in {@code value} in {@code spanLength} consecutive tiles. */
+    byte[] encodeFillSpan(int spanLength, byte[] value);
+
+    @Override
+    default void close() {}
+  }
+}
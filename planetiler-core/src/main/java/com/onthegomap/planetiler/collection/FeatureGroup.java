@@ -2,23 +2,40 @@ package com.onthegomap.planetiler.collection;
 
 import static com.onthegomap.planetiler.util.MutableCollections.makeMutable;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntHashMap;
 import com.carrotsearch.hppc.LongLongHashMap;
+import com.google.common.collect.Iterators;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.archive.TileCostModel;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.stats.Counter;
 import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.CommonStringEncoder;
 import com.onthegomap.planetiler.util.DiskBacked;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.Hashing;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.MemoryEstimator;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import com.onthegomap.planetiler.worker.Worker;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,16 +44,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 import javax.annotation.concurrent.NotThreadSafe;
-import org.msgpack.core.MessageBufferPacker;
-import org.msgpack.core.MessagePack;
-import org.msgpack.core.MessageUnpacker;
-import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +62,12 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Limitation: layer name and attribute key strings get compressed into a single byte, so only 250 unique values are
  * supported (see {@link CommonStringEncoder})
+ * <p>
+ * When tiles are sorted in {@link TileOrder#TMS} order, a run of identical features in consecutive tiles of a column
+ * (i.e. the filled interior of an ocean polygon) is stored as a single "fill span" entry keyed by the first tile in the
+ * run, and gets expanded back to one entry per tile when grouping features by tile.
+ * <p>
+ * The value of each feature gets serialized with the {@link FeatureCodec} from {@code --feature-db-format}.
  */
 @NotThreadSafe
 public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>, DiskBacked {
@@ -56,22 +77,49 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public static final int SORT_KEY_MIN = -(1 << (SORT_KEY_BITS - 1));
   private static final int SORT_KEY_MASK = (1 << SORT_KEY_BITS) - 1;
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureGroup.class);
+  private static final long TILE_MASK = 0xffffffffL << 32L;
   private final FeatureSort sorter;
   private final Profile profile;
   private final CommonStringEncoder.AsByte commonLayerStrings = new CommonStringEncoder.AsByte();
   private final CommonStringEncoder commonValueStrings = new CommonStringEncoder(100_000);
+  private final ValueDictionary valueDictionary;
+  private final FeatureCodec codec;
   private final Stats stats;
   private final PlanetilerConfig config;
   private volatile boolean prepared = false;
   private final TileOrder tileOrder;
+  private final boolean dedup;
+  // number of exact duplicate features dropped, indexed by layer ID
+  private final AtomicLongArray duplicatesByLayer = new AtomicLongArray(256);
+  private final Path spillDir;
+  private final Counter.MultiThreadCounter tilesSpilled;
+  // features the sorter dropped from chunks before they got written to disk
+  private final Counter.MultiThreadCounter chunkDuplicatesDropped;
+  private final Counter.MultiThreadCounter groupLimitDropped;
 
 
   FeatureGroup(FeatureSort sorter, TileOrder tileOrder, Profile profile, PlanetilerConfig config, Stats stats) {
-    this.sorter = sorter;
+    this(group -> sorter, tileOrder, profile, config, stats, config.tmpDir().resolve("tile_spill"));
+  }
+
+  private FeatureGroup(Function<FeatureGroup, FeatureSort> newSorter, TileOrder tileOrder, Profile profile,
+    PlanetilerConfig config, Stats stats, Path spillDir) {
+    this.dedup = config.dedupFeatures();
     this.tileOrder = tileOrder;
     this.profile = profile;
     this.config = config;
     this.stats = stats;
+    this.valueDictionary = new ValueDictionary(config.featureDbValueDictionarySize());
+    this.codec = FeatureCodec.from(config.featureDbFormat(), commonValueStrings, valueDictionary);
+    this.spillDir = spillDir;
+    this.tilesSpilled = stats.longCounter("featuredb_tiles_spilled");
+    this.chunkDuplicatesDropped = stats.longCounter("featuredb_chunk_duplicates_dropped");
+    this.groupLimitDropped = stats.longCounter("featuredb_group_limit_dropped");
+    stats.gauge("featuredb_value_dictionary_size", valueDictionary::size);
+    if (dedup) {
+      stats.counter("featuredb_duplicates_dropped", "layer", this::duplicatesByLayerName);
+    }
+    this.sorter = newSorter.apply(this);
   }
 
   /** Returns a feature grouper that stores all feature in-memory. Only suitable for toy use-cases like unit tests. */
@@ -88,8 +136,10 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public static FeatureGroup newDiskBackedFeatureGroup(TileOrder tileOrder, Path tempDir, Profile profile,
     PlanetilerConfig config, Stats stats) {
     return new FeatureGroup(
-      new ExternalMergeSort(tempDir, config, stats),
-      tileOrder, profile, config, stats
+      group -> new ExternalMergeSort(tempDir, config, stats, group.dedup ? group::countChunkDuplicate : null,
+        group::newGroupLimitFilter),
+      tileOrder, profile, config, stats,
+      tempDir.resolve("tile_spill")
     );
   }
 
@@ -118,20 +168,15 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return ((int) ((key >> 1) & SORT_KEY_MASK)) + SORT_KEY_MIN;
   }
 
-  private static RenderedFeature.Group peekAtGroupInfo(byte[] encoded) {
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(encoded)) {
-      long group = unpacker.unpackLong();
-      int limit = unpacker.unpackInt();
-      return new RenderedFeature.Group(group, limit);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
-  }
-
   static GeometryType decodeGeomType(byte geomTypeAndScale) {
     return GeometryType.valueOf((byte) (geomTypeAndScale & 0b111));
   }
 
+  /** Returns the geometry type of an encoded feature without decoding the rest of it. */
+  GeometryType peekGeomType(SortableFeature entry) {
+    return codec.peekGeomType(entry.value(), extractHasGroupFromKey(entry.key()));
+  }
+
   static int decodeScale(byte geomTypeAndScale) {
     return (geomTypeAndScale & 0xff) >>> 3;
   }
@@ -142,16 +187,36 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return (byte) ((geometry.geomType().asByte() & 0xff) | (geometry.scale() << 3));
   }
 
+  /**
+   * Returns {@code true} if rendered features with a {@link RenderedFeature#spanLength()} greater than 1 can be written
+   * to this feature group, which requires consecutive tiles in a column to have consecutive tile IDs.
+   */
+  public boolean supportsFillSpans() {
+    return tileOrder == TileOrder.TMS;
+  }
+
+  boolean isFillSpan(byte[] value) {
+    return codec.isFillSpan(value);
+  }
+
   public long numFeaturesWritten() {
     return sorter.numFeaturesWritten();
   }
 
+  /**
+   * Returns the number of features that will be read back after sorting, excluding features the sorter dropped for
+   * being over the limit of their group or exact duplicates.
+   */
+  public long numFeaturesToRead() {
+    return sorter.numFeaturesWritten() - groupLimitDropped.get() - chunkDuplicatesDropped.get();
+  }
+
   /** Returns a function for a single thread to use to serialize rendered features. */
   public RenderedFeatureEncoder newRenderedFeatureEncoder() {
     return new RenderedFeatureEncoder() {
       // This method gets called billions of times when generating the planet, so these optimizations make a big difference:
-      // 1) Re-use the same buffer packer to avoid allocating and resizing new byte arrays for every feature.
-      private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      // 1) Re-use the same encoder to avoid allocating and resizing new buffers for every feature.
+      private final FeatureCodec.Encoder encoder = codec.newEncoder();
       // 2) Avoid re-encoding values for identical filled geometries (i.e. ocean) by memoizing the encoded values
       // FeatureRenderer ensures that a separate VectorTileEncoder.Feature is used for each zoom level
       private VectorTile.Feature lastFeature = null;
@@ -163,78 +228,48 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         var thisFeature = feature.vectorTileFeature();
         byte[] encodedValue;
         if (group != null) { // don't bother memoizing if group is present
-          encodedValue = encodeValue(thisFeature, group, packer);
+          encodedValue = encoder.encode(thisFeature, group);
         } else if (lastFeature == thisFeature) {
           encodedValue = lastEncodedValue;
         } else { // feature changed, memoize new value
           lastFeature = thisFeature;
-          lastEncodedValue = encodedValue = encodeValue(feature.vectorTileFeature(), null, packer);
+          lastEncodedValue = encodedValue = encoder.encode(feature.vectorTileFeature(), null);
         }
 
-        return new SortableFeature(encodeKey(feature), encodedValue);
+        if (feature.spanLength() > 1) {
+          return encodeFillSpan(feature, encodedValue);
+        }
+        return new SortableFeature(encodeKey(feature.tile(), feature), encodedValue);
+      }
+
+      private SortableFeature encodeFillSpan(RenderedFeature feature, byte[] encodedValue) {
+        assert supportsFillSpans() : "fill spans not supported in " + tileOrder + " order";
+        var tile = feature.tile();
+        // tile IDs increase going north in a column, so key the span by its southernmost tile
+        var first = TileCoord.ofXYZ(tile.x(), tile.y() + feature.spanLength() - 1, tile.z());
+        return new SortableFeature(encodeKey(first, feature), encoder.encodeFillSpan(feature.spanLength(),
+          encodedValue));
       }
 
       @Override
-      public void close() throws IOException {
-        packer.close();
+      public void close() {
+        encoder.close();
       }
     };
   }
 
-  private long encodeKey(RenderedFeature feature) {
+  private long encodeKey(TileCoord tile, RenderedFeature feature) {
     var vectorTileFeature = feature.vectorTileFeature();
     byte encodedLayer = commonLayerStrings.encode(vectorTileFeature.layer());
 
     return encodeKey(
-      this.tileOrder.encode(feature.tile()),
+      this.tileOrder.encode(tile),
       encodedLayer,
       feature.sortKey(),
       feature.group().isPresent()
     );
   }
 
-  private byte[] encodeValue(VectorTile.Feature vectorTileFeature, RenderedFeature.Group group,
-    MessageBufferPacker packer) {
-    packer.clear();
-    try {
-      // hasGroup bit in key will tell consumers whether they need to decode group info from value
-      if (group != null) {
-        packer.packLong(group.group());
-        packer.packInt(group.limit());
-      }
-      packer.packLong(vectorTileFeature.id());
-      packer.packByte(encodeGeomTypeAndScale(vectorTileFeature.geometry()));
-      var attrs = vectorTileFeature.tags();
-      packer.packMapHeader((int) attrs.values().stream().filter(Objects::nonNull).count());
-      for (Map.Entry<String, Object> entry : attrs.entrySet()) {
-        Object value = entry.getValue();
-        if (value != null) {
-          packer.packInt(commonValueStrings.encode(entry.getKey()));
-          packer.packValue(switch (value) {
-            case String string -> ValueFactory.newString(string);
-            case Integer integer -> ValueFactory.newInteger(integer.longValue());
-            case Long longValue -> ValueFactory.newInteger(longValue);
-            case Float floatValue -> ValueFactory.newFloat(floatValue);
-            case Double doubleValue -> ValueFactory.newFloat(doubleValue);
-            case Boolean booleanValue -> ValueFactory.newBoolean(booleanValue);
-            case Object other -> ValueFactory.newString(other.toString());
-          });
-        }
-      }
-      // Use the same binary format for encoding geometries in output vector tiles. Benchmarking showed
-      // it was faster and smaller for encoding/decoding intermediate geometries than alternatives like WKB.
-      int[] commands = vectorTileFeature.geometry().commands();
-      packer.packArrayHeader(commands.length);
-      for (int command : commands) {
-        packer.packInt(command);
-      }
-      packer.close();
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
-    return packer.toByteArray();
-  }
-
   /** Returns a new feature writer that can be used for a single thread. */
   public CloseableConsumer<SortableFeature> writerForThread() {
     return sorter.writerForThread();
@@ -259,6 +294,73 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return new Reader(parIter.reader(), () -> groupIntoTiles(parIter.iterator()));
   }
 
+  private void countDuplicate(long key) {
+    duplicatesByLayer.incrementAndGet(extractLayerIdFromKey(key) & 0xff);
+  }
+
+  private void countChunkDuplicate(long key) {
+    chunkDuplicatesDropped.inc();
+    countDuplicate(key);
+  }
+
+  /**
+   * Returns a filter for a single sorted chunk of features that drops features over the limit for their group the same
+   * way {@link TileFeatures} does, so points that would get dropped from dense label grids never get written to disk.
+   * <p>
+   * A chunk only holds some of the features in each tile, so this keeps every feature that {@link TileFeatures} could
+   * keep after merging all chunks. Fill spans also get added to tiles after the one they start in, so they are always
+   * kept and not counted.
+   */
+  private Predicate<SortableFeature> newGroupLimitFilter() {
+    Counter dropped = groupLimitDropped.counterForThread();
+    return new Predicate<>() {
+      private LongLongHashMap counts = null;
+      private long lastTileAndLayer;
+
+      @Override
+      public boolean test(SortableFeature entry) {
+        long key = entry.key();
+        if (!extractHasGroupFromKey(key) || isFillSpan(entry.value())) {
+          return true;
+        }
+        long tileAndLayer = key >>> 24;
+        if (counts == null) {
+          counts = Hppc.newLongLongHashMap();
+          lastTileAndLayer = tileAndLayer;
+        } else if (tileAndLayer != lastTileAndLayer) {
+          lastTileAndLayer = tileAndLayer;
+          counts.clear();
+        }
+        var groupInfo = codec.peekGroup(entry.value());
+        long old = counts.getOrDefault(groupInfo.group(), 0);
+        if (groupInfo.limit() > 0 && old >= groupInfo.limit()) {
+          dropped.inc();
+          return false;
+        }
+        counts.put(groupInfo.group(), old + 1);
+        return true;
+      }
+    };
+  }
+
+  private Map<String, LongSupplier> duplicatesByLayerName() {
+    Map<String, LongSupplier> result = new TreeMap<>();
+    for (int i = 0; i < duplicatesByLayer.length(); i++) {
+      int layerId = i;
+      if (duplicatesByLayer.get(layerId) > 0) {
+        result.put(commonLayerStrings.decode((byte) layerId), () -> duplicatesByLayer.get(layerId));
+      }
+    }
+    return result;
+  }
+
+  /** Returns the number of exact duplicate features dropped from each layer when {@code --dedup_features} is set. */
+  Map<String, Long> getDuplicatesDropped() {
+    Map<String, Long> result = new TreeMap<>();
+    duplicatesByLayerName().forEach((layer, count) -> result.put(layer, count.getAsLong()));
+    return result;
+  }
+
   private Iterator<TileFeatures> groupIntoTiles(Iterator<SortableFeature> entries) {
     // entries are sorted by tile ID, so group consecutive entries in same tile into tiles
     if (!entries.hasNext()) {
@@ -267,39 +369,194 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
 
     /*
      * Features from sorter are ordered by tile, so iterate through features as long as
-     * they are in the same tile and return that group.
+     * they are in the same tile and return that group, and repeat fill spans in each tile they cover.
      */
     SortableFeature firstFeature = entries.next();
     return new Iterator<>() {
       private SortableFeature lastFeature = firstFeature;
+      private SortableFeature lastAdded = null;
       private int lastTileId = extractTileFromKey(firstFeature.key());
+      // fill spans that continue into the next tile, ordered by layer and sort key
+      private final List<FillSpan> spans = new ArrayList<>();
+      private int nextSpanTile;
 
       @Override
       public boolean hasNext() {
-        return lastFeature != null;
+        return lastFeature != null || !spans.isEmpty();
       }
 
       @Override
       public TileFeatures next() {
-        TileFeatures result = new TileFeatures(lastTileId);
-        result.add(lastFeature);
-        int lastTile = lastTileId;
-
-        while (entries.hasNext()) {
-          SortableFeature next = entries.next();
-          lastFeature = next;
-          lastTileId = extractTileFromKey(lastFeature.key());
-          if (lastTile != lastTileId) {
-            return result;
+        // spans always cover the tile after the previous one, which comes before the next tile with new features
+        int tile = spans.isEmpty() ? lastTileId : nextSpanTile;
+        TileFeatures result = new TileFeatures(tile);
+        int spanIndex = 0;
+        while (lastFeature != null && lastTileId == tile) {
+          SortableFeature entry = lastFeature;
+          long keyWithinTile = entry.key() & ~TILE_MASK;
+          // merge in features from spans that started in an earlier tile
+          while (spanIndex < spans.size() && spans.get(spanIndex).keyWithinTile < keyWithinTile) {
+            result.add(spans.get(spanIndex++).forTile(tile));
+          }
+          if (dedup && entry.equals(lastAdded)) {
+            // duplicates from different chunks of the sorter only end up next to each other after merging
+            countDuplicate(entry.key());
+          } else if (isFillSpan(entry.value())) {
+            FillSpan span = new FillSpan(entry, codec);
+            spans.add(spanIndex++, span);
+            result.add(span.forTile(tile));
+            lastAdded = entry;
+          } else {
+            result.add(entry);
+            lastAdded = entry;
           }
-          result.add(next);
+          if (entries.hasNext()) {
+            lastFeature = entries.next();
+            lastTileId = extractTileFromKey(lastFeature.key());
+          } else {
+            lastFeature = null;
+          }
+        }
+        while (spanIndex < spans.size()) {
+          result.add(spans.get(spanIndex++).forTile(tile));
         }
-        lastFeature = null;
+        spans.removeIf(span -> span.lastTile <= tile);
+        nextSpanTile = tile + 1;
+        result.finishAdding();
         return result;
       }
     };
   }
 
+  /** A run of identical features in consecutive tiles that is being expanded while grouping features by tile. */
+  private static class FillSpan {
+
+    private final long keyWithinTile;
+    private final byte[] value;
+    private final int lastTile;
+
+    FillSpan(SortableFeature entry, FeatureCodec codec) {
+      // strip the span header so every tile gets the same value as a regular feature
+      this.value = codec.fillSpanValue(entry.value());
+      this.keyWithinTile = entry.key() & ~TILE_MASK;
+      this.lastTile = extractTileFromKey(entry.key()) + codec.fillSpanLength(entry.value()) - 1;
+    }
+
+    SortableFeature forTile(int tile) {
+      return new SortableFeature(((long) tile << 32L) | keyWithinTile, value);
+    }
+  }
+
+  /**
+   * Features from a single tile past the in-memory limit, written to a temp file to read back when encoding the tile.
+   */
+  private static class SpilledEntries implements Closeable {
+
+    private final Path path;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private int count = 0;
+
+    SpilledEntries(Path path) {
+      this.path = path;
+      FileUtils.deleteOnExit(path);
+      try {
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    void add(SortableFeature entry) {
+      try {
+        output.writeLong(entry.key());
+        output.writeInt(entry.value().length);
+        output.write(entry.value());
+        count++;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    void finishAdding() {
+      try {
+        output.close();
+        output = null;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Returns an iterator that reads features back from the temp file, which stays open until the last feature is read
+     * or {@link #close()} is called.
+     */
+    Iterator<SortableFeature> iterator() {
+      if (output != null || !Files.exists(path)) {
+        throw new IllegalStateException("Spilled features are not readable: " + path);
+      }
+      closeInput();
+      DataInputStream input;
+      try {
+        input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      this.input = input;
+      return new Iterator<>() {
+        private int read = 0;
+
+        @Override
+        public boolean hasNext() {
+          return read < count;
+        }
+
+        @Override
+        public SortableFeature next() {
+          if (read >= count) {
+            throw new NoSuchElementException();
+          }
+          try {
+            long key = input.readLong();
+            byte[] value = input.readNBytes(input.readInt());
+            if (++read == count) {
+              closeInput();
+            }
+            return new SortableFeature(key, value);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      };
+    }
+
+    private void closeInput() {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          LOGGER.warn("Unable to close {}", path, e);
+        }
+        input = null;
+      }
+    }
+
+    /** Closes any open streams and deletes the temp file. */
+    @Override
+    public void close() {
+      closeInput();
+      if (output != null) {
+        try {
+          output.close();
+        } catch (IOException e) {
+          LOGGER.warn("Unable to close {}", path, e);
+        }
+        output = null;
+      }
+      FileUtils.deleteFile(path);
+    }
+  }
+
   @Override
   public long diskUsageBytes() {
     return sorter.diskUsageBytes();
@@ -310,6 +567,8 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     if (!prepared) {
       synchronized (this) {
         if (!prepared) {
+          LOGGER.debug("Stored {} repeated attribute values in the feature DB value dictionary",
+            valueDictionary.size());
           sorter.sort();
           prepared = true;
         }
@@ -326,31 +585,45 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public record Reader(Worker readWorker, Iterable<TileFeatures> result) {}
 
   /** Features contained in a single tile. */
-  public class TileFeatures {
+  public class TileFeatures implements MemoryEstimator.HasEstimate {
 
     private final TileCoord tileCoord;
     private final List<SortableFeature> entries = new ArrayList<>();
+    // features added after entries reach config.tileFeaturesSpillBytes() go to a temp file instead, along with the
+    // number of spilled features by layer, geometry type, and size and running hashes so they don't need to be read
+    // back to estimate cost or compute hashes
+    private SpilledEntries spilled = null;
+    private LongLongHashMap spilledFeatureSizes = null;
+    private long rawContentHashWithSpilled;
+    private long contentHashWithSpilled;
+    private long numEntries = 0;
     private final AtomicLong numFeaturesProcessed = new AtomicLong(0);
     private LongLongHashMap counts = null;
     private byte lastLayer = Byte.MAX_VALUE;
+    private long memoryUsageBytes = 0;
 
     private TileFeatures(int lastTileId) {
       this.tileCoord = tileOrder.decode(lastTileId);
     }
 
-    private static void unscaleAndRemovePointsOutsideBuffer(List<VectorTile.Feature> features, double maxPointBuffer) {
+    private static VectorTile.VectorGeometry unscaleAndRemovePointsOutsideBuffer(VectorTile.VectorGeometry geometry,
+      double maxPointBuffer) {
       boolean checkPoints = maxPointBuffer <= 256 && maxPointBuffer >= -128;
+      if (geometry.scale() != 0) {
+        geometry = geometry.unscale();
+      }
+      if (checkPoints && geometry.geomType() == GeometryType.POINT && !geometry.isEmpty()) {
+        geometry = geometry.filterPointsOutsideBuffer(maxPointBuffer);
+      }
+      return geometry;
+    }
+
+    private static void unscaleAndRemovePointsOutsideBuffer(List<VectorTile.Feature> features, double maxPointBuffer) {
       for (int i = 0; i < features.size(); i++) {
         var feature = features.get(i);
         if (feature != null) {
-          VectorTile.VectorGeometry geometry = feature.geometry();
-          var orig = geometry;
-          if (geometry.scale() != 0) {
-            geometry = geometry.unscale();
-          }
-          if (checkPoints && geometry.geomType() == GeometryType.POINT && !geometry.isEmpty()) {
-            geometry = geometry.filterPointsOutsideBuffer(maxPointBuffer);
-          }
+          var orig = feature.geometry();
+          var geometry = unscaleAndRemovePointsOutsideBuffer(orig, maxPointBuffer);
           if (geometry.isEmpty()) {
             features.set(i, null);
           } else if (geometry != orig) {
@@ -367,21 +640,71 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
 
     /** Returns the number of features to output, excluding features discarded from being over the limit in a group. */
     public long getNumFeaturesToEmit() {
-      return entries.size();
+      return numEntries;
+    }
+
+    /**
+     * Returns true if this tile had too many features to hold in memory, so the rest got written to a temp file that
+     * {@link #getVectorTile()} reads back and deletes.
+     */
+    public boolean isSpilled() {
+      return spilled != null;
+    }
+
+    /** Returns features held in memory followed by the ones read back from the temp file if this tile spilled. */
+    private Iterable<SortableFeature> allEntries() {
+      return spilled == null ? entries : () -> Iterators.concat(entries.iterator(), spilled.iterator());
+    }
+
+    /**
+     * Deletes the temp file holding features past the in-memory limit if this tile spilled, after which
+     * {@link #getVectorTile()} can no longer be called.
+     * <p>
+     * Callers that do not encode a spilled tile, for example when they reuse a tile from a previous archive instead,
+     * must call this to release the temp file.
+     */
+    public void releaseSpilledFeatures() {
+      if (spilled != null) {
+        spilled.close();
+      }
     }
 
     public TileCoord tileCoord() {
       return tileCoord;
     }
 
+    /** Returns the estimated size of the encoded features held in memory for this tile, excluding spilled features. */
+    @Override
+    public long estimateMemoryUsageBytes() {
+      return memoryUsageBytes;
+    }
+
+    /** Returns the cost of encoding this tile predicted by {@code model} without decoding its features. */
+    public double estimateCost(TileCostModel model) {
+      double cost = 0;
+      for (var entry : entries) {
+        String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
+        cost += model.featureCost(layer, peekGeomType(entry), entry.value().length);
+      }
+      if (spilledFeatureSizes != null) {
+        for (var cursor : spilledFeatureSizes) {
+          String layer = commonLayerStrings.decode((byte) (cursor.key >>> 40));
+          GeometryType geomType = GeometryType.valueOf((byte) (cursor.key >>> 32));
+          cost += cursor.value * model.featureCost(layer, geomType, (int) cursor.key);
+        }
+      }
+      return model.tileCost(tileCoord, cost);
+    }
+
     /**
      * Returns true if {@code other} contains features with identical layer, geometry, and attributes, as this tile -
      * even if the tiles have separate coordinates.
      * <p>
-     * Used as an optimization to avoid re-encoding the same ocean tiles over and over again.
+     * Used as an optimization to avoid re-encoding the same ocean tiles over and over again, so tiles that spilled to
+     * disk never match since they are too big to be worth comparing.
      */
     public boolean hasSameContents(TileFeatures other) {
-      if (other == null || other.entries.size() != entries.size()) {
+      if (other == null || spilled != null || other.spilled != null || other.entries.size() != entries.size()) {
         return false;
       }
       for (int i = 0; i < entries.size(); i++) {
@@ -396,51 +719,51 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       return true;
     }
 
+    /**
+     * Returns a 64-bit hash of the layer ID and raw encoded bytes of every feature in this tile, so that tiles where
+     * {@link #hasSameContents(TileFeatures)} returns true have the same hash.
+     * <p>
+     * This is cheaper to compute than {@link #contentHash()} but depends on IDs assigned during this run, so it can
+     * only be compared to other tiles from the same feature group.
+     */
+    public long rawContentHash() {
+      if (spilled != null) {
+        return rawContentHashWithSpilled;
+      }
+      long hash = Hashing.FNV1_64_INIT;
+      for (SortableFeature entry : entries) {
+        hash = addToRawContentHash(hash, entry);
+      }
+      return hash;
+    }
 
-    private VectorTile.Feature decodeVectorTileFeature(SortableFeature entry) {
-      try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entry.value())) {
-        long group;
-        if (extractHasGroupFromKey(entry.key())) {
-          group = unpacker.unpackLong();
-          unpacker.unpackInt(); // groupLimit - features over the limit were already discarded
-        } else {
-          group = VectorTile.Feature.NO_GROUP;
-        }
-        long id = unpacker.unpackLong();
-        byte geomTypeAndScale = unpacker.unpackByte();
-        GeometryType geomType = decodeGeomType(geomTypeAndScale);
-        int scale = decodeScale(geomTypeAndScale);
-        int mapSize = unpacker.unpackMapHeader();
-        Map<String, Object> attrs = HashMap.newHashMap(mapSize);
-        for (int i = 0; i < mapSize; i++) {
-          String key = commonValueStrings.decode(unpacker.unpackInt());
-          Value v = unpacker.unpackValue();
-          if (v.isStringValue()) {
-            attrs.put(key, v.asStringValue().asString());
-          } else if (v.isIntegerValue()) {
-            attrs.put(key, v.asIntegerValue().toLong());
-          } else if (v.isFloatValue()) {
-            attrs.put(key, v.asFloatValue().toDouble());
-          } else if (v.isBooleanValue()) {
-            attrs.put(key, v.asBooleanValue().getBoolean());
-          }
-        }
-        int commandSize = unpacker.unpackArrayHeader();
-        int[] commands = new int[commandSize];
-        for (int i = 0; i < commandSize; i++) {
-          commands[i] = unpacker.unpackInt();
-        }
-        String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
-        return new VectorTile.Feature(
-          layer,
-          id,
-          new VectorTile.VectorGeometry(commands, geomType, scale),
-          attrs,
-          group
-        );
-      } catch (IOException e) {
-        throw new IllegalStateException(e);
+    private static long addToRawContentHash(long hash, SortableFeature entry) {
+      hash = Hashing.fnv1a64(hash, extractLayerIdFromKey(entry.key()));
+      return Hashing.fnv1a64(hash, entry.value());
+    }
+
+    /**
+     * Returns a 64-bit hash of the layer and raw encoded bytes of every feature in this tile, so that tiles with the
+     * same contents as {@link #hasSameContents(TileFeatures)} would report have the same hash.
+     * <p>
+     * Layer names and attribute keys are numbered in the order they are first seen, which varies between runs, so those
+     * get hashed as strings instead to make the hash comparable to one computed for the same tile in a previous run.
+     */
+    public long contentHash() {
+      if (spilled != null) {
+        return contentHashWithSpilled;
+      }
+      long hash = Hashing.FNV1_64_INIT;
+      for (SortableFeature entry : entries) {
+        hash = addToContentHash(hash, entry);
       }
+      return hash;
+    }
+
+    private long addToContentHash(long hash, SortableFeature entry) {
+      hash = Hashing.fnv1a64(hash, commonLayerStrings.decode(extractLayerIdFromKey(entry.key()))
+        .getBytes(StandardCharsets.UTF_8));
+      return codec.hashContents(hash, entry.value(), extractHasGroupFromKey(entry.key()));
     }
 
     public VectorTile getVectorTile() {
@@ -448,6 +771,20 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     }
 
     public VectorTile getVectorTile(LayerAttrStats.Updater layerStats) {
+      return getVectorTile(layerStats, null);
+    }
+
+    /**
+     * Returns the post-processed vector tile for these features, adding the time spent in each profile post-processing
+     * hook to {@code timings} if it is not null.
+     * <p>
+     * Features in pass-through layers get copied straight into the output tile as they are read, so only features that
+     * need post-processing are decoded and held in memory. They get added to the tile before post-processed layers, but
+     * {@link VectorTile} orders layers by name, so the output has the same layers in the same order either way. If this
+     * tile spilled to disk, the temp file gets deleted after reading it back so this can only be called once.
+     */
+    public VectorTile getVectorTile(LayerAttrStats.Updater layerStats, TileTimingStats.Timings timings) {
+      long start = timings == null ? 0 : System.nanoTime();
       VectorTile tile = new VectorTile();
       if (layerStats != null) {
         tile.trackLayerStats(layerStats.forZoom(tileCoord.z()));
@@ -455,20 +792,31 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       List<VectorTile.Feature> items = new ArrayList<>();
       String currentLayer = null;
       Map<String, List<VectorTile.Feature>> layerFeatures = new TreeMap<>();
-      for (SortableFeature entry : entries) {
-        var feature = decodeVectorTileFeature(entry);
-        String layer = feature.layer();
-
-        if (currentLayer == null) {
-          currentLayer = layer;
-          layerFeatures.put(currentLayer, items);
-        } else if (!currentLayer.equals(layer)) {
-          currentLayer = layer;
-          items = new ArrayList<>();
-          layerFeatures.put(layer, items);
-        }
+      byte currentLayerId = 0;
+      PassThroughWriter passThrough = null;
+      try {
+        for (SortableFeature entry : allEntries()) {
+          byte layerId = extractLayerIdFromKey(entry.key());
+          if (currentLayer == null || layerId != currentLayerId) {
+            currentLayerId = layerId;
+            currentLayer = commonLayerStrings.decode(layerId);
+            // features within a layer are contiguous, so only check once per layer whether to skip post-processing
+            passThrough = profile.isPassThroughLayer(currentLayer) ?
+              new PassThroughWriter(tile.layerWriter(currentLayer)) : null;
+            if (passThrough == null) {
+              items = new ArrayList<>();
+              layerFeatures.put(currentLayer, items);
+            }
+          }
 
-        items.add(feature);
+          if (passThrough != null) {
+            codec.visit(entry.value(), extractHasGroupFromKey(entry.key()), passThrough);
+          } else {
+            items.add(codec.decode(currentLayer, entry.value(), extractHasGroupFromKey(entry.key())));
+          }
+        }
+      } finally {
+        releaseSpilledFeatures();
       }
       // first post-process entire tile by invoking postProcessTileFeatures to allow for post-processing that combines
       // features across different layers, infers new layers, or removes layers
@@ -481,9 +829,19 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       } catch (Throwable e) { // NOSONAR - OK to catch Throwable since we re-throw Errors
         handlePostProcessFailure(e, "entire tile");
       }
+      if (timings != null) {
+        long end = System.nanoTime();
+        timings.addTilePostProcess(end - start);
+        start = end;
+      }
       // then let profiles post-process each layer in isolation with postProcessLayerFeatures
       for (var entry : layerFeatures.entrySet()) {
         postProcessAndAddLayerFeatures(tile, entry.getKey(), entry.getValue());
+        if (timings != null) {
+          long end = System.nanoTime();
+          timings.addLayerPostProcess(entry.getKey(), end - start);
+          start = end;
+        }
       }
       return tile;
     }
@@ -509,6 +867,92 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       encoder.addLayerFeatures(layer, features);
     }
 
+    /**
+     * Copies features from a pass-through layer into the output tile, caching the index of each attribute key and
+     * dictionary-coded value in the layer so they only get looked up once per tile.
+     */
+    private class PassThroughWriter implements FeatureCodec.Visitor {
+
+      private final VectorTile.LayerWriter writer;
+      private final IntIntHashMap keyIndexes = new IntIntHashMap();
+      private final IntIntHashMap dictionaryValueIndexes = new IntIntHashMap();
+      // attributes get buffered until the geometry is known so that empty features don't add to layer tables or stats
+      private final IntArrayList attrKeyIds = new IntArrayList();
+      private final IntArrayList attrDictionaryIds = new IntArrayList();
+      private final List<Object> attrValues = new ArrayList<>();
+      // consecutive features usually have the same keys, so remember the order to write the last set of keys in
+      private final IntArrayList lastKeyIds = new IntArrayList();
+      private int[] lastTagOrder = new int[0];
+
+      private PassThroughWriter(VectorTile.LayerWriter writer) {
+        this.writer = writer;
+      }
+
+      @Override
+      public void attr(int keyId, Object value) {
+        attrKeyIds.add(keyId);
+        attrDictionaryIds.add(-1);
+        attrValues.add(value);
+      }
+
+      @Override
+      public void dictionaryAttr(int keyId, int valueId) {
+        attrKeyIds.add(keyId);
+        attrDictionaryIds.add(valueId);
+        attrValues.add(null);
+      }
+
+      @Override
+      public void feature(long id, VectorTile.VectorGeometry geometry) {
+        geometry = unscaleAndRemovePointsOutsideBuffer(geometry, config.maxPointBuffer());
+        if (!geometry.isEmpty()) {
+          for (int i : tagOrder()) {
+            int keyId = attrKeyIds.get(i);
+            int dictionaryId = attrDictionaryIds.get(i);
+            String key = commonValueStrings.decode(keyId);
+            Object value = dictionaryId >= 0 ? valueDictionary.decode(dictionaryId) : attrValues.get(i);
+            int keyIndex = keyIndexes.getOrDefault(keyId, -1);
+            if (keyIndex < 0) {
+              keyIndex = writer.keyIndex(key);
+              keyIndexes.put(keyId, keyIndex);
+            }
+            int valueIndex;
+            if (dictionaryId >= 0) {
+              valueIndex = dictionaryValueIndexes.getOrDefault(dictionaryId, -1);
+              if (valueIndex < 0) {
+                valueIndex = writer.valueIndex(value);
+                dictionaryValueIndexes.put(dictionaryId, valueIndex);
+              }
+            } else {
+              valueIndex = writer.valueIndex(value);
+            }
+            writer.addTag(keyIndex, valueIndex, key, value);
+          }
+          writer.addFeature(id, geometry);
+        }
+        attrKeyIds.clear();
+        attrDictionaryIds.clear();
+        attrValues.clear();
+      }
+
+      /**
+       * Returns the order to write the buffered attributes in, which is the order they come out of the hash map that
+       * {@link FeatureCodec#decode} puts them in, so the tile comes out exactly the same as if this layer was decoded.
+       */
+      private int[] tagOrder() {
+        if (!attrKeyIds.equals(lastKeyIds)) {
+          Map<String, Integer> order = HashMap.newHashMap(attrKeyIds.size());
+          for (int i = 0; i < attrKeyIds.size(); i++) {
+            order.put(commonValueStrings.decode(attrKeyIds.get(i)), i);
+          }
+          lastTagOrder = order.values().stream().mapToInt(Integer::intValue).toArray();
+          lastKeyIds.clear();
+          lastKeyIds.addAll(attrKeyIds);
+        }
+        return lastTagOrder;
+      }
+    }
+
     private void handlePostProcessFailure(Throwable e, String entity) {
       // failures in tile post-processing happen very late so err on the side of caution and
       // log failures, only throwing when it's a fatal error
@@ -535,7 +979,7 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
           lastLayer = thisLayer;
           counts.clear();
         }
-        var groupInfo = peekAtGroupInfo(entry.value());
+        var groupInfo = codec.peekGroup(entry.value());
         long old = counts.getOrDefault(groupInfo.group(), 0);
         if (groupInfo.limit() > 0 && old >= groupInfo.limit()) {
           // discard if there are to many features in this group already
@@ -543,14 +987,47 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         }
         counts.put(groupInfo.group(), old + 1);
       }
-      entries.add(entry);
+      numEntries++;
+      long spillBytes = config.tileFeaturesSpillBytes();
+      if (spillBytes > 0 && memoryUsageBytes > spillBytes) {
+        if (spilled == null) {
+          LOGGER.warn("{} has over {} of features, writing the rest to a temp file", tileCoord,
+            Format.defaultInstance().storage(spillBytes, false));
+          // features in memory are final now, so hash them once then add each spilled feature as it arrives
+          rawContentHashWithSpilled = rawContentHash();
+          contentHashWithSpilled = contentHash();
+          spilledFeatureSizes = Hppc.newLongLongHashMap();
+          FileUtils.createDirectory(spillDir);
+          try {
+            spilled = new SpilledEntries(Files.createTempFile(spillDir, "tile", ".spill"));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          tilesSpilled.inc();
+        }
+        spilled.add(entry);
+        spilledFeatureSizes.addTo(((long) (extractLayerIdFromKey(key) & 0xff) << 40) |
+          ((long) (peekGeomType(entry).asByte() & 0xff) << 32) | entry.value().length, 1);
+        rawContentHashWithSpilled = addToRawContentHash(rawContentHashWithSpilled, entry);
+        contentHashWithSpilled = addToContentHash(contentHashWithSpilled, entry);
+      } else {
+        entries.add(entry);
+        memoryUsageBytes += entry.estimateMemoryUsageBytes();
+      }
+    }
+
+    /** Called after the last feature in this tile has been added. */
+    void finishAdding() {
+      if (spilled != null) {
+        spilled.finishAdding();
+      }
     }
 
     @Override
     public String toString() {
       return "TileFeatures{" +
         "tile=" + tileCoord +
-        ", num entries=" + entries.size() +
+        ", num entries=" + numEntries +
         '}';
     }
   }
@@ -0,0 +1,232 @@
+package com.onthegomap.planetiler.collection;
+
+import static com.onthegomap.planetiler.util.MemoryEstimator.POINTER_BYTES;
+import static com.onthegomap.planetiler.util.MemoryEstimator.estimateByteArraySize;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.onthegomap.planetiler.util.ByteBufferUtil;
+import com.onthegomap.planetiler.util.DiskBacked;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.MemoryEstimator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A map from arbitrary {@code long} keys to {@code long} values that uses open addressing with linear probing over
+ * {@link ByteBuffer ByteBuffers} segments allocated according to {@link Storage}, so that maps with hundreds of
+ * millions of keys can be kept outside the JVM heap in direct memory or a memory-mapped temporary file.
+ * <p>
+ * Unlike the other {@link LongLongMap} implementations, keys can be inserted in any order and looked up while the map
+ * is still being written to.
+ */
+@NotThreadSafe
+public class HashLongLongMap implements Closeable, MemoryEstimator.HasEstimate, DiskBacked {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HashLongLongMap.class);
+  private static final int SLOT_BYTES = 2 * Long.BYTES;
+  private static final int MAX_SEGMENT_BITS = 30; // 1GB
+  private static final double MAX_LOAD_FACTOR = 0.75;
+  private final Storage storage;
+  private final Storage.Params params;
+  private Table table;
+  private long size = 0;
+  private long resizeAt;
+  private boolean hasZeroKey = false;
+  private long zeroKeyValue;
+  private int generation = 0;
+
+  /**
+   * Creates a new empty map.
+   *
+   * @param storage         where to store the hash table
+   * @param params          path for a temporary file to store the hash table in if {@code storage} is {@link
+   *                        Storage#MMAP}
+   * @param initialCapacity number of keys the map can hold before it needs to grow
+   */
+  public HashLongLongMap(Storage storage, Storage.Params params, long initialCapacity) {
+    this.storage = storage;
+    this.params = params;
+    long slots = Long.highestOneBit(Math.max(16, (long) (initialCapacity / MAX_LOAD_FACTOR)) - 1) << 1;
+    this.table = newTable(slots);
+    this.resizeAt = (long) (slots * MAX_LOAD_FACTOR);
+  }
+
+  /** Returns the number of keys in this map. */
+  public long size() {
+    return size;
+  }
+
+  /** Returns true if this map contains a value for {@code key}. */
+  public boolean containsKey(long key) {
+    return get(key) != LongLongMap.MISSING_VALUE;
+  }
+
+  /** Returns the value associated with {@code key} or {@link LongLongMap#MISSING_VALUE} if it is not in the map. */
+  public long get(long key) {
+    if (key == 0) {
+      return hasZeroKey ? zeroKeyValue : LongLongMap.MISSING_VALUE;
+    }
+    for (long slot = table.slotFor(key);; slot = (slot + 1) & table.slotMask) {
+      long existing = table.key(slot);
+      if (existing == key) {
+        return table.value(slot);
+      } else if (existing == 0) {
+        return LongLongMap.MISSING_VALUE;
+      }
+    }
+  }
+
+  /** Sets the value associated with {@code key} to {@code value}, replacing any previous value. */
+  public void put(long key, long value) {
+    if (value == LongLongMap.MISSING_VALUE) {
+      throw new IllegalArgumentException("Cannot store " + value);
+    }
+    if (key == 0) {
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroKeyValue = value;
+    } else if (table.put(key, value)) {
+      size++;
+      if (size - (hasZeroKey ? 1 : 0) >= resizeAt) {
+        grow();
+      }
+    }
+  }
+
+  private void grow() {
+    Table oldTable = table;
+    long slots = oldTable.slotMask + 1;
+    LOGGER.debug("Growing hash table from {} to {} slots", slots, slots * 2);
+    Table newTable = newTable(slots * 2);
+    for (long slot = 0; slot < slots; slot++) {
+      long key = oldTable.key(slot);
+      if (key != 0) {
+        newTable.put(key, oldTable.value(slot));
+      }
+    }
+    table = newTable;
+    resizeAt = (long) (slots * 2 * MAX_LOAD_FACTOR);
+    oldTable.close();
+  }
+
+  private Table newTable(long slots) {
+    Path path = storage == Storage.MMAP ?
+      params.path().resolveSibling(params.path().getFileName() + "-" + (generation++)) : null;
+    return new Table(storage, path, slots);
+  }
+
+  @Override
+  public long estimateMemoryUsageBytes() {
+    if (storage != Storage.RAM) {
+      return 0;
+    }
+    return table.segments.length * (estimateByteArraySize(table.segmentBytes) + POINTER_BYTES);
+  }
+
+  @Override
+  public long diskUsageBytes() {
+    return table.path == null ? 0 : FileUtils.size(table.path);
+  }
+
+  @Override
+  public void close() {
+    table.close();
+  }
+
+  /** Fixed-size array of (key, value) slots where a key of 0 marks an empty slot. */
+  private static class Table implements Closeable {
+
+    private final ByteBuffer[] segments;
+    private final long slotMask;
+    private final int segmentBits;
+    private final long segmentMask;
+    private final int segmentBytes;
+    private final Path path;
+    private final FileChannel channel;
+
+    Table(Storage storage, Path path, long slots) {
+      long bytes = slots * SLOT_BYTES;
+      this.segmentBits = Math.min(MAX_SEGMENT_BITS, Long.numberOfTrailingZeros(bytes));
+      this.segmentBytes = 1 << segmentBits;
+      this.segmentMask = segmentBytes - 1L;
+      this.slotMask = slots - 1;
+      this.segments = new ByteBuffer[(int) (bytes >>> segmentBits)];
+      this.path = path;
+      try {
+        if (storage == Storage.MMAP) {
+          FileUtils.createParentDirectories(path);
+          channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+          for (int i = 0; i < segments.length; i++) {
+            // mapping past the end of the file grows it with zeros
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << segmentBits, segmentBytes);
+          }
+        } else {
+          channel = null;
+          for (int i = 0; i < segments.length; i++) {
+            segments[i] = storage == Storage.DIRECT ? ByteBuffer.allocateDirect(segmentBytes) :
+              ByteBuffer.allocate(segmentBytes);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    long slotFor(long key) {
+      return BitMixer.mix64(key) & slotMask;
+    }
+
+    long key(long slot) {
+      long offset = slot * SLOT_BYTES;
+      return segments[(int) (offset >>> segmentBits)].getLong((int) (offset & segmentMask));
+    }
+
+    long value(long slot) {
+      long offset = slot * SLOT_BYTES + Long.BYTES;
+      return segments[(int) (offset >>> segmentBits)].getLong((int) (offset & segmentMask));
+    }
+
+    /** Stores {@code value} for {@code key} and returns {@code true} if the key was not already present. */
+    boolean put(long key, long value) {
+      for (long slot = slotFor(key);; slot = (slot + 1) & slotMask) {
+        long existing = key(slot);
+        if (existing == 0 || existing == key) {
+          long offset = slot * SLOT_BYTES;
+          ByteBuffer segment = segments[(int) (offset >>> segmentBits)];
+          int segmentOffset = (int) (offset & segmentMask);
+          segment.putLong(segmentOffset, key);
+          segment.putLong(segmentOffset + Long.BYTES, value);
+          return existing == 0;
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        ByteBufferUtil.free(segments);
+      } catch (IOException e) {
+        LOGGER.info("Unable to free hash table segments {}", e.toString());
+      }
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOGGER.info("Unable to close {} {}", path, e.toString());
+        }
+        FileUtils.delete(path);
+      }
+    }
+  }
+}
@@ -1,9 +1,11 @@
 package com.onthegomap.planetiler.collection;
 
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import java.util.Arrays;
 import java.util.Comparator;
 
-public record SortableFeature(@Override long key, byte[] value) implements Comparable<SortableFeature>, HasLongSortKey {
+public record SortableFeature(@Override long key, byte[] value) implements Comparable<SortableFeature>, HasLongSortKey,
+  MemoryEstimator.HasEstimate {
   public static final Comparator<SortableFeature> COMPARE_BYTES = (a, b) -> Arrays.compareUnsigned(a.value, b.value);
 
   @Override
@@ -17,6 +19,12 @@ public record SortableFeature(@Override long key, byte[] value) implements Compa
     }
   }
 
+  @Override
+  public long estimateMemoryUsageBytes() {
+    return MemoryEstimator.CLASS_HEADER_BYTES + MemoryEstimator.LONG_BYTES + MemoryEstimator.POINTER_BYTES +
+      MemoryEstimator.estimateSize(value);
+  }
+
   @Override
   public String toString() {
     return "SortableFeature{" +
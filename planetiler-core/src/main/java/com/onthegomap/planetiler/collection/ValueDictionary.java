@@ -0,0 +1,63 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.util.CommonStringEncoder;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded dictionary of short attribute values that repeat across many rendered features, shared by all threads
+ * writing to a {@link FeatureGroup}.
+ * <p>
+ * Values get added the first time they are seen until the dictionary is full, then {@link #encode(String)} returns -1
+ * for new values and callers store them inline instead. A value never moves between the dictionary and inline storage,
+ * so every feature with the same attributes encodes to the same bytes no matter which thread encoded it first, which
+ * deduplication, tile content hashes, and the sort order of features with the same key rely on.
+ * <p>
+ * IDs depend on the order that values are first seen, which varies between runs, so when it is enabled features with
+ * the same sort key can come out in a different order from run to run.
+ */
+@ThreadSafe
+public class ValueDictionary {
+
+  static final int MAX_VALUE_LENGTH = 32;
+  private final CommonStringEncoder values;
+  private final int maxValues;
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  public ValueDictionary(int maxValues) {
+    this.maxValues = maxValues;
+    this.values = new CommonStringEncoder(Math.max(1, maxValues));
+  }
+
+  /**
+   * Returns the ID for {@code value}, adding it to the dictionary if there is room, or -1 if it should be stored inline
+   * because it is too long or the dictionary filled up before it was first seen.
+   * <p>
+   * Always returns the same result for the same value.
+   */
+  public int encode(String value) {
+    if (maxValues <= 0 || value.length() > MAX_VALUE_LENGTH) {
+      return -1;
+    }
+    int id = values.lookup(value);
+    if (id >= 0) {
+      return id;
+    }
+    id = values.tryEncode(value);
+    if (id >= 0) {
+      size.accumulateAndGet(id + 1, Math::max);
+    }
+    return id;
+  }
+
+  /** Returns the value for an ID returned by {@link #encode(String)}. */
+  public String decode(int id) {
+    return values.decode(id);
+  }
+
+  /** Returns the number of values in the dictionary. */
+  public int size() {
+    return size.get();
+  }
+
+}
@@ -13,6 +13,7 @@ import java.time.Duration;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -22,6 +23,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
@@ -47,11 +49,19 @@ public class Arguments {
 
   private final UnaryOperator<String> provider;
   private final Supplier<? extends Collection<String>> keys;
+  // shared with instances derived from this one so that reads through any of them get recorded
+  private final Set<String> executionOnlyKeys;
   private boolean silent = false;
 
   private Arguments(UnaryOperator<String> provider, Supplier<? extends Collection<String>> keys) {
+    this(provider, keys, ConcurrentHashMap.newKeySet());
+  }
+
+  private Arguments(UnaryOperator<String> provider, Supplier<? extends Collection<String>> keys,
+    Set<String> executionOnlyKeys) {
     this.provider = provider;
     this.keys = keys;
+    this.executionOnlyKeys = executionOnlyKeys;
   }
 
   /**
@@ -264,7 +274,8 @@ public class Arguments {
       () -> Stream.concat(
         other.keys.get().stream(),
         keys.get().stream()
-      ).distinct().toList()
+      ).distinct().toList(),
+      executionOnlyKeys
     );
     if (silent) {
       result.silence();
@@ -331,8 +342,13 @@ public class Arguments {
     return value;
   }
 
-  /** Returns a {@link Path} parsed from {@code key} argument, or fall back to a default if the argument is not set. */
+  /**
+   * Returns a {@link Path} parsed from {@code key} argument, or fall back to a default if the argument is not set.
+   * <p>
+   * File locations are recorded in {@link #executionOnlyKeys()} since only changes to the contents of a file matter.
+   */
   public Path file(String key, String description, Path defaultValue) {
+    markExecutionOnly(key);
     String value = getArg(key);
     Path file = value == null ? defaultValue : Path.of(value);
     logArgValue(key, description, file);
@@ -341,6 +357,7 @@ public class Arguments {
 
   /** Returns a {@link Path} parsed from {@code key} argument which may or may not exist. */
   public Path file(String key, String description) {
+    markExecutionOnly(key);
     String value = getRequiredArg(key, description);
     Path file = Path.of(value);
     logArgValue(key, description, file);
@@ -516,7 +533,7 @@ public class Arguments {
   /** Returns a copy of this {@code Arguments} instance that logs each extracted argument value exactly once. */
   public Arguments withExactlyOnceLogging() {
     Multiset<String> logged = HashMultiset.create();
-    return new Arguments(this.provider, this.keys) {
+    return new Arguments(this.provider, this.keys, executionOnlyKeys) {
       @Override
       protected void logArgValue(String key, String description, Object result) {
         int count = logged.add(key, 1);
@@ -534,7 +551,43 @@ public class Arguments {
   }
 
   public Arguments copy() {
-    return new Arguments(provider, keys);
+    return new Arguments(provider, keys, executionOnlyKeys);
+  }
+
+  /**
+   * Returns a view of this instance that records every key read through it in {@link #executionOnlyKeys()}.
+   * <p>
+   * Use this to read arguments that only change how a run executes, like thread counts or temp file locations, but not
+   * the contents of the output.
+   */
+  public Arguments executionOnly() {
+    Arguments parent = this;
+    return new Arguments(provider, keys, executionOnlyKeys) {
+      @Override
+      String getArg(String key) {
+        markExecutionOnly(key);
+        return parent.getArg(key);
+      }
+
+      @Override
+      protected void logArgValue(String key, String description, Object result) {
+        parent.logArgValue(key, description, result);
+      }
+    };
+  }
+
+  /**
+   * Returns the normalized keys that have been read through {@link #executionOnly()} or as file locations from this
+   * instance or one derived from it.
+   */
+  public Set<String> executionOnlyKeys() {
+    return Collections.unmodifiableSet(executionOnlyKeys);
+  }
+
+  private void markExecutionOnly(String key) {
+    for (String option : key.split("\\|")) {
+      executionOnlyKeys.add(normalize(option.strip()));
+    }
   }
 
   /**
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 import java.util.stream.Stream;
 
 /**
@@ -50,6 +51,8 @@ public record PlanetilerConfig(
   double simplifyToleranceAtMaxZoom,
   double simplifyToleranceBelowMaxZoom,
   boolean osmLazyReads,
+  boolean osmSkipNodesOutsideBounds,
+  double osmNodeBoundsBuffer,
   boolean skipFilledTiles,
   int tileWarningSizeBytes,
   Boolean color,
@@ -61,7 +64,20 @@ public record PlanetilerConfig(
   Path tileWeights,
   double maxPointBuffer,
   boolean logJtsExceptions,
-  int featureSourceIdMultiplier
+  int featureSourceIdMultiplier,
+  int renderSplitMinVertices,
+  long renderSplitMinTiles,
+  String previousArchive,
+  boolean writeTileContentIndex,
+  boolean outputTileTimings,
+  String tileCostModel,
+  List<String> tileCostLayerWeights,
+  Path tileCostTimings,
+  String featureDbFormat,
+  int featureDbValueDictionarySize,
+  long tileEncodeCacheBytes,
+  boolean dedupFeatures,
+  long tileFeaturesSpillBytes
 ) {
 
   public static final int MIN_MINZOOM = 0;
@@ -88,25 +104,27 @@ public record PlanetilerConfig(
   }
 
   public static PlanetilerConfig from(Arguments arguments) {
+    // settings that only change how the run executes, not the tiles it outputs
+    Arguments runArgs = arguments.executionOnly();
     // use --madvise and --storage options as default for temp storage, but allow users to override them explicitly for
     // multipolygon geometries or node locations
     boolean defaultMadvise =
-      arguments.getBoolean("madvise",
+      runArgs.getBoolean("madvise",
         "default value for whether to use linux madvise(random) to improve memory-mapped read performance for temporary storage",
         true);
     // nodemap_storage was previously the only option, so if that's set make it the default
-    String fallbackTempStorage = arguments.getArg("nodemap_storage", Storage.MMAP.id());
-    String defaultTempStorage = arguments.getString("storage",
+    String fallbackTempStorage = runArgs.getArg("nodemap_storage", Storage.MMAP.id());
+    String defaultTempStorage = runArgs.getString("storage",
       "default storage type for temporary data, one of " + Stream.of(Storage.values()).map(
         Storage::id).toList(),
       fallbackTempStorage);
-    int threads = arguments.threads();
+    int threads = runArgs.threads();
     int featureWriteThreads =
-      arguments.getInteger("write_threads", "number of threads to use when writing temp features",
+      runArgs.getInteger("write_threads", "number of threads to use when writing temp features",
         // defaults: <48 cpus=1 writer, 48-80=2 writers, 80-112=3 writers, 112-144=4 writers, ...
         Math.max(1, (threads - 16) / 32 + 1));
     int featureProcessThreads =
-      arguments.getInteger("process_threads", "number of threads to use when processing input features",
+      runArgs.getInteger("process_threads", "number of threads to use when processing input features",
         Math.max(threads < 8 ? threads : (threads - featureWriteThreads), 1));
     Bounds bounds = new Bounds(arguments.bounds("bounds", "bounds"));
     Path polygonFile =
@@ -125,54 +143,60 @@ public record PlanetilerConfig(
       arguments.getInteger("render_maxzoom", "maximum rendering zoom level up to " + MAX_MAXZOOM,
         Math.max(maxzoom, DEFAULT_MAXZOOM));
     Path tmpDir = arguments.file("tmpdir|tmp", "temp directory", Path.of("data", "tmp"));
+    String featureDbFormat = arguments.getString("feature_db_format",
+      "binary format to store rendered features in the feature DB, one of [msgpack, compact]",
+      "msgpack");
 
+    String previousArchive = runArgs.getString("previous_archive",
+      "Copy tiles from this archive written by a previous run when their features did not change, instead of encoding them again",
+      null);
     return new PlanetilerConfig(
       arguments,
       bounds,
       threads,
       featureWriteThreads,
       featureProcessThreads,
-      arguments.getInteger("feature_read_threads", "number of threads to use when reading features at tile write time",
+      runArgs.getInteger("feature_read_threads", "number of threads to use when reading features at tile write time",
         threads < 32 ? 1 : 2),
-      arguments.getInteger("tile_write_threads",
+      runArgs.getInteger("tile_write_threads",
         "number of threads used to write tiles - only supported by " + Stream.of(TileArchiveConfig.Format.values())
           .filter(TileArchiveConfig.Format::supportsConcurrentWrites).map(TileArchiveConfig.Format::id).toList(),
         1),
-      arguments.getDuration("loginterval", "time between logs", "10s"),
+      runArgs.getDuration("loginterval", "time between logs", "10s"),
       minzoom,
       maxzoom,
       renderMaxzoom,
-      arguments.getBoolean("force", "overwriting output file and ignore disk/RAM warnings", false),
-      arguments.getBoolean("append",
+      runArgs.getBoolean("force", "overwriting output file and ignore disk/RAM warnings", false),
+      runArgs.getBoolean("append",
         "append to the output file - only supported by " + Stream.of(TileArchiveConfig.Format.values())
           .filter(TileArchiveConfig.Format::supportsAppend).map(TileArchiveConfig.Format::id).toList(),
         false),
-      arguments.getBoolean("compress_temp|gzip_temp",
+      runArgs.getBoolean("compress_temp|gzip_temp",
         "compress temporary feature storage (uses more CPU, but less disk space)", false),
-      arguments.getBoolean("mmap_temp", "use memory-mapped IO for temp feature files", true),
-      arguments.getInteger("sort_max_readers", "maximum number of concurrent read threads to use when sorting chunks",
+      runArgs.getBoolean("mmap_temp", "use memory-mapped IO for temp feature files", true),
+      runArgs.getInteger("sort_max_readers", "maximum number of concurrent read threads to use when sorting chunks",
         6),
-      arguments.getInteger("sort_max_writers", "maximum number of concurrent write threads to use when sorting chunks",
+      runArgs.getInteger("sort_max_writers", "maximum number of concurrent write threads to use when sorting chunks",
         6),
-      arguments
+      runArgs
         .getString("nodemap_type", "type of node location map, one of " + Stream.of(LongLongMap.Type.values()).map(
           t -> t.id()).toList(), LongLongMap.Type.SPARSE_ARRAY.id()),
-      arguments.getString("nodemap_storage", "storage for node location map, one of " + Stream.of(Storage.values()).map(
+      runArgs.getString("nodemap_storage", "storage for node location map, one of " + Stream.of(Storage.values()).map(
         Storage::id).toList(), defaultTempStorage),
-      arguments.getBoolean("nodemap_madvise", "use linux madvise(random) for node locations", defaultMadvise),
-      arguments.getString("multipolygon_geometry_storage",
+      runArgs.getBoolean("nodemap_madvise", "use linux madvise(random) for node locations", defaultMadvise),
+      runArgs.getString("multipolygon_geometry_storage",
         "storage for multipolygon geometries, one of " + Stream.of(Storage.values()).map(Storage::id).toList(),
         defaultTempStorage),
-      arguments.getBoolean("multipolygon_geometry_madvise",
+      runArgs.getBoolean("multipolygon_geometry_madvise",
         "use linux madvise(random) for temporary multipolygon geometry storage", defaultMadvise),
-      arguments.getString("http_user_agent", "User-Agent header to set when downloading files over HTTP",
+      runArgs.getString("http_user_agent", "User-Agent header to set when downloading files over HTTP",
         "Planetiler downloader (https://github.com/onthegomap/planetiler)"),
-      arguments.getDuration("http_timeout", "Timeout to use when downloading files over HTTP", "30s"),
-      arguments.getInteger("http_retries", "Retries to use when downloading files over HTTP", 1),
-      arguments.getDuration("http_retry_wait", "How long to wait before retrying HTTP request", "5s"),
-      arguments.getLong("download_chunk_size_mb", "Size of file chunks to download in parallel in megabytes", 100),
-      arguments.getInteger("download_threads", "Number of parallel threads to use when downloading each file", 1),
-      Parse.bandwidth(arguments.getString("download_max_bandwidth",
+      runArgs.getDuration("http_timeout", "Timeout to use when downloading files over HTTP", "30s"),
+      runArgs.getInteger("http_retries", "Retries to use when downloading files over HTTP", 1),
+      runArgs.getDuration("http_retry_wait", "How long to wait before retrying HTTP request", "5s"),
+      runArgs.getLong("download_chunk_size_mb", "Size of file chunks to download in parallel in megabytes", 100),
+      runArgs.getInteger("download_threads", "Number of parallel threads to use when downloading each file", 1),
+      Parse.bandwidth(runArgs.getString("download_max_bandwidth",
         "Maximum bandwidth to consume when downloading files in units mb/s, mbps, kbps, etc.", "")),
       arguments.getDouble("min_feature_size_at_max_zoom",
         "Default value for the minimum size in tile pixels of features to emit at the maximum zoom level to allow for overzooming",
@@ -186,25 +210,32 @@ public record PlanetilerConfig(
       arguments.getDouble("simplify_tolerance",
         "Default value for the tile pixel tolerance to use when simplifying features below the maximum zoom level",
         0.1d),
-      arguments.getBoolean("osm_lazy_reads",
+      runArgs.getBoolean("osm_lazy_reads",
         "Read OSM blocks from disk in worker threads",
         true),
+      arguments.getBoolean("osm_skip_nodes_outside_bounds",
+        "Don't store locations of OSM nodes more than --osm-node-bounds-buffer degrees outside of --bounds, ways that " +
+          "cross that buffer will be dropped",
+        false),
+      arguments.getDouble("osm_node_bounds_buffer",
+        "Degrees outside of --bounds to store OSM node locations when --osm-skip-nodes-outside-bounds is set",
+        1d),
       arguments.getBoolean("skip_filled_tiles",
         "Skip writing tiles containing only polygon fills to the output",
         false),
-      (int) (arguments.getDouble("tile_warning_size_mb",
+      (int) (runArgs.getDouble("tile_warning_size_mb",
         "Maximum size in megabytes of a tile to emit a warning about",
         1d) * 1024 * 1024),
-      arguments.getBooleanObject("color", "Color the terminal output"),
-      arguments.getBoolean("keep_unzipped",
+      runArgs.getBooleanObject("color", "Color the terminal output"),
+      runArgs.getBoolean("keep_unzipped",
         "keep unzipped sources by default after reading", false),
       TileCompression
         .fromId(arguments.getString("tile_compression",
           "the tile compression, one of " +
             TileCompression.availableValues().stream().map(TileCompression::id).toList(),
           "gzip")),
-      arguments.getBoolean("output_layerstats", "output a tsv.gz file for each tile/layer size", false),
-      arguments.getString("debug_url", "debug url to use for displaying tiles with {z} {lat} {lon} placeholders",
+      runArgs.getBoolean("output_layerstats", "output a tsv.gz file for each tile/layer size", false),
+      runArgs.getString("debug_url", "debug url to use for displaying tiles with {z} {lat} {lon} placeholders",
         "https://onthegomap.github.io/planetiler-demo/#{z}/{lat}/{lon}"),
       tmpDir,
       arguments.file("tile_weights", "tsv.gz file with columns z,x,y,loads to generate weighted average tile size stat",
@@ -214,11 +245,47 @@ public record PlanetilerConfig(
           "clients that handle label collisions across tiles (most web and native clients). NOTE: Do not reduce if you need to support " +
           "raster tile rendering",
         Double.POSITIVE_INFINITY),
-      arguments.getBoolean("log_jts_exceptions", "Emit verbose details to debug JTS geometry errors", false),
+      runArgs.getBoolean("log_jts_exceptions", "Emit verbose details to debug JTS geometry errors", false),
       arguments.getInteger("feature_source_id_multiplier",
         "Set vector tile feature IDs to (featureId * thisValue) + sourceId " +
           "where sourceId is 1 for OSM nodes, 2 for ways, 3 for relations, and 0 for other sources. Set to false to disable.",
-        10)
+        10),
+      runArgs.getInteger("render_split_min_vertices",
+        "Render zoom levels of features with at least this many vertices in parallel on a shared fork-join pool, 0 to disable",
+        100_000),
+      runArgs.getLong("render_split_min_tiles",
+        "Render zoom levels of features estimated to cover at least this many tiles at their max zoom in parallel, 0 to disable",
+        100_000),
+      previousArchive,
+      runArgs.getBoolean("tile_content_index",
+        "Write a side index of tile content hashes next to the output so a later run can reuse unchanged tiles with --previous_archive",
+        previousArchive != null),
+      runArgs.getBoolean("output_tile_timings",
+        "output a tsv.gz file with the time it took to post-process, encode, and compress each tile/layer", false),
+      runArgs.getString("tile_cost_model",
+        "how to predict the cost of encoding each tile to size and prioritize batches, one of [features, geometry]",
+        "geometry"),
+      runArgs.getList("tile_cost_layer_weights",
+        "comma-separated layer:weight multipliers for the predicted cost of encoding features in each layer",
+        List.of()),
+      arguments.file("tile_cost_timings",
+        "tsv.gz file from --output-tile-timings of a previous run to predict the cost of encoding expensive tiles",
+        null),
+      featureDbFormat,
+      // dictionary IDs depend on which thread sees a value first, and they change the order of features with the
+      // same sort key, so leave disabled by default to keep output reproducible between runs
+      arguments.getInteger("feature_db_value_dictionary_size",
+        "maximum number of distinct short attribute values to store as IDs in the feature DB, 0 to disable",
+        0),
+      (long) (runArgs.getDouble("tile_encode_cache_mb",
+        "megabytes of recently encoded tiles each encoder thread keeps to reuse for tiles with identical features, 0 to disable",
+        8d) * 1024 * 1024),
+      arguments.getBoolean("dedup_features",
+        "drop features with the same tile, layer, sort key, geometry, and attributes as another feature when sorting",
+        false),
+      (long) (runArgs.getDouble("tile_features_spill_mb",
+        "megabytes of encoded features to hold in memory for a single tile before writing the rest to a temp file, 0 to disable",
+        256d) * 1024 * 1024)
     );
   }
 
@@ -14,6 +14,7 @@ public final class FilesArchiveUtils {
 
   static final String OPTION_METADATA_PATH = "metadata_path";
   static final String OPTION_TILE_SCHEME = "tile_scheme";
+  static final String OPTION_DEDUP = "dedup";
 
   private FilesArchiveUtils() {}
 
@@ -11,11 +11,17 @@ import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.stats.Counter;
 import com.onthegomap.planetiler.util.CountingOutputStream;
 import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Format;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +37,11 @@ import org.slf4j.LoggerFactory;
  * <dt>(files_)metadata_path</dt>
  * <dd>The path the meta data should be written to. The default is BASEPATH/metadata.json. "none" can be used to
  * suppress writing metadata.</dd>
+ * <dt>(files_)dedup</dt>
+ * <dd>How to write tiles with identical contents: "none" (default) writes a separate file for each tile, "hardlink"
+ * writes each unique tile once to a content-addressed staging directory under the base path and hard-links every tile
+ * with the same contents to it, and "symlink" leaves the staging directory in place and writes a relative symbolic link
+ * for each tile instead.</dd>
  * </ul>
  *
  * Usages:
@@ -39,6 +50,7 @@ import org.slf4j.LoggerFactory;
  * --output=/path/to/tiles/ --files_tile_scheme={z}/{x}/{y}.pbf --files_metadata_path=/some/other/path/metadata.json
  * --output=/path/to/tiles/{z}/{x}/{y}.pbf
  * --output=/path/to/tiles?format=files&amp;tile_scheme={z}/{x}/{y}.pbf
+ * --output=/path/to/tiles/ --files_dedup=hardlink
  * </pre>
  *
  * @see ReadableFilesArchive
@@ -47,6 +59,9 @@ import org.slf4j.LoggerFactory;
 public class WriteableFilesArchive implements WriteableTileArchive {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(WriteableFilesArchive.class);
+  static final String DEDUP_STAGING_DIR = ".dedup";
+  // ext4 allows at most 65,000 links to an inode, so start a new copy of the tile before then
+  static final int MAX_HARD_LINKS = 60_000;
 
   private final Counter.MultiThreadCounter bytesWritten = Counter.newMultiThreadCounter();
 
@@ -57,6 +72,8 @@ public class WriteableFilesArchive implements WriteableTileArchive {
 
   private final TileOrder tileOrder;
 
+  private final DedupStore dedupStore;
+
   private WriteableFilesArchive(Path basePath, Arguments options, boolean overwriteMetadata) {
 
     final var pathAndScheme = FilesArchiveUtils.basePathWithTileSchemeEncoding(options, basePath);
@@ -78,6 +95,12 @@ public class WriteableFilesArchive implements WriteableTileArchive {
     final TileSchemeEncoding tileSchemeEncoding = pathAndScheme.tileSchemeEncoding();
     this.tileSchemeEncoder = tileSchemeEncoding.encoder();
     this.tileOrder = tileSchemeEncoding.preferredTileOrder();
+    final Dedup dedup = Dedup.from(options.getString(
+      FilesArchiveUtils.OPTION_DEDUP,
+      "how to write tiles with identical contents: none, hardlink, or symlink",
+      Dedup.NONE.name().toLowerCase(Locale.ROOT)
+    ));
+    this.dedupStore = dedup == Dedup.NONE ? null : new DedupStore(dedup, this.basePath.resolve(DEDUP_STAGING_DIR));
   }
 
   public static WriteableFilesArchive newWriter(Path basePath, Arguments options, boolean overwriteMetadata) {
@@ -86,7 +109,7 @@ public class WriteableFilesArchive implements WriteableTileArchive {
 
   @Override
   public boolean deduplicates() {
-    return false;
+    return dedupStore != null;
   }
 
   @Override
@@ -96,11 +119,14 @@ public class WriteableFilesArchive implements WriteableTileArchive {
 
   @Override
   public TileWriter newTileWriter() {
-    return new TileFilesWriter(basePath, tileSchemeEncoder, bytesWritten.counterForThread());
+    return new TileFilesWriter(basePath, tileSchemeEncoder, bytesWritten.counterForThread(), dedupStore);
   }
 
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
+    if (dedupStore != null) {
+      dedupStore.finish();
+    }
     if (metadataPath == null) {
       return;
     }
@@ -132,16 +158,126 @@ public class WriteableFilesArchive implements WriteableTileArchive {
     return p;
   }
 
+  /** How tiles with identical contents get written. */
+  enum Dedup {
+    NONE,
+    HARDLINK,
+    SYMLINK;
+
+    static Dedup from(String value) {
+      try {
+        return valueOf(value.strip().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+          "Unrecognized dedup mode: " + value + " expected none, hardlink, or symlink");
+      }
+    }
+  }
+
+  /**
+   * Content-addressed copies of tiles that have a {@link TileEncodingResult#tileDataHash()}, shared by all writer
+   * threads.
+   * <p>
+   * The first thread to write a tile with a new hash writes it to the staging directory, and every tile with that hash
+   * links to it.
+   */
+  private static class DedupStore {
+
+    private final Dedup dedup;
+    private final Path stagingDir;
+    private final Map<Long, StagedTile> staged = new ConcurrentHashMap<>();
+    private final Counter.MultiThreadCounter tilesLinked = Counter.newMultiThreadCounter();
+    private final Counter.MultiThreadCounter bytesLinked = Counter.newMultiThreadCounter();
+    private final AtomicLong stagedFiles = new AtomicLong(0);
+    private final AtomicLong stagedBytes = new AtomicLong(0);
+
+    private DedupStore(Dedup dedup, Path stagingDir) {
+      this.dedup = dedup;
+      this.stagingDir = createValidateDirectory(stagingDir);
+    }
+
+    private record StagedTile(Path path, int copy, AtomicInteger links) {}
+
+    private StagedTile stage(long hash, byte[] data, int copy) {
+      Path path = stagingDir.resolve(Long.toHexString(hash) + (copy == 0 ? "" : ("-" + copy)));
+      try {
+        Files.write(path, data);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      stagedFiles.incrementAndGet();
+      stagedBytes.addAndGet(data.length);
+      return new StagedTile(path, copy, new AtomicInteger(0));
+    }
+
+    /**
+     * Links {@code file} to the staged copy of {@code data}, staging it first if this is the first time it's seen, and
+     * returns the number of bytes written to disk.
+     */
+    long write(Path file, long hash, byte[] data, Counter tilesLinkedForThread, Counter bytesLinkedForThread)
+      throws IOException {
+      long[] written = {0};
+      StagedTile tile = staged.computeIfAbsent(hash, h -> {
+        written[0] = data.length;
+        return stage(h, data, 0);
+      });
+      if (dedup == Dedup.HARDLINK && tile.links.incrementAndGet() > MAX_HARD_LINKS) {
+        tile = staged.compute(hash, (h, prev) -> {
+          if (prev.links.get() <= MAX_HARD_LINKS) {
+            // another thread already started a new copy
+            return prev;
+          }
+          written[0] = data.length;
+          return stage(h, data, prev.copy + 1);
+        });
+        tile.links.incrementAndGet();
+      }
+      Files.deleteIfExists(file);
+      if (dedup == Dedup.HARDLINK) {
+        Files.createLink(file, tile.path);
+      } else {
+        Files.createSymbolicLink(file, file.getParent().relativize(tile.path));
+      }
+      tilesLinkedForThread.inc();
+      bytesLinkedForThread.incBy(data.length);
+      return written[0];
+    }
+
+    void finish() {
+      long linked = tilesLinked.get();
+      long unique = stagedFiles.get();
+      if (dedup == Dedup.HARDLINK) {
+        // tiles keep the contents alive after the staging links are removed
+        FileUtils.deleteDirectory(stagingDir);
+      }
+      Format format = Format.defaultInstance();
+      LOGGER.info("Deduplicated {} tiles into {} unique files using {}s: saved {} and {} inodes",
+        format.integer(linked),
+        format.integer(unique),
+        dedup.name().toLowerCase(Locale.ROOT),
+        format.storage(Math.max(0, bytesLinked.get() - stagedBytes.get()), false),
+        // symlinks still take an inode each, but hard links share one with the staged copy
+        format.integer(dedup == Dedup.HARDLINK ? Math.max(0, linked - unique) : 0));
+    }
+  }
+
   private static class TileFilesWriter implements TileWriter {
 
     private final Function<TileCoord, Path> tileSchemeEncoder;
     private final Counter bytesWritten;
+    private final DedupStore dedupStore;
+    private final Counter tilesLinked;
+    private final Counter bytesLinked;
     private Path lastCheckedFolder;
 
-    TileFilesWriter(Path basePath, Function<TileCoord, Path> tileSchemeEncoder, Counter bytesWritten) {
+    TileFilesWriter(Path basePath, Function<TileCoord, Path> tileSchemeEncoder, Counter bytesWritten,
+      DedupStore dedupStore) {
       this.tileSchemeEncoder = tileSchemeEncoder;
       this.lastCheckedFolder = basePath;
       this.bytesWritten = bytesWritten;
+      this.dedupStore = dedupStore;
+      this.tilesLinked = dedupStore == null ? null : dedupStore.tilesLinked.counterForThread();
+      this.bytesLinked = dedupStore == null ? null : dedupStore.bytesLinked.counterForThread();
     }
 
     @Override
@@ -159,6 +295,11 @@ public class WriteableFilesArchive implements WriteableTileArchive {
       }
       lastCheckedFolder = folder;
       try {
+        if (dedupStore != null && encodingResult.tileDataHash().isPresent()) {
+          bytesWritten.incBy(
+            dedupStore.write(file, encodingResult.tileDataHash().getAsLong(), data, tilesLinked, bytesLinked));
+          return;
+        }
         Files.write(file, data);
       } catch (IOException e) {
         throw new UncheckedIOException(e);
@@ -42,6 +42,11 @@ import org.sqlite.SQLiteConfig;
 
 /**
  * Interface into an mbtiles sqlite file containing tiles and metadata about the tileset.
+ * <p>
+ * When created with more than one writer, each additional {@link #newTileWriter()} writes to its own temporary "shard"
+ * sqlite file with the same schema so writers don't contend on a single connection. {@link #finish} then copies each
+ * shard into the main file with {@code ATTACH} and {@code INSERT ... SELECT} and builds the tile indexes once at the
+ * end. Tile data IDs are assigned across all writers so tile data is still deduplicated by hash in compact mode.
  *
  * @see <a href="https://github.com/mapbox/mbtiles-spec/blob/master/1.3/spec.md">MBTiles Specification</a>
  */
@@ -99,9 +104,22 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
   private PreparedStatement getTileStatement = null;
 
   private final LongSupplier bytesWritten;
+  private final Arguments arguments;
+  private final List<Path> shardPaths;
+  private final List<Mbtiles> shards = new ArrayList<>();
+  private final TileDataIds tileDataIds;
+  private int writersCreated = 0;
 
   private Mbtiles(Connection connection, Arguments arguments, LongSupplier bytesWritten) {
+    this(connection, arguments, bytesWritten, List.of(), new TileDataIds());
+  }
+
+  private Mbtiles(Connection connection, Arguments arguments, LongSupplier bytesWritten, List<Path> shardPaths,
+    TileDataIds tileDataIds) {
     this.connection = connection;
+    this.arguments = arguments;
+    this.shardPaths = shardPaths;
+    this.tileDataIds = tileDataIds;
     this.compactDb = arguments.getBoolean(
       COMPACT_DB + "|" + LEGACY_COMPACT_DB,
       "mbtiles: reduce the DB size by separating and deduping the tile data",
@@ -142,7 +160,23 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
    * set from {@code options}.
    */
   public static Mbtiles newWriteToFileDatabase(Path path, Arguments options) {
+    return newWriteToFileDatabase(path, options, List.of());
+  }
+
+  /**
+   * Returns a new connection to an mbtiles file optimized for fast bulk writes from {@code shardPaths.size() + 1}
+   * concurrent writers, where every writer after the first writes to a temporary shard file in {@code shardPaths} that
+   * gets merged into {@code path} when the archive is finished.
+   */
+  public static Mbtiles newWriteToFileDatabase(Path path, Arguments options, List<Path> shardPaths) {
     Objects.requireNonNull(path);
+    var connection = newConnection("jdbc:sqlite:" + path.toAbsolutePath(), newWriteConfig(), options);
+    return new Mbtiles(connection, options,
+      () -> FileUtils.size(path) + shardPaths.stream().mapToLong(FileUtils::size).sum(),
+      shardPaths, new TileDataIds());
+  }
+
+  private static SQLiteConfig newWriteConfig() {
     SQLiteConfig sqliteConfig = new SQLiteConfig();
     sqliteConfig.setJournalMode(SQLiteConfig.JournalMode.OFF);
     sqliteConfig.setSynchronous(SQLiteConfig.SynchronousMode.OFF);
@@ -150,8 +184,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     sqliteConfig.setLockingMode(SQLiteConfig.LockingMode.EXCLUSIVE);
     sqliteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
     sqliteConfig.setApplicationId(MBTILES_APPLICATION_ID);
-    var connection = newConnection("jdbc:sqlite:" + path.toAbsolutePath(), sqliteConfig, options);
-    return new Mbtiles(connection, options, () -> FileUtils.size(path));
+    return sqliteConfig;
   }
 
   /** Returns a new connection to an mbtiles file optimized for reads. */
@@ -212,7 +245,10 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   @Override
   public void initialize() {
-    if (skipIndexCreation) {
+    if (!shardPaths.isEmpty()) {
+      // indexes get created once after all shards are merged in
+      createTablesWithoutIndexes();
+    } else if (skipIndexCreation) {
       createTablesWithoutIndexes();
       if (LOGGER.isInfoEnabled()) {
         LOGGER.info("Skipping index creation. Add later by executing: {}",
@@ -225,6 +261,9 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
+    if (!shardPaths.isEmpty()) {
+      mergeShards();
+    }
     metadataTable().set(tileArchiveMetadata);
     if (vacuumAnalyze) {
       vacuumAnalyze();
@@ -238,6 +277,10 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   @Override
   public void close() throws IOException {
+    for (var shard : shards) {
+      shard.close();
+    }
+    shardPaths.forEach(FileUtils::delete);
     try {
       connection.close();
     } catch (SQLException throwables) {
@@ -245,6 +288,40 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     }
   }
 
+  /** Copies the tiles from each shard into this database then creates indexes on the merged tables. */
+  private void mergeShards() {
+    List<String> tables = compactDb ?
+      List.of(TILES_SHALLOW_TABLE, TILES_DATA_TABLE) :
+      List.of(TILES_TABLE);
+    for (int i = 0; i < shards.size(); i++) {
+      Path shardPath = shardPaths.get(i);
+      try {
+        shards.get(i).close();
+      } catch (IOException e) {
+        throw new IllegalStateException("Error closing " + shardPath, e);
+      }
+      LOGGER.info("Merging {} into mbtiles", shardPath.getFileName());
+      List<String> queries = new ArrayList<>();
+      queries.add("ATTACH DATABASE '%s' AS shard".formatted(shardPath.toAbsolutePath().toString().replace("'", "''")));
+      for (String table : tables) {
+        queries.add("INSERT INTO %s SELECT * FROM shard.%s".formatted(table, table));
+      }
+      queries.add("DETACH DATABASE shard");
+      execute(queries);
+      FileUtils.delete(shardPath);
+    }
+    shards.clear();
+    if (skipIndexCreation) {
+      if (LOGGER.isInfoEnabled()) {
+        LOGGER.info("Skipping index creation. Add later by executing: {}",
+          String.join(" ; ", getManualIndexCreationStatements()));
+      }
+    } else {
+      LOGGER.info("Creating mbtiles indexes");
+      execute(getManualIndexCreationStatements());
+    }
+  }
+
   private Mbtiles execute(Collection<String> queries) {
     for (String query : queries) {
       try (var statement = connection.createStatement()) {
@@ -371,12 +448,32 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     );
   }
 
-  /** Returns a writer that queues up inserts into the tile database(s) into large batches before executing them. */
+  /**
+   * Returns a writer that queues up inserts into the tile database(s) into large batches before executing them.
+   * <p>
+   * When this archive has shards, the first writer writes to the main database and each following one writes to the
+   * next shard.
+   */
   public WriteableTileArchive.TileWriter newTileWriter() {
+    Mbtiles target;
+    synchronized (this) {
+      int index = writersCreated++;
+      if (index == 0 || shardPaths.isEmpty()) {
+        target = this;
+      } else if (index <= shardPaths.size()) {
+        Path shardPath = shardPaths.get(index - 1);
+        target = new Mbtiles(newConnection("jdbc:sqlite:" + shardPath.toAbsolutePath(), newWriteConfig(), arguments),
+          arguments, () -> FileUtils.size(shardPath), List.of(), tileDataIds);
+        target.createTablesWithoutIndexes();
+        shards.add(target);
+      } else {
+        throw new IllegalStateException("Only " + (shardPaths.size() + 1) + " mbtiles writers supported");
+      }
+    }
     if (compactDb) {
-      return new BatchedCompactTileWriter();
+      return target.new BatchedCompactTileWriter();
     } else {
-      return new BatchedNonCompactTileWriter();
+      return target.new BatchedNonCompactTileWriter();
     }
   }
 
@@ -731,13 +828,17 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   }
 
+  /** Tile data IDs shared by all writers to an archive, so that shards can be merged without renumbering. */
+  private static class TileDataIds {
+
+    private final LongIntHashMap idByHash = new LongIntHashMap(1_000);
+    private int next = 1;
+  }
+
   private class BatchedCompactTileWriter implements TileWriter {
 
     private final BatchedTileShallowTableWriter batchedTileShallowTableWriter = new BatchedTileShallowTableWriter();
     private final BatchedTileDataTableWriter batchedTileDataTableWriter = new BatchedTileDataTableWriter();
-    private final LongIntHashMap tileDataIdByHash = new LongIntHashMap(1_000);
-
-    private int tileDataIdCounter = 1;
 
     @Override
     public void write(TileEncodingResult encodingResult) {
@@ -745,19 +846,21 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
       boolean writeData;
       OptionalLong tileDataHashOpt = encodingResult.tileDataHash();
 
-      if (tileDataHashOpt.isPresent()) {
-        long tileDataHash = tileDataHashOpt.getAsLong();
-        if (tileDataIdByHash.containsKey(tileDataHash)) {
-          tileDataId = tileDataIdByHash.get(tileDataHash);
-          writeData = false;
+      synchronized (tileDataIds) {
+        if (tileDataHashOpt.isPresent()) {
+          long tileDataHash = tileDataHashOpt.getAsLong();
+          if (tileDataIds.idByHash.containsKey(tileDataHash)) {
+            tileDataId = tileDataIds.idByHash.get(tileDataHash);
+            writeData = false;
+          } else {
+            tileDataId = tileDataIds.next++;
+            tileDataIds.idByHash.put(tileDataHash, tileDataId);
+            writeData = true;
+          }
         } else {
-          tileDataId = tileDataIdCounter++;
-          tileDataIdByHash.put(tileDataHash, tileDataId);
+          tileDataId = tileDataIds.next++;
           writeData = true;
         }
-      } else {
-        tileDataId = tileDataIdCounter++;
-        writeData = true;
       }
       if (writeData) {
         batchedTileDataTableWriter.write(new TileDataEntry(tileDataId, encodingResult.tileData()));
@@ -778,7 +881,9 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
         LOGGER.debug("Shallow tiles written: {}", format.integer(batchedTileShallowTableWriter.count()));
         LOGGER.debug("Tile data written: {} ({} omitted)", format.integer(batchedTileDataTableWriter.count()),
           format.percent(1d - batchedTileDataTableWriter.count() * 1d / batchedTileShallowTableWriter.count()));
-        LOGGER.debug("Unique tile hashes: {}", format.integer(tileDataIdByHash.size()));
+        synchronized (tileDataIds) {
+          LOGGER.debug("Unique tile hashes: {}", format.integer(tileDataIds.idByHash.size()));
+        }
       }
     }
   }
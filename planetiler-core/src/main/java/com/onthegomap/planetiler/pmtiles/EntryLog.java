@@ -0,0 +1,203 @@
+package com.onthegomap.planetiler.pmtiles;
+
+import com.carrotsearch.hppc.sorting.IndirectSort;
+import com.onthegomap.planetiler.collection.AppendStore;
+import com.onthegomap.planetiler.collection.LongMinHeap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.util.DiskBacked;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.MemoryEstimator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An append-only list of PMTiles directory {@link Pmtiles.Entry entries} stored in an {@link AppendStore} so that
+ * archives with hundreds of millions of entries don't need to hold them all on the JVM heap until the directories get
+ * written.
+ * <p>
+ * If entries were not appended in tile ID order, {@link #sort(boolean)} sorts them using a fixed amount of memory by
+ * sorting chunks in memory then doing a k-way merge of the sorted chunks.
+ */
+@NotThreadSafe
+class EntryLog implements Iterable<Pmtiles.Entry>, Closeable, DiskBacked, MemoryEstimator.HasEstimate {
+
+  private static final int LONGS_PER_ENTRY = 3;
+  private static final int DEFAULT_SORT_CHUNK_ENTRIES = 1 << 22;
+  private final Storage storage;
+  private final Path dir;
+  private final int sortChunkEntries;
+  private final List<Path> paths = new ArrayList<>();
+  private AppendStore.Longs store;
+
+  /**
+   * Creates a new empty list.
+   *
+   * @param storage where to store entries
+   * @param dir     directory to store temporary files in when {@code storage} is {@link Storage#MMAP}
+   */
+  EntryLog(Storage storage, Path dir) {
+    this(storage, dir, DEFAULT_SORT_CHUNK_ENTRIES);
+  }
+
+  EntryLog(Storage storage, Path dir, int sortChunkEntries) {
+    this.storage = storage;
+    this.dir = dir;
+    this.sortChunkEntries = sortChunkEntries;
+    this.store = newStore();
+  }
+
+  private AppendStore.Longs newStore() {
+    Path path = dir == null ? null : dir.resolve("entries_" + paths.size());
+    if (path != null) {
+      paths.add(path);
+    }
+    return AppendStore.Longs.create(storage, new Storage.Params(path, false));
+  }
+
+  private static void append(AppendStore.Longs store, long tileId, long offset, long lengthAndRunLength) {
+    store.appendLong(tileId);
+    store.appendLong(offset);
+    store.appendLong(lengthAndRunLength);
+  }
+
+  private static long pack(int length, int runLength) {
+    return ((long) length << 32) | (runLength & 0xffffffffL);
+  }
+
+  /** Appends {@code entry} to the end of this list. */
+  void add(Pmtiles.Entry entry) {
+    append(store, entry.tileId(), entry.offset(), pack(entry.length(), entry.runLength()));
+  }
+
+  /** Returns the number of entries in this list. */
+  long size() {
+    return store.size() / LONGS_PER_ENTRY;
+  }
+
+  /** Returns the entries in the order they were appended, or in tile ID order after {@link #sort(boolean)}. */
+  @Override
+  public Iterator<Pmtiles.Entry> iterator() {
+    AppendStore.Longs source = store;
+    long size = size();
+    return new Iterator<>() {
+      long i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < size;
+      }
+
+      @Override
+      public Pmtiles.Entry next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        long idx = i++ * LONGS_PER_ENTRY;
+        long packed = source.getLong(idx + 2);
+        return new Pmtiles.Entry(source.getLong(idx), source.getLong(idx + 1), (int) (packed >>> 32), (int) packed);
+      }
+    };
+  }
+
+  /**
+   * Sorts entries by tile ID.
+   *
+   * @param mergeRuns {@code true} to also combine consecutive entries that point to the same tile data into a single
+   *                  run, for example when tiles in a run were written by different writer threads
+   */
+  void sort(boolean mergeRuns) {
+    long size = size();
+    int numChunks = (int) ((size + sortChunkEntries - 1) / sortChunkEntries);
+    AppendStore.Longs chunks = newStore();
+    long[] tileIds = new long[(int) Math.min(size, sortChunkEntries)];
+    long[] offsets = new long[tileIds.length];
+    long[] lengths = new long[tileIds.length];
+    for (long start = 0; start < size; start += sortChunkEntries) {
+      int n = (int) Math.min(sortChunkEntries, size - start);
+      for (int i = 0; i < n; i++) {
+        long idx = (start + i) * LONGS_PER_ENTRY;
+        tileIds[i] = store.getLong(idx);
+        offsets[i] = store.getLong(idx + 1);
+        lengths[i] = store.getLong(idx + 2);
+      }
+      int[] order = IndirectSort.mergesort(0, n, (a, b) -> Long.compare(tileIds[a], tileIds[b]));
+      for (int i : order) {
+        append(chunks, tileIds[i], offsets[i], lengths[i]);
+      }
+    }
+
+    // k-way merge of the sorted chunks
+    AppendStore.Longs sorted = newStore();
+    long[] positions = new long[numChunks];
+    long[] ends = new long[numChunks];
+    LongMinHeap heap = LongMinHeap.newArrayHeap(Math.max(1, numChunks), Integer::compare);
+    for (int chunk = 0; chunk < numChunks; chunk++) {
+      positions[chunk] = (long) chunk * sortChunkEntries;
+      ends[chunk] = Math.min(size, positions[chunk] + sortChunkEntries);
+      heap.push(chunk, chunks.getLong(positions[chunk] * LONGS_PER_ENTRY));
+    }
+    long lastTileId = -1, lastOffset = -1, lastLengthAndRunLength = 0;
+    while (!heap.isEmpty()) {
+      int chunk = heap.peekId();
+      long idx = positions[chunk] * LONGS_PER_ENTRY;
+      long tileId = chunks.getLong(idx);
+      long offset = chunks.getLong(idx + 1);
+      long lengthAndRunLength = chunks.getLong(idx + 2);
+      int lastRunLength = (int) lastLengthAndRunLength;
+      if (mergeRuns && lastTileId >= 0 && lastTileId + lastRunLength == tileId && lastOffset == offset &&
+        (lastLengthAndRunLength >>> 32) == (lengthAndRunLength >>> 32)) {
+        lastLengthAndRunLength = pack((int) (lengthAndRunLength >>> 32), lastRunLength + (int) lengthAndRunLength);
+      } else {
+        if (lastTileId >= 0) {
+          append(sorted, lastTileId, lastOffset, lastLengthAndRunLength);
+        }
+        lastTileId = tileId;
+        lastOffset = offset;
+        lastLengthAndRunLength = lengthAndRunLength;
+      }
+      if (++positions[chunk] < ends[chunk]) {
+        heap.updateHead(chunks.getLong(positions[chunk] * LONGS_PER_ENTRY));
+      } else {
+        heap.poll();
+      }
+    }
+    if (lastTileId >= 0) {
+      append(sorted, lastTileId, lastOffset, lastLengthAndRunLength);
+    }
+
+    close(store);
+    close(chunks);
+    store = sorted;
+  }
+
+  private static void close(AppendStore store) {
+    try {
+      store.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public long estimateMemoryUsageBytes() {
+    return store.estimateMemoryUsageBytes();
+  }
+
+  @Override
+  public long diskUsageBytes() {
+    return store.diskUsageBytes();
+  }
+
+  @Override
+  public void close() {
+    close(store);
+    paths.forEach(FileUtils::delete);
+  }
+}
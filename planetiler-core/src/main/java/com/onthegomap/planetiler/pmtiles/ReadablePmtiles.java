@@ -4,43 +4,183 @@ import com.onthegomap.planetiler.archive.ReadableTileArchive;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.util.ByteBufferUtil;
 import com.onthegomap.planetiler.util.CloseableIterator;
 import com.onthegomap.planetiler.util.Gzip;
+import com.onthegomap.planetiler.util.MemoryEstimator;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.locationtech.jts.geom.Coordinate;
 
+/**
+ * Read API for a PMTiles archive.
+ * <p>
+ * The root directory is decoded once when the archive is opened and recently used leaf directories are kept decoded in
+ * an LRU cache bounded by their estimated size in memory, so random tile lookups only need a binary search through
+ * in-memory directories and a single read of the tile data. Tile data can be read from a memory-mapped file to avoid a
+ * system call for each read.
+ */
 public class ReadablePmtiles implements ReadableTileArchive {
+  /** Option to memory-map the archive instead of reading from a file channel. */
+  public static final String MMAP = "mmap";
+  /** Option to set the maximum size in megabytes of decoded leaf directories to keep in memory. */
+  public static final String LEAF_CACHE_MB = "leaf_cache_mb";
+  private static final int DEFAULT_LEAF_CACHE_MB = 64;
+  // each entry is an object with 2 longs and 2 ints plus a pointer to it in the directory list
+  private static final long ENTRY_BYTES =
+    MemoryEstimator.CLASS_HEADER_BYTES + 2 * MemoryEstimator.LONG_BYTES + 2 * MemoryEstimator.INT_BYTES +
+      MemoryEstimator.POINTER_BYTES;
+  private static final int SEGMENT_BITS = 30; // 1GB
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
   private final SeekableByteChannel channel;
+  private final MappedByteBuffer[] segments;
   private final Pmtiles.Header header;
+  private final List<Pmtiles.Entry> rootDir;
+  private final Map<Long, List<Pmtiles.Entry>> leafCache = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxLeafCacheBytes;
+  private long leafCacheBytes = 0;
+  private long leafCacheHits = 0;
+  private long leafCacheMisses = 0;
 
   public ReadablePmtiles(SeekableByteChannel channel) throws IOException {
+    this(channel, false, DEFAULT_LEAF_CACHE_MB * 1_000_000L);
+  }
+
+  /**
+   * Returns a reader for the archive in {@code channel}.
+   *
+   * @param channel           the archive contents, must be a {@link FileChannel} if {@code mmap} is {@code true}
+   * @param mmap              {@code true} to read from a memory-mapped copy of {@code channel}
+   * @param maxLeafCacheBytes maximum estimated size of decoded leaf directories to keep in memory
+   */
+  public ReadablePmtiles(SeekableByteChannel channel, boolean mmap, long maxLeafCacheBytes) throws IOException {
     this.channel = channel;
+    this.maxLeafCacheBytes = maxLeafCacheBytes;
+    if (mmap) {
+      if (!(channel instanceof FileChannel fileChannel)) {
+        throw new IllegalArgumentException("Can only memory-map a file channel");
+      }
+      this.segments = ByteBufferUtil.mapFile(fileChannel, fileChannel.size(), 1L << SEGMENT_BITS, false);
+    } else {
+      this.segments = null;
+    }
 
     this.header = Pmtiles.Header.fromBytes(getBytes(0, Pmtiles.HEADER_LEN));
+    this.rootDir = readDir(header.rootDirOffset(), (int) header.rootDirLength());
   }
 
   public static ReadableTileArchive newReadFromFile(Path path) throws IOException {
     return new ReadablePmtiles(FileChannel.open(path, StandardOpenOption.READ));
   }
 
-  private synchronized byte[] getBytes(long start, int length) throws IOException {
-    channel.position(start);
+  /**
+   * Returns a reader for the archive at {@code path} with the {@value #MMAP} and {@value #LEAF_CACHE_MB} options set
+   * from {@code options}.
+   */
+  public static ReadablePmtiles newReadFromFile(Path path, Arguments options) throws IOException {
+    boolean mmap = options.getBoolean(MMAP, "memory-map pmtiles archives for reads", false);
+    int leafCacheMb = options.getInteger(LEAF_CACHE_MB,
+      "maximum megabytes of decoded pmtiles leaf directories to cache", DEFAULT_LEAF_CACHE_MB);
+    return new ReadablePmtiles(FileChannel.open(path, StandardOpenOption.READ), mmap, leafCacheMb * 1_000_000L);
+  }
+
+  private byte[] getBytes(long start, int length) throws IOException {
+    if (segments != null) {
+      return getMappedBytes(start, length);
+    }
     var buf = ByteBuffer.allocate(length);
-    channel.read(buf);
+    if (channel instanceof FileChannel fileChannel) {
+      // positional reads are thread-safe so don't need to synchronize
+      while (buf.hasRemaining()) {
+        if (fileChannel.read(buf, start + buf.position()) < 0) {
+          throw new EOFException("Unexpected end of file reading " + length + " bytes at " + start);
+        }
+      }
+    } else {
+      synchronized (this) {
+        channel.position(start);
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+          // keep reading until buffer is full or end of channel
+        }
+      }
+    }
     return buf.array();
   }
 
+  private byte[] getMappedBytes(long start, int length) throws EOFException {
+    byte[] result = new byte[length];
+    int read = 0;
+    while (read < length) {
+      long position = start + read;
+      int segmentIdx = (int) (position >>> SEGMENT_BITS);
+      if (segmentIdx >= segments.length) {
+        throw new EOFException("Unexpected end of file reading " + length + " bytes at " + start);
+      }
+      MappedByteBuffer segment = segments[segmentIdx];
+      int offset = (int) (position & SEGMENT_MASK);
+      int toRead = Math.min(length - read, segment.limit() - offset);
+      if (toRead <= 0) {
+        throw new EOFException("Unexpected end of file reading " + length + " bytes at " + start);
+      }
+      segment.get(offset, result, read, toRead);
+      read += toRead;
+    }
+    return result;
+  }
+
+  /** Returns the decoded leaf directory at {@code offset}, reading and caching it if it was not used recently. */
+  private List<Pmtiles.Entry> getLeafDir(long offset, int length) {
+    synchronized (leafCache) {
+      var cached = leafCache.get(offset);
+      if (cached != null) {
+        leafCacheHits++;
+        return cached;
+      }
+      leafCacheMisses++;
+    }
+    var dir = readDir(offset, length);
+    synchronized (leafCache) {
+      if (leafCache.put(offset, dir) == null) {
+        leafCacheBytes += dir.size() * ENTRY_BYTES;
+      }
+      Iterator<List<Pmtiles.Entry>> iterator = leafCache.values().iterator();
+      // always keep the most recent one
+      while (leafCacheBytes > maxLeafCacheBytes && leafCache.size() > 1) {
+        leafCacheBytes -= iterator.next().size() * ENTRY_BYTES;
+        iterator.remove();
+      }
+    }
+    return dir;
+  }
+
+  long leafCacheHits() {
+    synchronized (leafCache) {
+      return leafCacheHits;
+    }
+  }
+
+  long leafCacheMisses() {
+    synchronized (leafCache) {
+      return leafCacheMisses;
+    }
+  }
+
   /**
    * Finds the relevant entry for a tileId in a list of entries.
    * <p>
@@ -70,39 +210,73 @@ public class ReadablePmtiles implements ReadableTileArchive {
   @Override
   @SuppressWarnings("java:S1168")
   public byte[] getTile(int x, int y, int z) {
+    var range = getTileDataRange(x, y, z);
+    if (range == null) {
+      return null;
+    }
     try {
-      var tileId = TileCoord.ofXYZ(x, y, z).hilbertEncoded();
+      return getTileData(range);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not get tile", e);
+    }
+  }
 
-      long dirOffset = header.rootDirOffset();
-      int dirLength = (int) header.rootDirLength();
+  /**
+   * Returns the location of the data for the tile at {@code x, y, z} within the archive, or {@code null} if not found.
+   * <p>
+   * Use {@link #transferTo(DataRange, WritableByteChannel)} to copy the data to another channel without reading it onto
+   * the JVM heap first.
+   */
+  public DataRange getTileDataRange(int x, int y, int z) {
+    var tileId = TileCoord.ofXYZ(x, y, z).hilbertEncoded();
+    var dir = rootDir;
+    for (int depth = 0; depth <= 3; depth++) {
+      var entry = findTile(dir, tileId);
+      if (entry == null) {
+        return null;
+      } else if (entry.runLength() > 0) {
+        return new DataRange(header.tileDataOffset() + entry.offset(), entry.length());
+      } else {
+        dir = getLeafDir(header.leafDirectoriesOffset() + entry.offset(), entry.length());
+      }
+    }
+    return null;
+  }
 
-      for (int depth = 0; depth <= 3; depth++) {
-        byte[] dirBytes = getBytes(dirOffset, dirLength);
-        if (header.internalCompression() == Pmtiles.Compression.GZIP) {
-          dirBytes = Gzip.gunzip(dirBytes);
-        }
+  /** Returns the bytes in {@code range} of this archive. */
+  public byte[] getTileData(DataRange range) throws IOException {
+    return getBytes(range.offset(), range.length());
+  }
 
-        var dir = Pmtiles.directoryFromBytes(dirBytes);
-        var entry = findTile(dir, tileId);
-        if (entry != null) {
-          if (entry.runLength() > 0) {
-            return getBytes(header.tileDataOffset() + entry.offset(), entry.length());
-          } else {
-            dirOffset = header.leafDirectoriesOffset() + entry.offset();
-            dirLength = entry.length();
-          }
-        } else {
-          return null;
+  /**
+   * Copies the bytes in {@code range} of this archive to {@code target} and returns the number of bytes written.
+   * <p>
+   * When the archive was opened from a {@link FileChannel} this uses {@link FileChannel#transferTo}, which copies the
+   * bytes in small chunks, or directly in the operating system when {@code target} is a file or socket channel.
+   */
+  public long transferTo(DataRange range, WritableByteChannel target) throws IOException {
+    if (segments == null && channel instanceof FileChannel fileChannel) {
+      long position = range.offset();
+      long end = range.offset() + range.length();
+      while (position < end) {
+        long transferred = fileChannel.transferTo(position, end - position, target);
+        if (transferred <= 0) {
+          throw new EOFException("Unexpected end of file transferring " + range);
         }
-
+        position += transferred;
+      }
+    } else {
+      var buf = ByteBuffer.wrap(getBytes(range.offset(), range.length()));
+      while (buf.hasRemaining()) {
+        target.write(buf);
       }
-    } catch (IOException e) {
-      throw new IllegalStateException("Could not get tile", e);
     }
-
-    return null;
+    return range.length();
   }
 
+  /** A range of {@code length} bytes starting at {@code offset} from the beginning of the archive. */
+  public record DataRange(long offset, int length) {}
+
   public Pmtiles.Header getHeader() {
     return header;
   }
@@ -194,18 +368,19 @@ public class ReadablePmtiles implements ReadableTileArchive {
 
   @Override
   public CloseableIterator<TileCoord> getAllTileCoords() {
-    List<Pmtiles.Entry> rootDir = readDir(header.rootDirOffset(), (int) header.rootDirLength());
     return CloseableIterator.of(getTileCoords(rootDir));
   }
 
   @Override
   public CloseableIterator<Tile> getAllTiles() {
-    List<Pmtiles.Entry> rootDir = readDir(header.rootDirOffset(), (int) header.rootDirLength());
     return CloseableIterator.of(getTiles(rootDir));
   }
 
   @Override
   public void close() throws IOException {
+    if (segments != null) {
+      ByteBufferUtil.free(segments);
+    }
     channel.close();
   }
 }
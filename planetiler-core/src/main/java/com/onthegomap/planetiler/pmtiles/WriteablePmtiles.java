@@ -1,11 +1,13 @@
 package com.onthegomap.planetiler.pmtiles;
 
 import com.carrotsearch.hppc.ByteArrayList;
-import com.carrotsearch.hppc.LongLongHashMap;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.archive.WriteableTileArchive;
-import com.onthegomap.planetiler.collection.Hppc;
+import com.onthegomap.planetiler.collection.HashLongLongMap;
+import com.onthegomap.planetiler.collection.LongLongMap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -23,60 +25,84 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.OptionalLong;
 import java.util.TreeMap;
 import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * PMTiles is a single-file tile archive format designed for efficient access on cloud storage.
+ * <p>
+ * Tile writers returned from {@link #newTileWriter()} may be used from multiple threads at once, each appending tiles
+ * in whatever order they finish encoding. Writers take a short lock to deduplicate each tile and reserve space for it
+ * at the end of the file, then copy the tile data into that space in parallel when writing to a {@link FileChannel}.
+ * The directory gets sorted in {@link #finish(TileArchiveMetadata)} when tiles were not written in order.
+ * <p>
+ * Directory entries and the tile content hashes used to deduplicate tiles are kept in {@link Storage} outside of the
+ * JVM heap when writing with {@link #newWriteToFile(Path, Arguments, PlanetilerConfig)}, since planet-scale archives
+ * can have hundreds of millions of them.
  *
  * @see <a href="https://github.com/protomaps/PMTiles/blob/main/spec/v3/spec.md">PMTiles Specification</a>
  */
 public final class WriteablePmtiles implements WriteableTileArchive {
 
   static final int INIT_SECTION = 16384;
+  /** Option to set the {@link Storage} for directory entries and tile hashes. */
+  public static final String STORAGE = "storage";
   private static final Logger LOGGER = LoggerFactory.getLogger(WriteablePmtiles.class);
-  final LongLongHashMap hashToOffset = Hppc.newLongLongHashMap();
-  final ArrayList<Pmtiles.Entry> entries = new ArrayList<>();
+  final HashLongLongMap hashToOffset;
+  private final EntryLog entries;
+  private final List<DeduplicatingTileWriter> writers = new ArrayList<>();
   private final SeekableByteChannel out;
+  private final Path tempDir;
   private long currentOffset = 0;
   private long numUnhashedTiles = 0;
   private long numAddressedTiles = 0;
   private boolean isClustered = true;
+  private long lastTileId = -1;
+  private boolean entriesSorted = true;
+  private long lastEntryTileId = -1;
 
   private final LongSupplier bytesWritten;
 
-  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten) throws IOException {
+  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten, Storage storage, Path tempDir)
+    throws IOException {
     this.out = channel;
     out.write(ByteBuffer.allocate(INIT_SECTION));
     this.bytesWritten = bytesWritten;
+    this.tempDir = tempDir;
+    if (storage == Storage.MMAP && tempDir == null) {
+      throw new IllegalArgumentException("Need a temp directory to use " + storage.id() + " storage");
+    }
+    this.hashToOffset = new HashLongLongMap(storage,
+      tempDir == null ? null : new Storage.Params(tempDir.resolve("tile_hashes"), false), 1 << 16);
+    this.entries = new EntryLog(storage, tempDir);
   }
 
-  private static Directories makeDirectoriesWithLeaves(List<Pmtiles.Entry> subEntries, int leafSize, int attemptNum)
-    throws IOException {
+  private static Directories makeDirectoriesWithLeaves(Iterable<Pmtiles.Entry> subEntries, int leafSize,
+    int attemptNum) throws IOException {
     LOGGER.info("Building directories with {} entries per leaf, attempt {}...", leafSize, attemptNum);
     ArrayList<Pmtiles.Entry> rootEntries = new ArrayList<>();
     ByteArrayList leavesOutputStream = new ByteArrayList();
-    int leavesLength = 0;
-    int numLeaves = 0;
-
-    for (int i = 0; i < subEntries.size(); i += leafSize) {
-      numLeaves++;
-      int end = i + leafSize;
-      if (i + leafSize > subEntries.size()) {
-        end = subEntries.size();
+    List<Pmtiles.Entry> leaf = new ArrayList<>(leafSize);
+    Iterator<Pmtiles.Entry> iterator = subEntries.iterator();
+
+    while (iterator.hasNext()) {
+      leaf.clear();
+      while (leaf.size() < leafSize && iterator.hasNext()) {
+        leaf.add(iterator.next());
       }
-      byte[] leafBytes = Pmtiles.directoryToBytes(subEntries, i, end);
+      byte[] leafBytes = Pmtiles.directoryToBytes(leaf, 0, leaf.size());
       leafBytes = Gzip.gzip(leafBytes);
-      rootEntries.add(new Pmtiles.Entry(subEntries.get(i).tileId(), leavesLength, leafBytes.length, 0));
+      rootEntries.add(new Pmtiles.Entry(leaf.get(0).tileId(), leavesOutputStream.size(), leafBytes.length, 0));
       leavesOutputStream.add(leafBytes);
-      leavesLength += leafBytes.length;
     }
+    int numLeaves = rootEntries.size();
 
     byte[] rootBytes = Pmtiles.directoryToBytes(rootEntries);
     rootBytes = Gzip.gzip(rootBytes);
@@ -94,10 +120,23 @@ public final class WriteablePmtiles implements WriteableTileArchive {
    * @throws IOException if compression fails
    */
   static Directories makeDirectories(List<Pmtiles.Entry> entries) throws IOException {
+    return makeDirectories(entries.size(), entries);
+  }
+
+  /**
+   * Same as {@link #makeDirectories(List)} except entries are streamed from {@code entries} once per attempt instead of
+   * requiring them all to be in memory.
+   *
+   * @param numEntries number of entries in {@code entries}
+   * @param entries    all entries in the tileset, sorted by tile ID
+   */
+  static Directories makeDirectories(long numEntries, Iterable<Pmtiles.Entry> entries) throws IOException {
     int maxEntriesRootOnly = 16384;
     int attemptNum = 1;
-    if (entries.size() < maxEntriesRootOnly) {
-      byte[] testBytes = Pmtiles.directoryToBytes(entries, 0, entries.size());
+    if (numEntries < maxEntriesRootOnly) {
+      List<Pmtiles.Entry> rootEntries = new ArrayList<>((int) numEntries);
+      entries.forEach(rootEntries::add);
+      byte[] testBytes = Pmtiles.directoryToBytes(rootEntries, 0, rootEntries.size());
       testBytes = Gzip.gzip(testBytes);
 
       if (testBytes.length < INIT_SECTION - Pmtiles.HEADER_LEN) {
@@ -105,7 +144,7 @@ public final class WriteablePmtiles implements WriteableTileArchive {
       }
     }
 
-    double estimatedLeafSize = entries.size() / 3_500d;
+    double estimatedLeafSize = numEntries / 3_500d;
     int leafSize = (int) Math.max(estimatedLeafSize, 4096);
 
     while (true) {
@@ -120,12 +159,32 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   public static WriteablePmtiles newWriteToFile(Path path) throws IOException {
     return new WriteablePmtiles(
       FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
-      () -> FileUtils.size(path)
+      () -> FileUtils.size(path),
+      Storage.RAM,
+      null
+    );
+  }
+
+  /**
+   * Returns a new PMTiles writer to {@code path} that stores directory entries and tile hashes in the {@link Storage}
+   * set by the {@value #STORAGE} option under {@link PlanetilerConfig#tmpDir()}.
+   */
+  public static WriteablePmtiles newWriteToFile(Path path, Arguments options, PlanetilerConfig config)
+    throws IOException {
+    Storage storage = Storage.from(options.getString(STORAGE,
+      "storage for pmtiles directory entries and tile hashes, one of " +
+        Stream.of(Storage.values()).map(Storage::id).toList(),
+      Storage.MMAP.id()));
+    return new WriteablePmtiles(
+      FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+      () -> FileUtils.size(path),
+      storage,
+      config.tmpDir().resolve("pmtiles")
     );
   }
 
   public static WriteablePmtiles newWriteToMemory(SeekableInMemoryByteChannel bytes) throws IOException {
-    return new WriteablePmtiles(bytes, () -> 0);
+    return new WriteablePmtiles(bytes, () -> 0, Storage.RAM, null);
   }
 
   @Override
@@ -138,15 +197,26 @@ public final class WriteablePmtiles implements WriteableTileArchive {
     return TileOrder.HILBERT;
   }
 
+  @Override
+  public boolean supportsUnorderedWrites() {
+    return true;
+  }
+
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
-    if (!isClustered) {
-      LOGGER.info("Tile data was not written in order, sorting entries...");
-      Collections.sort(entries);
+    synchronized (this) {
+      for (var writer : writers) {
+        writer.flushLastEntry();
+      }
+    }
+    if (!entriesSorted) {
+      LOGGER.info("Tiles were not written in order, sorting {} entries...", entries.size());
+      // a single writer already extended every run it could, so only merge runs split across writers
+      entries.sort(writers.size() > 1);
       LOGGER.info("Done sorting.");
     }
     try {
-      Directories directories = makeDirectories(entries);
+      Directories directories = makeDirectories(entries.size(), entries);
       // use treemap to ensure consistent ouput between runs
       var otherMetadata = new TreeMap<>(tileArchiveMetadata.toMap());
 
@@ -213,6 +283,8 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
       LOGGER.info("Writing metadata and leaf directories...");
 
+      // tile data may have been written at explicit positions, so move to the end of it first
+      out.position(INIT_SECTION + currentOffset);
       out.write(ByteBuffer.wrap(jsonBytes));
       out.write(ByteBuffer.wrap(directories.leaves));
 
@@ -254,10 +326,40 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   @Override
   public void close() throws IOException {
     out.close();
+    hashToOffset.close();
+    entries.close();
+    if (tempDir != null) {
+      FileUtils.deleteDirectory(tempDir);
+    }
   }
 
-  public WriteableTileArchive.TileWriter newTileWriter() {
-    return new DeduplicatingTileWriter();
+  public synchronized WriteableTileArchive.TileWriter newTileWriter() {
+    var writer = new DeduplicatingTileWriter();
+    writers.add(writer);
+    return writer;
+  }
+
+  /** Writes {@code data} at {@code position}, concurrently with other writers when the output supports it. */
+  private void writeAt(long position, byte[] data) throws IOException {
+    var buffer = ByteBuffer.wrap(data);
+    if (out instanceof FileChannel fileChannel) {
+      while (buffer.hasRemaining()) {
+        position += fileChannel.write(buffer, position);
+      }
+    } else {
+      synchronized (out) {
+        out.position(position);
+        out.write(buffer);
+      }
+    }
+  }
+
+  private void addEntry(Pmtiles.Entry entry) {
+    if (entry.tileId() < lastEntryTileId) {
+      entriesSorted = false;
+    }
+    lastEntryTileId = entry.tileId();
+    entries.add(entry);
   }
 
   public record Directories(byte[] root, byte[] leaves, int numLeaves, int leafSize, int numAttempts) {
@@ -293,65 +395,84 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   }
 
   private class DeduplicatingTileWriter implements TileWriter {
+    // each writer only extends runs of tiles it wrote itself, runs split across writers get merged in finish()
+    // the last entry stays here until its run ends since entries can't be modified after they are spilled
     Pmtiles.Entry lastEntry = null;
 
+    private void flushLastEntry() {
+      if (lastEntry != null) {
+        addEntry(lastEntry);
+        lastEntry = null;
+      }
+    }
+
     @Override
     public void write(TileEncodingResult encodingResult) {
-      numAddressedTiles++;
-      boolean writeTileData;
-      long offset;
       OptionalLong tileDataHashOpt = encodingResult.tileDataHash();
       var data = encodingResult.tileData();
       TileCoord coord = encodingResult.coord();
 
       long tileId = coord.hilbertEncoded();
 
-      if (!entries.isEmpty()) {
-        if (tileId < lastEntry.tileId()) {
-          isClustered = false;
-        } else if (tileId == lastEntry.tileId()) {
-          LOGGER.error("Duplicate tile detected in writer");
+      boolean writeTileData;
+      long offset;
+      // writer threads share the content hashes and end of the file, so only one can reserve space for a tile at a time
+      synchronized (WriteablePmtiles.this) {
+        numAddressedTiles++;
+
+        if (lastTileId >= 0) {
+          if (tileId < lastTileId) {
+            isClustered = false;
+          } else if (tileId == lastTileId) {
+            LOGGER.error("Duplicate tile detected in writer");
+          }
         }
-      }
-
-      if (tileDataHashOpt.isPresent()) {
-        long tileDataHash = tileDataHashOpt.getAsLong();
-        if (hashToOffset.containsKey(tileDataHash)) {
-          offset = hashToOffset.get(tileDataHash);
-          writeTileData = false;
-          if (lastEntry != null && lastEntry.tileId() + lastEntry.runLength() == tileId &&
-            lastEntry.offset() == offset) {
-            lastEntry.runLength++;
-            return;
+        lastTileId = tileId;
+
+        if (tileDataHashOpt.isPresent()) {
+          long tileDataHash = tileDataHashOpt.getAsLong();
+          long existingOffset = hashToOffset.get(tileDataHash);
+          if (existingOffset != LongLongMap.MISSING_VALUE) {
+            offset = existingOffset;
+            writeTileData = false;
+            if (lastEntry != null && lastEntry.tileId() + lastEntry.runLength() == tileId &&
+              lastEntry.offset() == offset) {
+              lastEntry.runLength++;
+              return;
+            }
+          } else {
+            hashToOffset.put(tileDataHash, currentOffset);
+            offset = currentOffset;
+            writeTileData = true;
           }
         } else {
-          hashToOffset.put(tileDataHash, currentOffset);
+          numUnhashedTiles++;
           offset = currentOffset;
           writeTileData = true;
         }
-      } else {
-        numUnhashedTiles++;
-        offset = currentOffset;
-        writeTileData = true;
-      }
 
-      var newEntry = new Pmtiles.Entry(tileId, offset, data.length, 1);
-      entries.add(newEntry);
-      lastEntry = newEntry;
+        flushLastEntry();
+        lastEntry = new Pmtiles.Entry(tileId, offset, data.length, 1);
+
+        if (writeTileData) {
+          currentOffset += data.length;
+        }
+      }
 
       if (writeTileData) {
         try {
-          out.write(ByteBuffer.wrap(data));
+          writeAt(INIT_SECTION + offset, data);
         } catch (IOException e) {
           throw new UncheckedIOException(e);
         }
-        currentOffset += data.length;
       }
     }
 
     @Override
     public void close() {
-      // no cleanup needed.
+      synchronized (WriteablePmtiles.this) {
+        flushLastEntry();
+      }
     }
   }
 }
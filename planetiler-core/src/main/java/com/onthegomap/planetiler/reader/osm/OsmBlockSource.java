@@ -1,5 +1,6 @@
 package com.onthegomap.planetiler.reader.osm;
 
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import java.io.Closeable;
 import java.util.Iterator;
 import java.util.function.Consumer;
@@ -20,7 +21,7 @@ public interface OsmBlockSource extends Closeable {
    * An individual block of raw bytes from an osm.pbf file that can be decompressed/parsed with
    * {@link #decodeElements()}.
    */
-  interface Block extends Iterable<OsmElement> {
+  interface Block extends Iterable<OsmElement>, MemoryEstimator.HasEstimate {
 
     /** Create a fake block from existing elements - useful for tests. */
     static <T extends OsmElement> Block of(Iterable<T> items) {
@@ -33,6 +34,12 @@ public interface OsmBlockSource extends Closeable {
     /** Decompress and parse OSM elements from this block. */
     Iterable<OsmElement> decodeElements();
 
+    /** Returns the number of bytes this block holds on to while waiting to be decoded. */
+    @Override
+    default long estimateMemoryUsageBytes() {
+      return 0;
+    }
+
     @Override
     default Iterator<OsmElement> iterator() {
       return decodeElements().iterator();
@@ -0,0 +1,60 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import com.onthegomap.planetiler.config.Bounds;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Decides whether raw OSM elements could intersect the {@link Bounds} of the map being generated, so that
+ * {@link OsmReader} can skip storing and processing elements outside of {@code --bounds} or {@code --polygon} before
+ * building their geometries or handing them to the profile.
+ * <p>
+ * Uses the same test as {@link com.onthegomap.planetiler.reader.SourceFeatureProcessor}: an element is kept when its
+ * envelope intersects the envelope of the bounds, optionally expanded by a buffer.
+ */
+class OsmBoundsFilter {
+
+  static final OsmBoundsFilter NONE = new OsmBoundsFilter(null);
+
+  private final Envelope worldBounds;
+
+  private OsmBoundsFilter(Envelope worldBounds) {
+    this.worldBounds = worldBounds;
+  }
+
+  /**
+   * Returns a filter that keeps elements within {@code bufferDegrees} of {@code bounds}, or {@link #NONE} if bounds
+   * cover the whole planet.
+   */
+  static OsmBoundsFilter from(Bounds bounds, double bufferDegrees) {
+    if (bounds == null || bounds.isWorld()) {
+      return NONE;
+    }
+    Envelope latLon = bounds.latLon().copy();
+    latLon.expandBy(Math.max(0, bufferDegrees));
+    Envelope world = GeoUtils.toWorldBounds(latLon);
+    return world.contains(GeoUtils.WORLD_BOUNDS) ? NONE : new OsmBoundsFilter(world);
+  }
+
+  /** Returns {@code false} if this filter will never exclude an element. */
+  boolean isActive() {
+    return worldBounds != null;
+  }
+
+  /** Returns {@code true} if the node at {@code encodedLocation} is inside the bounds. */
+  boolean includeNode(long encodedLocation) {
+    return worldBounds == null ||
+      worldBounds.contains(GeoUtils.decodeWorldX(encodedLocation), GeoUtils.decodeWorldY(encodedLocation));
+  }
+
+  /** Returns {@code true} if the envelope of world web mercator coordinates {@code coords} intersects the bounds. */
+  boolean includeCoordinates(CoordinateSequence coords) {
+    if (worldBounds == null) {
+      return true;
+    }
+    Envelope envelope = new Envelope();
+    coords.expandEnvelope(envelope);
+    return worldBounds.intersects(envelope);
+  }
+}
@@ -5,6 +5,7 @@ import com.onthegomap.planetiler.reader.FileFormatException;
 import com.onthegomap.planetiler.util.ByteBufferUtil;
 import com.onthegomap.planetiler.util.DiskBacked;
 import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import crosby.binary.Fileformat.BlobHeader;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -178,6 +179,11 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
       public Iterable<OsmElement> decodeElements() {
         return PbfDecoder.decode(bytes);
       }
+
+      @Override
+      public long estimateMemoryUsageBytes() {
+        return MemoryEstimator.CLASS_HEADER_BYTES + MemoryEstimator.estimateSize(bytes);
+      }
     }
   }
 
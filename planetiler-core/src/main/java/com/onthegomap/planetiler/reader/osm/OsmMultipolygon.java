@@ -13,6 +13,7 @@
  ****************************************************************/
 package com.onthegomap.planetiler.reader.osm;
 
+import com.carrotsearch.hppc.IntArrayList;
 import com.carrotsearch.hppc.LongArrayList;
 import com.carrotsearch.hppc.LongObjectHashMap;
 import com.carrotsearch.hppc.ObjectIntMap;
@@ -20,18 +21,21 @@ import com.onthegomap.planetiler.collection.Hppc;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.TopologyException;
 import org.locationtech.jts.geom.prep.PreparedPolygon;
+import org.locationtech.jts.index.strtree.STRtree;
 
 /**
  * A utility to reconstruct <a href="https://wiki.openstreetmap.org/wiki/Relation:multipolygon">multipolygons</a> from
@@ -49,12 +53,15 @@ public class OsmMultipolygon {
    * Steps to reconstruct a polygon:
    * 1) connect ways with matching endpoints until closed rings are formed (discard unclosed rings)
    * 2) sort rings by area descending
-   * 3) process rings in order to find out which is the direct parent containing each ring
+   * 3) process rings in order to find out which is the direct parent containing each ring, only testing rings whose
+   *    bounding box is inside the bounding box of the parent (using a spatial index for relations with many rings)
    * 4) iterate from outermost to innermost ring, creating a polygon with holes for each outer/inner ring pair
    */
 
   private static final double MIN_CLOSE_RING_GAP = 0.1 / GeoUtils.WORLD_CIRCUMFERENCE_METERS;
   private static final Comparator<Ring> BY_AREA_DESCENDING = Comparator.comparingDouble(ring -> -ring.area);
+  // below this many rings, a linear scan over bounding boxes is faster than building a spatial index
+  private static final int MIN_RINGS_TO_INDEX = 32;
 
   /** A closed linestring that tracks parent and child rings relationships. */
   private static class Ring {
@@ -238,13 +245,22 @@ public class OsmMultipolygon {
     if (numPolygons == 1) {
       return shells;
     }
+    STRtree index = null;
+    if (numPolygons >= MIN_RINGS_TO_INDEX) {
+      index = new STRtree();
+      for (int i = 0; i < numPolygons; i++) {
+        index.insert(polygons.get(i).geom.getEnvelopeInternal(), i);
+      }
+    }
+    IntArrayList candidates = new IntArrayList();
     for (int i = 0; i < numPolygons; i++) {
       Ring outer = polygons.get(i);
       if (i < numPolygons - 1) {
-        PreparedPolygon prepared = new PreparedPolygon(outer.geom);
-        // since the rings are sorted by area descending, the inner loop is only smaller rings
-        for (int j = i + 1; j < numPolygons; j++) {
-          Ring inner = polygons.get(j);
+        findSmallerRingsInsideEnvelope(polygons, i, index, candidates);
+        PreparedPolygon prepared = candidates.isEmpty() ? null : new PreparedPolygon(outer.geom);
+        // since the rings are sorted by area descending, candidates are only smaller rings
+        for (int c = 0; c < candidates.size(); c++) {
+          Ring inner = polygons.get(candidates.get(c));
           if (prepared.contains(inner.geom)) {
             // keep searching until we find the smallest ring that contains this one
             // that one is the direct parent
@@ -268,6 +284,32 @@ public class OsmMultipolygon {
     return shells;
   }
 
+  /**
+   * Populates {@code result} with the indexes, in ascending order, of rings after {@code outerIndex} whose bounding box
+   * is inside the bounding box of the ring at {@code outerIndex} - since those are the only ones it can contain.
+   */
+  private static void findSmallerRingsInsideEnvelope(List<Ring> polygons, int outerIndex, STRtree index,
+    IntArrayList result) {
+    result.clear();
+    Envelope envelope = polygons.get(outerIndex).geom.getEnvelopeInternal();
+    if (index == null) {
+      for (int j = outerIndex + 1; j < polygons.size(); j++) {
+        if (envelope.contains(polygons.get(j).geom.getEnvelopeInternal())) {
+          result.add(j);
+        }
+      }
+    } else {
+      index.query(envelope, item -> {
+        int j = (Integer) item;
+        if (j > outerIndex && envelope.contains(polygons.get(j).geom.getEnvelopeInternal())) {
+          result.add(j);
+        }
+      });
+      // process in the same order as a linear scan so the same input always produces the same output
+      Arrays.sort(result.buffer, 0, result.size());
+    }
+  }
+
   private static boolean tryClose(LongArrayList segment, OsmReader.NodeLocationProvider nodeCache,
     double minGap) {
     int size = segment.size();
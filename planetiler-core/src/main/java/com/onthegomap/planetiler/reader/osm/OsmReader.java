@@ -34,6 +34,7 @@ import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import org.locationtech.jts.geom.Coordinate;
@@ -66,6 +68,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OsmReader.class);
   private static final Format FORMAT = Format.defaultInstance();
+  private static final long SLOW_MULTIPOLYGON_NANOS = Duration.ofSeconds(1).toNanos();
   private static final int ROLE_BITS = 16;
   private static final int MAX_ROLES = (1 << ROLE_BITS) - 10;
   private static final int ROLE_SHIFT = 64 - ROLE_BITS;
@@ -97,6 +100,17 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   private final IntObjectHashMap<String> roleIdsReverse = new IntObjectHashMap<>();
   private final AtomicLong roleSizes = new AtomicLong(0);
   private final OsmPhaser pass1Phaser = new OsmPhaser(0);
+  // skip elements outside of --bounds before building geometries or calling the profile
+  private OsmBoundsFilter pass1NodeFilter = OsmBoundsFilter.NONE;
+  private OsmBoundsFilter pass2Filter = OsmBoundsFilter.NONE;
+  private final Counter.MultiThreadCounter nodesNotStored = Counter.newMultiThreadCounter();
+  private final Counter.MultiThreadCounter nodesOutsideBounds = Counter.newMultiThreadCounter();
+  private final Counter.MultiThreadCounter waysOutsideBounds = Counter.newMultiThreadCounter();
+  // track time spent assembling multipolygon relations so a few giant ones don't silently dominate pass2
+  private final Counter.MultiThreadCounter multipolygonsBuilt;
+  private final Counter.MultiThreadCounter multipolygonBuildNanos;
+  private final AtomicReference<MultipolygonBuildTime> slowestMultipolygon =
+    new AtomicReference<>(new MultipolygonBuildTime(0, 0));
 
   /**
    * Constructs a new {@code OsmReader} from an {@code osmSourceProvider} that will use {@code nodeLocationDb} as a
@@ -124,6 +138,13 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       "ways", pass1Phaser::ways,
       "relations", pass1Phaser::relations
     ));
+    stats.counter("osm_elements_outside_bounds", "type", () -> Map.of(
+      "stored_nodes", nodesNotStored,
+      "nodes", nodesOutsideBounds,
+      "ways", waysOutsideBounds
+    ));
+    this.multipolygonsBuilt = stats.longCounter("osm_multipolygons_built");
+    this.multipolygonBuildNanos = stats.nanoCounter("osm_multipolygon_build_seconds");
     this.multipolygonWayGeometries = multipolygonGeometries;
   }
 
@@ -148,6 +169,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
    */
   public void pass1(PlanetilerConfig config) {
     var timer = stats.startStage("osm_pass1");
+    setBounds(config);
     var pipeline = WorkerPipeline.start("osm_pass1", stats);
     CompletableFuture<?> done;
 
@@ -169,7 +191,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       pass1Phaser.registerWorkers(parseThreads);
       var parallelPipeline = pipeline
         .fromGenerator("read", osmBlockSource::forEachBlock)
-        .addBuffer("pbf_blocks", parseThreads * 2)
+        .addBuffer("pbf_blocks", parseThreads * 2, 1, pbfBlocksBytes())
         .sinkTo("process", parseThreads, this::processPass1Blocks);
       loggers.addPipelineStats(parallelPipeline);
       done = parallelPipeline.done();
@@ -199,7 +221,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
           });
           parsedBatches.close();
         })
-        .addBuffer("pbf_blocks", pendingBlocks)
+        .addBuffer("pbf_blocks", pendingBlocks, 1, pbfBlocksBytes())
         .sinkToConsumer("parse", parseThreads, block -> {
           for (var element : block.block.decodeElements()) {
             if (element instanceof OsmElement.Node node) {
@@ -225,11 +247,15 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     LOGGER.debug("Processed " + FORMAT.integer(PASS1_BLOCKS.get()) + " blocks:");
     pass1Phaser.printSummary();
+    if (pass1NodeFilter.isActive()) {
+      LOGGER.info("Skipped storing {} nodes outside of bounds", FORMAT.integer(nodesNotStored.get()));
+    }
     timer.stop();
   }
 
   void processPass1Blocks(Iterable<? extends Iterable<? extends OsmElement>> blocks) {
     // may be called by multiple threads so need to synchronize access to any shared data structures
+    Counter skippedNodes = nodesNotStored.counterForThread();
     try (
       var nodeWriter = nodeLocationDb.newWriter();
       var phases = pass1Phaser.forWorker()
@@ -248,7 +274,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
               LOGGER.error("Error preprocessing OSM node " + node.id(), e);
             }
             // TODO allow limiting node storage to only ones that profile cares about
-            nodeWriter.put(node.id(), node.encodedLocation());
+            if (pass1NodeFilter.includeNode(node.encodedLocation())) {
+              nodeWriter.put(node.id(), node.encodedLocation());
+            } else {
+              skippedNodes.inc();
+            }
           } else if (element instanceof OsmElement.Way way) {
             phases.arriveAndWaitForOthers(OsmPhaser.Phase.WAYS);
             try {
@@ -308,6 +338,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
    */
   public void pass2(FeatureGroup writer, PlanetilerConfig config) {
     var timer = stats.startStage("osm_pass2");
+    setBounds(config);
     int writeThreads = config.featureWriteThreads();
     int processThreads = config.featureProcessThreads();
     Counter.MultiThreadCounter blocksProcessed = Counter.newMultiThreadCounter();
@@ -327,18 +358,22 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     var pipeline = WorkerPipeline.start("osm_pass2", stats)
       .fromGenerator("read", osmBlockSource::forEachBlock)
-      .addBuffer("pbf_blocks", Math.max(10, processThreads / 2))
+      .addBuffer("pbf_blocks", Math.max(10, processThreads / 2), 1, pbfBlocksBytes())
       .<SortableFeature>addWorker("process", processThreads, (prev, next) -> {
         // avoid contention trying to get the thread-local counters by getting them once when thread starts
         Counter blocks = blocksProcessed.counterForThread();
         Counter rels = relationsProcessed.counterForThread();
+        Counter skippedNodes = nodesOutsideBounds.counterForThread();
+        Counter skippedWays = waysOutsideBounds.counterForThread();
+        Counter multipolygons = multipolygonsBuilt.counterForThread();
+        Counter multipolygonNanos = multipolygonBuildNanos.counterForThread();
 
         var featureCollectors = new FeatureCollector.Factory(config, stats);
         final NodeLocationProvider nodeLocations = newNodeLocationProvider();
         try (var renderer = createFeatureRenderer(writer, config, next)) {
           var phaser = pass2Phaser.forWorker();
           var relationHandler = relationDistributor.forThread(relation -> {
-            var feature = processRelationPass2(relation, nodeLocations);
+            var feature = processRelationPass2(relation, nodeLocations, multipolygons, multipolygonNanos);
             if (feature != null) {
               render(featureCollectors, renderer, relation, feature);
             }
@@ -349,10 +384,10 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
               SourceFeature feature = null;
               if (element instanceof OsmElement.Node node) {
                 phaser.arrive(OsmPhaser.Phase.NODES);
-                feature = processNodePass2(node);
+                feature = processNodePass2(node, skippedNodes);
               } else if (element instanceof OsmElement.Way way) {
                 phaser.arrive(OsmPhaser.Phase.WAYS);
-                feature = processWayPass2(way, nodeLocations);
+                feature = processWayPass2(way, nodeLocations, skippedWays);
               } else if (element instanceof OsmElement.Relation relation) {
                 phaser.arriveAndWaitForOthers(OsmPhaser.Phase.RELATIONS);
                 relationHandler.accept(relation);
@@ -371,7 +406,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
           // do work for other threads that are still processing blocks of relations
           relationHandler.close();
         }
-      }).addBuffer("feature_queue", 50_000, 1_000)
+      }).addBuffer("feature_queue", 50_000, 1_000, ProcessInfo.getMaxMemoryBytes() / 20)
       // FeatureGroup writes need to be single-threaded
       .sinkTo("write", writeThreads, prev -> {
         try (var writerForThread = writer.writerForThread()) {
@@ -400,6 +435,16 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     LOGGER.debug("Processed " + FORMAT.integer(blocksProcessed.get()) + " blocks:");
     pass2Phaser.printSummary();
+    if (multipolygonsBuilt.get() > 0) {
+      var slowest = slowestMultipolygon.get();
+      LOGGER.debug("Built {} multipolygons in {} of CPU time, slowest was relation {} in {}",
+        FORMAT.integer(multipolygonsBuilt.get()), FORMAT.duration(Duration.ofNanos(multipolygonBuildNanos.get())),
+        slowest.relationId(), FORMAT.duration(Duration.ofNanos(slowest.nanos())));
+    }
+    if (pass2Filter.isActive()) {
+      LOGGER.info("Skipped {} nodes and {} ways outside of bounds", FORMAT.integer(nodesOutsideBounds.get()),
+        FORMAT.integer(waysOutsideBounds.get()));
+    }
 
     timer.stop();
 
@@ -453,6 +498,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       .add(path, storage, estimatedSize, "multipolygon way geometries");
   }
 
+  private static long pbfBlocksBytes() {
+    // raw blocks are usually 1-2MB but some can be much larger, so limit pending blocks to 1% of the heap
+    return ProcessInfo.getMaxMemoryBytes() / 100;
+  }
+
   private static long estimateNumNodes(long osmFileSize) {
     // On 2/14/2022, planet.pbf was 66691979646 bytes with ~7.5b nodes, so scale from there
     return Math.round(7_500_000_000d * (osmFileSize / 66_691_979_646d));
@@ -486,16 +536,43 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       config,
       rendered -> next.accept(encoder.apply(rendered)),
       stats,
-      encoder
+      encoder,
+      writer.supportsFillSpans()
     );
   }
 
+  private void recordMultipolygonBuildTime(long relationId, int numWays, long nanos, Counter built,
+    Counter buildNanos) {
+    built.inc();
+    buildNanos.incBy(nanos);
+    if (nanos >= SLOW_MULTIPOLYGON_NANOS) {
+      LOGGER.info("Building multipolygon for relation {} with {} ways took {}", relationId, FORMAT.integer(numWays),
+        FORMAT.duration(Duration.ofNanos(nanos)));
+    }
+    slowestMultipolygon.accumulateAndGet(new MultipolygonBuildTime(relationId, nanos),
+      (a, b) -> a.nanos() >= b.nanos() ? a : b);
+  }
+
+  private record MultipolygonBuildTime(long relationId, long nanos) {}
+
   SourceFeature processNodePass2(OsmElement.Node node) {
+    return processNodePass2(node, nodesOutsideBounds);
+  }
+
+  private SourceFeature processNodePass2(OsmElement.Node node, Counter skipped) {
     // nodes are simple because they already contain their location
+    if (!pass2Filter.includeNode(node.encodedLocation())) {
+      skipped.inc();
+      return null;
+    }
     return new NodeSourceFeature(node);
   }
 
   SourceFeature processWayPass2(OsmElement.Way way, NodeLocationProvider nodeLocations) {
+    return processWayPass2(way, nodeLocations, waysOutsideBounds);
+  }
+
+  private SourceFeature processWayPass2(OsmElement.Way way, NodeLocationProvider nodeLocations, Counter skipped) {
     // ways contain an ordered list of node IDs, so we need to join that with node locations
     // from pass1 to reconstruct the geometry.
     LongArrayList nodes = way.nodes();
@@ -506,19 +583,44 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
         multipolygonWayGeometries.replaceValues(way.id(), nodes);
       }
     }
+    CoordinateSequence coords = null;
+    if (pass2Filter.isActive()) {
+      // look up node locations once to check the bounds, then re-use them for the geometry
+      try {
+        coords = nodeLocations.getWayGeometry(nodes);
+      } catch (IllegalArgumentException e) {
+        // missing nodes, let geometry construction report the error if the profile uses it
+      }
+      if (coords != null && !pass2Filter.includeCoordinates(coords)) {
+        skipped.inc();
+        return null;
+      }
+    }
     boolean closed = nodes.size() > 1 && nodes.get(0) == nodes.get(nodes.size() - 1);
     // area tag used to differentiate between whether a closed way should be treated as a polygon or linestring
     String area = way.getString("area");
     List<RelationMember<OsmRelationInfo>> rels = getRelationMembershipForWay(way.id());
-    return new WaySourceFeature(way, closed, area, nodeLocations, rels);
+    return new WaySourceFeature(way, closed, area, nodeLocations, coords, rels);
+  }
+
+  /** Restricts node locations stored in pass1 and elements processed in pass2 to {@link PlanetilerConfig#bounds()}. */
+  void setBounds(PlanetilerConfig config) {
+    pass1NodeFilter = config.osmSkipNodesOutsideBounds() ?
+      OsmBoundsFilter.from(config.bounds(), config.osmNodeBoundsBuffer()) : OsmBoundsFilter.NONE;
+    pass2Filter = OsmBoundsFilter.from(config.bounds(), 0);
   }
 
   SourceFeature processRelationPass2(OsmElement.Relation rel, NodeLocationProvider nodeLocations) {
+    return processRelationPass2(rel, nodeLocations, multipolygonsBuilt, multipolygonBuildNanos);
+  }
+
+  private SourceFeature processRelationPass2(OsmElement.Relation rel, NodeLocationProvider nodeLocations,
+    Counter multipolygons, Counter multipolygonNanos) {
     // Relation info gets used during way processing, except multipolygons which we have to process after we've
     // stored all the node IDs for each way.
     if (isMultipolygon(rel)) {
       List<RelationMember<OsmRelationInfo>> parentRelations = getRelationMembershipForWay(rel.id());
-      return new MultipolygonSourceFeature(rel, nodeLocations, parentRelations);
+      return new MultipolygonSourceFeature(rel, nodeLocations, parentRelations, multipolygons, multipolygonNanos);
     } else {
       return null;
     }
@@ -732,9 +834,10 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     private final NodeLocationProvider nodeLocations;
     private final LongArrayList nodeIds;
+    private final CoordinateSequence coords;
 
     public WaySourceFeature(OsmElement.Way way, boolean closed, String area, NodeLocationProvider nodeLocations,
-      List<RelationMember<OsmRelationInfo>> relationInfo) {
+      CoordinateSequence coords, List<RelationMember<OsmRelationInfo>> relationInfo) {
       super(way, false,
         OsmReader.canBeLine(closed, area, way.nodes().size()),
         OsmReader.canBePolygon(closed, area, way.nodes().size()),
@@ -742,13 +845,18 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       );
       this.nodeIds = way.nodes();
       this.nodeLocations = nodeLocations;
+      this.coords = coords;
+    }
+
+    private CoordinateSequence getCoordinates() {
+      // copy coordinates looked up for the bounds check so line and polygon geometries do not share them
+      return coords != null ? coords.copy() : nodeLocations.getWayGeometry(nodeIds);
     }
 
     @Override
     protected Geometry computeLine() throws GeometryException {
       try {
-        CoordinateSequence coords = nodeLocations.getWayGeometry(nodeIds);
-        return GeoUtils.JTS_FACTORY.createLineString(coords);
+        return GeoUtils.JTS_FACTORY.createLineString(getCoordinates());
       } catch (IllegalArgumentException e) {
         throw new GeometryException("osm_invalid_line", "Error building line for way " + id() + ": " + e);
       }
@@ -757,8 +865,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     @Override
     protected Geometry computePolygon() throws GeometryException {
       try {
-        CoordinateSequence coords = nodeLocations.getWayGeometry(nodeIds);
-        return GeoUtils.JTS_FACTORY.createPolygon(coords);
+        return GeoUtils.JTS_FACTORY.createPolygon(getCoordinates());
       } catch (IllegalArgumentException e) {
         throw new GeometryException("osm_invalid_polygon", "Error building polygon for way " + id() + ": " + e);
       }
@@ -784,12 +891,17 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     private final OsmElement.Relation relation;
     private final NodeLocationProvider nodeLocations;
+    // counters for the thread that read this relation, to avoid a thread-local lookup per multipolygon
+    private final Counter built;
+    private final Counter buildNanos;
 
     public MultipolygonSourceFeature(OsmElement.Relation relation, NodeLocationProvider nodeLocations,
-      List<RelationMember<OsmRelationInfo>> parentRelations) {
+      List<RelationMember<OsmRelationInfo>> parentRelations, Counter built, Counter buildNanos) {
       super(relation, false, false, true, parentRelations);
       this.relation = relation;
       this.nodeLocations = nodeLocations;
+      this.built = built;
+      this.buildNanos = buildNanos;
     }
 
     @Override
@@ -813,7 +925,12 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
           }
         }
       }
-      return OsmMultipolygon.build(rings, nodeLocations, id());
+      long start = System.nanoTime();
+      try {
+        return OsmMultipolygon.build(rings, nodeLocations, id());
+      } finally {
+        recordMultipolygonBuildTime(id(), rings.size(), System.nanoTime() - start, built, buildNanos);
+      }
     }
 
     @Override
@@ -217,7 +217,8 @@ public class ParquetReader {
       config,
       rendered -> next.accept(encoder.apply(rendered)),
       stats,
-      encoder
+      encoder,
+      writer.supportsFillSpans()
     );
   }
 }
@@ -12,10 +12,17 @@ import com.onthegomap.planetiler.stats.Stats;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateSequence;
@@ -37,22 +44,54 @@ import org.slf4j.LoggerFactory;
 /**
  * Converts source features geometries to encoded vector tile features according to settings configured in the map
  * profile (like zoom range, min pixel size, output attributes and their zoom ranges).
+ * <p>
+ * Features with more than {@link PlanetilerConfig#renderSplitMinVertices()} vertices or that cover more than
+ * {@link PlanetilerConfig#renderSplitMinTiles()} tiles at their max zoom are rendered one zoom level per task on a
+ * {@link ForkJoinPool} with {@link PlanetilerConfig#threads()} threads, so that a single huge feature (i.e. the ocean)
+ * does not leave every other thread idle at the end of a stage. Each renderer creates that pool the first time it needs
+ * it and shuts it down in {@link #close()}. Rendered features are still handed to {@code consumer} from the thread that
+ * called {@link #accept(FeatureCollector.Feature)}.
+ * <p>
+ * Lines and polygons from the same source feature that get emitted with identical geometry and render settings into
+ * several layers are only sliced into tiles once, see {@link RenderCache}.
  */
 public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Closeable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureRenderer.class);
+  // number of rendered features that a parallel task buffers before handing them back to the calling thread
+  private static final int SPLIT_BATCH_SIZE = 1_000;
+  private static final int SPLIT_PENDING_BATCHES = 100;
   private final PlanetilerConfig config;
   private final Consumer<RenderedFeature> consumer;
   private final Stats stats;
   private final Closeable closeable;
+  private final RenderCache renderCache;
+  private final boolean emitFillSpans;
+  // pool for rendering zoom levels of large features in parallel, created on first use and shut down in close()
+  private ForkJoinPool splitPool = null;
 
-  /** Constructs a new feature render that will send rendered features to {@code consumer}. */
+  /**
+   * Constructs a new feature render that will send rendered features to {@code consumer}.
+   * <p>
+   * When {@code emitFillSpans} is {@code true}, runs of filled polygon interior tiles in the same column get emitted as
+   * a single {@link RenderedFeature} with {@link RenderedFeature#spanLength()} greater than 1 instead of one feature
+   * per tile, so the consumer must be able to expand them (see
+   * {@link com.onthegomap.planetiler.collection.FeatureGroup#supportsFillSpans()}).
+   */
   public FeatureRenderer(PlanetilerConfig config, Consumer<RenderedFeature> consumer, Stats stats,
-    Closeable closeable) {
+    Closeable closeable, boolean emitFillSpans) {
     this.config = config;
     this.consumer = consumer;
     this.stats = stats;
     this.closeable = closeable;
+    this.emitFillSpans = emitFillSpans;
+    this.renderCache = new RenderCache(stats);
+  }
+
+  /** Constructs a new feature render that will send rendered features to {@code consumer}. */
+  public FeatureRenderer(PlanetilerConfig config, Consumer<RenderedFeature> consumer, Stats stats,
+    Closeable closeable) {
+    this(config, consumer, stats, closeable, false);
   }
 
   public FeatureRenderer(PlanetilerConfig config, Consumer<RenderedFeature> consumer, Stats stats) {
@@ -68,46 +107,217 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
       LOGGER.warn("Empty geometry {}", feature);
       return;
     }
+    if (shouldSplitAcrossThreads(feature, geometry, simpleLineLength)) {
+      renderZoomsInParallel(feature, geometry, simpleLineLength);
+    } else {
+      for (int zoom = feature.getMaxZoom(); zoom >= feature.getMinZoom(); zoom--) {
+        renderZoom(zoom, feature, geometry, simpleLineLength);
+      }
+    }
+  }
+
+  private void renderZoom(int zoom, FeatureCollector.Feature feature, Geometry geometry, double simpleLineLength) {
     // geometries are filtered by min size after processing before they are emitted, but do cheap pre-filtering here
     // to avoid processing features that won't emit anything
-    for (int zoom = feature.getMaxZoom(); zoom >= feature.getMinZoom(); zoom--) {
-      double scale = 1 << zoom;
-      double minSize = feature.getMinPixelSizeAtZoom(zoom);
-      if (feature.hasLinearRanges()) {
-        double length = simpleLineLength * scale * 256;
-        for (var range : feature.getLinearRangesAtZoom(zoom)) {
-          if (minSize > 0 && length * (range.end() - range.start()) > minSize) {
-            accept(zoom, range.geom(), range.attrs(), feature);
-          }
+    double scale = 1 << zoom;
+    double minSize = feature.getMinPixelSizeAtZoom(zoom);
+    if (feature.hasLinearRanges()) {
+      double length = simpleLineLength * scale * 256;
+      for (var range : feature.getLinearRangesAtZoom(zoom)) {
+        if (minSize > 0 && length * (range.end() - range.start()) > minSize) {
+          accept(zoom, range.geom(), range.attrs(), feature);
         }
-      } else {
-        if (minSize > 0) {
-          if (geometry instanceof Puntal) {
-            if (feature.getSourceFeaturePixelSizeAtZoom(zoom) < minSize) {
-              // don't emit points if the line or polygon feature it came from was too small
-              continue;
-            }
-          } else if (simpleLineLength >= 0 && simpleLineLength * scale * 256 < minSize) {
-            // skip processing lines that are too short
-            continue;
+      }
+    } else {
+      if (minSize > 0) {
+        if (geometry instanceof Puntal) {
+          if (feature.getSourceFeaturePixelSizeAtZoom(zoom) < minSize) {
+            // don't emit points if the line or polygon feature it came from was too small
+            return;
           }
+        } else if (simpleLineLength >= 0 && simpleLineLength * scale * 256 < minSize) {
+          // skip processing lines that are too short
+          return;
+        }
+      }
+      accept(zoom, geometry, feature.getAttrsAtZoom(zoom), feature);
+    }
+  }
+
+  private boolean shouldSplitAcrossThreads(FeatureCollector.Feature feature, Geometry geometry,
+    double simpleLineLength) {
+    if (feature.getMaxZoom() <= feature.getMinZoom() || geometry instanceof Puntal) {
+      return false;
+    }
+    int minVertices = config.renderSplitMinVertices();
+    if (minVertices > 0 && geometry.getNumPoints() >= minVertices) {
+      return true;
+    }
+    long minTiles = config.renderSplitMinTiles();
+    return minTiles > 0 && estimateTilesAtZoom(geometry, simpleLineLength, feature.getMaxZoom()) >= minTiles;
+  }
+
+  /** Returns a rough upper bound on the number of tiles {@code geometry} touches at {@code zoom}. */
+  static double estimateTilesAtZoom(Geometry geometry, double simpleLineLength, int zoom) {
+    double tilesAcross = 1 << zoom;
+    if (simpleLineLength >= 0) {
+      return simpleLineLength * tilesAcross * 2 + 1;
+    }
+    var envelope = geometry.getEnvelopeInternal();
+    return (envelope.getWidth() * tilesAcross + 1) * (envelope.getHeight() * tilesAcross + 1);
+  }
+
+  /**
+   * Renders each zoom level of {@code feature} in a separate fork-join task and emits results to {@link #consumer} from
+   * this thread as they finish so that the consumer (and the encoder behind it) stays single-threaded.
+   */
+  private void renderZoomsInParallel(FeatureCollector.Feature feature, Geometry geometry, double simpleLineLength) {
+    int numZooms = feature.getMaxZoom() - feature.getMinZoom() + 1;
+    LOGGER.debug("Rendering {} zoom levels of {} in parallel", numZooms, feature);
+    // each task adds an empty batch to the queue when it finishes
+    BlockingQueue<List<RenderedFeature>> batches = new ArrayBlockingQueue<>(SPLIT_PENDING_BATCHES);
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    List<ForkJoinTask<?>> tasks = new ArrayList<>(numZooms);
+    // per-zoom values are lazily computed and cached on the feature without synchronization so populate them up-front
+    for (int zoom = feature.getMaxZoom(); zoom >= feature.getMinZoom(); zoom--) {
+      feature.getAttrsAtZoom(zoom);
+      feature.getLinearRangesAtZoom(zoom);
+    }
+    if (splitPool == null) {
+      splitPool = new ForkJoinPool(Math.max(1, config.threads()));
+    }
+    var pool = splitPool;
+    // start with the highest zoom since it is usually the most expensive
+    for (int zoom = feature.getMaxZoom(); zoom >= feature.getMinZoom(); zoom--) {
+      int z = zoom;
+      tasks.add(pool.submit(() -> {
+        try (var batcher = new BatchingConsumer(batches, aborted)) {
+          new FeatureRenderer(config, batcher, stats, null, emitFillSpans)
+            .renderZoom(z, feature, geometry, simpleLineLength);
+        } finally {
+          putBatch(batches, List.of());
+        }
+      }));
+    }
+    int finished = 0;
+    try {
+      while (finished < numZooms) {
+        var batch = batches.take();
+        if (batch.isEmpty()) {
+          finished++;
+        } else {
+          batch.forEach(consumer);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      if (finished < numZooms) {
+        // the consumer failed, so make the remaining tasks give up and wait until none are blocked on a full queue
+        aborted.set(true);
+        awaitFinished(batches, numZooms - finished);
+      }
+    }
+    for (var task : tasks) {
+      // re-throws any exception that occurred while rendering
+      task.join();
+    }
+  }
+
+  private static void putBatch(BlockingQueue<List<RenderedFeature>> batches, List<RenderedFeature> batch) {
+    try {
+      batches.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Discards rendered features from {@code batches} until {@code remaining} more tasks have finished. */
+  private static void awaitFinished(BlockingQueue<List<RenderedFeature>> batches, int remaining) {
+    boolean interrupted = false;
+    while (remaining > 0) {
+      try {
+        if (batches.take().isEmpty()) {
+          remaining--;
         }
-        accept(zoom, geometry, feature.getAttrsAtZoom(zoom), feature);
+      } catch (InterruptedException e) {
+        interrupted = true;
       }
     }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Buffers rendered features into batches that get handed off to the thread that started rendering the feature. */
+  private static class BatchingConsumer implements Consumer<RenderedFeature>, AutoCloseable {
+
+    private final BlockingQueue<List<RenderedFeature>> batches;
+    private final AtomicBoolean aborted;
+    private List<RenderedFeature> batch = new ArrayList<>(SPLIT_BATCH_SIZE);
+
+    BatchingConsumer(BlockingQueue<List<RenderedFeature>> batches, AtomicBoolean aborted) {
+      this.batches = batches;
+      this.aborted = aborted;
+    }
+
+    @Override
+    public void accept(RenderedFeature renderedFeature) {
+      batch.add(renderedFeature);
+      if (batch.size() >= SPLIT_BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (!batch.isEmpty()) {
+        if (aborted.get()) {
+          throw new CancellationException("Feature rendering aborted");
+        }
+        putBatch(batches, batch);
+        batch = new ArrayList<>(SPLIT_BATCH_SIZE);
+      }
+    }
+
+    @Override
+    public void close() {
+      flush();
+    }
   }
 
   private void accept(int zoom, Geometry geom, Map<String, Object> attrs, FeatureCollector.Feature feature) {
+    GeometryPipeline pipeline = feature.getScaledGeometryTransformAtZoom(zoom);
+    RenderCache.Key cacheKey = null;
+    if (pipeline == null && (geom instanceof Lineal || geom instanceof Polygonal)) {
+      // profiles often emit the same line or polygon into several layers, so reuse the result when nothing changed
+      cacheKey = RenderCache.key(feature, geom, zoom);
+      RenderCache.Sliced cached = renderCache.get(feature, cacheKey);
+      if (cached != null) {
+        writeTileFeatures(zoom, feature, cached, attrs);
+        stats.processedElement(cached.area() ? "polygon" : "line", feature.getLayer(), zoom);
+        return;
+      }
+    }
     double scale = 1 << zoom;
     geom = AffineTransformation.scaleInstance(scale, scale).transform(geom);
-    GeometryPipeline pipeline = feature.getScaledGeometryTransformAtZoom(zoom);
     if (pipeline != null) {
       geom = pipeline.apply(geom);
     } else if (!(geom instanceof Puntal)) {
       geom = GeometryPipeline.defaultSimplify(feature).apply(zoom).apply(geom);
     }
 
-    renderGeometry(zoom, geom, attrs, feature);
+    if (cacheKey != null && isLineOrPolygon(geom)) {
+      renderLineOrPolygon(zoom, attrs, feature, geom, cacheKey);
+    } else {
+      renderGeometry(zoom, geom, attrs, feature);
+    }
+  }
+
+  private static boolean isLineOrPolygon(Geometry geom) {
+    return geom instanceof Polygon || geom instanceof MultiPolygon || geom instanceof LineString ||
+      geom instanceof MultiLineString;
   }
 
   private void renderGeometry(int zoom, Geometry geom, Map<String, Object> attrs, FeatureCollector.Feature feature) {
@@ -117,9 +327,8 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
       renderPoint(zoom, attrs, feature, point.getCoordinates());
     } else if (geom instanceof MultiPoint points) {
       renderPoint(zoom, attrs, feature, points);
-    } else if (geom instanceof Polygon || geom instanceof MultiPolygon || geom instanceof LineString ||
-      geom instanceof MultiLineString) {
-      renderLineOrPolygon(zoom, attrs, feature, geom);
+    } else if (isLineOrPolygon(geom)) {
+      renderLineOrPolygon(zoom, attrs, feature, geom, null);
     } else if (geom instanceof GeometryCollection collection) {
       for (int i = 0; i < collection.getNumGeometries(); i++) {
         renderGeometry(zoom, collection.getGeometryN(i), attrs, feature);
@@ -165,12 +374,17 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
 
   private void encodeAndEmitFeature(FeatureCollector.Feature feature, long id, Map<String, Object> attrs,
     TileCoord tile, Geometry geom, RenderedFeature.Group groupInfo, int scale) {
+    emitFeature(feature, id, attrs, tile, VectorTile.encodeGeometry(geom, scale), groupInfo);
+  }
+
+  private void emitFeature(FeatureCollector.Feature feature, long id, Map<String, Object> attrs, TileCoord tile,
+    VectorTile.VectorGeometry geom, RenderedFeature.Group groupInfo) {
     consumer.accept(new RenderedFeature(
       tile,
       new VectorTile.Feature(
         feature.getLayer(),
         id,
-        VectorTile.encodeGeometry(geom, scale),
+        geom,
         attrs,
         groupInfo == null ? VectorTile.Feature.NO_GROUP : groupInfo.group()
       ),
@@ -195,8 +409,20 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
   }
 
   private void renderLineOrPolygon(int zoom, Map<String, Object> attrs, FeatureCollector.Feature feature,
-    Geometry geom) {
-    boolean finished = false;
+    Geometry geom, RenderCache.Key cacheKey) {
+    RenderCache.Sliced sliced = sliceIntoTiles(zoom, feature, geom);
+    if (sliced != null) {
+      if (cacheKey != null) {
+        renderCache.put(cacheKey, sliced);
+      }
+      writeTileFeatures(zoom, feature, sliced, attrs);
+    }
+
+    stats.processedElement(geom instanceof Polygonal ? "polygon" : "line", feature.getLayer(), zoom);
+  }
+
+  /** Returns {@code geom} sliced and encoded into each tile it touches, or {@code null} if it could not be sliced. */
+  private RenderCache.Sliced sliceIntoTiles(int zoom, FeatureCollector.Feature feature, Geometry geom) {
     boolean area = geom instanceof Polygonal;
     double minSize = feature.getMinPixelSizeAtZoom(zoom) / 256d;
     double buffer = feature.getBufferPixelsAtZoom(zoom) / 256;
@@ -205,7 +431,7 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
       minSize *= minSize;
     }
     TileExtents.ForZoom extents = config.bounds().tileExtents().getForZoom(zoom);
-    TiledGeometry sliced = null;
+    TiledGeometry sliced;
     List<List<CoordinateSequence>> groups = GeometryCoordinateSequences.extractGroups(geom, minSize);
     try {
       sliced = TiledGeometry.sliceIntoTiles(groups, buffer, area, zoom, extents);
@@ -217,34 +443,21 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
       } catch (GeometryException ex) {
         ex.log(stats, "slice_line_or_polygon", "Error slicing feature at z" + zoom + ": " + feature);
         // omit from this zoom level, but maybe the next will be better
-        finished = true;
-      }
-    }
-    if (!finished) {
-      String numPointsAttr = feature.getNumPointsAttr();
-      if (numPointsAttr != null) {
-        // if profile wants the original number off points that the simplified but untiled geometry started with
-        attrs = new HashMap<>(attrs);
-        attrs.put(numPointsAttr, geom.getNumPoints());
+        return null;
       }
-      writeTileFeatures(zoom, feature.getId(), feature, sliced, attrs);
     }
 
-    stats.processedElement(area ? "polygon" : "line", feature.getLayer(), zoom);
-  }
-
-  private void writeTileFeatures(int zoom, long id, FeatureCollector.Feature feature, TiledGeometry sliced,
-    Map<String, Object> attrs) {
-    int emitted = 0;
-    for (var entry : sliced.getTileData().entrySet()) {
+    var tileData = sliced.getTileData();
+    List<RenderCache.TileGeometry> tiles = new ArrayList<>(tileData.size());
+    for (var entry : tileData.entrySet()) {
       TileCoord tile = entry.getKey();
       try {
         List<List<CoordinateSequence>> geoms = entry.getValue();
 
-        Geometry geom;
+        Geometry tileGeom;
         int scale = 0;
         if (feature.isPolygon()) {
-          geom = GeometryCoordinateSequences.reassemblePolygons(geoms);
+          tileGeom = GeometryCoordinateSequences.reassemblePolygons(geoms);
           /*
            * Use the very expensive, but necessary JTS Geometry#buffer(0) trick to repair invalid polygons (with self-
            * intersections) and JTS GeometryPrecisionReducer utility to snap polygon nodes to the vector tile grid
@@ -253,12 +466,12 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
            * See https://docs.mapbox.com/vector-tiles/specification/#simplification for issues that can arise from naive
            * coordinate rounding.
            */
-          geom = GeoUtils.snapAndFixPolygon(geom, stats, "render");
+          tileGeom = GeoUtils.snapAndFixPolygon(tileGeom, stats, "render");
           // JTS utilities "fix" the geometry to be clockwise outer/CCW inner but vector tiles flip Y coordinate,
           // so we need outer CCW/inner clockwise
-          geom = geom.reverse();
+          tileGeom = tileGeom.reverse();
         } else {
-          geom = GeometryCoordinateSequences.reassembleLineStrings(geoms);
+          tileGeom = GeometryCoordinateSequences.reassembleLineStrings(geoms);
           // Store lines with extra precision (2^scale) in intermediate feature storage so that
           // rounding does not introduce artificial endpoint intersections and confuse line merge
           // post-processing.  Features need to be "unscaled" in FeatureGroup after line merging,
@@ -269,25 +482,41 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
           scale = Math.min(31 - 14, scale);
         }
 
-        if (!geom.isEmpty()) {
-          encodeAndEmitFeature(feature, id, attrs, tile, geom, null, scale);
-          emitted++;
+        if (!tileGeom.isEmpty()) {
+          tiles.add(new RenderCache.TileGeometry(tile, VectorTile.encodeGeometry(tileGeom, scale)));
         }
       } catch (GeometryException e) {
         e.log(stats, "write_tile_features", "Error writing tile " + tile + " feature " + feature);
       }
     }
+    return new RenderCache.Sliced(area, geom.getNumPoints(), tiles, sliced.getFilledTiles());
+  }
+
+  private void writeTileFeatures(int zoom, FeatureCollector.Feature feature, RenderCache.Sliced sliced,
+    Map<String, Object> attrs) {
+    String numPointsAttr = feature.getNumPointsAttr();
+    if (numPointsAttr != null) {
+      // if profile wants the original number off points that the simplified but untiled geometry started with
+      attrs = new HashMap<>(attrs);
+      attrs.put(numPointsAttr, sliced.numPoints());
+    }
+    long id = feature.getId();
+    int emitted = 0;
+    for (var tileGeometry : sliced.tiles()) {
+      emitFeature(feature, id, attrs, tileGeometry.tile(), tileGeometry.geometry(), null);
+      emitted++;
+    }
 
     // polygons that span multiple tiles contain detail about the outer edges separate from the filled tiles, so emit
     // filled tiles now
     if (feature.isPolygon()) {
-      emitted += emitFilledTiles(zoom, id, feature, sliced);
+      emitted += emitFilledTiles(zoom, id, feature, sliced.filledTiles());
     }
 
     stats.emittedFeatures(zoom, feature.getLayer(), emitted);
   }
 
-  private int emitFilledTiles(int zoom, long id, FeatureCollector.Feature feature, TiledGeometry sliced) {
+  private int emitFilledTiles(int zoom, long id, FeatureCollector.Feature feature, Iterable<TileCoord> filledTiles) {
     Optional<RenderedFeature.Group> groupInfo = Optional.empty();
     /*
      * Optimization: large input polygons that generate many filled interior tiles (i.e. the ocean), the encoder avoids
@@ -298,24 +527,45 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
       feature.getLayer(),
       id,
       VectorTile.encodeFill(feature.getBufferPixelsAtZoom(zoom)),
-      feature.getAttrsAtZoom(sliced.zoomLevel())
+      feature.getAttrsAtZoom(zoom)
     );
 
     int emitted = 0;
-    for (TileCoord tile : sliced.getFilledTiles()) {
-      consumer.accept(new RenderedFeature(
-        tile,
-        vectorTileFeature,
-        feature.getSortKey(),
-        groupInfo
-      ));
+    int sortKey = feature.getSortKey();
+    TileCoord spanStart = null;
+    int spanLength = 0;
+    for (TileCoord tile : filledTiles) {
+      if (!emitFillSpans) {
+        consumer.accept(new RenderedFeature(tile, vectorTileFeature, sortKey, groupInfo));
+      } else if (spanStart != null && tile.x() == spanStart.x() && tile.y() == spanStart.y() + spanLength) {
+        // extend the current run of filled tiles in this column
+        spanLength++;
+      } else {
+        if (spanStart != null) {
+          consumer.accept(new RenderedFeature(spanStart, vectorTileFeature, sortKey, groupInfo, spanLength));
+        }
+        spanStart = tile;
+        spanLength = 1;
+      }
       emitted++;
     }
+    if (spanStart != null) {
+      consumer.accept(new RenderedFeature(spanStart, vectorTileFeature, sortKey, groupInfo, spanLength));
+    }
     return emitted;
   }
 
+  long renderCacheHits() {
+    return renderCache.hits();
+  }
+
   @Override
   public void close() {
+    if (splitPool != null) {
+      // every task finished before renderZoomsInParallel returned, so this just lets the idle threads exit
+      splitPool.shutdown();
+      splitPool = null;
+    }
     if (closeable != null) {
       try {
         closeable.close();
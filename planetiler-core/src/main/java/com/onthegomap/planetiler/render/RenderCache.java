@@ -0,0 +1,128 @@
+package com.onthegomap.planetiler.render;
+
+import com.onthegomap.planetiler.FeatureCollector;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.SimplifyMethod;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.stats.Stats;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Remembers the tiled and encoded lines and polygons rendered for the most recent {@link SourceFeature} so that when a
+ * profile emits the same geometry into several layers, or with several sets of attributes, {@link FeatureRenderer} only
+ * scales, simplifies, slices and encodes it once per zoom level.
+ * <p>
+ * Entries are keyed by the identity of the input geometry and every setting that affects the rendered output, and get
+ * discarded as soon as a feature from a different source feature is rendered. Not thread-safe.
+ */
+class RenderCache {
+
+  // avoid holding onto too many tile geometries for a huge source feature
+  private static final int MAX_CACHED_TILES = 100_000;
+  private final Map<Key, Sliced> entries = new HashMap<>();
+  private final Counter.MultiThreadCounter hits;
+  private final Counter.MultiThreadCounter misses;
+  private final Counter hitsForThread;
+  private final Counter missesForThread;
+  private SourceFeature source = null;
+  private int cachedTiles = 0;
+
+  RenderCache(Stats stats) {
+    this.hits = stats.longCounter("render_cache_hits");
+    this.misses = stats.longCounter("render_cache_misses");
+    this.hitsForThread = hits.counterForThread();
+    this.missesForThread = misses.counterForThread();
+  }
+
+  /** Returns the key for {@code geometry} from {@code feature} rendered at {@code zoom}. */
+  static Key key(FeatureCollector.Feature feature, Geometry geometry, int zoom) {
+    return new Key(
+      geometry,
+      zoom,
+      feature.isPolygon(),
+      feature.getBufferPixelsAtZoom(zoom),
+      feature.getMinPixelSizeAtZoom(zoom),
+      feature.getPixelToleranceAtZoom(zoom),
+      feature.getSimplifyMethodAtZoom(zoom)
+    );
+  }
+
+  /** Returns the geometry previously rendered for {@code key} or {@code null} if it has not been rendered yet. */
+  Sliced get(FeatureCollector.Feature feature, Key key) {
+    SourceFeature featureSource = feature.source();
+    if (featureSource != source) {
+      source = featureSource;
+      entries.clear();
+      cachedTiles = 0;
+    }
+    Sliced result = entries.get(key);
+    (result == null ? missesForThread : hitsForThread).inc();
+    return result;
+  }
+
+  /** Stores the rendered geometry for {@code key} until a feature from a different source feature is rendered. */
+  void put(Key key, Sliced sliced) {
+    int tiles = sliced.tiles().size();
+    if (cachedTiles + tiles <= MAX_CACHED_TILES) {
+      entries.put(key, sliced);
+      cachedTiles += tiles;
+    }
+  }
+
+  long hits() {
+    return hits.get();
+  }
+
+  long misses() {
+    return misses.get();
+  }
+
+  /** Input geometry (compared by identity) and the feature settings used to render it at a zoom level. */
+  record Key(
+    Geometry geometry,
+    int zoom,
+    boolean polygon,
+    double buffer,
+    double minSize,
+    double tolerance,
+    SimplifyMethod simplifyMethod
+  ) {
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || (o instanceof Key other &&
+        geometry == other.geometry &&
+        zoom == other.zoom &&
+        polygon == other.polygon &&
+        Double.compare(buffer, other.buffer) == 0 &&
+        Double.compare(minSize, other.minSize) == 0 &&
+        Double.compare(tolerance, other.tolerance) == 0 &&
+        simplifyMethod == other.simplifyMethod);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(geometry) +
+        Objects.hash(zoom, polygon, buffer, minSize, tolerance, simplifyMethod);
+    }
+  }
+
+  /**
+   * A line or polygon sliced into the tiles it touches at one zoom level.
+   *
+   * @param area        {@code true} if the simplified geometry was a polygon
+   * @param numPoints   number of points in the simplified geometry before slicing
+   * @param tiles       encoded geometry for each tile that contains an edge of the geometry
+   * @param filledTiles tiles completely covered by the interior of a polygon
+   */
+  record Sliced(boolean area, int numPoints, List<TileGeometry> tiles, Iterable<TileCoord> filledTiles) {}
+
+  /** Encoded geometry for a single tile. */
+  record TileGeometry(TileCoord tile, VectorTile.VectorGeometry geometry) {}
+}
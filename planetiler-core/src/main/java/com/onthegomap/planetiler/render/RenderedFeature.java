@@ -12,16 +12,26 @@ import java.util.Optional;
  * @param vectorTileFeature the encoded vector tile feature
  * @param sortKey           ordering of features in the output tile
  * @param group             if present, a group ID and limit that is used to limit features in a certain area of tile
+ * @param spanLength        number of tiles this feature repeats in, starting at {@code tile} and continuing south
+ *                          (increasing y) in the same column, used to store runs of identical filled polygon interior
+ *                          tiles as a single entry
  */
 public record RenderedFeature(
   TileCoord tile,
   VectorTile.Feature vectorTileFeature,
   int sortKey,
-  Optional<Group> group
+  Optional<Group> group,
+  int spanLength
 ) {
 
   public RenderedFeature {
     assert vectorTileFeature != null;
+    assert spanLength >= 1;
+    assert spanLength == 1 || group.isEmpty() : "fill spans can't have a group";
+  }
+
+  public RenderedFeature(TileCoord tile, VectorTile.Feature vectorTileFeature, int sortKey, Optional<Group> group) {
+    this(tile, vectorTileFeature, sortKey, group, 1);
   }
 
   /**
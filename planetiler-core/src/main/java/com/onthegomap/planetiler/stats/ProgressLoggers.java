@@ -170,7 +170,11 @@ public class ProgressLoggers {
   public ProgressLoggers addQueueStats(WorkQueue<?> queue) {
     loggers.add(new WorkerPipelineLogger(() -> " -> " + padLeft("(" +
       format.numeric(queue.getPending(), false) + "/" +
-      format.numeric(queue.getCapacity(), false) + ")", 9)
+      format.numeric(queue.getCapacity(), false) +
+      (queue.isByteBudgeted() ?
+        (" " + format.storage(queue.getPendingBytes(), false) + "/" + format.storage(queue.getMaxBytes(), false)) :
+        "") +
+      ")", 9)
     ));
     return this;
   }
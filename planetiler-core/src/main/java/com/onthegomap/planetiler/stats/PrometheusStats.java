@@ -1,6 +1,7 @@
 package com.onthegomap.planetiler.stats;
 
 import com.onthegomap.planetiler.util.MemoryEstimator;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.CounterMetricFamily;
@@ -51,6 +52,9 @@ class PrometheusStats implements Stats {
   private final Map<String, MonitoredFile> filesToMonitor = new ConcurrentSkipListMap<>();
   private final Map<String, Long> dataErrorCounters = new ConcurrentHashMap<>();
   private final Map<String, MemoryEstimator.HasEstimate> heapObjectsToMonitor = new ConcurrentSkipListMap<>();
+  // components that get created once per thread share a single registered counter for each name
+  private final Map<String, Counter.MultiThreadCounter> longCounters = new ConcurrentHashMap<>();
+  private final Map<String, Counter.MultiThreadCounter> nanoCounters = new ConcurrentHashMap<>();
 
   /** Constructs a new instance but does not start polling (for tests). */
   PrometheusStats(String job) {
@@ -164,6 +168,43 @@ class PrometheusStats implements Stats {
     tilesWrittenBytes.labels(Integer.toString(zoom)).observe(bytes);
   }
 
+  private final Histogram tileEncodeSeconds = Histogram
+    .build(BASE + "archive_tile_encode_seconds", "Time spent in each stage of encoding a tile by zoom level")
+    .buckets(0.000_1, 0.001, 0.01, 0.1, 1, 10)
+    .labelNames("zoom", "stage")
+    .register(registry);
+
+  private final Histogram layerPostProcessSeconds = Histogram
+    .build(BASE + "archive_layer_postprocess_seconds", "Time spent post-processing each layer in a tile")
+    .buckets(0.000_1, 0.001, 0.01, 0.1, 1, 10)
+    .labelNames("layer")
+    .register(registry);
+
+  // looking up labelled children is too slow to do for every tile, so only do it once for each zoom and layer
+  private final Map<Integer, Histogram.Child[]> tileEncodeSecondsByZoom = new ConcurrentHashMap<>();
+  private final Map<String, Histogram.Child> layerPostProcessSecondsByLayer = new ConcurrentHashMap<>();
+
+  @Override
+  public void encodedTile(TileTimingStats.Timings timings) {
+    var byStage = tileEncodeSecondsByZoom.computeIfAbsent(timings.coord().z(), z -> new Histogram.Child[]{
+      tileEncodeSeconds.labels(Integer.toString(z), "postprocess"),
+      tileEncodeSeconds.labels(Integer.toString(z), "encode"),
+      tileEncodeSeconds.labels(Integer.toString(z), "compress")
+    });
+    byStage[0].observe(seconds(timings.postProcessNanos()));
+    byStage[1].observe(seconds(timings.encodeNanos()));
+    byStage[2].observe(seconds(timings.compressNanos()));
+    for (var entry : timings.layerNanos().entrySet()) {
+      layerPostProcessSecondsByLayer.computeIfAbsent(entry.getKey(), layerPostProcessSeconds::labels)
+        .observe(seconds(entry.getValue()));
+    }
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / Collector.NANOSECONDS_PER_SECOND;
+  }
+
+
   @Override
   public Timers timers() {
     return timers;
@@ -189,6 +230,16 @@ class PrometheusStats implements Stats {
     }.register(registry);
   }
 
+  @Override
+  public Counter.MultiThreadCounter longCounter(String name) {
+    return longCounters.computeIfAbsent(name, Stats.super::longCounter);
+  }
+
+  @Override
+  public Counter.MultiThreadCounter nanoCounter(String name) {
+    return nanoCounters.computeIfAbsent(name, Stats.super::nanoCounter);
+  }
+
   @Override
   public void counter(String name, String label, Supplier<Map<String, LongSupplier>> values) {
     new Collector() {
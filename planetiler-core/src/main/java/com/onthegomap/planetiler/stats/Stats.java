@@ -6,6 +6,7 @@ import com.onthegomap.planetiler.util.FileUtils;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.LogUtil;
 import com.onthegomap.planetiler.util.MemoryEstimator;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Map;
@@ -119,6 +120,14 @@ public interface Stats extends AutoCloseable {
   /** Records that a tile has been written to the archive output where compressed size is {@code bytes}. */
   void wroteTile(int zoom, int bytes);
 
+  /** Records how long each stage of encoding a tile took. */
+  void encodedTile(TileTimingStats.Timings timings);
+
+  /** Returns false if {@link #encodedTile(TileTimingStats.Timings)} ignores the timings passed to it. */
+  default boolean recordsTileTimings() {
+    return true;
+  }
+
   /** Returns the timers for all stages started with {@link #startStage(String)}. */
   Timers timers();
 
@@ -204,6 +213,14 @@ public interface Stats extends AutoCloseable {
     @Override
     public void wroteTile(int zoom, int bytes) {}
 
+    @Override
+    public void encodedTile(TileTimingStats.Timings timings) {}
+
+    @Override
+    public boolean recordsTileTimings() {
+      return false;
+    }
+
     @Override
     public Timers timers() {
       return timers;
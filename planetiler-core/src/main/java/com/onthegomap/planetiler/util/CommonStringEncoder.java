@@ -60,6 +60,37 @@ public class CommonStringEncoder {
     return result;
   }
 
+  /** Returns the int value for {@code string} if it has already been encoded, or -1 if not. */
+  public int lookup(String string) {
+    Integer result = stringToId.get(string);
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * Returns a int value for {@code string} like {@link #encode(String)}, or -1 if it has not been seen before and there
+   * is no more room for new strings.
+   * <p>
+   * Threads that call this concurrently with the same string always get the same result.
+   */
+  public int tryEncode(String string) {
+    Integer result = stringToId.get(string);
+    if (result == null) {
+      // go through computeIfAbsent even when full so this waits for another thread that is still adding the string
+      result = stringToId.computeIfAbsent(string, s -> {
+        if (stringId.get() >= maxStrings) {
+          return null;
+        }
+        int id = stringId.getAndIncrement();
+        if (id >= maxStrings) {
+          return null;
+        }
+        idToString[id] = string;
+        return id;
+      });
+    }
+    return result == null ? -1 : result;
+  }
+
   /**
    * Variant of CommonStringEncoder based on byte rather than int for string indexing.
    */
@@ -0,0 +1,398 @@
+package com.onthegomap.planetiler.util;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.LongArrayList;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * A utility for merging nearby polygons by rasterizing them to a grid of sub-pixel cells instead of using JTS buffer
+ * and union operations, which can become very slow and use a lot of memory on dense tiles.
+ * <p>
+ * Polygons get rasterized by sampling the center of each cell, then cells within {@code buffer} of a filled cell get
+ * filled and cells within {@code buffer} of an empty cell get cleared again (a morphological closing). Cells that only
+ * touch diagonally get joined, connected components are labeled with union-find, and the boundary of each component
+ * gets traced back to polygons through the midpoint of each cell edge.
+ * <p>
+ * The output is accurate to within about one cell, so it is only appropriate for layers where pixel-accurate merging is
+ * acceptable. Anything narrower than a cell may disappear.
+ */
+public class GridPolygonMerger {
+  private static final int MAX_CELLS = 1 << 20;
+  private static final double CELL_SIZE_INCREMENT = 1d / 8;
+  private static final int EAST = 0;
+  private static final int SOUTH = 1;
+  private static final int WEST = 2;
+  private static final int NORTH = 3;
+  private static final int[] DX = {1, 0, -1, 0};
+  private static final int[] DY = {0, 1, 0, -1};
+
+  private final List<Polygon> polygons = new ArrayList<>();
+  private final Envelope envelope = new Envelope();
+  private double cellSize = 0.25;
+  private double buffer = 0;
+
+  /**
+   * Sets the width and height in tile pixels of each grid cell, which gets rounded to a multiple of 1/8 pixel so that
+   * output vertices land exactly on the vector tile coordinate grid.
+   */
+  public GridPolygonMerger setCellSize(double cellSize) {
+    this.cellSize = cellSize;
+    return this;
+  }
+
+  /** Sets the number of pixels to expand then contract polygons by in order to combine almost-touching polygons. */
+  public GridPolygonMerger setBuffer(double buffer) {
+    this.buffer = buffer;
+    return this;
+  }
+
+  /** Adds the polygons from {@code geometry} to be merged, ignoring any other geometry types. */
+  public GridPolygonMerger add(Geometry geometry) {
+    if (geometry instanceof Polygon polygon) {
+      if (!polygon.isEmpty()) {
+        polygons.add(polygon);
+        envelope.expandToInclude(polygon.getEnvelopeInternal());
+      }
+    } else if (geometry instanceof GeometryCollection) {
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        add(geometry.getGeometryN(i));
+      }
+    }
+    return this;
+  }
+
+  /** Returns the merged polygons, ordered from top-left to bottom-right, or an empty geometry if there are none. */
+  public Geometry getMergedGeometry() {
+    if (polygons.isEmpty()) {
+      return GeoUtils.EMPTY_GEOMETRY;
+    }
+    double size = cellSize;
+    // make cells bigger for huge inputs rather than running out of memory
+    double area = (envelope.getWidth() + 2 * buffer) * (envelope.getHeight() + 2 * buffer);
+    if (area / (size * size) > MAX_CELLS) {
+      size = Math.sqrt(area / MAX_CELLS) * 1.1;
+    }
+    // vertices are at the midpoint of cell edges, so this puts them on the 1/16 pixel tile grid
+    size = Math.max(1, Math.ceil(size / CELL_SIZE_INCREMENT - 1e-9)) * CELL_SIZE_INCREMENT;
+    int pad = (int) Math.ceil(buffer / size) + 1;
+    int gx = (int) Math.floor(envelope.getMinX() / size) - pad;
+    int gy = (int) Math.floor(envelope.getMinY() / size) - pad;
+    int width = (int) Math.ceil(envelope.getMaxX() / size) + pad - gx;
+    int height = (int) Math.ceil(envelope.getMaxY() / size) + pad - gy;
+    var grid = new Grid(width, height, gx * size, gy * size, size);
+
+    for (Polygon polygon : polygons) {
+      grid.rasterize(polygon);
+    }
+    if (buffer > 0) {
+      grid.close(buffer / size);
+    }
+    grid.joinDiagonals();
+    return grid.vectorize();
+  }
+
+  private static class Grid {
+    private final int width;
+    private final int height;
+    private final double x0;
+    private final double y0;
+    private final double size;
+    private final boolean[] filled;
+    private final LongArrayList crossings = new LongArrayList();
+
+    Grid(int width, int height, double x0, double y0, double size) {
+      this.width = width;
+      this.height = height;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.size = size;
+      this.filled = new boolean[width * height];
+    }
+
+    /** Fills every cell whose center is inside {@code polygon} using the even-odd rule over all of its rings. */
+    void rasterize(Polygon polygon) {
+      crossings.clear();
+      addCrossings(polygon.getExteriorRing().getCoordinateSequence());
+      for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+        addCrossings(polygon.getInteriorRingN(i).getCoordinateSequence());
+      }
+      long[] keys = crossings.buffer;
+      int num = crossings.size();
+      Arrays.sort(keys, 0, num);
+      // crossings sort by row then column, so each pair of crossings in a row bounds a filled span
+      for (int i = 0; i + 1 < num; i += 2) {
+        long start = keys[i];
+        long end = keys[i + 1];
+        int row = (int) (start / (width + 1));
+        int from = (int) (start % (width + 1));
+        int to = (int) (end % (width + 1));
+        Arrays.fill(filled, row * width + from, row * width + to, true);
+      }
+    }
+
+    private void addCrossings(CoordinateSequence ring) {
+      for (int i = 0; i < ring.size() - 1; i++) {
+        double ax = ring.getX(i), ay = ring.getY(i);
+        double bx = ring.getX(i + 1), by = ring.getY(i + 1);
+        int fromRow = Math.max(0, (int) Math.ceil((Math.min(ay, by) - y0) / size - 0.5));
+        int toRow = Math.min(height, (int) Math.ceil((Math.max(ay, by) - y0) / size - 0.5));
+        for (int row = fromRow; row < toRow; row++) {
+          double y = y0 + (row + 0.5) * size;
+          double x = ax + (y - ay) * (bx - ax) / (by - ay);
+          int col = Math.clamp((long) Math.ceil((x - x0) / size - 0.5), 0, width);
+          crossings.add((long) row * (width + 1) + col);
+        }
+      }
+    }
+
+    /** Fills cells within {@code radius} of a filled cell, then clears cells within {@code radius} of an empty cell. */
+    void close(double radius) {
+      int reach = (int) Math.floor(radius);
+      int[] halfWidths = new int[reach + 1];
+      for (int dy = 0; dy <= reach; dy++) {
+        halfWidths[dy] = (int) Math.floor(Math.sqrt(radius * radius - dy * dy));
+      }
+      // the nearest filled cell to any empty cell is always on the edge of a filled area (and vice versa), so it is
+      // enough to paint a disk around each cell on the edge instead of computing distances for every cell
+      boolean[] dilated = filled.clone();
+      paintEdges(filled, true, dilated, halfWidths);
+      System.arraycopy(dilated, 0, filled, 0, filled.length);
+      paintEdges(dilated, false, filled, halfWidths);
+    }
+
+    /** Sets cells in {@code result} to {@code value} within a disk around cells in {@code source} next to the other. */
+    private void paintEdges(boolean[] source, boolean value, boolean[] result, int[] halfWidths) {
+      int reach = halfWidths.length - 1;
+      for (int y = 0; y < height; y++) {
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+          int i = row + x;
+          if (source[i] == value && (
+            (x > 0 && source[i - 1] != value) ||
+              (x < width - 1 && source[i + 1] != value) ||
+              (y > 0 && source[i - width] != value) ||
+              (y < height - 1 && source[i + width] != value))) {
+            for (int dy = -reach; dy <= reach; dy++) {
+              int yy = y + dy;
+              if (yy >= 0 && yy < height) {
+                int halfWidth = halfWidths[Math.abs(dy)];
+                int from = Math.max(0, x - halfWidth);
+                int to = Math.min(width, x + halfWidth + 1);
+                Arrays.fill(result, yy * width + from, yy * width + to, value);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Fills a cell wherever 2 filled cells only touch at a corner so that every component is 4-connected and traced
+     * rings never touch each other or themselves.
+     */
+    void joinDiagonals() {
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int y = 0; y < height - 1; y++) {
+          for (int x = 0; x < width - 1; x++) {
+            int i = y * width + x;
+            boolean topLeft = filled[i], topRight = filled[i + 1];
+            boolean bottomLeft = filled[i + width], bottomRight = filled[i + width + 1];
+            if (topLeft && bottomRight && !topRight && !bottomLeft) {
+              filled[i + 1] = true;
+              changed = true;
+            } else if (topRight && bottomLeft && !topLeft && !bottomRight) {
+              filled[i] = true;
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+
+    private int[] labelComponents() {
+      int[] parent = new int[filled.length];
+      for (int i = 0; i < parent.length; i++) {
+        parent[i] = i;
+      }
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int i = y * width + x;
+          if (filled[i]) {
+            if (x > 0 && filled[i - 1]) {
+              union(parent, i, i - 1);
+            }
+            if (y > 0 && filled[i - width]) {
+              union(parent, i, i - width);
+            }
+          }
+        }
+      }
+      return parent;
+    }
+
+    private static int find(int[] parent, int i) {
+      while (parent[i] != i) {
+        i = parent[i] = parent[parent[i]];
+      }
+      return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+      int rootA = find(parent, a);
+      int rootB = find(parent, b);
+      if (rootA != rootB) {
+        parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+      }
+    }
+
+    /** Traces the boundary of each component into a polygon with a shell and holes. */
+    Geometry vectorize() {
+      int[] components = labelComponents();
+      int vertexWidth = width + 1;
+      // direction of the boundary edge leaving each cell corner, +1, with the filled cell on the right
+      byte[] outgoing = new byte[vertexWidth * (height + 1)];
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          if (filled[y * width + x]) {
+            if (!isFilled(x, y - 1)) {
+              outgoing[y * vertexWidth + x] = EAST + 1;
+            }
+            if (!isFilled(x + 1, y)) {
+              outgoing[y * vertexWidth + x + 1] = SOUTH + 1;
+            }
+            if (!isFilled(x, y + 1)) {
+              outgoing[(y + 1) * vertexWidth + x + 1] = WEST + 1;
+            }
+            if (!isFilled(x - 1, y)) {
+              outgoing[(y + 1) * vertexWidth + x] = NORTH + 1;
+            }
+          }
+        }
+      }
+
+      List<LinearRing> shells = new ArrayList<>();
+      IntIntHashMap shellIndex = new IntIntHashMap();
+      List<List<LinearRing>> holes = new ArrayList<>();
+      IntArrayList holeComponents = new IntArrayList();
+      List<LinearRing> holeRings = new ArrayList<>();
+      IntArrayList ring = new IntArrayList();
+      for (int start = 0; start < outgoing.length; start++) {
+        if (outgoing[start] == 0) {
+          continue;
+        }
+        int sx = start % vertexWidth, sy = start / vertexWidth;
+        int startDir = outgoing[start] - 1;
+        int component = find(components, cellOnRight(sx, sy, startDir));
+        ring.clear();
+        int vx = sx, vy = sy;
+        do {
+          int dir = outgoing[vy * vertexWidth + vx] - 1;
+          outgoing[vy * vertexWidth + vx] = 0;
+          // midpoint of the edge in half-cell units
+          addPoint(ring, 2 * vx + DX[dir], 2 * vy + DY[dir]);
+          vx += DX[dir];
+          vy += DY[dir];
+        } while (vx != sx || vy != sy);
+        removeCollinearClosingPoints(ring);
+        long twiceArea = 0;
+        for (int i = 0, n = ring.size() / 2; i < n; i++) {
+          int j = (i + 1) % n;
+          twiceArea += (long) ring.get(2 * i) * ring.get(2 * j + 1) - (long) ring.get(2 * j) * ring.get(2 * i + 1);
+        }
+        LinearRing linearRing = toRing(ring);
+        if (twiceArea > 0) {
+          shellIndex.put(component, shells.size());
+          shells.add(linearRing);
+          holes.add(new ArrayList<>());
+        } else {
+          holeComponents.add(component);
+          holeRings.add(linearRing);
+        }
+      }
+      for (int i = 0; i < holeRings.size(); i++) {
+        int index = shellIndex.getOrDefault(holeComponents.get(i), -1);
+        if (index >= 0) {
+          holes.get(index).add(holeRings.get(i));
+        }
+      }
+      List<Polygon> result = new ArrayList<>(shells.size());
+      for (int i = 0; i < shells.size(); i++) {
+        result.add(GeoUtils.createPolygon(shells.get(i), holes.get(i)));
+      }
+      return result.isEmpty() ? GeoUtils.EMPTY_GEOMETRY : GeoUtils.combinePolygons(result);
+    }
+
+    private boolean isFilled(int x, int y) {
+      return x >= 0 && y >= 0 && x < width && y < height && filled[y * width + x];
+    }
+
+    private int cellOnRight(int vx, int vy, int dir) {
+      return switch (dir) {
+        case EAST -> vy * width + vx;
+        case SOUTH -> vy * width + vx - 1;
+        case WEST -> (vy - 1) * width + vx - 1;
+        default -> (vy - 1) * width + vx;
+      };
+    }
+
+    private static boolean collinear(int ax, int ay, int bx, int by, int cx, int cy) {
+      return (long) (bx - ax) * (cy - ay) - (long) (by - ay) * (cx - ax) == 0;
+    }
+
+    private static void addPoint(IntArrayList ring, int x, int y) {
+      int n = ring.size();
+      if (n >= 4 && collinear(ring.get(n - 4), ring.get(n - 3), ring.get(n - 2), ring.get(n - 1), x, y)) {
+        ring.elementsCount -= 2;
+      }
+      ring.add(x, y);
+    }
+
+    /** Removes points at the start and end of a ring that are collinear with their neighbors across the seam. */
+    private static void removeCollinearClosingPoints(IntArrayList ring) {
+      int start = 0;
+      boolean changed = true;
+      while (changed && ring.size() - start > 6) {
+        changed = false;
+        int n = ring.size();
+        if (collinear(ring.get(n - 4), ring.get(n - 3), ring.get(n - 2), ring.get(n - 1), ring.get(start),
+          ring.get(start + 1))) {
+          ring.elementsCount -= 2;
+          changed = true;
+        } else if (collinear(ring.get(n - 2), ring.get(n - 1), ring.get(start), ring.get(start + 1),
+          ring.get(start + 2), ring.get(start + 3))) {
+          start += 2;
+          changed = true;
+        }
+      }
+      if (start > 0) {
+        System.arraycopy(ring.buffer, start, ring.buffer, 0, ring.size() - start);
+        ring.elementsCount -= start;
+      }
+    }
+
+    /** Returns a ring for points in half-cell units, reversed so shells are clockwise like JTS buffer output. */
+    private LinearRing toRing(IntArrayList points) {
+      int n = points.size() / 2;
+      double[] coords = new double[(n + 1) * 2];
+      double half = size / 2;
+      for (int i = 0; i <= n; i++) {
+        int from = ((n - i) % n) * 2;
+        coords[i * 2] = x0 + points.get(from) * half;
+        coords[i * 2 + 1] = y0 + points.get(from + 1) * half;
+      }
+      return GeoUtils.JTS_FACTORY.createLinearRing(GeoUtils.coordinateSequence(coords));
+    }
+  }
+}
@@ -68,6 +68,42 @@ public final class Hashing {
     return hash;
   }
 
+  /**
+   * Computes the hash using the FNV-1a 64-bit hash function over {@code length} bytes of {@code data} starting at
+   * {@code offset}, starting with the initial hash.
+   *
+   * @param initHash the initial hash
+   * @param data     the data to generate the hash for
+   * @param offset   index of the first byte to include
+   * @param length   number of bytes to include
+   * @return the generated hash
+   */
+  public static long fnv1a64(long initHash, byte[] data, int offset, int length) {
+    long hash = initHash;
+    for (int i = offset; i < offset + length; i++) {
+      hash ^= (data[i] & 0xff);
+      hash *= FNV1_PRIME_64;
+    }
+    return hash;
+  }
+
+  /**
+   * Adds the 4 bytes of {@code value} to the hash using the FNV-1a 64-bit hash function, for example to prefix
+   * variable-length data with its length so that adjacent values can't run into each other.
+   *
+   * @param initHash the initial hash
+   * @param value    the value to add to the hash
+   * @return the generated hash
+   */
+  public static long fnv1a64Int(long initHash, int value) {
+    long hash = initHash;
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      hash ^= ((value >>> shift) & 0xff);
+      hash *= FNV1_PRIME_64;
+    }
+    return hash;
+  }
+
   /**
    * Computes the hash using the FNV-1a 64-bit hash function.
    *
@@ -0,0 +1,346 @@
+package com.onthegomap.planetiler.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.onthegomap.planetiler.archive.ReadableTileArchive;
+import com.onthegomap.planetiler.archive.TileArchiveConfig;
+import com.onthegomap.planetiler.archive.TileArchiveMetadata;
+import com.onthegomap.planetiler.archive.TileArchives;
+import com.onthegomap.planetiler.archive.TileCompression;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.files.ReadableFilesArchive;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.pmtiles.ReadablePmtiles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal HTTP server that serves vector tiles and <a href="https://github.com/mapbox/tilejson-spec">TileJSON</a>
+ * from any {@link ReadableTileArchive} to test a tileset locally without any external tile server.
+ * <p>
+ * Tiles are sent as they are stored in the archive with a {@code Content-Encoding: gzip} header when the client accepts
+ * it, or decompressed when it does not. Recently-requested tiles are kept in a fixed-size in-memory cache, and large
+ * tiles in PMTiles archives are streamed from the file to the response in small chunks using
+ * {@link ReadablePmtiles#transferTo} instead of being read into a single array and cached.
+ * <p>
+ * To run:
+ *
+ * <pre>{@code
+ * java -jar planetiler.jar serve --input=path/to/archive.pmtiles [--port=8080]
+ * }</pre>
+ * <p>
+ * Then point a map client at {@code http://localhost:8080/tiles.json} or {@code http://localhost:8080/{z}/{x}/{y}.pbf}.
+ */
+public class TileServer implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TileServer.class);
+  private static final String TILE_CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+  private static final Pattern TILE_PATH = Pattern.compile("^/(\\d+)/(\\d+)/(\\d+)\\.(pbf|mvt)$");
+  private static final String TILEJSON_PATH = "/tiles.json";
+  private static final ObjectMapper objectMapper = new ObjectMapper().registerModules(new Jdk8Module());
+  private final ReadableTileArchive archive;
+  private final TileArchiveMetadata metadata;
+  private final ReadablePmtiles pmtiles;
+  private final boolean threadSafe;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final long maxCacheBytes;
+  private final int maxCachedTileBytes;
+  private final Map<Integer, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long cacheBytes = 0;
+  private final AtomicLong cacheHits = new AtomicLong(0);
+  private final AtomicLong cacheMisses = new AtomicLong(0);
+  private final AtomicLong transfers = new AtomicLong(0);
+
+  /**
+   * Starts a server for {@code archive} listening on {@code address}.
+   *
+   * @param archive            the tiles to serve, closed along with this server
+   * @param address            host and port to listen on, use port 0 to pick a free port
+   * @param threads            number of threads handling requests
+   * @param maxCacheBytes      maximum total size of tiles to keep in memory
+   * @param maxCachedTileBytes tiles larger than this are not cached and get copied straight from PMTiles archives
+   */
+  public TileServer(ReadableTileArchive archive, InetSocketAddress address, int threads, long maxCacheBytes,
+    int maxCachedTileBytes) throws IOException {
+    this.archive = archive;
+    this.metadata = archive.metadata();
+    this.pmtiles = archive instanceof ReadablePmtiles p ? p : null;
+    // the mbtiles reader shares a single prepared statement across all calls
+    this.threadSafe = archive instanceof ReadablePmtiles || archive instanceof ReadableFilesArchive;
+    this.maxCacheBytes = maxCacheBytes;
+    this.maxCachedTileBytes = maxCachedTileBytes;
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.server = HttpServer.create(address, 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public static void main(String... args) throws IOException, InterruptedException {
+    var arguments = Arguments.fromArgsOrConfigFile(args);
+    var config = PlanetilerConfig.from(arguments);
+    var input = TileArchiveConfig.from(arguments.getString("input", "archive to serve"));
+    String bind = arguments.getString("bind", "address to listen on", "localhost");
+    int port = arguments.getInteger("port", "port to listen on", 8080);
+    int threads = arguments.getInteger("serve_threads", "number of threads handling requests",
+      Math.max(4, config.threads()));
+    int cacheMb = arguments.getInteger("tile_cache_mb", "megabytes of recently-served tiles to keep in memory", 256);
+    int maxCachedTileKb = arguments.getInteger("tile_cache_max_tile_kb",
+      "tiles larger than this are streamed from the archive instead of cached", 512);
+    var archive = TileArchives.newReader(input, config);
+    TileServer server;
+    try {
+      server = new TileServer(archive, new InetSocketAddress(bind, port), threads, cacheMb * 1_000_000L,
+        maxCachedTileKb * 1_000);
+    } catch (IOException | RuntimeException e) {
+      archive.close();
+      throw e;
+    }
+    var stopping = new CountDownLatch(1);
+    var stopped = new CountDownLatch(1);
+    // the JVM exits once shutdown hooks finish, so wait for the server and archive to be closed below
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      stopping.countDown();
+      try {
+        stopped.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    try (server) {
+      LOGGER.info("Serving {} at http://{}:{}{}", input.uri(), bind, server.port(), TILEJSON_PATH);
+      stopping.await();
+    } finally {
+      stopped.countDown();
+    }
+  }
+
+  /** Returns the port this server is listening on. */
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  long cacheHits() {
+    return cacheHits.get();
+  }
+
+  long cacheMisses() {
+    return cacheMisses.get();
+  }
+
+  long transfers() {
+    return transfers.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String method = exchange.getRequestMethod();
+      boolean head = "HEAD".equals(method);
+      if (!head && !"GET".equals(method)) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+      String path = exchange.getRequestURI().getPath();
+      Matcher matcher = TILE_PATH.matcher(path);
+      if (matcher.matches()) {
+        handleTile(exchange, head, matcher);
+      } else if (TILEJSON_PATH.equals(path)) {
+        byte[] body = tileJson(exchange);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, head, 200, body);
+      } else {
+        send(exchange, head, 404, null);
+      }
+    } catch (RuntimeException | IOException e) {
+      LOGGER.warn("Error handling {}", exchange.getRequestURI(), e);
+      throw e;
+    }
+  }
+
+  private void handleTile(HttpExchange exchange, boolean head, Matcher matcher) throws IOException {
+    int z, x, y;
+    try {
+      z = Integer.parseInt(matcher.group(1));
+      x = Integer.parseInt(matcher.group(2));
+      y = Integer.parseInt(matcher.group(3));
+    } catch (NumberFormatException e) {
+      send(exchange, head, 404, null);
+      return;
+    }
+    if (z > PlanetilerConfig.MAX_MAXZOOM || x >= (1 << z) || y >= (1 << z)) {
+      send(exchange, head, 404, null);
+      return;
+    }
+    var headers = exchange.getResponseHeaders();
+    headers.set("Content-Type", TILE_CONTENT_TYPE);
+    boolean acceptsGzip = acceptsGzip(exchange);
+    int key = TileCoord.ofXYZ(x, y, z).encoded();
+
+    byte[] data = getCached(key);
+    if (data == null && pmtiles != null) {
+      var range = pmtiles.getTileDataRange(x, y, z);
+      if (range == null) {
+        send(exchange, head, 204, null);
+        return;
+      } else if (range.length() <= maxCachedTileBytes || metadata.tileCompression() == TileCompression.UNKNOWN ||
+        (!acceptsGzip && metadata.tileCompression() == TileCompression.GZIP)) {
+        data = pmtiles.getTileData(range);
+        putCached(key, data);
+      } else {
+        if (metadata.tileCompression() == TileCompression.GZIP) {
+          headers.set("Content-Encoding", "gzip");
+        }
+        transfers.incrementAndGet();
+        exchange.sendResponseHeaders(200, head ? -1 : range.length());
+        if (!head) {
+          pmtiles.transferTo(range, Channels.newChannel(exchange.getResponseBody()));
+        }
+        return;
+      }
+    }
+    if (data == null) {
+      data = readTile(x, y, z);
+      if (data == null) {
+        send(exchange, head, 204, null);
+        return;
+      }
+      putCached(key, data);
+    }
+    if (isGzipped(data)) {
+      if (acceptsGzip) {
+        headers.set("Content-Encoding", "gzip");
+      } else {
+        data = Gzip.gunzip(data);
+      }
+    }
+    send(exchange, head, 200, data);
+  }
+
+  private byte[] readTile(int x, int y, int z) {
+    if (threadSafe) {
+      return archive.getTile(x, y, z);
+    }
+    synchronized (archive) {
+      return archive.getTile(x, y, z);
+    }
+  }
+
+  private boolean isGzipped(byte[] data) {
+    return switch (metadata.tileCompression()) {
+      case GZIP -> true;
+      case NONE -> false;
+      case UNKNOWN -> data.length >= 2 && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b;
+    };
+  }
+
+  private static boolean acceptsGzip(HttpExchange exchange) {
+    for (String value : exchange.getRequestHeaders().getOrDefault("Accept-Encoding", List.of())) {
+      if (value.toLowerCase(Locale.ROOT).contains("gzip")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private byte[] getCached(int key) {
+    synchronized (cache) {
+      byte[] result = cache.get(key);
+      (result == null ? cacheMisses : cacheHits).incrementAndGet();
+      return result;
+    }
+  }
+
+  private void putCached(int key, byte[] data) {
+    if (data.length > maxCachedTileBytes || data.length > maxCacheBytes) {
+      return;
+    }
+    synchronized (cache) {
+      byte[] old = cache.put(key, data);
+      cacheBytes += data.length - (old == null ? 0 : old.length);
+      Iterator<byte[]> iterator = cache.values().iterator();
+      while (cacheBytes > maxCacheBytes && iterator.hasNext()) {
+        cacheBytes -= iterator.next().length;
+        iterator.remove();
+      }
+    }
+  }
+
+  private byte[] tileJson(HttpExchange exchange) throws IOException {
+    String host = exchange.getRequestHeaders().getFirst("Host");
+    if (host == null) {
+      host = "localhost:" + port();
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("tilejson", "3.0.0");
+    result.put("scheme", "xyz");
+    result.put("tiles", List.of("http://" + host + "/{z}/{x}/{y}.pbf"));
+    putIfNotNull(result, TileArchiveMetadata.NAME_KEY, metadata.name());
+    putIfNotNull(result, TileArchiveMetadata.DESCRIPTION_KEY, metadata.description());
+    putIfNotNull(result, TileArchiveMetadata.ATTRIBUTION_KEY, metadata.attribution());
+    putIfNotNull(result, TileArchiveMetadata.VERSION_KEY, metadata.version());
+    putIfNotNull(result, TileArchiveMetadata.MINZOOM_KEY, metadata.minzoom());
+    putIfNotNull(result, TileArchiveMetadata.MAXZOOM_KEY, metadata.maxzoom());
+    var bounds = metadata.bounds();
+    if (bounds != null && !bounds.isNull()) {
+      result.put(TileArchiveMetadata.BOUNDS_KEY,
+        List.of(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY()));
+    }
+    var center = metadata.center();
+    if (center != null) {
+      List<Double> centerList = new ArrayList<>(List.of(center.getX(), center.getY()));
+      if (!Double.isNaN(center.getZ())) {
+        centerList.add(Math.floor(center.getZ()));
+      }
+      result.put(TileArchiveMetadata.CENTER_KEY, centerList);
+    }
+    putIfNotNull(result, TileArchiveMetadata.VECTOR_LAYERS_KEY, metadata.vectorLayers());
+    return objectMapper.writeValueAsBytes(result);
+  }
+
+  private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+    if (value != null) {
+      map.put(key, value);
+    }
+  }
+
+  private static void send(HttpExchange exchange, boolean head, int status, byte[] body) throws IOException {
+    if (head || body == null || status == 204) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.stop(0);
+    executor.shutdownNow();
+    LOGGER.debug("Tile cache hits: {} misses: {} transfers: {}", cacheHits, cacheMisses, transfers);
+    archive.close();
+  }
+}
@@ -0,0 +1,246 @@
+package com.onthegomap.planetiler.util;
+
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.geo.TileOrder;
+import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility that records how long each tile took to post-process, encode, and compress, then reports the slowest tiles at
+ * the end.
+ * <p>
+ * Encoder threads record into a thread-local {@link Updater} without contention and the slowest tiles from each one get
+ * combined when printing the report. Each tile is also reported to {@link Stats#encodedTile} and, when a path is
+ * provided, written to a tsv.gz file with one row per layer in each tile.
+ */
+public class TileTimingStats implements AutoCloseable {
+
+  private static final int TOP_N_TILES = 10;
+  private static final Logger LOGGER = LoggerFactory.getLogger(TileTimingStats.class);
+  private static final String HEADER = String.join("\t",
+    "z", "x", "y", "hilbert", "total_us", "post_process_us", "encode_us", "compress_us", "layer",
+    "layer_post_process_us") + "\n";
+
+  private final Stats stats;
+  private final Writer writer;
+  // instead of threads updating a shared queue, each thread gets a thread-local Updater that gets combined at the end
+  private final List<Updater> updaters = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates a new instance that reports each tile to {@code stats} and writes a row for each tile layer to
+   * {@code tsvPath} if it is not null.
+   */
+  public TileTimingStats(Stats stats, Path tsvPath) {
+    this.stats = stats;
+    try {
+      this.writer = tsvPath == null ? null : TileSizeStats.newWriter(tsvPath);
+      if (writer != null) {
+        writer.write(HEADER);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns true if anything uses the timings passed to {@link Updater#recordTile(Timings)}, otherwise callers can skip
+   * measuring them.
+   */
+  public boolean enabled() {
+    return writer != null || stats.recordsTileTimings() || LOGGER.isDebugEnabled();
+  }
+
+  /** Returns the default path that a tile timings file should go relative to an existing archive. */
+  public static Path getDefaultPath(Path archive) {
+    return archive.resolveSibling(archive.getFileName() + ".tiletimings.tsv.gz");
+  }
+
+  private static String ms(long nanos) {
+    return Format.defaultInstance().decimal(nanos / 1e6) + "ms";
+  }
+
+  /**
+   * Returns an {@link Updater} that accepts individual tile timings from a thread that will eventually be combined into
+   * the final report.
+   */
+  public Updater threadLocalUpdater() {
+    var updater = new Updater();
+    updaters.add(updater);
+    return updater;
+  }
+
+  /** Returns the slowest tiles from all threads, slowest first. */
+  public List<Timings> slowestTiles() {
+    return updaters.stream()
+      .flatMap(updater -> updater.slowest.stream())
+      .sorted(Comparator.comparingLong(Timings::totalNanos).reversed())
+      .limit(TOP_N_TILES)
+      .toList();
+  }
+
+  /** Logs the slowest tiles to encode with the time each stage and layer took. */
+  @SuppressWarnings("java:S2629")
+  public void printStats(String debugUrlPattern) {
+    var slowest = slowestTiles();
+    if (!slowest.isEmpty()) {
+      LOGGER.debug("Slowest tiles to encode\n{}", IntStream.range(0, slowest.size())
+        .mapToObj(index -> {
+          var tile = slowest.get(index);
+          return "%d. %d/%d/%d (%s: post-process %s, encode %s, compress %s) %s (%s)".formatted(
+            index + 1,
+            tile.coord.z(),
+            tile.coord.x(),
+            tile.coord.y(),
+            ms(tile.totalNanos()),
+            ms(tile.postProcessNanos()),
+            ms(tile.encodeNanos),
+            ms(tile.compressNanos),
+            tile.coord.getDebugUrl(debugUrlPattern),
+            tile.layerNanos.entrySet().stream()
+              .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+              .limit(3)
+              .map(e -> e.getKey() + ":" + ms(e.getValue()))
+              .collect(Collectors.joining(", "))
+          );
+        }).collect(Collectors.joining("\n")));
+    }
+  }
+
+  @Override
+  public void close() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Mutable timings for each stage of encoding a single tile. */
+  public static class Timings {
+
+    private final TileCoord coord;
+    private final Map<String, Long> layerNanos = new TreeMap<>();
+    private long tilePostProcessNanos = 0;
+    private long encodeNanos = 0;
+    private long compressNanos = 0;
+
+    public Timings(TileCoord coord) {
+      this.coord = coord;
+    }
+
+    public TileCoord coord() {
+      return coord;
+    }
+
+    /** Adds time spent decoding features and in {@code postProcessTileFeatures} for the entire tile. */
+    public void addTilePostProcess(long nanos) {
+      tilePostProcessNanos += nanos;
+    }
+
+    /** Adds time spent in {@code postProcessLayerFeatures} for {@code layer}. */
+    public void addLayerPostProcess(String layer, long nanos) {
+      layerNanos.merge(layer, nanos, Long::sum);
+    }
+
+    public void addEncode(long nanos) {
+      encodeNanos += nanos;
+    }
+
+    public void addCompress(long nanos) {
+      compressNanos += nanos;
+    }
+
+    /** Returns the time spent post-processing the entire tile and each layer. */
+    public long postProcessNanos() {
+      long result = tilePostProcessNanos;
+      for (long nanos : layerNanos.values()) {
+        result += nanos;
+      }
+      return result;
+    }
+
+    public long encodeNanos() {
+      return encodeNanos;
+    }
+
+    public long compressNanos() {
+      return compressNanos;
+    }
+
+    public Map<String, Long> layerNanos() {
+      return layerNanos;
+    }
+
+    public long totalNanos() {
+      return postProcessNanos() + encodeNanos + compressNanos;
+    }
+  }
+
+  /** Accepts tile timings from a single thread. */
+  public class Updater {
+
+    private final PriorityQueue<Timings> slowest = new PriorityQueue<>(Comparator.comparingLong(Timings::totalNanos));
+    private final StringBuilder rows = new StringBuilder();
+
+    private Updater() {}
+
+    /** Records the time it took to encode a tile. */
+    public void recordTile(Timings timings) {
+      long total = timings.totalNanos();
+      if (slowest.size() < TOP_N_TILES) {
+        slowest.offer(timings);
+      } else if (total > slowest.peek().totalNanos()) {
+        slowest.poll();
+        slowest.offer(timings);
+      }
+      stats.encodedTile(timings);
+      if (writer != null) {
+        appendRows(timings);
+      }
+    }
+
+    private void appendRows(Timings timings) {
+      var coord = timings.coord;
+      String prefix = coord.z() + "\t" + coord.x() + "\t" + coord.y() + "\t" + TileOrder.HILBERT.encode(coord) +
+        "\t" + timings.totalNanos() / 1_000 +
+        "\t" + timings.postProcessNanos() / 1_000 +
+        "\t" + timings.encodeNanos / 1_000 +
+        "\t" + timings.compressNanos / 1_000 + "\t";
+      if (timings.layerNanos.isEmpty()) {
+        rows.append(prefix).append("\t\n");
+      }
+      for (var layer : timings.layerNanos.entrySet()) {
+        rows.append(prefix).append(layer.getKey()).append('\t').append(layer.getValue() / 1_000).append('\n');
+      }
+    }
+
+    /** Writes rows buffered since the last flush to the tsv.gz output. */
+    public void flush() {
+      if (writer != null && !rows.isEmpty()) {
+        synchronized (writer) {
+          try {
+            writer.write(rows.toString());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        rows.setLength(0);
+      }
+    }
+  }
+}
@@ -415,13 +415,8 @@ public class TilesetSummaryStatistics {
     }
 
     public void recordTile(TileCoord coord, int archivedBytes, List<TileSizeStats.LayerStats> layerStats) {
-      var tileStat = summary.byTile.get(coord.z());
       var layerStat = summary.byLayer.get(coord.z());
-      tileStat.archivedBytes.accept(archivedBytes);
-      tileStat.acceptBigTile(coord, archivedBytes, layerStats);
-      long weight = tileWeights.getWeight(coord);
-      tileStat.totalWeight += weight;
-      tileStat.weightedArchivedBytesSum += weight * archivedBytes;
+      long weight = recordArchivedBytes(coord, archivedBytes, layerStats);
 
       int sum = 0;
       for (var layer : layerStats) {
@@ -432,8 +427,32 @@ public class TilesetSummaryStatistics {
         cell.weightedBytesSum += weight * layer.layerBytes();
         cell.totalWeight += weight;
       }
-      tileStat.weightedBytesSum += weight * sum;
-      tileStat.bytes.accept(sum);
+      recordBytes(coord, weight, sum);
+    }
+
+    /**
+     * Records a tile with only its total uncompressed size and no per-layer stats, like one copied from a previous
+     * archive without decoding it.
+     */
+    public void recordTile(TileCoord coord, int archivedBytes, int bytes) {
+      long weight = recordArchivedBytes(coord, archivedBytes, List.of());
+      recordBytes(coord, weight, bytes);
+    }
+
+    private long recordArchivedBytes(TileCoord coord, int archivedBytes, List<TileSizeStats.LayerStats> layerStats) {
+      var tileStat = summary.byTile.get(coord.z());
+      tileStat.archivedBytes.accept(archivedBytes);
+      tileStat.acceptBigTile(coord, archivedBytes, layerStats);
+      long weight = tileWeights.getWeight(coord);
+      tileStat.totalWeight += weight;
+      tileStat.weightedArchivedBytesSum += weight * archivedBytes;
+      return weight;
+    }
+
+    private void recordBytes(TileCoord coord, long weight, int bytes) {
+      var tileStat = summary.byTile.get(coord.z());
+      tileStat.weightedBytesSum += weight * bytes;
+      tileStat.bytes.accept(bytes);
     }
   }
 }
@@ -0,0 +1,289 @@
+package com.onthegomap.planetiler.util;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.DouglasPeuckerSimplifier;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.geo.GeometryPipeline;
+import com.onthegomap.planetiler.geo.GeometryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+
+/**
+ * A utility for merging linestrings that share endpoints directly on their encoded vector tile geometry commands,
+ * without converting them to JTS geometries.
+ * <p>
+ * Line endpoints are snapped to the integer tile extent grid and stored in a hash index. Lines get connected where
+ * exactly 2 endpoints meet, and optionally at 3+ way intersections by pairing up the edges that form the straightest
+ * path through the node like {@link LoopLineMerger#setMergeStrokes(boolean)}. Then merged lines get converted to JTS
+ * linestrings in tile pixel coordinates, simplified, and lines shorter than {@code minLength} are removed.
+ * <p>
+ * This is much faster than {@link LoopLineMerger} but it does not split lines that intersect at a midpoint, break small
+ * loops, or remove short stubs.
+ */
+public class VectorLineMerger {
+  // same as VectorTile
+  private static final int EXTENT = 4096;
+  private static final double SIZE = 256d;
+  private static final int MOVE_TO = 1;
+  private static final int LINE_TO = 2;
+  private static final int NONE = -1;
+
+  /** x/y coordinates of every input line, interleaved */
+  private final IntArrayList coords = new IntArrayList();
+  /** offset into coords where each line starts, followed by the end of the last line */
+  private final IntArrayList lineStarts = new IntArrayList();
+  private int scale = NONE;
+  private double minLength = 0;
+  private double tolerance = -1;
+  private GeometryPipeline pipeline = null;
+  private boolean mergeStrokes = false;
+
+  public VectorLineMerger() {
+    lineStarts.add(0);
+  }
+
+  private static int zigZagDecode(int n) {
+    return ((n >> 1) ^ (-(n & 1)));
+  }
+
+  /** Sets the minimum length in tile pixels of merged lines to emit, {@code <= 0} keeps all lines. */
+  public VectorLineMerger setMinLength(double minLength) {
+    this.minLength = minLength;
+    return this;
+  }
+
+  /** Sets the pixel tolerance to simplify merged lines with, or {@code -1} to skip simplification. */
+  public VectorLineMerger setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+    return this;
+  }
+
+  /** Sets a function to apply to each merged line instead of simplifying it, like {@link LoopLineMerger}. */
+  public VectorLineMerger setSegmentTransform(GeometryPipeline pipeline) {
+    this.pipeline = pipeline;
+    return this;
+  }
+
+  /** Sets whether to connect the straightest pair of edges at intersections where 3 or more lines meet. */
+  public VectorLineMerger setMergeStrokes(boolean mergeStrokes) {
+    this.mergeStrokes = mergeStrokes;
+    return this;
+  }
+
+  /**
+   * Adds the lines from {@code geometry} to be merged.
+   *
+   * @return false if {@code geometry} is not a line or uses a different scale than previously added geometries, in
+   *         which case it was not added
+   */
+  public boolean add(VectorTile.VectorGeometry geometry) {
+    if (geometry.geomType() != GeometryType.LINE || (scale != NONE && geometry.scale() != scale)) {
+      return false;
+    }
+    scale = geometry.scale();
+    int[] commands = geometry.commands();
+    int x = 0, y = 0;
+    int i = 0;
+    while (i < commands.length) {
+      int command = commands[i] & 0x7;
+      int length = commands[i++] >>> 3;
+      if (command == MOVE_TO) {
+        finishLine();
+      } else if (command != LINE_TO) {
+        // lines should not have close path commands, but skip them just in case
+        continue;
+      }
+      for (int j = 0; j < length; j++) {
+        x += zigZagDecode(commands[i++]);
+        y += zigZagDecode(commands[i++]);
+        int start = lineStarts.get(lineStarts.size() - 1);
+        int size = coords.size();
+        // drop repeated points so every segment has a direction
+        if (size == start || coords.get(size - 2) != x || coords.get(size - 1) != y) {
+          coords.add(x, y);
+        }
+      }
+    }
+    finishLine();
+    return true;
+  }
+
+  private void finishLine() {
+    int start = lineStarts.get(lineStarts.size() - 1);
+    int size = coords.size();
+    if (size - start >= 4) {
+      lineStarts.add(size);
+    } else {
+      // discard lines with fewer than 2 distinct points
+      coords.removeRange(start, size);
+    }
+  }
+
+  private int numLines() {
+    return lineStarts.size() - 1;
+  }
+
+  /** Returns the offset into coords of the endpoint of a line: the start if {@code end} is even, or the end if odd. */
+  private int endpointOffset(int end) {
+    int line = end >> 1;
+    return (end & 1) == 0 ? lineStarts.get(line) : lineStarts.get(line + 1) - 2;
+  }
+
+  /** Returns the offset into coords of the point next to the endpoint, going toward the other end of the line. */
+  private int nextPointOffset(int end) {
+    int offset = endpointOffset(end);
+    return (end & 1) == 0 ? offset + 2 : offset - 2;
+  }
+
+  private long nodeKey(int offset) {
+    // snap to the output tile extent grid so that endpoints stored with extra precision still connect
+    int half = scale == 0 ? 0 : 1 << (scale - 1);
+    long x = (coords.get(offset) + half) >> scale;
+    long y = (coords.get(offset + 1) + half) >> scale;
+    return (x << 32) | (y & 0xffffffffL);
+  }
+
+  private double angle(int end) {
+    int from = endpointOffset(end);
+    int to = nextPointOffset(end);
+    return Math.atan2(coords.get(to + 1) - coords.get(from + 1), coords.get(to) - coords.get(from));
+  }
+
+  /** Returns an array from each line end to the end of another line that it connects to, or {@link #NONE}. */
+  private int[] pairEnds() {
+    int numEnds = numLines() * 2;
+    // group ends by node using a hash index from snapped coordinate to the first end at that node, and a linked list
+    LongIntHashMap firstEndAtNode = new LongIntHashMap(numEnds);
+    int[] nextEndAtNode = new int[numEnds];
+    for (int end = 0; end < numEnds; end++) {
+      long key = nodeKey(endpointOffset(end));
+      nextEndAtNode[end] = firstEndAtNode.getOrDefault(key, NONE);
+      firstEndAtNode.put(key, end);
+    }
+    int[] partner = new int[numEnds];
+    Arrays.fill(partner, NONE);
+    IntArrayList ends = new IntArrayList();
+    for (var cursor : firstEndAtNode) {
+      ends.clear();
+      for (int end = cursor.value; end != NONE; end = nextEndAtNode[end]) {
+        ends.add(end);
+      }
+      if (ends.size() == 2) {
+        partner[ends.get(0)] = ends.get(1);
+        partner[ends.get(1)] = ends.get(0);
+      } else if (ends.size() > 2 && mergeStrokes) {
+        pairStraightestEnds(ends, partner);
+      }
+    }
+    return partner;
+  }
+
+  private void pairStraightestEnds(IntArrayList ends, int[] partner) {
+    record AngledPair(int a, int b, double angle) {}
+    int n = ends.size();
+    double[] angles = new double[n];
+    for (int i = 0; i < n; i++) {
+      angles[i] = angle(ends.get(i));
+    }
+    List<AngledPair> pairs = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        double diff = Math.abs(angles[i] - angles[j]);
+        // pi when the 2 edges leave the node in opposite directions
+        pairs.add(new AngledPair(ends.get(i), ends.get(j), diff > Math.PI ? 2 * Math.PI - diff : diff));
+      }
+    }
+    pairs.sort(Comparator.comparingDouble(AngledPair::angle).reversed());
+    for (var pair : pairs) {
+      if (partner[pair.a] == NONE && partner[pair.b] == NONE) {
+        partner[pair.a] = pair.b;
+        partner[pair.b] = pair.a;
+      }
+    }
+  }
+
+  /** Returns the merged lines in tile pixel coordinates, without any that got removed for being too short. */
+  public List<LineString> getMergedLineStrings() {
+    int numLines = numLines();
+    List<LineString> result = new ArrayList<>();
+    if (numLines == 0) {
+      return result;
+    }
+    int[] partner = pairEnds();
+    boolean[] visited = new boolean[numLines];
+    IntArrayList chain = new IntArrayList();
+    // first walk chains starting from ends that don't connect to anything, preferring the start of a line to
+    // preserve the input direction where possible
+    for (int parity = 0; parity < 2; parity++) {
+      for (int end = parity; end < numLines * 2; end += 2) {
+        if (partner[end] == NONE && !visited[end >> 1]) {
+          walkChain(end, partner, visited, chain);
+          emit(chain, result);
+        }
+      }
+    }
+    // then anything left over is part of a loop
+    for (int line = 0; line < numLines; line++) {
+      if (!visited[line]) {
+        walkChain(line * 2, partner, visited, chain);
+        emit(chain, result);
+      }
+    }
+    return result;
+  }
+
+  private void walkChain(int end, int[] partner, boolean[] visited, IntArrayList chain) {
+    chain.clear();
+    while (true) {
+      int line = end >> 1;
+      visited[line] = true;
+      int start = lineStarts.get(line);
+      int stop = lineStarts.get(line + 1);
+      // skip the first point after the first line since it's the same node as the previous line's last point
+      int skip = chain.isEmpty() ? 0 : 2;
+      if ((end & 1) == 0) {
+        for (int i = start + skip; i < stop; i += 2) {
+          chain.add(coords.get(i), coords.get(i + 1));
+        }
+      } else {
+        for (int i = stop - 2 - skip; i >= start; i -= 2) {
+          chain.add(coords.get(i), coords.get(i + 1));
+        }
+      }
+      int next = partner[end ^ 1];
+      if (next == NONE || visited[next >> 1]) {
+        return;
+      }
+      end = next;
+    }
+  }
+
+  private void emit(IntArrayList chain, List<LineString> output) {
+    double unitsPerPixel = (EXTENT << scale) / SIZE;
+    List<Coordinate> coordinates = new ArrayList<>(chain.size() / 2);
+    for (int i = 0; i < chain.size(); i += 2) {
+      coordinates.add(new Coordinate(chain.get(i) / unitsPerPixel, chain.get(i + 1) / unitsPerPixel));
+    }
+    // simplify the same way as LoopLineMerger
+    if (pipeline != null) {
+      coordinates = List.of(
+        pipeline.apply(GeoUtils.JTS_FACTORY.createLineString(coordinates.toArray(Coordinate[]::new)))
+          .getCoordinates());
+    } else if (tolerance >= 0) {
+      coordinates = DouglasPeuckerSimplifier.simplify(coordinates, tolerance, false);
+    }
+    if (coordinates.size() < 2) {
+      return;
+    }
+    LineString line = GeoUtils.JTS_FACTORY.createLineString(coordinates.toArray(Coordinate[]::new));
+    if (minLength <= 0 || line.getLength() >= minLength) {
+      output.add(line);
+    }
+  }
+}
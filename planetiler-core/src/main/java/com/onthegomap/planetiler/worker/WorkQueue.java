@@ -5,14 +5,16 @@ import static com.onthegomap.planetiler.util.Exceptions.throwFatalException;
 import com.onthegomap.planetiler.collection.IterableOnce;
 import com.onthegomap.planetiler.stats.Counter;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -24,6 +26,9 @@ import java.util.function.Consumer;
  * <li>items are buffered into configurable-sized batches before putting on the actual queue to reduce contention</li>
  * <li>writers can mark the queue "finished" with {@link #close()} and readers will get {@code null} when there are no
  * more items to read</li>
+ * <li>optionally, writers block when the estimated size of pending items that implement
+ * {@link MemoryEstimator.HasEstimate} exceeds a byte budget, so that a queue of large items can't exhaust memory while
+ * a queue of small items still holds enough to keep readers busy</li>
  * </ul>
  * <p>
  * Once a thread starts reading from this queue, it needs to finish otherwise all items might not be read.
@@ -35,7 +40,7 @@ import java.util.function.Consumer;
 @SuppressWarnings("java:S5164")
 public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T> {
 
-  private final BlockingQueue<Queue<T>> itemQueue;
+  private final BlockingQueue<Batch<T>> itemQueue;
   private final int batchSize;
   private final List<WriterForThread> writers = new CopyOnWriteArrayList<>();
   private final ThreadLocal<WriterForThread> writerProvider = ThreadLocal.withInitial(WriterForThread::new);
@@ -47,6 +52,10 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
   private final Counter.MultiThreadCounter dequeueCountStatAll;
   private final Counter.MultiThreadCounter dequeueBlockTimeNanosAll;
   private final Counter.MultiThreadCounter pendingCountAll = Counter.newMultiThreadCounter();
+  private final long maxBytes;
+  private final AtomicLong pendingBytes = new AtomicLong(0);
+  private final AtomicInteger writersWaitingForBytes = new AtomicInteger(0);
+  private final Object bytesLock = new Object();
   private volatile boolean hasIncomingData = true;
 
   /**
@@ -56,6 +65,19 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
    * @param stats    stats to monitor this with
    */
   public WorkQueue(String name, int capacity, int maxBatch, Stats stats) {
+    this(name, capacity, maxBatch, Long.MAX_VALUE, stats);
+  }
+
+  /**
+   * @param name     ID to prepend to stats generated about this queue
+   * @param capacity maximum number of pending items that can be held in the queue
+   * @param maxBatch batch size to buffer elements into before handing off to the blocking queue
+   * @param maxBytes maximum estimated size of pending items that implement {@link MemoryEstimator.HasEstimate}, or
+   *                 {@link Long#MAX_VALUE} to only limit by item count
+   * @param stats    stats to monitor this with
+   */
+  public WorkQueue(String name, int capacity, int maxBatch, long maxBytes, Stats stats) {
+    this.maxBytes = maxBytes;
     this.pendingBatchesCapacity = Math.max(1, capacity / maxBatch);
     this.batchSize = maxBatch;
     itemQueue = new ArrayBlockingQueue<>(pendingBatchesCapacity);
@@ -64,6 +86,10 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
     stats.gauge(name + "_blocking_queue_size", itemQueue::size);
     stats.gauge(name + "_capacity", this::getCapacity);
     stats.gauge(name + "_size", this::getPending);
+    if (isByteBudgeted()) {
+      stats.gauge(name + "_max_bytes", () -> maxBytes);
+      stats.gauge(name + "_bytes", this::getPendingBytes);
+    }
 
     this.enqueueCountStatAll = stats.longCounter(name + "_enqueue_count");
     this.enqueueBlockTimeNanosAll = stats.nanoCounter(name + "_enqueue_block_time_seconds");
@@ -77,6 +103,8 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
       for (var writer : writers) {
         var q = writer.writeBatchRef.get();
         if (q != null && !q.isEmpty()) {
+          // don't block on the byte budget since there won't be any more items after these
+          pendingBytes.addAndGet(q.bytes);
           itemQueue.put(q);
         }
       }
@@ -131,13 +159,81 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
     return (pendingBatchesCapacity + writers.size() + readers.size()) * batchSize;
   }
 
+  /** Returns true if writers block when pending items exceed a byte budget. */
+  public boolean isByteBudgeted() {
+    return maxBytes != Long.MAX_VALUE;
+  }
+
+  /** Returns the estimated size of items that have been enqueued and not picked up by a reader yet. */
+  public long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  /** Returns the maximum estimated size of pending items before writers block. */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  private static long estimateSize(Object item) {
+    return item instanceof MemoryEstimator.HasEstimate hasEstimate ? hasEstimate.estimateMemoryUsageBytes() : 0;
+  }
+
+  /**
+   * Blocks until there is room for {@code bytes} more in the budget, always letting a batch in when the queue is empty
+   * so that a batch larger than the entire budget can't block forever.
+   */
+  private void acquireBytes(long bytes) throws InterruptedException {
+    while (true) {
+      long current = pendingBytes.get();
+      if (current == 0 || current + bytes <= maxBytes) {
+        if (pendingBytes.compareAndSet(current, current + bytes)) {
+          return;
+        }
+      } else {
+        writersWaitingForBytes.incrementAndGet();
+        try {
+          synchronized (bytesLock) {
+            if (pendingBytes.get() == current) {
+              bytesLock.wait(10);
+            }
+          }
+        } finally {
+          writersWaitingForBytes.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  private void releaseBytes(long bytes) {
+    if (bytes != 0) {
+      pendingBytes.addAndGet(-bytes);
+      if (writersWaitingForBytes.get() > 0) {
+        synchronized (bytesLock) {
+          bytesLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /** A batch of items with their total estimated size. */
+  private static class Batch<T> extends ArrayDeque<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    long bytes = 0;
+
+    Batch(int size) {
+      super(size);
+    }
+  }
+
   /**
    * Caches thread-local values so that a single thread can accept new items without having to do thread-local lookups.
    */
   private class WriterForThread implements Consumer<T> {
 
-    final AtomicReference<Queue<T>> writeBatchRef = new AtomicReference<>(null);
-    Queue<T> writeBatch = null;
+    final AtomicReference<Batch<T>> writeBatchRef = new AtomicReference<>(null);
+    Batch<T> writeBatch = null;
     final Counter pendingCount = pendingCountAll.counterForThread();
     final Counter enqueueCountStat = enqueueCountStatAll.counterForThread();
     final Counter enqueueBlockTimeNanos = enqueueBlockTimeNanosAll.counterForThread();
@@ -151,11 +247,14 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
       // past 4-8 concurrent writers, start getting lock contention adding to the blocking queue so add to the
       // queue in less frequent, larger batches
       if (writeBatch == null) {
-        writeBatch = new ArrayDeque<>(batchSize);
+        writeBatch = new Batch<>(batchSize);
         writeBatchRef.set(writeBatch);
       }
 
       writeBatch.offer(item);
+      if (isByteBudgeted()) {
+        writeBatch.bytes += estimateSize(item);
+      }
       pendingCount.inc();
 
       if (writeBatch.size() >= batchSize) {
@@ -167,9 +266,15 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
     private void flushWrites() {
       if (writeBatch != null && !writeBatch.isEmpty()) {
         try {
-          Queue<T> oldWriteBatch = writeBatch;
+          Batch<T> oldWriteBatch = writeBatch;
           writeBatch = null;
           writeBatchRef.set(null);
+          if (isByteBudgeted()) {
+            // blocks if over byte budget
+            long start = System.nanoTime();
+            acquireBytes(oldWriteBatch.bytes);
+            enqueueBlockTimeNanos.incBy(System.nanoTime() - start);
+          }
           // blocks if full
           if (!itemQueue.offer(oldWriteBatch)) {
             long start = System.nanoTime();
@@ -189,7 +294,7 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
    */
   private class ReaderForThread implements IterableOnce<T> {
 
-    Queue<T> readBatch = null;
+    Batch<T> readBatch = null;
     final Counter dequeueBlockTimeNanos = dequeueBlockTimeNanosAll.counterForThread();
     final Counter pendingCount = pendingCountAll.counterForThread();
     final Counter dequeueCountStat = dequeueCountStatAll.counterForThread();
@@ -200,7 +305,7 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
 
     @Override
     public T get() {
-      Queue<T> itemBatch = readBatch;
+      Batch<T> itemBatch = readBatch;
 
       if (itemBatch == null || itemBatch.isEmpty()) {
         long start = System.nanoTime();
@@ -221,6 +326,11 @@ public class WorkQueue<T> implements AutoCloseable, IterableOnce<T>, Consumer<T>
             }
           }
         } while (itemBatch == null);
+        if (itemBatch != null) {
+          // clear so the same batch does not get released again when it's empty at the end of the queue
+          releaseBytes(itemBatch.bytes);
+          itemBatch.bytes = 0;
+        }
         readBatch = itemBatch;
         dequeueBlockTimeNanos.incBy(System.nanoTime() - start);
       }
@@ -139,11 +139,22 @@ public record WorkerPipeline<T>(
    */
   public interface Bufferable<E> {
 
+    /**
+     * Adds a {@link WorkQueue} that groups items into batches before enqueueing them to reduce contention when many
+     * threads are reading or writing to the queue simultaneously, and blocks writers when the estimated size of pending
+     * items exceeds {@code maxBytes}.
+     *
+     * @see WorkQueue#WorkQueue(String, int, int, long, Stats)
+     */
+    Builder<E> addBuffer(String name, int size, int batchSize, long maxBytes);
+
     /**
      * Adds a {@link WorkQueue} that groups items into batches before enqueueing them to reduce contention when many
      * threads are reading or writing to the queue simultaneously.
      */
-    Builder<E> addBuffer(String name, int size, int batchSize);
+    default Builder<E> addBuffer(String name, int size, int batchSize) {
+      return addBuffer(name, size, batchSize, Long.MAX_VALUE);
+    }
 
     /**
      * Adds a {@link WorkQueue} with batching disabled.
@@ -161,8 +172,8 @@ public record WorkerPipeline<T>(
      * queue.
      */
     public <T> Bufferable<T> fromGenerator(String name, SourceStep<T> producer, int threads) {
-      return (queueName, size, batchSize) -> {
-        var nextQueue = new WorkQueue<T>(prefix + "_" + queueName, size, batchSize, stats);
+      return (queueName, size, batchSize, maxBytes) -> {
+        var nextQueue = new WorkQueue<T>(prefix + "_" + queueName, size, batchSize, maxBytes, stats);
         Worker worker = new Worker(prefix + "_" + name, stats, threads,
           () -> producer.run(nextQueue.threadLocalWriter()));
         return new Builder<>(prefix, name, nextQueue, worker, stats);
@@ -243,8 +254,8 @@ public record WorkerPipeline<T>(
      */
     public <O2> Bufferable<O2> addWorker(String name, int threads, WorkerStep<O, O2> step) {
       Builder<O> curr = this;
-      return (queueName, size, batchSize) -> {
-        var nextOutputQueue = new WorkQueue<O2>(prefix + "_" + queueName, size, batchSize, stats);
+      return (queueName, size, batchSize, maxBytes) -> {
+        var nextOutputQueue = new WorkQueue<O2>(prefix + "_" + queueName, size, batchSize, maxBytes, stats);
         var worker = new Worker(prefix + "_" + name, stats, threads,
           () -> step.run(outputQueue.threadLocalReader(), nextOutputQueue.threadLocalWriter()));
         return new Builder<>(prefix, name, curr, outputQueue, nextOutputQueue, worker, stats);
@@ -296,6 +296,104 @@ class FeatureMergeTest {
     );
   }
 
+  @Test
+  void mergeLineStringsOnCommands() {
+    assertEquals(
+      List.of(
+        feature(3, newPoint(5, 5), Map.of("a", 1)),
+        feature(1, newLineString(10, 10, 30, 30), Map.of("a", 1)),
+        feature(4, newLineString(20, 20, 30, 30), Map.of("a", 2))
+      ),
+      FeatureMerge.mergeLineStringsOnCommands(
+        List.of(
+          feature(1, newLineString(10, 10, 20, 20), Map.of("a", 1)),
+          feature(2, newLineString(20, 20, 30, 30), Map.of("a", 1)),
+          feature(3, newPoint(5, 5), Map.of("a", 1)),
+          feature(4, newLineString(20, 20, 30, 30), Map.of("a", 2))
+        ),
+        0,
+        0,
+        0
+      )
+    );
+  }
+
+  @Test
+  void mergeLineStringsOnCommandsMinLength() {
+    assertEquals(
+      List.of(
+        feature(2, newLineString(20, 20, 20, 25), Map.of("a", 1))
+      ),
+      FeatureMerge.mergeLineStringsOnCommands(
+        List.of(
+          feature(1, newLineString(10, 10, 10, 14), Map.of("b", 1)),
+          feature(2, newLineString(20, 10, 20, 12), Map.of("a", 1)),
+          feature(3, newLineString(20, 12, 20, 14), Map.of("a", 1)),
+          feature(4, newLineString(20, 20, 20, 24), Map.of("a", 1)),
+          feature(5, newLineString(20, 24, 20, 25), Map.of("a", 1))
+        ),
+        5,
+        0,
+        0
+      )
+    );
+  }
+
+  @Test
+  void mergeLineStringsOnCommandsClipsAndSortsLikeMergeLineStrings() {
+    var features = List.of(
+      feature(1, newLineString(200, 200, 210, 210), Map.of("a", 1)),
+      feature(2, newLineString(10, 10, -10, 10, -20, 10, -30, 10, -30, 20, -20, 20, -10, 20, 10, 20), Map.of("a", 1))
+    );
+    var expected = List.of(
+      feature(1, newMultiLineString(
+        newLineString(10, 10, -10, 10),
+        newLineString(-10, 20, 10, 20),
+        newLineString(200, 200, 210, 210)
+      ), Map.of("a", 1))
+    );
+    assertEquals(expected, FeatureMerge.mergeLineStrings(features, 0, -1, 4));
+    assertEquals(expected, FeatureMerge.mergeLineStringsOnCommands(features, 0, -1, 4));
+  }
+
+  @Test
+  void mergeLineStringsOnCommandsAppliesPipelineInsteadOfTolerance() {
+    assertEquals(
+      List.of(
+        feature(1, newLineString(10, 10, 20, 10.5, 30, 10), Map.of("a", 1))
+      ),
+      FeatureMerge.mergeLineStringsOnCommands(
+        List.of(
+          feature(1, newLineString(10, 10, 20, 10.5), Map.of("a", 1)),
+          feature(2, newLineString(20, 10.5, 30, 10), Map.of("a", 1))
+        ),
+        attrs -> 0d,
+        1,
+        0,
+        geom -> geom
+      )
+    );
+  }
+
+  @Test
+  void mergeLineStringsOnCommandsFallsBackForDifferentScales() {
+    assertEquals(
+      List.of(
+        feature(1, newLineString(10, 10, 30, 30), Map.of("a", 1))
+      ),
+      FeatureMerge.mergeLineStringsOnCommands(
+        List.of(
+          feature(1, newLineString(10, 10, 20, 20), Map.of("a", 1)),
+          new VectorTile.Feature("layer", 2, VectorTile.encodeGeometry(newLineString(20, 20, 30, 30), 2),
+            Map.of("a", 1))
+        ),
+        0,
+        0,
+        0
+      )
+    );
+  }
+
   /*
    * POLYGON MERGE TESTS
    */
@@ -441,6 +539,42 @@ class FeatureMergeTest {
     );
   }
 
+  @Test
+  void mergeNearbyPolygonsOnGrid() throws GeometryException {
+    var result = FeatureMerge.mergeNearbyPolygonsOnGrid(
+      List.of(
+        feature(1, rectangle(10, 10, 20, 20), Map.of("a", 1)),
+        feature(2, newPoint(5, 5), Map.of("a", 1)),
+        feature(3, rectangle(20.5, 10, 30, 20), Map.of("a", 1)),
+        feature(4, rectangle(40, 10, 50, 20), Map.of("a", 1)),
+        feature(5, rectangle(20.5, 10, 30, 20), Map.of("a", 2))
+      ),
+      0,
+      0,
+      1,
+      0.25,
+      Stats.inMemory(),
+      GeometryPipeline.simplifyDP(0.1)
+    );
+    assertEquals(3, result.size());
+    assertEquals(feature(2, newPoint(5, 5), Map.of("a", 1)), result.getFirst());
+
+    Geometry merged = silence(() -> result.get(1).geometry().decode());
+    assertEquals(Map.of("a", 1), result.get(1).tags());
+    assertEquals(2, merged.getNumGeometries());
+    assertEquals(10 * 20 + 10 * 10, merged.getArea(), 1);
+    assertEquals(1, silence(() -> result.get(2).geometry().decode()).getNumGeometries());
+    assertEquals(Map.of("a", 2), result.get(2).tags());
+  }
+
+  @Test
+  void mergeNearbyPolygonsOnGridKeepsSinglePolygon() throws GeometryException {
+    var feature = feature(1, rectangle(10, 10, 20, 20), Map.of("a", 1));
+    assertEquals(
+      List.of(feature),
+      FeatureMerge.mergeNearbyPolygonsOnGrid(List.of(feature), 0, 0, 1, 0.25)
+    );
+  }
 
   @Test
   void mergeMultiPolygons() throws GeometryException {
@@ -10,6 +10,7 @@ import com.onthegomap.planetiler.archive.TileArchiveConfig;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileArchiveWriter;
 import com.onthegomap.planetiler.archive.TileCompression;
+import com.onthegomap.planetiler.archive.TileContentIndex;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
@@ -23,6 +24,7 @@ import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.mbtiles.Mbtiles;
 import com.onthegomap.planetiler.pmtiles.ReadablePmtiles;
+import com.onthegomap.planetiler.pmtiles.WriteablePmtiles;
 import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.SimpleReader;
 import com.onthegomap.planetiler.reader.SourceFeature;
@@ -35,8 +37,11 @@ import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.stream.InMemoryStreamArchive;
 import com.onthegomap.planetiler.util.BuildInfo;
 import com.onthegomap.planetiler.util.Gzip;
+import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
 import com.onthegomap.planetiler.util.TileSizeStats;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -2124,6 +2129,95 @@ class PlanetilerTests {
     }
   }
 
+  @Test
+  void testPmtilesWithMultipleUnorderedTileWriters() throws Exception {
+    var profile = TestProfile.processSourceFeatures((in, features) -> {
+      if (in.canBePolygon()) {
+        features.polygon("polygons").setZoomRange(0, 6).setAttr("id", in.getTag("id"));
+      } else {
+        features.point("points").setZoomRange(0, 6).setAttr("id", in.getTag("id"));
+      }
+    });
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(rectangle(-20, -20, 20, 20), Map.of("id", 1)),
+      newReaderFeature(rectangle(60, 10, 61, 11), Map.of("id", 2)),
+      newReaderFeature(newPoint(-100, 45), Map.of("id", 3)),
+      newReaderFeature(newPoint(150, -30), Map.of("id", 4))
+    );
+    Map<TileCoord, List<TestUtils.ComparableFeature>> expected = null;
+    for (int tileWriteThreads : new int[]{1, 3}) {
+      var config = PlanetilerConfig.from(Arguments.of(Map.of(
+        "threads", "4",
+        "tile_write_threads", Integer.toString(tileWriteThreads)
+      )));
+      var featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.HILBERT, profile, config, stats);
+      processReaderFeatures(featureGroup, profile, config, features);
+      featureGroup.prepare();
+      var bytes = new SeekableInMemoryByteChannel(0);
+      var archive = WriteablePmtiles.newWriteToMemory(bytes);
+      TileArchiveWriter.writeOutput(featureGroup, archive, () -> 0L, new TileArchiveMetadata(profile, config),
+        null, config, stats);
+      try (var reader = new ReadablePmtiles(bytes)) {
+        var tileMap = TestUtils.getTileMap(reader);
+        if (expected == null) {
+          expected = tileMap;
+          assertTrue(reader.getHeader().clustered());
+        } else {
+          assertEquals(expected, tileMap);
+        }
+      }
+    }
+  }
+
+  @Test
+  void testReuseUnchangedTilesFromPreviousArchive() throws Exception {
+    List<SimpleFeature> previousFeatures = List.of(
+      newReaderFeature(newPoint(-100, 45), Map.of("id", 3)),
+      newReaderFeature(newPoint(150, -30), Map.of("id", 4))
+    );
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(newPoint(-100, 45), Map.of("id", 3)),
+      newReaderFeature(newPoint(151, -30), Map.of("id", 5))
+    );
+    Path previousPath = tempDir.resolve("previous.pmtiles");
+    Path outputPath = tempDir.resolve("output.pmtiles");
+    for (int run = 1; run <= 2; run++) {
+      long thisRun = run;
+      // tag features with the run that encoded them to tell which tiles got copied from the previous archive
+      var profile = new TestProfile(
+        (in, out) -> out.point("points").setZoomRange(0, 2).setAttr("id", in.getTag("id")),
+        a -> null,
+        (layer, zoom, items) -> items.stream().map(item -> item.copyWithExtraAttrs(Map.of("run", thisRun))).toList()
+      );
+      var config = PlanetilerConfig.from(Arguments.of(run == 1 ? Map.of() : Map.of(
+        "previous_archive", previousPath.toString()
+      )));
+      var featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.HILBERT, profile, config, stats);
+      processReaderFeatures(featureGroup, profile, config, run == 1 ? previousFeatures : features);
+      featureGroup.prepare();
+      Path path = run == 1 ? previousPath : outputPath;
+      try (var archive = WriteablePmtiles.newWriteToFile(path)) {
+        TileArchiveWriter.writeOutput(featureGroup, archive, () -> 0L, new TileArchiveMetadata(profile, config),
+          null, TileContentIndex.pathFor(path), config, stats);
+      }
+    }
+
+    try (var reader = new ReadablePmtiles(FileChannel.open(outputPath))) {
+      var tileMap = TestUtils.getTileMap(reader);
+      assertEquals(5, tileMap.size());
+      tileMap.forEach((coord, tileFeatures) -> {
+        boolean unchanged = coord.z() > 0 && coord.x() < (1 << coord.z()) / 2;
+        for (var feature : tileFeatures) {
+          assertEquals(unchanged ? 1L : 2L, feature.attrs().get("run"), coord.toString());
+        }
+      });
+      assertEquals(List.of(new LayerAttrStats.VectorLayer("points", Map.of(
+        "id", LayerAttrStats.FieldType.NUMBER,
+        "run", LayerAttrStats.FieldType.NUMBER
+      ), 0, 2)), reader.metadata().json().vectorLayers());
+    }
+  }
+
   @ParameterizedTest
   @ValueSource(strings = {
     "",
@@ -2132,6 +2226,7 @@ class PlanetilerTests {
     "--compress-temp",
     "--osm-parse-node-bounds",
     "--output-format=pmtiles",
+    "--output-format=pmtiles --tile-write-threads=3 --threads=4",
     "--output-format=csv",
     "--output-format=tsv",
     "--output-format=proto",
@@ -0,0 +1,54 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RecentTileCacheTest {
+
+  @Test
+  void testGetAndPut() {
+    var cache = new RecentTileCache<String>(1_000);
+    assertNull(cache.get(1));
+    cache.put(1, "a", 10);
+    cache.put(2, "b", 20);
+    assertEquals("a", cache.get(1));
+    assertEquals("b", cache.get(2));
+    assertEquals(30, cache.bytes());
+    cache.put(1, "c", 5);
+    assertEquals("c", cache.get(1));
+    assertEquals(25, cache.bytes());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsed() {
+    var cache = new RecentTileCache<String>(1_600);
+    cache.put(1, "a", 100);
+    cache.put(2, "b", 100);
+    for (int i = 3; i <= 16; i++) {
+      cache.put(i, "other", 100);
+    }
+    assertEquals(16, cache.size());
+    assertEquals("a", cache.get(1));
+    cache.put(17, "new", 100);
+    assertEquals(16, cache.size());
+    assertEquals(1_600, cache.bytes());
+    assertEquals("a", cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals("new", cache.get(17));
+  }
+
+  @Test
+  void testSkipsLargeValues() {
+    var cache = new RecentTileCache<String>(1_600);
+    assertTrue(cache.canHold(100));
+    assertFalse(cache.canHold(101));
+    cache.put(1, "a", 101);
+    assertNull(cache.get(1));
+    assertEquals(0, cache.bytes());
+  }
+}
@@ -0,0 +1,37 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class TileContentIndexTest {
+
+  private static long fingerprint(Map<String, String> args) {
+    var arguments = Arguments.of(args);
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), PlanetilerConfig.from(arguments));
+    // like Planetiler does when adding a source
+    arguments.file("osm_path", "osm path", null);
+    return TileContentIndex.fingerprint(metadata, arguments);
+  }
+
+  @Test
+  void testFingerprintIgnoresArgumentsThatDoNotAffectTiles() {
+    long base = fingerprint(Map.of());
+    assertEquals(base, fingerprint(Map.of("threads", "3", "previous_archive", "old.pmtiles")));
+    assertEquals(base, fingerprint(Map.of("osm_path", "other.osm.pbf", "tmpdir", "other")));
+  }
+
+  @Test
+  void testFingerprintIncludesArgumentsThatMightAffectTiles() {
+    long base = fingerprint(Map.of());
+    assertNotEquals(base, fingerprint(Map.of("maxzoom", "10")));
+    assertNotEquals(base, fingerprint(Map.of("some_profile_option", "true")));
+    assertNotEquals(fingerprint(Map.of("some_profile_option", "true")),
+      fingerprint(Map.of("some_profile_option", "false")));
+  }
+}
@@ -0,0 +1,85 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.TileTimingStats;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileCostModelTest {
+
+  @Test
+  void testFeatureCount() {
+    assertEquals(1, TileCostModel.FEATURE_COUNT.featureCost("layer", GeometryType.POLYGON, 1_000));
+    assertEquals(5, TileCostModel.FEATURE_COUNT.tileCost(TileCoord.ofXYZ(0, 0, 0), 5));
+  }
+
+  @Test
+  void testGeometryWeights() {
+    var model = TileCostModel.GEOMETRY;
+    double point = model.featureCost("layer", GeometryType.POINT, 20);
+    double line = model.featureCost("layer", GeometryType.LINE, 20);
+    double polygon = model.featureCost("layer", GeometryType.POLYGON, 20);
+    assertTrue(point < line && line < polygon, point + " " + line + " " + polygon);
+    assertTrue(model.featureCost("layer", GeometryType.POLYGON, 10_000) > 100 * point);
+  }
+
+  @Test
+  void testLayerWeights() {
+    var model = TileCostModel.geometry(TileCostModel.parseLayerWeights(List.of("water:2", "poi: 0.5")));
+    double base = TileCostModel.GEOMETRY.featureCost("other", GeometryType.POINT, 10);
+    assertEquals(base, model.featureCost("other", GeometryType.POINT, 10));
+    assertEquals(base * 2, model.featureCost("water", GeometryType.POINT, 10));
+    assertEquals(base / 2, model.featureCost("poi", GeometryType.POINT, 10));
+    assertThrows(IllegalArgumentException.class, () -> TileCostModel.parseLayerWeights(List.of("water")));
+  }
+
+  @Test
+  void testFromConfig() {
+    assertSame(TileCostModel.FEATURE_COUNT,
+      TileCostModel.from(PlanetilerConfig.from(Arguments.of("tile_cost_model", "features"))));
+    var model = TileCostModel.from(PlanetilerConfig.from(Arguments.of("tile_cost_layer_weights", "water:3")));
+    assertEquals(3 * TileCostModel.GEOMETRY.featureCost("water", GeometryType.LINE, 10),
+      model.featureCost("water", GeometryType.LINE, 10));
+    assertThrows(IllegalArgumentException.class,
+      () -> TileCostModel.from(PlanetilerConfig.from(Arguments.of("tile_cost_model", "other"))));
+  }
+
+  @Test
+  void testMeasuredTimesFromPreviousRun(@TempDir Path tmpDir) {
+    Path path = tmpDir.resolve("output.tiletimings.tsv.gz");
+    try (var timingStats = new TileTimingStats(Stats.inMemory(), path)) {
+      var updater = timingStats.threadLocalUpdater();
+      var slow = new TileTimingStats.Timings(TileCoord.ofXYZ(1, 2, 3));
+      slow.addLayerPostProcess("layer", 5_000_000);
+      updater.recordTile(slow);
+      var fast = new TileTimingStats.Timings(TileCoord.ofXYZ(0, 0, 3));
+      fast.addEncode(1_000);
+      updater.recordTile(fast);
+      updater.flush();
+    }
+    var model = TileCostModel.FEATURE_COUNT.withMeasuredTimes(path, 100);
+    assertEquals(5_000, model.tileCost(TileCoord.ofXYZ(1, 2, 3), 7));
+    // below the threshold, so falls back to the predicted cost
+    assertEquals(7, model.tileCost(TileCoord.ofXYZ(0, 0, 3), 7));
+    assertEquals(7, model.tileCost(TileCoord.ofXYZ(1, 1, 3), 7));
+    assertEquals(1, model.featureCost("layer", GeometryType.POINT, 10));
+
+    var fromConfig = TileCostModel.from(PlanetilerConfig.from(Arguments.of(Map.of(
+      "tile_cost_model", "features",
+      "tile_cost_timings", path.toString()
+    ))));
+    assertEquals(5_000, fromConfig.tileCost(TileCoord.ofXYZ(1, 2, 3), 7));
+  }
+}
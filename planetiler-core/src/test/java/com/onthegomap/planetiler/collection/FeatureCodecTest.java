@@ -0,0 +1,187 @@
+package com.onthegomap.planetiler.collection;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.util.CommonStringEncoder;
+import com.onthegomap.planetiler.util.Hashing;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FeatureCodecTest {
+
+  private static final Map<String, Object> ATTRS = Map.of(
+    "string", "value",
+    "long string", "a string that is longer than the dictionary limit",
+    "int", -1,
+    "long", Long.MAX_VALUE,
+    "float", 1.5f,
+    "double", -2.25,
+    "true", true,
+    "false", false,
+    "other", new StringBuilder("builder")
+  );
+
+  private static VectorTile.Feature feature(Map<String, Object> attrs) {
+    return new VectorTile.Feature("layer", -123_456_789_012L,
+      VectorTile.encodeGeometry(newLineString(0, 0, 10, 10, 20, 0)), attrs, 5);
+  }
+
+  private static Map<String, Object> expectedAttrs(Map<String, Object> attrs) {
+    Map<String, Object> result = new HashMap<>();
+    attrs.forEach((key, value) -> result.put(key, switch (value) {
+      case Integer i -> i.longValue();
+      case Float f -> f.doubleValue();
+      case Boolean b -> b;
+      case Number n -> n;
+      default -> value.toString();
+    }));
+    return result;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testRoundTrip(String format) {
+    var codec = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(100));
+    var feature = feature(ATTRS);
+    try (var encoder = codec.newEncoder()) {
+      byte[] withGroup = encoder.encode(feature, new RenderedFeature.Group(5, 10));
+      byte[] withoutGroup = encoder.encode(feature, null);
+      assertEquals(new RenderedFeature.Group(5, 10), codec.peekGroup(withGroup));
+      assertEquals(GeometryType.LINE, codec.peekGeomType(withGroup, true));
+      assertEquals(GeometryType.LINE, codec.peekGeomType(withoutGroup, false));
+      assertFalse(codec.isFillSpan(withGroup));
+      assertFalse(codec.isFillSpan(withoutGroup));
+
+      var decoded = codec.decode("layer", withGroup, true);
+      assertEquals(feature.id(), decoded.id());
+      assertEquals(feature.geometry(), decoded.geometry());
+      assertEquals(5, decoded.group());
+      assertEquals(expectedAttrs(ATTRS), decoded.tags());
+      assertEquals(VectorTile.Feature.NO_GROUP, codec.decode("layer", withoutGroup, false).group());
+
+      byte[] span = encoder.encodeFillSpan(300, withoutGroup);
+      assertTrue(codec.isFillSpan(span));
+      assertEquals(300, codec.fillSpanLength(span));
+      assertEquals(decoded.tags(), codec.decode("layer", codec.fillSpanValue(span), false).tags());
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testSkipsNullAttrs(String format) {
+    var codec = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(100));
+    Map<String, Object> attrs = new HashMap<>();
+    attrs.put("a", null);
+    attrs.put("b", 1);
+    try (var encoder = codec.newEncoder()) {
+      assertEquals(Map.of("b", 1L), codec.decode("layer", encoder.encode(feature(attrs), null), false).tags());
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testHashDoesNotDependOnKeyIds(String format) {
+    var codec1 = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(100));
+    var codec2 = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(100));
+    try (var encoder1 = codec1.newEncoder(); var encoder2 = codec2.newEncoder()) {
+      encoder2.encode(feature(Map.of("other key", "other value")), null);
+      long hash1 = codec1.hashContents(Hashing.FNV1_64_INIT, encoder1.encode(feature(ATTRS), null), false);
+      long hash2 = codec2.hashContents(Hashing.FNV1_64_INIT, encoder2.encode(feature(ATTRS), null), false);
+      assertEquals(hash1, hash2);
+      long hash3 = codec2.hashContents(Hashing.FNV1_64_INIT, encoder2.encode(feature(Map.of("string", "other")), null),
+        false);
+      assertTrue(hash1 != hash3);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testHashSeparatesKeysFromValues(String format) {
+    var codec = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(0));
+    try (var encoder = codec.newEncoder()) {
+      long hash1 = codec.hashContents(Hashing.FNV1_64_INIT,
+        encoder.encode(feature(new TreeMap<>(Map.of("a", "bc", "d", 1))), null), false);
+      long hash2 = codec.hashContents(Hashing.FNV1_64_INIT,
+        encoder.encode(feature(new TreeMap<>(Map.of("a", "b", "cd", 1))), null), false);
+      assertNotEquals(hash1, hash2);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testDictionaryCodedValues(String format) {
+    var values = new ValueDictionary(100);
+    var codec = FeatureCodec.from(format, new CommonStringEncoder(100), values);
+    var other = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(0));
+    try (var encoder = codec.newEncoder(); var otherEncoder = other.newEncoder()) {
+      byte[] inline = otherEncoder.encode(feature(ATTRS), null);
+      byte[] dictionaryCoded = encoder.encode(feature(ATTRS), null);
+      assertTrue(values.size() > 0);
+      assertTrue(dictionaryCoded.length < inline.length);
+      assertEquals(expectedAttrs(ATTRS), other.decode("layer", inline, false).tags());
+      assertEquals(expectedAttrs(ATTRS), codec.decode("layer", dictionaryCoded, false).tags());
+      // the same feature always encodes to the same bytes so duplicates can be compared byte-for-byte
+      assertArrayEquals(dictionaryCoded, encoder.encode(feature(ATTRS), null));
+
+      // strings hash the same whether they are dictionary-coded or not
+      long hash = other.hashContents(Hashing.FNV1_64_INIT, inline, false);
+      assertEquals(hash, codec.hashContents(Hashing.FNV1_64_INIT, dictionaryCoded, false));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testVisit(String format) {
+    var keys = new CommonStringEncoder(100);
+    var values = new ValueDictionary(100);
+    var codec = FeatureCodec.from(format, keys, values);
+    var feature = feature(ATTRS);
+    try (var encoder = codec.newEncoder()) {
+      byte[] encoded = encoder.encode(feature, new RenderedFeature.Group(5, 10));
+      Map<String, Object> attrs = new HashMap<>();
+      List<VectorTile.Feature> visited = new ArrayList<>();
+      codec.visit(encoded, true, new FeatureCodec.Visitor() {
+        @Override
+        public void attr(int keyId, Object value) {
+          attrs.put(keys.decode(keyId), value);
+        }
+
+        @Override
+        public void dictionaryAttr(int keyId, int valueId) {
+          attrs.put(keys.decode(keyId), values.decode(valueId));
+        }
+
+        @Override
+        public void feature(long id, VectorTile.VectorGeometry geometry) {
+          visited.add(new VectorTile.Feature("layer", id, geometry, Map.copyOf(attrs)));
+        }
+      });
+      assertEquals(1, visited.size());
+      assertEquals(feature.id(), visited.get(0).id());
+      assertEquals(feature.geometry(), visited.get(0).geometry());
+      assertEquals(expectedAttrs(ATTRS), visited.get(0).tags());
+    }
+  }
+
+  @Test
+  void testInvalidFormat() {
+    var keys = new CommonStringEncoder(100);
+    var values = new ValueDictionary(100);
+    assertThrows(IllegalArgumentException.class, () -> FeatureCodec.from("other", keys, values));
+  }
+}
@@ -1,7 +1,10 @@
 package com.onthegomap.planetiler.collection;
 
 import static com.onthegomap.planetiler.TestUtils.decodeSilently;
+import static com.onthegomap.planetiler.TestUtils.newLineString;
 import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static com.onthegomap.planetiler.TestUtils.rectangle;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -11,6 +14,7 @@ import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.archive.TileArchiveWriter;
+import com.onthegomap.planetiler.archive.TileCostModel;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -20,6 +24,8 @@ import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -31,6 +37,7 @@ import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.ArgumentsProvider;
@@ -41,7 +48,7 @@ import org.locationtech.jts.geom.Geometry;
 class FeatureGroupTest {
 
   private final FeatureSort sorter = FeatureSort.newInMemory();
-  private final PlanetilerConfig config = PlanetilerConfig.defaults();
+  private final PlanetilerConfig config = newConfig();
 
   private FeatureGroup features =
     new FeatureGroup(sorter, TileOrder.TMS, new Profile.NullProfile(), config, Stats.inMemory());
@@ -177,6 +184,48 @@ class FeatureGroupTest {
       )))), getFeaturesParallel());
   }
 
+  @Test
+  void testExpandFillSpans() {
+    assertTrue(features.supportsFillSpans());
+    var fill = VectorTile.encodeFill(4);
+    featureWriter.accept(features.newRenderedFeatureEncoder().apply(new RenderedFeature(
+      TileCoord.ofXYZ(1, 1, 2),
+      new VectorTile.Feature("a", 1, fill, Map.of("fill", true)),
+      0,
+      Optional.empty(),
+      3
+    )));
+    putWithSortKey(TileCoord.ofXYZ(1, 2, 2).encoded(), "a", Map.of("before", 1), newPoint(1, 2), -1);
+    putWithSortKey(TileCoord.ofXYZ(1, 2, 2).encoded(), "a", Map.of("after", 1), newPoint(3, 4), 1);
+    put(TileCoord.ofXYZ(1, 1, 2).encoded(), "b", Map.of(), newPoint(5, 6));
+    put(TileCoord.ofXYZ(2, 3, 2).encoded(), "b", Map.of(), newPoint(7, 8));
+    sorter.sort();
+    assertEquals(5, features.numFeaturesWritten());
+
+    var fillFeature = new Feature(Map.of("fill", true), decodeSilently(fill));
+    var expected = new TreeMap<>(Map.of(
+      TileCoord.ofXYZ(1, 1, 2).encoded(), new TreeMap<>(Map.of(
+        "a", List.of(fillFeature),
+        "b", List.of(new Feature(Map.of(), newPoint(5, 6)))
+      )),
+      TileCoord.ofXYZ(1, 2, 2).encoded(), new TreeMap<>(Map.of(
+        "a", List.of(
+          new Feature(Map.of("before", 1L), newPoint(1, 2)),
+          fillFeature,
+          new Feature(Map.of("after", 1L), newPoint(3, 4))
+        )
+      )),
+      TileCoord.ofXYZ(1, 3, 2).encoded(), new TreeMap<>(Map.of(
+        "a", List.of(fillFeature)
+      )),
+      TileCoord.ofXYZ(2, 3, 2).encoded(), new TreeMap<>(Map.of(
+        "b", List.of(new Feature(Map.of(), newPoint(7, 8)))
+      ))
+    ));
+    assertEquals(expected, getFeatures());
+    assertEquals(expected, getFeaturesParallel());
+  }
+
   @Test
   void testPutPointsWithSortKey() {
     putWithSortKey(
@@ -298,6 +347,203 @@ class FeatureGroupTest {
       )), getFeatures());
   }
 
+  @Test
+  void testDedupFeatures() {
+    // use the same feature DB format as the rest of the tests so this covers msgpack and compact
+    features = new FeatureGroup(sorter, TileOrder.TMS, new Profile.NullProfile(),
+      PlanetilerConfig.from(com.onthegomap.planetiler.config.Arguments.of(
+        "dedup_features", "true",
+        "feature_db_format", config.featureDbFormat()
+      )), Stats.inMemory());
+    featureWriter = features.writerForThread();
+    for (int i = 0; i < 3; i++) {
+      putWithIdGroupAndSortKey(1, 1, "a", Map.of("kind", "route"), newLineString(1, 2, 3, 4), 0, false, 0, 0);
+    }
+    putWithIdGroupAndSortKey(1, 1, "a", Map.of("kind", "other"), newLineString(1, 2, 3, 4), 0, false, 0, 0);
+    putWithIdGroupAndSortKey(1, 1, "b", Map.of("kind", "route"), newLineString(1, 2, 3, 4), 0, false, 0, 0);
+    putWithIdGroupAndSortKey(1, 2, "a", Map.of("kind", "route"), newLineString(1, 2, 3, 4), 0, false, 0, 0);
+    sorter.sort();
+    var tiles = getFeatures();
+    assertEquals(2, tiles.get(1).get("a").size());
+    assertEquals(1, tiles.get(1).get("b").size());
+    assertEquals(1, tiles.get(2).get("a").size());
+    assertEquals(Map.of("a", 2L), features.getDuplicatesDropped());
+  }
+
+  @Test
+  void testKeepDuplicatesByDefault() {
+    for (int i = 0; i < 2; i++) {
+      putWithIdGroupAndSortKey(1, 1, "a", Map.of("kind", "route"), newLineString(1, 2, 3, 4), 0, false, 0, 0);
+    }
+    sorter.sort();
+    assertEquals(2, getFeatures().get(1).get("a").size());
+    assertEquals(Map.of(), features.getDuplicatesDropped());
+  }
+
+  @Test
+  void testDropFeaturesOverGroupLimitWhileSorting(@TempDir Path tempDir) throws IOException {
+    features = FeatureGroup.newDiskBackedFeatureGroup(TileOrder.TMS, tempDir, new Profile.NullProfile(), config,
+      Stats.inMemory());
+    featureWriter = features.writerForThread();
+    for (int i = 0; i < 10; i++) {
+      putWithGroup(1, "layer", Map.of("id", i), newPoint(i, 1), i, 1, 3);
+      putWithGroup(1, "layer", Map.of("id", i), newPoint(i, 2), i, 2, 2);
+      putWithGroup(2, "layer", Map.of("id", i), newPoint(i, 1), i, 1, 1);
+      putWithGroup(1, "layer2", Map.of("id", i), newPoint(i, 1), i, 1, 1);
+      putWithGroup(1, "layer", Map.of("id", i), newPoint(i, 3), i, 3, 0);
+    }
+    featureWriter.close();
+    features.prepare();
+    assertEquals(50, features.numFeaturesWritten());
+    assertEquals(3 + 2 + 1 + 1 + 10, features.numFeaturesToRead());
+    var tiles = getFeatures();
+    assertEquals(List.of(
+      new Feature(Map.of("id", 0L), newPoint(0, 1)),
+      new Feature(Map.of("id", 0L), newPoint(0, 2)),
+      new Feature(Map.of("id", 0L), newPoint(0, 3)),
+      new Feature(Map.of("id", 1L), newPoint(1, 1)),
+      new Feature(Map.of("id", 1L), newPoint(1, 2)),
+      new Feature(Map.of("id", 1L), newPoint(1, 3)),
+      new Feature(Map.of("id", 2L), newPoint(2, 1))
+    ), tiles.get(1).get("layer").subList(0, 7));
+    assertEquals(15, tiles.get(1).get("layer").size());
+    assertEquals(List.of(new Feature(Map.of("id", 0L), newPoint(0, 1))), tiles.get(1).get("layer2"));
+    assertEquals(List.of(new Feature(Map.of("id", 0L), newPoint(0, 1))), tiles.get(2).get("layer"));
+  }
+
+  private FeatureGroup.TileFeatures firstTileWithSpillMb(Path tempDir, String spillMb) {
+    var tileSorter = FeatureSort.newInMemory();
+    features = new FeatureGroup(tileSorter, TileOrder.TMS, new Profile.NullProfile(),
+      PlanetilerConfig.from(com.onthegomap.planetiler.config.Arguments.of(
+        "tmpdir", tempDir.toString(),
+        "tile_features_spill_mb", spillMb
+      )), Stats.inMemory());
+    featureWriter = features.writerForThread();
+    id = 0;
+    for (int i = 0; i < 100; i++) {
+      putWithSortKey(1, "layer", Map.of("i", i), newPoint(i, i), i);
+    }
+    put(1, "layer2", Map.of("a", 1), newPoint(1, 2));
+    put(2, "layer", Map.of("a", 1), newPoint(1, 2));
+    tileSorter.sort();
+    var iter = features.iterator();
+    var result = iter.next();
+    assertFalse(iter.next().isSpilled());
+    return result;
+  }
+
+  @Test
+  void testSpillLargeTileToDisk(@TempDir Path tempDir) throws IOException {
+    var tile = firstTileWithSpillMb(tempDir, "0.001");
+    assertTrue(tile.isSpilled());
+    assertEquals(101, tile.getNumFeaturesToEmit());
+    assertTrue(tile.estimateMemoryUsageBytes() < 2_000, "in memory: " + tile.estimateMemoryUsageBytes());
+    assertFalse(tile.hasSameContents(tile));
+
+    var decoded = VectorTile.decode(tile.getVectorTile().encode());
+    assertEquals(101, decoded.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(new Feature(Map.of("i", (long) i), newPoint(i, i)),
+        new Feature(decoded.get(i).tags(), decodeSilently(decoded.get(i).geometry())));
+    }
+    assertEquals("layer2", decoded.get(100).layer());
+    try (var files = Files.list(tempDir.resolve("tile_spill"))) {
+      assertEquals(List.of(), files.toList());
+    }
+  }
+
+  @Test
+  void testSpilledTileHashesMatchInMemoryTile(@TempDir Path tempDir) throws IOException {
+    var inMemory = firstTileWithSpillMb(tempDir, "0");
+    var spilled = firstTileWithSpillMb(tempDir, "0.001");
+    assertFalse(inMemory.isSpilled());
+    assertTrue(spilled.isSpilled());
+    // hashes and cost get computed as features are added, so they still work after the temp file is gone
+    spilled.releaseSpilledFeatures();
+    try (var files = Files.list(tempDir.resolve("tile_spill"))) {
+      assertEquals(List.of(), files.toList());
+    }
+    assertEquals(inMemory.getNumFeaturesToEmit(), spilled.getNumFeaturesToEmit());
+    assertEquals(inMemory.rawContentHash(), spilled.rawContentHash());
+    assertEquals(inMemory.contentHash(), spilled.contentHash());
+    var costModel = TileCostModel.geometry(Map.of("layer", 2d));
+    assertEquals(inMemory.estimateCost(costModel), spilled.estimateCost(costModel), 1e-9);
+  }
+
+  @Test
+  void testPassThroughLayerSkipsPostProcessing() {
+    List<String> postProcessedLayers = new ArrayList<>();
+    features = new FeatureGroup(sorter, TileOrder.TMS, new Profile.NullProfile() {
+      @Override
+      public boolean isPassThroughLayer(String layer) {
+        return layer.equals("pass");
+      }
+
+      @Override
+      public Map<String, List<VectorTile.Feature>> postProcessTileFeatures(TileCoord tileCoord,
+        Map<String, List<VectorTile.Feature>> layers) {
+        postProcessedLayers.addAll(layers.keySet());
+        return layers;
+      }
+
+      @Override
+      public List<VectorTile.Feature> postProcessLayerFeatures(String layer, int zoom, List<VectorTile.Feature> items) {
+        Collections.reverse(items);
+        return items;
+      }
+    }, config, Stats.inMemory());
+    featureWriter = features.writerForThread();
+    for (String layer : List.of("a", "pass", "z")) {
+      put(1, layer, Map.of("id", 1, "kind", "same", "ratio", 1.5, "flag", true), newPoint(1, 2));
+      putWithSortKey(1, layer, Map.of("id", 2, "kind", "same", "name", "other"), newLineString(1, 2, 3, 4), 1);
+      putWithGroup(1, layer, Map.of("id", 3, "kind", "same"), newPoint(3, 4), 2, 1, 1);
+      putWithGroup(1, layer, Map.of("id", 4), newPoint(5, 6), 3, 1, 1);
+    }
+    sorter.sort();
+    var inOrder = List.of(
+      new Feature(Map.of("id", 1L, "kind", "same", "ratio", 1.5, "flag", true), newPoint(1, 2)),
+      new Feature(Map.of("id", 2L, "kind", "same", "name", "other"), newLineString(1, 2, 3, 4)),
+      new Feature(Map.of("id", 3L, "kind", "same"), newPoint(3, 4))
+    );
+    var reversed = new ArrayList<>(inOrder);
+    Collections.reverse(reversed);
+    assertEquals(Map.of(
+      1, Map.of(
+        "a", reversed,
+        "pass", inOrder,
+        "z", reversed
+      )), getFeatures());
+    assertEquals(List.of("a", "z"), postProcessedLayers);
+  }
+
+  @Test
+  void testPassThroughLayersKeepLayerOrderAndBytes() {
+    List<byte[]> encoded = new ArrayList<>();
+    for (boolean passThrough : List.of(false, true)) {
+      var localSorter = FeatureSort.newInMemory();
+      features = new FeatureGroup(localSorter, TileOrder.TMS, new Profile.NullProfile() {
+        @Override
+        public boolean isPassThroughLayer(String layer) {
+          return passThrough && layer.equals("b");
+        }
+      }, config, Stats.inMemory());
+      featureWriter = features.writerForThread();
+      id = 0;
+      for (String layer : List.of("c", "b", "a")) {
+        // features get stored with attributes sorted by key, but decoded into a hash map
+        put(1, layer, new TreeMap<>(Map.of("id", 1, "kind", layer, "name", "a", "z", true, "a", 1.5)),
+          newPoint(1, 2));
+        putWithSortKey(1, layer, new TreeMap<>(Map.of("id", 2, "kind", "same", "z", false)),
+          newLineString(1, 2, 3, 4), 1);
+      }
+      localSorter.sort();
+      var proto = features.iterator().next().getVectorTile().toProto();
+      assertEquals(List.of("a", "b", "c"), proto.getLayersList().stream().map(l -> l.getName()).toList());
+      encoded.add(proto.toByteArray());
+    }
+    assertArrayEquals(encoded.get(0), encoded.get(1));
+  }
+
   @Test
   void testHilbertOrdering() {
     features = new FeatureGroup(sorter, TileOrder.HILBERT, new Profile.NullProfile() {}, config, Stats.inMemory());
@@ -461,6 +707,82 @@ class FeatureGroupTest {
     }
   }
 
+  @ParameterizedTest(name = "{0}")
+  @ArgumentsSource(SameFeatureGroupTestArgs.class)
+  void testTileFeaturesContentHash(String testName, boolean expectSame, PuTileArgs args0, PuTileArgs args1) {
+    put(args0);
+    put(args1);
+    sorter.sort();
+    var iter = features.iterator();
+    var tile0 = iter.next();
+    var tile1 = iter.next();
+    if (expectSame) {
+      assertEquals(tile0.contentHash(), tile1.contentHash());
+    } else {
+      assertNotEquals(tile0.contentHash(), tile1.contentHash());
+    }
+  }
+
+  @Test
+  void testContentHashDoesNotDependOnStringEncodingOrder() {
+    put(1, "layer1", Map.of("a", 1), newPoint(1, 2));
+    put(2, "layer2", Map.of("b", "value", "c", true), newPoint(3, 4));
+    sorter.sort();
+    var iter = features.iterator();
+    iter.next();
+    long hash = iter.next().contentHash();
+
+    // encounter layers and keys in a different order so they get different IDs
+    var otherSorter = FeatureSort.newInMemory();
+    var other = new FeatureGroup(otherSorter, TileOrder.TMS, new Profile.NullProfile(), config, Stats.inMemory());
+    var otherWriter = other.writerForThread();
+    var encoder = other.newRenderedFeatureEncoder();
+    otherWriter.accept(encoder.apply(new RenderedFeature(TileCoord.decode(0), new VectorTile.Feature("layer3", 0,
+      VectorTile.encodeGeometry(newPoint(1, 2)), Map.of("c", 1, "b", 2)), 0, Optional.empty())));
+    otherWriter.accept(encoder.apply(new RenderedFeature(TileCoord.decode(2), new VectorTile.Feature("layer2", 1,
+      VectorTile.encodeGeometry(newPoint(3, 4)), Map.of("b", "value", "c", true)), 0, Optional.empty())));
+    otherSorter.sort();
+    var otherIter = other.iterator();
+    otherIter.next();
+    assertEquals(hash, otherIter.next().contentHash());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "0,false,0,0",
+    "-1,true,-1,1",
+    "9999999999,true,9999999999,5",
+    "-9999999999,true,-9999999999,31",
+    "200,false,0,31",
+    "-200,true,70000,20",
+  })
+  void testPeekGeomType(long id, boolean hasGroup, long group, int scale) {
+    var encoder = features.newRenderedFeatureEncoder();
+    for (var geom : List.of(newPoint(1, 2), newLineString(1, 2, 3, 4), rectangle(1, 2))) {
+      var vectorGeometry = VectorTile.encodeGeometry(geom);
+      vectorGeometry = new VectorTile.VectorGeometry(vectorGeometry.commands(), vectorGeometry.geomType(), scale);
+      var encoded = encoder.apply(new RenderedFeature(TileCoord.ofXYZ(0, 0, 0),
+        new VectorTile.Feature("layer", id, vectorGeometry, Map.of("a", 1)), 0,
+        hasGroup ? Optional.of(new RenderedFeature.Group(group, 1)) : Optional.empty()));
+      assertEquals(GeometryType.typeOf(geom), features.peekGeomType(encoded));
+    }
+  }
+
+  @Test
+  void testEstimateCost() {
+    put(1, "layer1", Map.of(), newPoint(1, 2));
+    put(1, "layer1", Map.of(), newLineString(1, 2, 3, 4));
+    put(1, "layer2", Map.of(), rectangle(1, 2));
+    sorter.sort();
+    var tile = features.iterator().next();
+    assertEquals(3, tile.estimateCost(TileCostModel.FEATURE_COUNT));
+    assertEquals(111, tile.estimateCost((layer, geomType, bytes) -> switch (geomType) {
+      case POINT -> 1;
+      case LINE -> 10;
+      default -> layer.equals("layer2") ? 100 : 0;
+    }));
+  }
+
   @ParameterizedTest
   @CsvSource({
     "UNKNOWN,0",
@@ -516,4 +838,27 @@ class FeatureGroupTest {
 
   private static record PuTileArgs(long id, int tile, String layer, Map<String, Object> attrs, Geometry geom,
     int sortKey, boolean hasGroup, long group, int limit) {}
+
+  protected PlanetilerConfig newConfig() {
+    return PlanetilerConfig.defaults();
+  }
+
+  static class CompactFormatTest extends FeatureGroupTest {
+
+    @Override
+    protected PlanetilerConfig newConfig() {
+      return PlanetilerConfig.from(com.onthegomap.planetiler.config.Arguments.of("feature_db_format", "compact"));
+    }
+  }
+
+  static class CompactFormatWithValueDictionaryTest extends FeatureGroupTest {
+
+    @Override
+    protected PlanetilerConfig newConfig() {
+      return PlanetilerConfig.from(com.onthegomap.planetiler.config.Arguments.of(
+        "feature_db_format", "compact",
+        "feature_db_value_dictionary_size", "65536"
+      ));
+    }
+  }
 }
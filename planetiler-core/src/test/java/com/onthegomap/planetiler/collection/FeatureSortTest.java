@@ -1,19 +1,25 @@
 package com.onthegomap.planetiler.collection;
 
+import static com.onthegomap.planetiler.TestUtils.newPoint;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.CommonStringEncoder;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 class FeatureSortTest {
 
@@ -68,6 +74,82 @@ class FeatureSortTest {
     assertEquals(List.of(newEntry(1), newEntry(2)), sorter.toList());
   }
 
+  @ParameterizedTest
+  @CsvSource({
+    "false, false",
+    "true, false",
+    "false, true",
+  })
+  void testDropDuplicatesWithinChunk(boolean gzip, boolean mmap) {
+    List<Long> dropped = Collections.synchronizedList(new ArrayList<>());
+    FeatureSort sorter = new ExternalMergeSort(tmpDir, 1, 100_000, gzip, mmap, true, true, config,
+      Stats.inMemory(), dropped::add, null);
+    var writer = sorter.writerForThread();
+    writer.accept(newEntry(2));
+    writer.accept(newEntry(1));
+    writer.accept(newEntry(2));
+    writer.accept(new SortableFeature(newEntry(2).key(), new byte[]{9}));
+    writer.accept(newEntry(2));
+    sorter.sort();
+    assertEquals(List.of(newEntry(1), newEntry(2), new SortableFeature(newEntry(2).key(), new byte[]{9})),
+      sorter.toList());
+    assertEquals(List.of(newEntry(2).key(), newEntry(2).key()), dropped);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"msgpack", "compact"})
+  void testDropDuplicateEncodedFeaturesWithinChunk(String format) {
+    List<Long> dropped = Collections.synchronizedList(new ArrayList<>());
+    FeatureSort sorter = new ExternalMergeSort(tmpDir, 1, 100_000, false, false, true, true, config,
+      Stats.inMemory(), dropped::add, null);
+    var codec = FeatureCodec.from(format, new CommonStringEncoder(100), new ValueDictionary(100));
+    var writer = sorter.writerForThread();
+    try (var encoder = codec.newEncoder()) {
+      Function<String, byte[]> encode = kind -> encoder.encode(new VectorTile.Feature("layer", 1,
+        VectorTile.encodeGeometry(newPoint(1, 2)), Map.of("kind", kind)), null);
+      // features get encoded separately each time like they would be when rendered
+      writer.accept(new SortableFeature(2, encode.apply("route")));
+      writer.accept(new SortableFeature(1, encode.apply("route")));
+      writer.accept(new SortableFeature(2, encode.apply("route")));
+      writer.accept(new SortableFeature(2, encode.apply("other")));
+      writer.accept(new SortableFeature(2, encode.apply("route")));
+      sorter.sort();
+      assertEquals(Stream.of(
+        new SortableFeature(1, encode.apply("route")),
+        new SortableFeature(2, encode.apply("route")),
+        new SortableFeature(2, encode.apply("other"))
+      ).sorted().toList(), sorter.toList());
+    }
+    assertEquals(List.of(2L, 2L), dropped);
+  }
+
+  @Test
+  void testChunkFilter() {
+    List<SortableFeature> tested = new ArrayList<>();
+    FeatureSort sorter = new ExternalMergeSort(tmpDir, 1, 100_000, false, false, true, true, config,
+      Stats.inMemory(), null, () -> feature -> {
+        tested.add(feature);
+        return (feature.value()[0] & 1) == 0;
+      });
+    var writer = sorter.writerForThread();
+    for (int i = 5; i >= 0; i--) {
+      writer.accept(newEntry(i));
+    }
+    sorter.sort();
+    assertEquals(List.of(newEntry(0), newEntry(2), newEntry(4)), sorter.toList());
+    assertEquals(List.of(newEntry(0), newEntry(1), newEntry(2), newEntry(3), newEntry(4), newEntry(5)), tested);
+  }
+
+  @Test
+  void testKeepDuplicatesByDefault() {
+    FeatureSort sorter = newSorter(1, 100_000, false, false);
+    var writer = sorter.writerForThread();
+    writer.accept(newEntry(1));
+    writer.accept(newEntry(1));
+    sorter.sort();
+    assertEquals(List.of(newEntry(1), newEntry(1)), sorter.toList());
+  }
+
   @Test
   void testTwoWorkers() {
     FeatureSort sorter = newSorter(2, 0, false, false);
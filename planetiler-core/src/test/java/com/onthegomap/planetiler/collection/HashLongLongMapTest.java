@@ -0,0 +1,86 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class HashLongLongMapTest {
+
+  @TempDir
+  Path tempDir;
+
+  private HashLongLongMap newMap(Storage storage) {
+    return new HashLongLongMap(storage, new Storage.Params(tempDir.resolve("map"), false), 10);
+  }
+
+  @ParameterizedTest
+  @EnumSource(Storage.class)
+  void testEmpty(Storage storage) {
+    try (var map = newMap(storage)) {
+      assertEquals(0, map.size());
+      assertEquals(LongLongMap.MISSING_VALUE, map.get(0));
+      assertEquals(LongLongMap.MISSING_VALUE, map.get(1));
+      assertFalse(map.containsKey(-1));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Storage.class)
+  void testPutGetAndReplace(Storage storage) {
+    try (var map = newMap(storage)) {
+      map.put(0, 1);
+      map.put(-1, 2);
+      map.put(Long.MAX_VALUE, 3);
+      map.put(5, 4);
+      map.put(5, 5);
+      assertEquals(4, map.size());
+      assertEquals(1, map.get(0));
+      assertEquals(2, map.get(-1));
+      assertEquals(3, map.get(Long.MAX_VALUE));
+      assertEquals(5, map.get(5));
+      assertTrue(map.containsKey(0));
+      assertFalse(map.containsKey(6));
+      assertThrows(IllegalArgumentException.class, () -> map.put(1, LongLongMap.MISSING_VALUE));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Storage.class)
+  void testGrowWithRandomKeys(Storage storage) {
+    try (var map = newMap(storage)) {
+      Random random = new Random(0);
+      long[] keys = new long[100_000];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = random.nextLong();
+        map.put(keys[i], i);
+      }
+      assertEquals(keys.length, map.size());
+      for (int i = 0; i < keys.length; i++) {
+        assertEquals(i, map.get(keys[i]));
+      }
+      assertEquals(LongLongMap.MISSING_VALUE, map.get(random.nextLong()));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Storage.class)
+  void testCleansUpTemporaryFiles(Storage storage) throws Exception {
+    try (var map = newMap(storage)) {
+      for (int i = 1; i < 1_000; i++) {
+        map.put(i, i);
+      }
+      assertEquals(storage == Storage.MMAP, map.diskUsageBytes() > 0);
+    }
+    try (var files = Files.list(tempDir)) {
+      assertEquals(0, files.count());
+    }
+  }
+}
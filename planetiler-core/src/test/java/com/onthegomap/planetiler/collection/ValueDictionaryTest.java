@@ -0,0 +1,75 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ValueDictionaryTest {
+
+  @Test
+  void testAddsValuesOnFirstSighting() {
+    var dict = new ValueDictionary(10);
+    assertEquals(0, dict.encode("a"));
+    assertEquals(0, dict.encode("a"));
+    assertEquals(1, dict.encode("b"));
+    assertEquals(1, dict.encode("b"));
+    assertEquals("a", dict.decode(0));
+    assertEquals("b", dict.decode(1));
+    assertEquals(2, dict.size());
+  }
+
+  @Test
+  void testSkipsLongValues() {
+    var dict = new ValueDictionary(10);
+    String value = "a".repeat(ValueDictionary.MAX_VALUE_LENGTH + 1);
+    assertEquals(-1, dict.encode(value));
+    assertEquals(-1, dict.encode(value));
+    assertEquals(0, dict.size());
+  }
+
+  @Test
+  void testFallsBackToInlineWhenFull() {
+    var dict = new ValueDictionary(1);
+    assertEquals(0, dict.encode("a"));
+    assertEquals(-1, dict.encode("b"));
+    assertEquals(-1, dict.encode("b"));
+    assertEquals(0, dict.encode("a"));
+    assertEquals(1, dict.size());
+  }
+
+  @Test
+  void testSameResultForValueAcrossThreads() throws InterruptedException {
+    var dict = new ValueDictionary(1_000);
+    int numThreads = 4;
+    int[][] results = new int[numThreads][2_000];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      int[] result = results[t];
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < result.length; i++) {
+          result[i] = dict.encode(Integer.toString(i));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int t = 1; t < numThreads; t++) {
+      assertArrayEquals(results[0], results[t]);
+    }
+    for (int i = 0; i < results[0].length; i++) {
+      assertEquals(results[0][i], dict.encode(Integer.toString(i)));
+    }
+    assertEquals(1_000, dict.size());
+  }
+
+  @Test
+  void testDisabled() {
+    var dict = new ValueDictionary(0);
+    assertEquals(-1, dict.encode("a"));
+    assertEquals(-1, dict.encode("a"));
+    assertEquals(0, dict.size());
+  }
+}
@@ -375,4 +375,19 @@ class ArgumentsTest {
     assertEquals(0, args.getInteger("false", "", 1));
     assertEquals(3, args.getInteger("3", "", 1));
   }
+
+  @Test
+  void testExecutionOnlyKeys() {
+    var args = Arguments.of(Map.of(
+      "threads", "2",
+      "temp-dir", "tmp",
+      "maxzoom", "10"
+    )).withExactlyOnceLogging();
+    assertEquals(2, args.executionOnly().getInteger("threads", "", 1));
+    assertEquals(Path.of("tmp"), args.file("temp_dir|tmp", "", null));
+    assertEquals(10, args.getInteger("maxzoom", "", 14));
+    assertEquals(Set.of("threads", "temp_dir", "tmp"), args.executionOnlyKeys());
+    // shared with arguments derived from this one
+    assertEquals(Set.of("threads", "temp_dir", "tmp"), args.copy().executionOnlyKeys());
+  }
 }
@@ -61,6 +61,51 @@ class WriteableFilesArchiveTest {
     }
   }
 
+  @ParameterizedTest
+  @CsvSource({"hardlink", "symlink"})
+  void testDedup(String mode, @TempDir Path tempDir) throws IOException {
+    final Path tilesDir = tempDir.resolve("tiles");
+    try (var archive = WriteableFilesArchive.newWriter(tilesDir, Arguments.of(Map.of("dedup", mode)), false)) {
+      assertTrue(archive.deduplicates());
+      archive.initialize();
+      try (var tileWriter = archive.newTileWriter()) {
+        tileWriter.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 0), new byte[]{0}, OptionalLong.empty()));
+        tileWriter.write(new TileEncodingResult(TileCoord.ofXYZ(1, 2, 3), new byte[]{1}, OptionalLong.of(1)));
+        tileWriter.write(new TileEncodingResult(TileCoord.ofXYZ(1, 3, 3), new byte[]{1}, OptionalLong.of(1)));
+        tileWriter.write(new TileEncodingResult(TileCoord.ofXYZ(1, 3, 4), new byte[]{2}, OptionalLong.of(2)));
+      }
+      try (var tileWriter = archive.newTileWriter()) {
+        tileWriter.write(new TileEncodingResult(TileCoord.ofXYZ(2, 3, 4), new byte[]{1}, OptionalLong.of(1)));
+      }
+      archive.finish(TestUtils.MAX_METADATA_DESERIALIZED);
+      assertEquals(3, archive.bytesWritten() - Files.size(tilesDir.resolve("metadata.json")));
+    }
+
+    Path tile = tilesDir.resolve(Paths.get("3", "1", "2.pbf"));
+    for (var path : List.of(Paths.get("3", "1", "3.pbf"), Paths.get("4", "2", "3.pbf"))) {
+      Path other = tilesDir.resolve(path);
+      assertArrayEquals(new byte[]{1}, Files.readAllBytes(other));
+      assertTrue(Files.isSameFile(tile, other));
+    }
+    assertArrayEquals(new byte[]{0}, Files.readAllBytes(tilesDir.resolve(Paths.get("0", "0", "0.pbf"))));
+    assertArrayEquals(new byte[]{2}, Files.readAllBytes(tilesDir.resolve(Paths.get("4", "1", "3.pbf"))));
+    assertFalse(Files.isSymbolicLink(tilesDir.resolve(Paths.get("0", "0", "0.pbf"))));
+    if (mode.equals("hardlink")) {
+      assertFalse(Files.isSymbolicLink(tile));
+      assertFalse(Files.exists(tilesDir.resolve(WriteableFilesArchive.DEDUP_STAGING_DIR)));
+    } else {
+      assertTrue(Files.isSymbolicLink(tile));
+      assertFalse(Files.readSymbolicLink(tile).isAbsolute());
+    }
+  }
+
+  @Test
+  void testInvalidDedupMode(@TempDir Path tempDir) {
+    final Path tilesDir = tempDir.resolve("tiles");
+    final Arguments options = Arguments.of(Map.of("dedup", "copy"));
+    assertThrows(IllegalArgumentException.class, () -> WriteableFilesArchive.newWriter(tilesDir, options, false));
+  }
+
   @ParameterizedTest
   @CsvSource(textBlock = """
     {z}/{x}/{y}.pbf,    3/1/2.pbf
@@ -4,12 +4,14 @@ import static com.onthegomap.planetiler.TestUtils.assertSameJson;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.common.math.IntMath;
+import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.util.LayerAttrStats;
 import java.io.IOException;
@@ -116,6 +118,43 @@ class MbtilesTest {
     testWriteTiles(tmpDir.resolve("archive.mbtiles"), 10, false, false, true);
   }
 
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void testWriteFromMultipleShards(boolean compactDb, @TempDir Path tmpDir) throws IOException, SQLException {
+    Path path = tmpDir.resolve("archive.mbtiles");
+    List<Path> shardPaths = List.of(tmpDir.resolve("archive.mbtiles1"), tmpDir.resolve("archive.mbtiles2"));
+    var options = Arguments.of("compact", Boolean.toString(compactDb));
+    Set<Tile> expected = new TreeSet<>();
+    try (Mbtiles db = Mbtiles.newWriteToFileDatabase(path, options, shardPaths)) {
+      db.initialize();
+      var writers = List.of(db.newTileWriter(), db.newTileWriter(), db.newTileWriter());
+      assertThrows(IllegalStateException.class, db::newTileWriter);
+      for (int i = 0; i < 30; i++) {
+        // same data shows up in different shards
+        byte[] data = {(byte) (i % 5)};
+        var tile = new Tile(TileCoord.ofXYZ(i, 0, 5), data);
+        writers.get(i % 3).write(new TileEncodingResult(tile.coord(), data, OptionalLong.of(i % 5)));
+        expected.add(tile);
+      }
+      for (var writer : writers) {
+        writer.close();
+      }
+      assertTrue(shardPaths.stream().allMatch(p -> p.toFile().exists()));
+      db.finish(new TileArchiveMetadata(new Profile.NullProfile(), PlanetilerConfig.defaults()));
+    }
+    assertFalse(shardPaths.stream().anyMatch(p -> p.toFile().exists()));
+    try (Mbtiles db = Mbtiles.newReadOnlyDatabase(path)) {
+      assertEquals(expected, TestUtils.getTiles(db));
+      assertEquals(compactDb, TestUtils.isCompactDb(db));
+      if (compactDb) {
+        assertEquals(5, TestUtils.getTilesDataCount(db));
+      }
+      int indexes = db.connection().createStatement()
+        .executeQuery("select count(*) from sqlite_master where type='index'").getInt(1);
+      assertTrue(indexes > 0);
+    }
+  }
+
   @Test
   void testCustomPragma() throws IOException, SQLException {
     try (
@@ -9,6 +9,8 @@ import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.reader.FileFormatException;
@@ -17,6 +19,8 @@ import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,8 +30,10 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 
@@ -365,6 +371,91 @@ class PmtilesTest {
     }
   }
 
+  @Test
+  void testWritePmtilesFromMultipleWritersOutOfOrder() throws IOException {
+    var bytes = new SeekableInMemoryByteChannel(0);
+    var in = WriteablePmtiles.newWriteToMemory(bytes);
+
+    var config = PlanetilerConfig.defaults();
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), config);
+    in.initialize();
+    assertTrue(in.supportsUnorderedWrites());
+    var writer1 = in.newTileWriter();
+    var writer2 = in.newTileWriter();
+    // a run of identical tiles split across writers: z0, z1 from writer 2 then z1 from writer 1
+    writer2.write(new TileEncodingResult(TileCoord.hilbertDecode(3), new byte[]{0x3}, OptionalLong.empty()));
+    writer1.write(new TileEncodingResult(TileCoord.hilbertDecode(1), new byte[]{0xa, 0x2}, OptionalLong.of(42)));
+    writer1.write(new TileEncodingResult(TileCoord.hilbertDecode(2), new byte[]{0xa, 0x2}, OptionalLong.of(42)));
+    writer2.write(new TileEncodingResult(TileCoord.hilbertDecode(0), new byte[]{0xa, 0x2}, OptionalLong.of(42)));
+    writer2.write(new TileEncodingResult(TileCoord.hilbertDecode(4), new byte[]{0x4}, OptionalLong.empty()));
+    writer1.close();
+    writer2.close();
+
+    in.finish(metadata);
+    try (var reader = new ReadablePmtiles(bytes)) {
+      var header = reader.getHeader();
+      assertEquals(5, header.numAddressedTiles());
+      assertEquals(3, header.numTileContents());
+      assertEquals(3, header.numTileEntries()); // tiles 0-2 get merged into one run
+      assertFalse(header.clustered());
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(TileCoord.hilbertDecode(0)));
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(TileCoord.hilbertDecode(1)));
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(TileCoord.hilbertDecode(2)));
+      assertArrayEquals(new byte[]{0x3}, reader.getTile(TileCoord.hilbertDecode(3)));
+      assertArrayEquals(new byte[]{0x4}, reader.getTile(TileCoord.hilbertDecode(4)));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Storage.class)
+  void testSortEntryLogAndMergeRuns(Storage storage, @TempDir Path tempDir) {
+    try (var log = new EntryLog(storage, tempDir, 2)) {
+      log.add(new Pmtiles.Entry(5, 1, 1, 1));
+      log.add(new Pmtiles.Entry(2, 0, 1, 1));
+      log.add(new Pmtiles.Entry(0, 0, 1, 2));
+      log.add(new Pmtiles.Entry(4, 0, 1, 1));
+      log.add(new Pmtiles.Entry(3, 2, 1, 1));
+      log.sort(true);
+      List<Pmtiles.Entry> result = new ArrayList<>();
+      log.forEach(result::add);
+      assertEquals(List.of(
+        new Pmtiles.Entry(0, 0, 1, 3),
+        new Pmtiles.Entry(3, 2, 1, 1),
+        new Pmtiles.Entry(4, 0, 1, 1),
+        new Pmtiles.Entry(5, 1, 1, 1)
+      ), result);
+      assertEquals(4, log.size());
+    }
+  }
+
+  @Test
+  void testWritePmtilesSpillsToDisk(@TempDir Path tempDir) throws IOException {
+    var output = tempDir.resolve("output.pmtiles");
+    var config = PlanetilerConfig.from(Arguments.of(Map.of("tmpdir", tempDir.resolve("tmp").toString())));
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), config);
+    try (var in = WriteablePmtiles.newWriteToFile(output, Arguments.of(Map.of("storage", "mmap")), config)) {
+      in.initialize();
+      try (var writer = in.newTileWriter()) {
+        for (int i = 0; i < 20_000; i++) {
+          writer.write(new TileEncodingResult(TileCoord.hilbertDecode(i), new byte[]{(byte) (i % 3)},
+            OptionalLong.of(i % 3)));
+        }
+      }
+      assertTrue(Files.exists(tempDir.resolve("tmp").resolve("pmtiles")));
+      in.finish(metadata);
+    }
+    assertFalse(Files.exists(tempDir.resolve("tmp").resolve("pmtiles")));
+    try (var reader = new ReadablePmtiles(FileChannel.open(output))) {
+      var header = reader.getHeader();
+      assertEquals(20_000, header.numAddressedTiles());
+      assertEquals(3, header.numTileContents());
+      assertEquals(20_000, header.numTileEntries());
+      for (int i = 0; i < 20_000; i++) {
+        assertArrayEquals(new byte[]{(byte) (i % 3)}, reader.getTile(TileCoord.hilbertDecode(i)));
+      }
+    }
+  }
+
   @Test
   void testWritePmtilesLeafDirectories() throws IOException {
     var bytes = new SeekableInMemoryByteChannel(0);
@@ -413,4 +504,37 @@ class PmtilesTest {
       }
     }
   }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testReadPmtilesWithLeafDirectoryCache(boolean mmap, @TempDir Path tempDir) throws IOException {
+    var output = tempDir.resolve("output.pmtiles");
+    var config = PlanetilerConfig.defaults();
+    int entries = 20000;
+    try (var in = WriteablePmtiles.newWriteToFile(output)) {
+      in.initialize();
+      try (var writer = in.newTileWriter()) {
+        for (int i = 0; i < entries; i++) {
+          writer.write(new TileEncodingResult(TileCoord.hilbertDecode(i), ByteBuffer.allocate(4).putInt(i).array(),
+            OptionalLong.empty()));
+        }
+      }
+      in.finish(new TileArchiveMetadata(new Profile.NullProfile(), config));
+    }
+
+    // only enough room to cache one leaf at a time
+    try (var reader = new ReadablePmtiles(FileChannel.open(output), mmap, 1)) {
+      assertTrue(reader.getHeader().leafDirectoriesLength() > 0);
+      for (int i = 0; i < entries; i++) {
+        assertArrayEquals(ByteBuffer.allocate(4).putInt(i).array(), reader.getTile(TileCoord.hilbertDecode(i)));
+      }
+      long misses = reader.leafCacheMisses();
+      assertTrue(misses > 1 && misses < 10, "misses=" + misses);
+      assertEquals(entries - misses, reader.leafCacheHits());
+      // go back to the first leaf
+      assertArrayEquals(ByteBuffer.allocate(4).putInt(0).array(), reader.getTile(TileCoord.hilbertDecode(0)));
+      assertEquals(misses + 1, reader.leafCacheMisses());
+      assertNull(reader.getTile(TileCoord.hilbertDecode(entries)));
+    }
+  }
 }
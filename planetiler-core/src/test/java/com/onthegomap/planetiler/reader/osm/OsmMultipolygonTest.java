@@ -35,6 +35,7 @@ import org.junit.jupiter.api.TestFactory;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateXY;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
 
 /**
  * This class is ported to Java from https://github.com/omniscale/imposm3/blob/master/geom/multipolygon_test.go
@@ -246,6 +247,25 @@ class OsmMultipolygonTest {
     return rectangleNodes(min, min, max, max);
   }
 
+  @Test
+  void testManyHolesWithIslands() throws GeometryException {
+    // enough rings to use a spatial index for finding the ring that contains each one
+    List<List<Node>> ways = new ArrayList<>();
+    List<List<Coordinate>> holes = new ArrayList<>();
+    List<Polygon> polygons = new ArrayList<>();
+    ways.add(rectangleNodes(0, 100));
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 10; y++) {
+        ways.add(rectangleNodes(x * 10 + 4, y * 10 + 4, x * 10 + 6, y * 10 + 6));
+        ways.add(rectangleNodes(x * 10 + 2, y * 10 + 2, x * 10 + 8, y * 10 + 8));
+        holes.add(rectangleCoordList(x * 10 + 2, y * 10 + 2, x * 10 + 8, y * 10 + 8));
+        polygons.add(rectangle(x * 10 + 4, y * 10 + 4, x * 10 + 6, y * 10 + 6));
+      }
+    }
+    polygons.addFirst(newPolygon(rectangleCoordList(0, 100), holes));
+    testBuildMultipolygon(ways, newMultiPolygon(polygons.toArray(Polygon[]::new)));
+  }
+
   @Test
   void testMultiPolygonWithNestedHoles() throws GeometryException {
     testBuildMultipolygon(
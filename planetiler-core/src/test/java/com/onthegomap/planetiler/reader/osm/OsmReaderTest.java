@@ -7,6 +7,8 @@ import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
@@ -334,6 +336,57 @@ class OsmReaderTest {
     assertThrows(GeometryException.class, feature::length);
   }
 
+  @Test
+  void testSkipNodesAndWaysOutsideBounds() throws GeometryException {
+    OsmReader reader = newOsmReader();
+    reader.setBounds(PlanetilerConfig.from(Arguments.of("bounds", "0,0,10,10")));
+    var nodeCache = reader.newNodeLocationProvider();
+    var inside = new OsmElement.Node(1, 5, 5);
+    var outside1 = new OsmElement.Node(2, -5, -5);
+    var outside2 = new OsmElement.Node(3, -6, -6);
+    var crossing = new OsmElement.Way(4);
+    crossing.nodes().add(inside.id(), outside1.id());
+    var outsideWay = new OsmElement.Way(5);
+    outsideWay.nodes().add(outside1.id(), outside2.id());
+    processPass1Block(reader, List.of(inside, outside1, outside2, crossing, outsideWay));
+
+    assertNotNull(reader.processNodePass2(inside));
+    assertNull(reader.processNodePass2(outside1));
+    SourceFeature crossingFeature = reader.processWayPass2(crossing, nodeCache);
+    assertNotNull(crossingFeature);
+    assertEquals(2, crossingFeature.line().getNumPoints());
+    assertNull(reader.processWayPass2(outsideWay, nodeCache));
+  }
+
+  @Test
+  void testSkipStoringNodesOutsideBufferedBounds() {
+    OsmReader reader = newOsmReader();
+    reader.setBounds(PlanetilerConfig.from(Arguments.of(
+      "bounds", "0,0,10,10",
+      "osm_skip_nodes_outside_bounds", "true",
+      "osm_node_bounds_buffer", "1"
+    )));
+    processPass1Block(reader, List.of(
+      new OsmElement.Node(1, 5, 5),
+      new OsmElement.Node(2, -0.5, -0.5),
+      new OsmElement.Node(3, -5, -5)
+    ));
+    var nodeCache = reader.newNodeLocationProvider();
+    assertNotNull(nodeCache.getCoordinate(1));
+    assertNotNull(nodeCache.getCoordinate(2));
+    assertThrows(IllegalArgumentException.class, () -> nodeCache.getCoordinate(3));
+  }
+
+  @Test
+  void testDontSkipNodesWithoutBounds() {
+    OsmReader reader = newOsmReader();
+    reader.setBounds(PlanetilerConfig.from(Arguments.of("osm_skip_nodes_outside_bounds", "true")));
+    var node = new OsmElement.Node(1, -50, -50);
+    processPass1Block(reader, List.of(node));
+    assertNotNull(reader.newNodeLocationProvider().getCoordinate(1));
+    assertNotNull(reader.processNodePass2(node));
+  }
+
   private final Function<OsmElement, Stream<OsmElement.Node>> nodes =
     elem -> elem instanceof OsmElement.Node node ? Stream.of(node) : Stream.empty();
 
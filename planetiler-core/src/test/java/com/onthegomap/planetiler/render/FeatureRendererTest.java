@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
 import com.onthegomap.planetiler.FeatureCollector;
@@ -33,6 +34,7 @@ import java.util.stream.DoubleStream;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -57,8 +59,10 @@ class FeatureRendererTest {
 
   private Map<TileCoord, Collection<Geometry>> renderGeometry(FeatureCollector.Feature feature) {
     Map<TileCoord, Collection<Geometry>> result = new TreeMap<>();
-    new FeatureRenderer(config, rendered -> result.computeIfAbsent(rendered.tile(), tile -> new HashSet<>())
-      .add(decodeSilently(rendered.vectorTileFeature().geometry())), Stats.inMemory()).accept(feature);
+    try (var renderer = new FeatureRenderer(config, rendered -> result.computeIfAbsent(rendered.tile(),
+      tile -> new HashSet<>()).add(decodeSilently(rendered.vectorTileFeature().geometry())), Stats.inMemory())) {
+      renderer.accept(feature);
+    }
     result.values().forEach(gs -> gs.forEach(TestUtils::validateGeometry));
     return result;
   }
@@ -859,6 +863,113 @@ class FeatureRendererTest {
     assertEquals(num.get(), Math.pow(4, maxZoom));
   }
 
+  @Test
+  void testWorldFillSpans() {
+    int maxZoom = 8;
+    var feature = polygonFeature(rectangle(Z14_WIDTH / 2, 1 - Z14_WIDTH / 2))
+      .setMinPixelSize(1)
+      .setZoomRange(maxZoom, maxZoom)
+      .setBufferPixels(0);
+    AtomicLong features = new AtomicLong(0);
+    Set<TileCoord> tiles = new HashSet<>();
+    new FeatureRenderer(config, rendered -> {
+      features.incrementAndGet();
+      for (int i = 0; i < rendered.spanLength(); i++) {
+        tiles.add(TileCoord.ofXYZ(rendered.tile().x(), rendered.tile().y() + i, rendered.tile().z()));
+      }
+    }, Stats.inMemory(), null, true).accept(feature);
+    assertEquals(Math.pow(4, maxZoom), tiles.size());
+    // edge tiles get their own feature, and filled tiles get one span per run in a column
+    assertTrue(features.get() < tiles.size() / 10, features.get() + " features");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "render_split_min_vertices, 1",
+    "render_split_min_tiles, 1",
+  })
+  void testSplitLargeFeatureAcrossThreadsMatchesSingleThreaded(String arg, String value) {
+    var geom = newPolygon(
+      rectangleCoordList(0.5 + Z14_PX, 0.5 + Z14_WIDTH * 3),
+      List.of(rectangleCoordList(0.5 + Z14_PX * 10, 0.5 + Z14_WIDTH))
+    );
+    config = PlanetilerConfig.from(Arguments.of("render_split_min_vertices", "0", "render_split_min_tiles", "0"));
+    var expected = renderGeometry(polygonFeature(geom).setMinPixelSize(1).setZoomRange(0, 14).setBufferPixels(1));
+    config = PlanetilerConfig.from(Arguments.of("render_split_min_vertices", "0", "render_split_min_tiles", "0",
+      arg, value));
+    var actual = renderGeometry(polygonFeature(geom).setMinPixelSize(1).setZoomRange(0, 14).setBufferPixels(1));
+    assertEquals(expected.keySet(), actual.keySet());
+    assertSameNormalizedFeatures(expected, actual);
+  }
+
+  @Test
+  void testSplitWorldFillAcrossThreads() {
+    config = PlanetilerConfig.from(Arguments.of("render_split_min_tiles", "1"));
+    var feature = polygonFeature(rectangle(Z14_WIDTH / 2, 1 - Z14_WIDTH / 2))
+      .setMinPixelSize(1)
+      .setZoomRange(0, 8)
+      .setBufferPixels(0);
+    AtomicLong num = new AtomicLong(0);
+    try (var renderer = new FeatureRenderer(config, rendered1 -> num.incrementAndGet(), Stats.inMemory())) {
+      renderer.accept(feature);
+    }
+    assertEquals((Math.pow(4, 9) - 1) / 3, num.get());
+  }
+
+  @Test
+  @Timeout(30)
+  void testConsumerFailureStopsSplitRendering() {
+    config = PlanetilerConfig.from(Arguments.of("render_split_min_tiles", "1", "threads", "2"));
+    var feature = polygonFeature(rectangle(Z14_WIDTH / 2, 1 - Z14_WIDTH / 2))
+      .setMinPixelSize(1)
+      .setZoomRange(0, 10)
+      .setBufferPixels(0);
+    AtomicLong num = new AtomicLong(0);
+    try (var renderer = new FeatureRenderer(config, rendered -> {
+      if (num.incrementAndGet() > 10) {
+        throw new IllegalStateException("consumer failed");
+      }
+    }, Stats.inMemory())) {
+      var error = assertThrows(IllegalStateException.class, () -> renderer.accept(feature));
+      assertEquals("consumer failed", error.getMessage());
+    }
+  }
+
+  @Test
+  void testEstimateTilesAtZoom() {
+    assertEquals(1, FeatureRenderer.estimateTilesAtZoom(rectangle(0, 0), -1, 0), 1e-6);
+    assertEquals(4, FeatureRenderer.estimateTilesAtZoom(rectangle(0, 1d / 2), -1, 1), 1e-6);
+    assertEquals(5, FeatureRenderer.estimateTilesAtZoom(newLineString(0, 0, 1, 0), 1, 1), 1e-6);
+  }
+
+  @Test
+  void testReuseRenderedGeometryForSameSourceFeature() {
+    var collector = collector(newLineString(0.5 + Z14_PX, 0.5 + Z14_PX, 0.5 + Z14_WIDTH * 2, 0.5 + Z14_PX * 10));
+    var first = collector.line("first").setZoomRange(12, 14).setAttr("a", 1);
+    var second = collector.line("second").setZoomRange(12, 14).setAttr("b", 2).setNumPointsAttr("points");
+    var differentBuffer = collector.line("third").setZoomRange(12, 14).setBufferPixels(8);
+    Map<String, Map<TileCoord, Collection<Geometry>>> result = new TreeMap<>();
+    Map<String, List<Map<String, Object>>> attrs = new TreeMap<>();
+    var renderer = new FeatureRenderer(config, rendered -> {
+      var feature = rendered.vectorTileFeature();
+      result.computeIfAbsent(feature.layer(), layer -> new TreeMap<>())
+        .computeIfAbsent(rendered.tile(), tile -> new HashSet<>())
+        .add(decodeSilently(feature.geometry()));
+      attrs.computeIfAbsent(feature.layer(), layer -> new ArrayList<>()).add(feature.tags());
+    }, Stats.inMemory());
+    for (var feature : collector) {
+      renderer.accept(feature);
+    }
+    assertEquals(3, renderer.renderCacheHits());
+    assertSameNormalizedFeatures(result.get("first"), result.get("second"));
+    assertEquals(Set.of(Map.of("a", 1)), Set.copyOf(attrs.get("first")));
+    assertEquals(Set.of(Map.of("b", 2, "points", 2)), Set.copyOf(attrs.get("second")));
+
+    var otherSource = collector(newLineString(0.5 + Z14_PX, 0.5 + Z14_PX, 0.5 + Z14_WIDTH * 2, 0.5 + Z14_PX * 10));
+    renderer.accept(otherSource.line("first").setZoomRange(12, 14));
+    assertEquals(3, renderer.renderCacheHits());
+  }
+
   @Test
   void testComplexPolygon() {
     var feature = polygonFeature(
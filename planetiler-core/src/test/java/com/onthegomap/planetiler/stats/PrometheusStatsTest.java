@@ -3,9 +3,13 @@ package com.onthegomap.planetiler.stats;
 import static io.prometheus.client.Collector.NANOSECONDS_PER_SECOND;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.util.TileTimingStats;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -95,6 +99,25 @@ class PrometheusStatsTest {
     assertContainsStat("^planetiler_archive_tile_written_bytes_bucket\\{.*le=\"10000\\..* 2", stats);
   }
 
+  @Test
+  void testEncodedTile() {
+    PrometheusStats stats = new PrometheusStats("job");
+    var timings = new TileTimingStats.Timings(TileCoord.ofXYZ(0, 0, 1));
+    timings.addLayerPostProcess("layer1", 2_000_000_000L);
+    timings.addEncode(50_000);
+    stats.encodedTile(timings);
+    stats.encodedTile(timings);
+    assertContainsStat(
+      "^planetiler_archive_tile_encode_seconds_bucket\\{.*stage=\"encode\".*le=\"1\\.0E-4\".* 2",
+      stats);
+    assertContainsStat(
+      "^planetiler_archive_tile_encode_seconds_bucket\\{.*stage=\"postprocess\".*le=\"1\\.0\".* 0",
+      stats);
+    assertContainsStat(
+      "^planetiler_archive_layer_postprocess_seconds_bucket\\{.*layer1.*le=\"10\\.0\".* 2",
+      stats);
+  }
+
   @Test
   void testMonitorFile(@TempDir Path path) throws IOException {
     PrometheusStats stats = new PrometheusStats("job");
@@ -147,6 +170,19 @@ class PrometheusStatsTest {
     assertContainsStat("^planetiler_nanos_total 0.5", stats);
   }
 
+  @Test
+  void testCountersWithSameNameAreShared() {
+    PrometheusStats stats = new PrometheusStats("job");
+    stats.longCounter("long").incBy(1);
+    stats.longCounter("long").incBy(2);
+    stats.nanoCounter("nanos").incBy((long) NANOSECONDS_PER_SECOND);
+    stats.nanoCounter("nanos").incBy((long) NANOSECONDS_PER_SECOND);
+    assertSame(stats.longCounter("long"), stats.longCounter("long"));
+    assertNotSame(stats.longCounter("long"), stats.nanoCounter("long"));
+    assertContainsStat("^planetiler_long_total 3", stats);
+    assertContainsStat("^planetiler_nanos_total 2", stats);
+  }
+
   private static Stream<DynamicTest> testContains(String stats, String... regexes) {
     return Stream.of(regexes).map(re -> dynamicTest(re, () -> assertContainsStat(re, stats)));
   }
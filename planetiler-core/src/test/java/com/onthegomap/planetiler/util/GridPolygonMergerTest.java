@@ -0,0 +1,114 @@
+package com.onthegomap.planetiler.util;
+
+import static com.onthegomap.planetiler.TestUtils.newMultiPolygon;
+import static com.onthegomap.planetiler.TestUtils.newPolygon;
+import static com.onthegomap.planetiler.TestUtils.rectangle;
+import static com.onthegomap.planetiler.TestUtils.rectangleCoordList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+
+class GridPolygonMergerTest {
+
+  private static Geometry merge(double cellSize, double buffer, Geometry... polygons) {
+    var merger = new GridPolygonMerger().setCellSize(cellSize).setBuffer(buffer);
+    for (var polygon : polygons) {
+      merger.add(polygon);
+    }
+    Geometry result = merger.getMergedGeometry();
+    assertTrue(result.isValid(), "invalid: " + result);
+    return result;
+  }
+
+  @Test
+  void testEmpty() {
+    assertTrue(merge(0.5, 1).isEmpty());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "0.5, 0",
+    "0.25, 0",
+    "0.5, 2",
+  })
+  void testSingleRectangle(double cellSize, double buffer) {
+    var result = merge(cellSize, buffer, rectangle(10, 20));
+    assertEquals(1, result.getNumGeometries());
+    // each corner gets cut by the diagonal through the midpoints of the cell edges
+    assertEquals(100 - cellSize * cellSize / 2, result.getArea(), 1e-9);
+    assertTrue(result.getEnvelopeInternal().getWidth() <= 10);
+    assertTrue(rectangle(10 - cellSize, 20 + cellSize).contains(result));
+  }
+
+  @Test
+  void testMergeOverlapping() {
+    var result = merge(0.5, 0, rectangle(10, 20), rectangle(15, 25));
+    assertEquals(1, result.getNumGeometries());
+    assertEquals(175, result.getArea(), 1);
+  }
+
+  @Test
+  void testMergeNearbyWithinBuffer() {
+    assertEquals(1, merge(0.25, 1, rectangle(10, 10, 20, 20), rectangle(21, 10, 30, 20)).getNumGeometries());
+    assertEquals(2, merge(0.25, 0.25, rectangle(10, 10, 20, 20), rectangle(21, 10, 30, 20)).getNumGeometries());
+  }
+
+  @Test
+  void testBufferDoesNotGrowResult() {
+    var result = merge(0.25, 2, rectangle(10, 10, 20, 20), rectangle(21, 10, 30, 20));
+    assertEquals(1, result.getNumGeometries());
+    assertTrue(rectangle(9.5, 9.5, 30.5, 20.5).contains(result));
+    assertEquals(200, result.getArea(), 1);
+  }
+
+  @Test
+  void testKeepsHoles() {
+    var result = merge(0.5, 0, newPolygon(
+      rectangleCoordList(0, 30),
+      List.of(rectangleCoordList(10, 20))
+    ));
+    assertEquals(1, result.getNumGeometries());
+    assertEquals(1, ((Polygon) result.getGeometryN(0)).getNumInteriorRing());
+    assertEquals(800, result.getArea(), 1);
+  }
+
+  @Test
+  void testHolesFromMergedPolygons() {
+    var result = merge(0.5, 0,
+      rectangle(0, 0, 30, 10),
+      rectangle(0, 20, 30, 30),
+      rectangle(0, 0, 10, 30),
+      rectangle(20, 0, 30, 30)
+    );
+    assertEquals(1, result.getNumGeometries());
+    assertEquals(1, ((Polygon) result.getGeometryN(0)).getNumInteriorRing());
+  }
+
+  @Test
+  void testPolygonsInsideHoleStaySeparate() {
+    var result = merge(0.5, 0,
+      newPolygon(rectangleCoordList(0, 30), List.of(rectangleCoordList(10, 20))),
+      rectangle(13, 17)
+    );
+    assertEquals(2, result.getNumGeometries());
+    assertEquals(800 + 16, result.getArea(), 1);
+  }
+
+  @Test
+  void testJoinsDiagonalNeighbors() {
+    var result = merge(1, 0, rectangle(0, 0, 5, 5), rectangle(5, 5, 10, 10));
+    assertEquals(1, result.getNumGeometries());
+  }
+
+  @Test
+  void testMultipolygonInput() {
+    var result = merge(0.5, 0, newMultiPolygon(rectangle(0, 10), rectangle(20, 30)));
+    assertEquals(2, result.getNumGeometries());
+  }
+}
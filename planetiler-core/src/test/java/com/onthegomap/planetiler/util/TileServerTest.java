@@ -0,0 +1,130 @@
+package com.onthegomap.planetiler.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.archive.TileArchiveMetadata;
+import com.onthegomap.planetiler.archive.TileEncodingResult;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.pmtiles.ReadablePmtiles;
+import com.onthegomap.planetiler.pmtiles.WriteablePmtiles;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileServerTest {
+
+  private static final int MAX_CACHED_TILE_BYTES = 1_000;
+  private final HttpClient client = HttpClient.newHttpClient();
+  private final byte[] smallTile = {0xa, 0x2};
+  private final byte[] largeTile = new byte[10_000];
+  private byte[] smallTileGzipped;
+  private byte[] largeTileGzipped;
+  private TileServer server;
+
+  @BeforeEach
+  void setup(@TempDir Path tmpDir) throws IOException {
+    new Random(0).nextBytes(largeTile);
+    smallTileGzipped = Gzip.gzip(smallTile);
+    largeTileGzipped = Gzip.gzip(largeTile);
+    Path path = tmpDir.resolve("output.pmtiles");
+    var config = PlanetilerConfig.defaults();
+    try (var archive = WriteablePmtiles.newWriteToFile(path)) {
+      archive.initialize();
+      try (var writer = archive.newTileWriter()) {
+        writer.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 1), smallTileGzipped, OptionalLong.empty()));
+        writer.write(new TileEncodingResult(TileCoord.ofXYZ(1, 0, 1), largeTileGzipped, OptionalLong.empty()));
+      }
+      archive.finish(new TileArchiveMetadata(new Profile.NullProfile(), config));
+    }
+    server = new TileServer(ReadablePmtiles.newReadFromFile(path), new InetSocketAddress("localhost", 0), 2,
+      1_000_000, MAX_CACHED_TILE_BYTES);
+  }
+
+  @AfterEach
+  void teardown() throws IOException {
+    server.close();
+  }
+
+  private HttpResponse<byte[]> get(String path, boolean gzip) throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path));
+    if (gzip) {
+      request.header("Accept-Encoding", "gzip, deflate");
+    }
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  @Test
+  void testServesPrecompressedTileAndCachesIt() throws IOException, InterruptedException {
+    var response = get("/1/0/0.pbf", true);
+    assertEquals(200, response.statusCode());
+    assertEquals(Optional.of("gzip"), response.headers().firstValue("Content-Encoding"));
+    assertEquals(Optional.of("application/vnd.mapbox-vector-tile"), response.headers().firstValue("Content-Type"));
+    assertArrayEquals(smallTileGzipped, response.body());
+    assertEquals(0, server.cacheHits());
+
+    response = get("/1/0/0.mvt", true);
+    assertArrayEquals(smallTileGzipped, response.body());
+    assertEquals(1, server.cacheHits());
+  }
+
+  @Test
+  void testDecompressesWhenClientDoesNotAcceptGzip() throws IOException, InterruptedException {
+    var response = get("/1/0/0.pbf", false);
+    assertEquals(200, response.statusCode());
+    assertEquals(Optional.empty(), response.headers().firstValue("Content-Encoding"));
+    assertArrayEquals(smallTile, response.body());
+
+    response = get("/1/1/0.pbf", false);
+    assertArrayEquals(largeTile, response.body());
+    assertEquals(0, server.transfers());
+  }
+
+  @Test
+  void testTransfersLargeTilesFromFile() throws IOException, InterruptedException {
+    for (int i = 0; i < 2; i++) {
+      var response = get("/1/1/0.pbf", true);
+      assertEquals(200, response.statusCode());
+      assertEquals(Optional.of("gzip"), response.headers().firstValue("Content-Encoding"));
+      assertArrayEquals(largeTileGzipped, response.body());
+    }
+    assertEquals(2, server.transfers());
+    assertEquals(0, server.cacheHits());
+  }
+
+  @Test
+  void testMissingTiles() throws IOException, InterruptedException {
+    assertEquals(204, get("/1/1/1.pbf", true).statusCode());
+    assertEquals(404, get("/1/2/0.pbf", true).statusCode());
+    assertEquals(404, get("/1/0/0.png", true).statusCode());
+    assertEquals(404, get("/other", true).statusCode());
+  }
+
+  @Test
+  void testTileJson() throws IOException, InterruptedException {
+    var response = get("/tiles.json", false);
+    assertEquals(200, response.statusCode());
+    var json = new ObjectMapper().readTree(response.body());
+    assertEquals("3.0.0", json.get("tilejson").asText());
+    assertEquals("http://localhost:" + server.port() + "/{z}/{x}/{y}.pbf", json.get("tiles").get(0).asText());
+    assertEquals(0, json.get("minzoom").asInt());
+    assertEquals(14, json.get("maxzoom").asInt());
+    assertEquals(4, json.get("bounds").size());
+    assertTrue(json.has("center"));
+  }
+}
@@ -0,0 +1,68 @@
+package com.onthegomap.planetiler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileTimingStatsTest {
+
+  private static TileTimingStats.Timings timings(int x, long postProcess, long encode, long compress) {
+    var result = new TileTimingStats.Timings(TileCoord.ofXYZ(x, 0, 14));
+    result.addTilePostProcess(postProcess);
+    result.addLayerPostProcess("a", postProcess);
+    result.addLayerPostProcess("b", postProcess * 2);
+    result.addEncode(encode);
+    result.addCompress(compress);
+    return result;
+  }
+
+  @Test
+  void testSlowestTilesAcrossThreads() {
+    try (var stats = new TileTimingStats(Stats.inMemory(), null)) {
+      var updater1 = stats.threadLocalUpdater();
+      var updater2 = stats.threadLocalUpdater();
+      for (int i = 0; i < 20; i++) {
+        (i % 2 == 0 ? updater1 : updater2).recordTile(timings(i, i, 1, 1));
+      }
+      var slowest = stats.slowestTiles();
+      assertEquals(10, slowest.size());
+      assertEquals(TileCoord.ofXYZ(19, 0, 14), slowest.get(0).coord());
+      assertEquals(19 * 4 + 2, slowest.get(0).totalNanos());
+      assertEquals(19 * 4, slowest.get(0).postProcessNanos());
+      assertEquals(TileCoord.ofXYZ(10, 0, 14), slowest.get(9).coord());
+      stats.printStats("");
+    }
+  }
+
+  @Test
+  void testEnabled(@TempDir Path tmpDir) {
+    try (var stats = new TileTimingStats(Stats.inMemory(), tmpDir.resolve("output.tiletimings.tsv.gz"))) {
+      assertTrue(stats.enabled());
+    }
+  }
+
+  @Test
+  void testWriteTsv(@TempDir Path tmpDir) throws IOException {
+    Path path = tmpDir.resolve("output.tiletimings.tsv.gz");
+    try (var stats = new TileTimingStats(Stats.inMemory(), path)) {
+      var updater = stats.threadLocalUpdater();
+      updater.recordTile(timings(1, 1_000, 2_000, 3_000));
+      updater.recordTile(new TileTimingStats.Timings(TileCoord.ofXYZ(0, 0, 0)));
+      updater.flush();
+    }
+    assertEquals(List.of(
+      "z\tx\ty\thilbert\ttotal_us\tpost_process_us\tencode_us\tcompress_us\tlayer\tlayer_post_process_us",
+      "14\t1\t0\t" + TileCoord.ofXYZ(1, 0, 14).hilbertEncoded() + "\t9\t4\t2\t3\ta\t1",
+      "14\t1\t0\t" + TileCoord.ofXYZ(1, 0, 14).hilbertEncoded() + "\t9\t4\t2\t3\tb\t2",
+      "0\t0\t0\t0\t0\t0\t0\t0\t\t"
+    ), List.of(new String(Gzip.gunzip(Files.readAllBytes(path))).split("\n")));
+  }
+}
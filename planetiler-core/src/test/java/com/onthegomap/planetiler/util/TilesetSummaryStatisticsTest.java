@@ -68,6 +68,22 @@ class TilesetSummaryStatisticsTest {
       """.stripTrailing(), tileStats.summary().formatTable(Number::toString, cell -> cell.numTiles()));
   }
 
+  @Test
+  void tileWithoutLayerStats() {
+    var tileStats = new TilesetSummaryStatistics();
+    var updater = tileStats.threadLocalUpdater();
+    updater.recordTile(TileCoord.ofXYZ(0, 0, 1), 10, 30);
+    updater.recordTile(TileCoord.ofXYZ(0, 1, 1), 20, List.of(
+      new TileSizeStats.LayerStats("a", 5, 2, 2, 3, 4, 5)
+    ));
+    var summary = tileStats.summary();
+    assertEquals(List.of("a"), summary.layers());
+    assertEquals(30, summary.get(1).maxSize());
+    assertEquals(2, summary.get(1).numTiles());
+    assertEquals(5, summary.get(1, "a").maxSize());
+    assertEquals(1, summary.get(1, "a").numTiles());
+  }
+
   @Test
   void topGzippedTiles() {
     var tileStats = new TilesetSummaryStatistics();
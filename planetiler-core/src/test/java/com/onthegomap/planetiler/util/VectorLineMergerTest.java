@@ -0,0 +1,167 @@
+package com.onthegomap.planetiler.util;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static com.onthegomap.planetiler.TestUtils.newMultiLineString;
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.locationtech.jts.geom.Geometry;
+
+class VectorLineMergerTest {
+
+  private static Geometry merge(VectorLineMerger merger, Geometry... lines) {
+    return merge(merger, 0, lines);
+  }
+
+  private static Geometry merge(VectorLineMerger merger, int scale, Geometry... lines) {
+    for (var line : lines) {
+      merger.add(VectorTile.encodeGeometry(line, scale));
+    }
+    var result = merger.getMergedLineStrings();
+    return result.isEmpty() ? null : GeoUtils.combineLineStrings(result);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 2, 14})
+  void testMergeTouchingLinestrings(int scale) {
+    assertEquals(
+      newLineString(10, 10, 20, 20, 30, 30),
+      merge(new VectorLineMerger(), scale, newLineString(10, 10, 20, 20), newLineString(20, 20, 30, 30))
+    );
+    assertEquals(
+      newLineString(10, 10, 20, 20, 30, 30),
+      merge(new VectorLineMerger(), scale, newLineString(20, 20, 30, 30), newLineString(10, 10, 20, 20))
+    );
+  }
+
+  @Test
+  void testMergeReversedLinestrings() {
+    assertEquals(
+      newLineString(10, 10, 20, 20, 30, 30, 40, 40),
+      merge(new VectorLineMerger(),
+        newLineString(10, 10, 20, 20),
+        newLineString(30, 30, 20, 20),
+        newLineString(30, 30, 40, 40))
+    );
+  }
+
+  @Test
+  void testKeepSeparateLinestrings() {
+    assertEquals(
+      newMultiLineString(
+        newLineString(10, 10, 20, 20),
+        newLineString(30, 30, 40, 40)
+      ),
+      merge(new VectorLineMerger(), newLineString(10, 10, 20, 20), newLineString(30, 30, 40, 40))
+    );
+  }
+
+  @Test
+  void testMergeLoop() {
+    assertEquals(
+      newLineString(10, 10, 20, 10, 20, 20, 10, 10),
+      merge(new VectorLineMerger(),
+        newLineString(10, 10, 20, 10),
+        newLineString(20, 10, 20, 20),
+        newLineString(20, 20, 10, 10))
+    );
+  }
+
+  @Test
+  void testMergeMultiLineString() {
+    assertEquals(
+      newLineString(10, 10, 20, 20, 30, 30),
+      merge(new VectorLineMerger(), newMultiLineString(
+        newLineString(10, 10, 20, 20),
+        newLineString(20, 20, 30, 30)
+      ))
+    );
+  }
+
+  @Test
+  void testDoesNotMergeAtIntersectionWithoutStrokes() {
+    assertEquals(
+      newMultiLineString(
+        newLineString(0, 10, 10, 10),
+        newLineString(10, 10, 20, 10),
+        newLineString(10, 10, 10, 20)
+      ),
+      merge(new VectorLineMerger(),
+        newLineString(0, 10, 10, 10),
+        newLineString(10, 10, 20, 10),
+        newLineString(10, 10, 10, 20))
+    );
+  }
+
+  @Test
+  void testMergeStraightestStroke() {
+    assertEquals(
+      newMultiLineString(
+        newLineString(0, 10, 10, 10, 20, 10),
+        newLineString(10, 10, 10, 20)
+      ),
+      merge(new VectorLineMerger().setMergeStrokes(true),
+        newLineString(0, 10, 10, 10),
+        newLineString(10, 10, 10, 20),
+        newLineString(10, 10, 20, 10))
+    );
+  }
+
+  @Test
+  void testMinLength() {
+    assertEquals(
+      newLineString(10, 10, 20, 10, 30, 10),
+      merge(new VectorLineMerger().setMinLength(15),
+        newLineString(10, 10, 20, 10),
+        newLineString(20, 10, 30, 10),
+        newLineString(50, 50, 60, 50))
+    );
+    assertNull(merge(new VectorLineMerger().setMinLength(100), newLineString(10, 10, 20, 10)));
+  }
+
+  @Test
+  void testSimplify() {
+    assertEquals(
+      newLineString(10, 10, 30, 10),
+      merge(new VectorLineMerger().setTolerance(1),
+        newLineString(10, 10, 20, 10.5),
+        newLineString(20, 10.5, 30, 10))
+    );
+    assertEquals(
+      newLineString(10, 10, 20, 15, 30, 10),
+      merge(new VectorLineMerger().setTolerance(1),
+        newLineString(10, 10, 20, 15),
+        newLineString(20, 15, 30, 10))
+    );
+  }
+
+  @Test
+  void testSegmentTransform() {
+    assertEquals(
+      newLineString(10, 10, 20, 10.5, 30, 10),
+      merge(new VectorLineMerger().setTolerance(1).setSegmentTransform(geom -> geom),
+        newLineString(10, 10, 20, 10.5),
+        newLineString(20, 10.5, 30, 10))
+    );
+  }
+
+  @Test
+  void testRejectsDifferentScales() {
+    var merger = new VectorLineMerger();
+    merger.add(VectorTile.encodeGeometry(newLineString(10, 10, 20, 20), 2));
+    assertFalse(merger.add(VectorTile.encodeGeometry(newLineString(20, 20, 30, 30), 1)));
+    assertFalse(merger.add(VectorTile.encodeGeometry(newPoint(20, 20), 2)));
+  }
+
+  @Test
+  void testEmpty() {
+    assertNull(merge(new VectorLineMerger()));
+  }
+}
@@ -1,11 +1,16 @@
 package com.onthegomap.planetiler.worker;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.MemoryEstimator;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
@@ -93,6 +98,45 @@ class WorkQueueTest {
     assertEquals(0, q.getPending());
   }
 
+  private record Sized(long bytes) implements MemoryEstimator.HasEstimate {
+
+    @Override
+    public long estimateMemoryUsageBytes() {
+      return bytes;
+    }
+  }
+
+  @Test
+  @Timeout(10)
+  void testByteBudget() throws InterruptedException {
+    WorkQueue<Sized> q = new WorkQueue<>("queue", 1000, 1, 10, stats);
+    assertTrue(q.isByteBudgeted());
+    q.accept(new Sized(5));
+    q.accept(new Sized(5));
+    assertEquals(10, q.getPendingBytes());
+    CountDownLatch added = new CountDownLatch(1);
+    Thread writer = new Thread(() -> {
+      q.accept(new Sized(1));
+      added.countDown();
+    });
+    writer.start();
+    assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(new Sized(5), q.get());
+    assertTrue(added.await(5, TimeUnit.SECONDS));
+    writer.join();
+    assertEquals(6, q.getPendingBytes());
+    assertEquals(new Sized(5), q.get());
+    assertEquals(new Sized(1), q.get());
+    assertEquals(0, q.getPendingBytes());
+
+    // a single item larger than the budget still gets through when the queue is empty
+    q.accept(new Sized(100));
+    q.close();
+    assertEquals(new Sized(100), q.get());
+    assertNull(q.get());
+    assertEquals(0, q.getPendingBytes());
+  }
+
   private <T> WorkQueue<T> newQueue(int maxBatch) {
     return new WorkQueue<>("queue", 1000, maxBatch, stats);
   }